@@ -0,0 +1,100 @@
+package simplecalculator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This (public) class represents the benchmarks of the evaluation of an expression over many rows.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 2 )
+@State( Scope.Thread )
+public class BatchBenchmark
+{
+    /** The kind of the expression. */
+    @Param( { "SHORT", "LONG", "VARIABLES" } )
+    public String kind;
+
+    /** The number of rows. */
+    @Param( { "1024", "1048576" } )
+    public int rowsCount;
+
+    /** The compiled expression. */
+    private CompiledExpression compiledExpression;
+
+    /** The columns of the variables (every variable read by the expressions is bound to a column). */
+    private double[][] columns;
+
+    /** The values of the variables not bound to a column. */
+    private double[] variables;
+
+    /** The results. */
+    private double[] results;
+
+    /** The batch evaluator. */
+    private BatchEvaluator batchEvaluator;
+
+    /**
+     * Prepares the benchmark.
+     */
+    @Setup
+    public void setUp()
+    {
+        compiledExpression = ExpressionCompiler.compile( BenchmarkExpressions.get( kind ) );
+
+        Random random = new Random( 42 );
+        columns = new double[ SimpleCalculator.VARIABLES_COUNT ][];
+        for (int slot = 0; slot < 16; slot++)
+        {
+            columns[ slot ] = new double[ rowsCount ];
+            for (int row = 0; row < rowsCount; row++)
+            {
+                columns[ slot ][ row ] = random.nextDouble() + 0.5;
+            }
+        }
+        variables = new double[ SimpleCalculator.VARIABLES_COUNT ];
+        results = new double[ rowsCount ];
+        batchEvaluator = new BatchEvaluator();
+    }
+
+    /**
+     * Evaluates the expression block by block (the columnar path).
+     *
+     * @return the results.
+     */
+    @Benchmark
+    public double[] evaluateColumnar()
+    {
+        batchEvaluator.evaluate( compiledExpression, columns, variables, results );
+        return results;
+    }
+
+    /**
+     * Evaluates the expression row by row (the scalar path).
+     *
+     * @return the results.
+     */
+    @Benchmark
+    public double[] evaluateScalar()
+    {
+        batchEvaluator.evaluateScalar( compiledExpression, columns, variables, results );
+        return results;
+    }
+}
@@ -0,0 +1,150 @@
+package simplecalculator;
+
+/**
+ * This (package-private) class represents the expressions measured by the benchmarks.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+final class BenchmarkExpressions
+{
+    // Package-private static fields
+
+    /** A short expression. */
+    static final String SHORT = "a + 1";
+
+    /** A long (flat) expression. */
+    static final String LONG = createLong( 64 );
+
+    /** A deeply parenthesized expression. */
+    static final String NESTED = createNested( 32 );
+
+    /** An expression reading many variables. */
+    static final String VARIABLES = "a * b + c * d - e / f + g * h - i / j + k * l - m / n + o * p";
+
+    /** An expression reading many variables with long names. */
+    static final String NAMES = "unit_price * quantity + shipping_cost * tax_rate - discount / exchange_rate"
+        + " + handling_fee * insurance_rate - rebate / conversion_factor + base_salary * bonus_ratio"
+        + " - overtime_hours / hourly_rate + commission * sales_volume";
+
+    /** An expression calling the built-in functions (and negating). */
+    static final String FUNCTIONS = "sqrt( a * a + b * b ) + max( c , - d ) * pow( e , 2 ) - log( f ) / exp( g * 0.5 )";
+
+    /** An expression of literals only. */
+    static final String LITERALS = "1.5 * 2.25 + 3.125 * 4.0625 - 5.5 / 6.75 + 7.875 * 8.5 - 9.25 / 10.125 + 11.0 * 12.5";
+
+    /** An assignment expression. */
+    static final String ASSIGNMENT = "z = a * b + c * d - e / f + g * h";
+
+    // Private instance constructors
+
+    /**
+     * Prevents the instantiation of the class.
+     */
+    private BenchmarkExpressions()
+    {
+    }
+
+    // Package-private static methods
+
+    /**
+     * Gets the expression of the given kind.
+     *
+     * @param kind the kind of the expression (SHORT, LONG, NESTED, VARIABLES, NAMES, FUNCTIONS, LITERALS or ASSIGNMENT).
+     *
+     * @return the expression.
+     *
+     * @throws java.lang.IllegalArgumentException if the kind is illegal.
+     */
+    static String get( String kind )
+        throws IllegalArgumentException
+    {
+        if (kind.equals( "SHORT" ))
+        {
+            return SHORT;
+        }
+        else if (kind.equals( "LONG" ))
+        {
+            return LONG;
+        }
+        else if (kind.equals( "NESTED" ))
+        {
+            return NESTED;
+        }
+        else if (kind.equals( "VARIABLES" ))
+        {
+            return VARIABLES;
+        }
+        else if (kind.equals( "NAMES" ))
+        {
+            return NAMES;
+        }
+        else if (kind.equals( "FUNCTIONS" ))
+        {
+            return FUNCTIONS;
+        }
+        else if (kind.equals( "LITERALS" ))
+        {
+            return LITERALS;
+        }
+        else if (kind.equals( "ASSIGNMENT" ))
+        {
+            return ASSIGNMENT;
+        }
+        throw new IllegalArgumentException( kind );
+    }
+
+    /**
+     * Initializes the variables read by the expressions (a-p) to non-zero values.
+     *
+     * @param calculator the calculator.
+     */
+    static void initialize( SimpleCalculator calculator )
+    {
+        for (char variable = 'a'; variable <= 'p'; variable++)
+        {
+            calculator.setVariable( variable, variable - 'a' + 1.5 );
+        }
+    }
+
+    // Private static methods
+
+    /**
+     * Creates a long expression.
+     *
+     * @param operandsCount the number of operands.
+     *
+     * @return the expression.
+     */
+    private static String createLong( int operandsCount )
+    {
+        StringBuilder expression = new StringBuilder( "a" );
+        for (int i = 1; i < operandsCount; i++)
+        {
+            expression.append( (i % 2 == 0) ? " + " : " * " );
+            expression.append( (i % 3 == 0) ? String.valueOf( (char) ('a' + i % 16) ) : String.valueOf( i + 0.5 ) );
+        }
+        return expression.toString();
+    }
+
+    /**
+     * Creates a deeply parenthesized expression.
+     *
+     * @param depth the depth of the parentheses.
+     *
+     * @return the expression.
+     */
+    private static String createNested( int depth )
+    {
+        StringBuilder expression = new StringBuilder();
+        for (int i = 0; i < depth; i++)
+        {
+            expression.append( "( a + " );
+        }
+        expression.append( "1" );
+        for (int i = 0; i < depth; i++)
+        {
+            expression.append( " ) * b" );
+        }
+        return expression.toString();
+    }
+}
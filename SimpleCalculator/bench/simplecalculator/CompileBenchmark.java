@@ -0,0 +1,122 @@
+package simplecalculator;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This (public) class represents the benchmarks of the compilation of an expression.
+ *
+ * The lexing alone, the lexing with the conversion into the postfix notation (into
+ * the reusable buffers of a compiler), and the whole compilation into a compiled
+ * expression are measured separately. The conversion is measured for an expression
+ * read from a reader (in chunks) as well.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 2 )
+@State( Scope.Thread )
+public class CompileBenchmark
+{
+    /** The kind of the expression. */
+    @Param( { "SHORT", "LONG", "NESTED", "VARIABLES", "NAMES", "FUNCTIONS", "LITERALS", "ASSIGNMENT" } )
+    public String kind;
+
+    /** The expression. */
+    private String expression;
+
+    /** The lexer. */
+    private Lexer lexer;
+
+    /** The compiler. */
+    private ExpressionCompiler compiler;
+
+    /** The number of the names interned before the benchmark (so the names are looked up in a large symbol table). */
+    private static final int INTERNED_NAMES_COUNT = 50000;
+
+    /**
+     * Prepares the benchmark.
+     */
+    @Setup
+    public void setUp()
+    {
+        for (int i = 0; i < INTERNED_NAMES_COUNT; i++)
+        {
+            SymbolTable.getSlot( "name_" + i );
+        }
+        expression = BenchmarkExpressions.get( kind );
+        lexer = new Lexer();
+        compiler = new ExpressionCompiler();
+    }
+
+    /**
+     * Lexes the expression.
+     *
+     * @return the number of tokens.
+     */
+    @Benchmark
+    public int lex()
+    {
+        lexer.reset( expression, 0, expression.length() );
+        int tokensCount = 0;
+        while (lexer.next() != Lexer.END)
+        {
+            tokensCount++;
+        }
+        return tokensCount;
+    }
+
+    /**
+     * Lexes the expression and converts it into the postfix notation (in the reusable buffers of the compiler).
+     *
+     * @return the maximum depth of the operand stack.
+     */
+    @Benchmark
+    public int convertInfixToPostfix()
+    {
+        compiler.compile( expression, 0, expression.length() );
+        return compiler.getMaxStackDepth();
+    }
+
+    /**
+     * Lexes the expression read from a reader and converts it into the postfix notation (in the reusable buffers of the compiler).
+     *
+     * @return the maximum depth of the operand stack.
+     *
+     * @throws java.io.IOException if the reader fails.
+     */
+    @Benchmark
+    public int convertInfixToPostfixFromReader()
+        throws IOException
+    {
+        compiler.tryCompile( new StringReader( expression ) );
+        return compiler.getMaxStackDepth();
+    }
+
+    /**
+     * Compiles the expression into a compiled expression.
+     *
+     * @return the compiled expression.
+     */
+    @Benchmark
+    public CompiledExpression compile()
+    {
+        return ExpressionCompiler.compile( expression );
+    }
+}
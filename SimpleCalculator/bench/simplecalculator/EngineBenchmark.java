@@ -0,0 +1,140 @@
+package simplecalculator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This (public) class represents the benchmarks of a calculator engine shared by many threads.
+ *
+ * Every benchmark runs once on a single thread and once on as many threads as there
+ * are processors, so that the scaling of the engine can be read off the results.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 2 )
+public class EngineBenchmark
+{
+    /**
+     * This (public) class represents the engine shared by all the threads.
+     */
+    @State( Scope.Benchmark )
+    public static class SharedEngine
+    {
+        /** The engine. */
+        CalculatorEngine engine;
+
+        /**
+         * Prepares the engine.
+         */
+        @Setup
+        public void setUp()
+        {
+            engine = new CalculatorEngine();
+            for (char variable = 'a'; variable <= 'p'; variable++)
+            {
+                engine.setSharedVariable( variable, variable - 'a' + 1.5 );
+            }
+        }
+    }
+
+    /**
+     * This (public) class represents the session of a thread.
+     */
+    @State( Scope.Thread )
+    public static class ThreadSession
+    {
+        /** The kind of the expression. */
+        @Param( { "SHORT", "VARIABLES", "LITERALS", "ASSIGNMENT" } )
+        public String kind;
+
+        /** The expression. */
+        String expression;
+
+        /** The session. */
+        CalculatorSession session;
+
+        /**
+         * Prepares the session.
+         *
+         * @param sharedEngine the engine shared by all the threads.
+         */
+        @Setup
+        public void setUp( SharedEngine sharedEngine )
+        {
+            expression = BenchmarkExpressions.get( kind );
+            session = sharedEngine.engine.newSession();
+        }
+    }
+
+    /**
+     * Evaluates the expression in the session (on a single thread).
+     *
+     * @param threadSession the session of the thread.
+     *
+     * @return the value of the expression.
+     */
+    @Benchmark
+    @Threads( 1 )
+    public double evaluateSingleThreaded( ThreadSession threadSession )
+    {
+        return threadSession.session.evaluate( threadSession.expression );
+    }
+
+    /**
+     * Evaluates the expression in the session (on all the processors at once).
+     *
+     * @param threadSession the session of the thread.
+     *
+     * @return the value of the expression.
+     */
+    @Benchmark
+    @Threads( Threads.MAX )
+    public double evaluateMultiThreaded( ThreadSession threadSession )
+    {
+        return threadSession.session.evaluate( threadSession.expression );
+    }
+
+    /**
+     * Atomically updates a shared variable (on a single thread).
+     *
+     * @param sharedEngine the engine shared by all the threads.
+     *
+     * @return the new value of the variable.
+     */
+    @Benchmark
+    @Threads( 1 )
+    public double addToSharedVariableSingleThreaded( SharedEngine sharedEngine )
+    {
+        return sharedEngine.engine.addToSharedVariable( 'z', 1.0 );
+    }
+
+    /**
+     * Atomically updates a shared variable (on all the processors at once, i.e. under contention).
+     *
+     * @param sharedEngine the engine shared by all the threads.
+     *
+     * @return the new value of the variable.
+     */
+    @Benchmark
+    @Threads( Threads.MAX )
+    public double addToSharedVariableMultiThreaded( SharedEngine sharedEngine )
+    {
+        return sharedEngine.engine.addToSharedVariable( 'z', 1.0 );
+    }
+}
@@ -0,0 +1,128 @@
+package simplecalculator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This (public) class represents the benchmarks of the evaluation of lines some of which are illegal.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 2 )
+@State( Scope.Thread )
+public class ErrorPathBenchmark
+{
+    /** The percentage of the illegal lines. */
+    @Param( { "0", "10" } )
+    public int errorRate;
+
+    /** The calculator. */
+    private SimpleCalculator calculator;
+
+    /** The lines (evaluated in turn). */
+    private String[] lines;
+
+    /** The number of lines. */
+    private static final int LINES_COUNT = 1000;
+
+    /** The illegal lines (one per cause). */
+    private static final String[] ILLEGAL_LINES = {
+        "a + $ * 2",
+        "( a + 1 * b",
+        "a + 1 ) * b",
+        "a + b = 3",
+        "1 +",
+        ""
+    };
+
+    /** The legal lines. */
+    private static final String[] LEGAL_LINES = {
+        "a = a + 1",
+        "b = ( a * 2.5 - 1 ) / 3",
+        "( a + b ) * ( a - b )",
+        "c = a * a + b * b",
+        "c / ( 1 + a ) - 0.125"
+    };
+
+    /**
+     * Prepares the benchmark.
+     */
+    @Setup
+    public void setUp()
+    {
+        calculator = new SimpleCalculator();
+        Random random = new Random( 42 );
+        lines = new String[ LINES_COUNT ];
+        for (int i = 0; i < LINES_COUNT; i++)
+        {
+            lines[ i ] = (random.nextInt( 100 ) < errorRate)
+                ? ILLEGAL_LINES[ random.nextInt( ILLEGAL_LINES.length ) ]
+                : LEGAL_LINES[ random.nextInt( LEGAL_LINES.length ) ];
+        }
+    }
+
+    /**
+     * Evaluates the lines, catching the exception of every illegal one.
+     *
+     * @return the sum of the values of the legal lines.
+     */
+    @Benchmark
+    @OperationsPerInvocation( LINES_COUNT )
+    public double evaluateThrowing()
+    {
+        double sum = 0;
+        for (String line : lines)
+        {
+            try
+            {
+                sum += calculator.evaluate( line );
+            }
+            catch (IllegalArgumentException ex)
+            {
+                sum -= 1;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Evaluates the lines, getting the cause of every illegal one.
+     *
+     * @return the sum of the values of the legal lines.
+     */
+    @Benchmark
+    @OperationsPerInvocation( LINES_COUNT )
+    public double tryEvaluate()
+    {
+        double sum = 0;
+        for (String line : lines)
+        {
+            if (calculator.tryEvaluate( line ) == null)
+            {
+                sum += calculator.getLastValue();
+            }
+            else
+            {
+                sum -= 1;
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,141 @@
+package simplecalculator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This (public) class represents the benchmarks of the evaluation of an expression.
+ *
+ * The evaluation of the text (through the cache of the compiled expressions), the
+ * interpretation of the compiled expression (the evaluation of the postfix notation),
+ * the interpretation of the compiled expression left unoptimized and the evaluation
+ * of the compiled expression translated into JVM bytecode are measured separately.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 2 )
+@State( Scope.Thread )
+public class EvaluateBenchmark
+{
+    /** The kind of the expression. */
+    @Param( { "SHORT", "LONG", "NESTED", "VARIABLES", "FUNCTIONS", "LITERALS", "ASSIGNMENT" } )
+    public String kind;
+
+    /** The expression. */
+    private String expression;
+
+    /** The compiled expression. */
+    private CompiledExpression compiledExpression;
+
+    /** The compiled expression (not optimized). */
+    private CompiledExpression unoptimizedExpression;
+
+    /** The calculator interpreting the compiled expressions. */
+    private SimpleCalculator interpretingCalculator;
+
+    /** The calculator translating the compiled expressions into JVM bytecode right away. */
+    private SimpleCalculator generatingCalculator;
+
+    /** The variables (for the bare interpreter). */
+    private double[] variables;
+
+    /** The operand stack (for the bare interpreter). */
+    private double[] stack;
+
+    /**
+     * Prepares the benchmark.
+     */
+    @Setup
+    public void setUp()
+    {
+        expression = BenchmarkExpressions.get( kind );
+
+        interpretingCalculator = new SimpleCalculator();
+        interpretingCalculator.setCompilationThreshold( 0 );
+        BenchmarkExpressions.initialize( interpretingCalculator );
+        compiledExpression = interpretingCalculator.compile( expression );
+        interpretingCalculator.setOptimizing( false );
+        unoptimizedExpression = interpretingCalculator.compile( expression );
+        interpretingCalculator.setOptimizing( true );
+
+        generatingCalculator = new SimpleCalculator();
+        generatingCalculator.setCompilationThreshold( 1 );
+        BenchmarkExpressions.initialize( generatingCalculator );
+        generatingCalculator.evaluate( compiledExpression );
+        generatingCalculator.evaluate( compiledExpression );
+
+        variables = new double[ SimpleCalculator.VARIABLES_COUNT ];
+        interpretingCalculator.getVariables( variables );
+        stack = new double[ compiledExpression.getMaxStackDepth() ];
+    }
+
+    /**
+     * Evaluates the text of the expression (compiled once, then found in the cache).
+     *
+     * @return the value of the expression.
+     */
+    @Benchmark
+    public double evaluate()
+    {
+        return interpretingCalculator.evaluate( expression );
+    }
+
+    /**
+     * Evaluates the compiled expression (interpreted, the assignment included).
+     *
+     * @return the value of the expression.
+     */
+    @Benchmark
+    public double evaluateCompiled()
+    {
+        return interpretingCalculator.evaluate( compiledExpression );
+    }
+
+    /**
+     * Evaluates the compiled expression left unoptimized (interpreted, the assignment included).
+     *
+     * @return the value of the expression.
+     */
+    @Benchmark
+    public double evaluateUnoptimized()
+    {
+        return interpretingCalculator.evaluate( unoptimizedExpression );
+    }
+
+    /**
+     * Interprets the compiled expression (the evaluation of the postfix notation alone).
+     *
+     * @return the value of the right-hand side of the expression.
+     */
+    @Benchmark
+    public double evaluatePostfix()
+    {
+        return compiledExpression.interpret( variables, stack );
+    }
+
+    /**
+     * Evaluates the compiled expression translated into JVM bytecode.
+     *
+     * @return the value of the expression.
+     */
+    @Benchmark
+    public double evaluateGenerated()
+    {
+        return generatingCalculator.evaluate( compiledExpression );
+    }
+}
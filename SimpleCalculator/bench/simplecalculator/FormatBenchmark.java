@@ -0,0 +1,145 @@
+package simplecalculator;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This (public) class represents the benchmarks of the output of the results.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 2 )
+@State( Scope.Thread )
+public class FormatBenchmark
+{
+    /** The kind of the values (INTEGERS, DECIMALS or RANDOM). */
+    @Param( { "INTEGERS", "DECIMALS", "RANDOM" } )
+    public String kind;
+
+    /** The values (formatted in turn). */
+    private double[] values;
+
+    /** The index of the next value. */
+    private int index;
+
+    /** The buffer of the formatter. */
+    private byte[] buffer;
+
+    /** The result writer (writing into nowhere). */
+    private ResultWriter resultWriter;
+
+    /** The print stream (writing into nowhere). */
+    private PrintStream printStream;
+
+    /** The number of values (a power of two). */
+    private static final int VALUES_COUNT = 1024;
+
+    /**
+     * Prepares the benchmark.
+     */
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random( 42 );
+        values = new double[ VALUES_COUNT ];
+        for (int i = 0; i < VALUES_COUNT; i++)
+        {
+            if (kind.equals( "INTEGERS" ))
+            {
+                values[ i ] = random.nextInt( 1000000 );
+            }
+            else if (kind.equals( "DECIMALS" ))
+            {
+                values[ i ] = random.nextInt( 1000000 ) / 100.0;
+            }
+            else
+            {
+                values[ i ] = random.nextDouble() * Math.pow( 10, random.nextInt( 40 ) - 20 );
+            }
+        }
+        buffer = new byte[ DoubleFormatter.MAX_LENGTH ];
+
+        OutputStream nowhere = new OutputStream()
+        {
+            public void write( int b )
+            {
+            }
+
+            @Override
+            public void write( byte[] b, int off, int len )
+            {
+            }
+        };
+        resultWriter = new ResultWriter( nowhere );
+        printStream = new PrintStream( nowhere, false );
+    }
+
+    /**
+     * Formats a value into the buffer.
+     *
+     * @return the length of the formatted value.
+     */
+    @Benchmark
+    public int format()
+    {
+        return DoubleFormatter.format( nextValue(), buffer, 0 );
+    }
+
+    /**
+     * Formats a value into a string.
+     *
+     * @return the formatted value.
+     */
+    @Benchmark
+    public String toStringValue()
+    {
+        return Double.toString( nextValue() );
+    }
+
+    /**
+     * Writes a value by the result writer.
+     */
+    @Benchmark
+    public void writeResultWriter()
+    {
+        resultWriter.println( nextValue() );
+    }
+
+    /**
+     * Writes a value by the print stream.
+     */
+    @Benchmark
+    public void writePrintStream()
+    {
+        printStream.println( nextValue() );
+    }
+
+    /**
+     * Gets the next value.
+     *
+     * @return the next value.
+     */
+    private double nextValue()
+    {
+        index = (index + 1) & (VALUES_COUNT - 1);
+        return values[ index ];
+    }
+}
@@ -0,0 +1,109 @@
+package simplecalculator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This (public) class represents the benchmarks of the calls of an expensive registered function.
+ *
+ * The function (the error function, summed as a series) is called with a few
+ * arguments over and over, with and without memoizing it.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 2 )
+@State( Scope.Thread )
+public class FunctionBenchmark
+{
+    /** The number of the values cached (zero for no memoization). */
+    @Param( { "0", "256" } )
+    public int cacheSize;
+
+    /** The calculator. */
+    private SimpleCalculator calculator;
+
+    /** The compiled expression. */
+    private CompiledExpression compiledExpression;
+
+    /** The number of the evaluations per invocation. */
+    private static final int EVALUATIONS_COUNT = 1000;
+
+    /** The number of the distinct arguments. */
+    private static final int ARGUMENTS_COUNT = 16;
+
+    /**
+     * Prepares the benchmark.
+     */
+    @Setup
+    public void setUp()
+    {
+        // The registry is shared by the whole JVM, hence every cache size gets a function of its own.
+        String name = "erf_" + cacheSize;
+        if (!FunctionRegistry.isRegistered( name ))
+        {
+            FunctionRegistry.register( name, new UnaryFunction()
+            {
+                public double apply( double x )
+                {
+                    return erf( x );
+                }
+            }, cacheSize );
+        }
+
+        calculator = new SimpleCalculator();
+        compiledExpression = calculator.compile( name + "( a ) + 1" );
+    }
+
+    /**
+     * Evaluates the expression (with the arguments repeated).
+     *
+     * @return the sum of the values of the expression.
+     */
+    @Benchmark
+    @OperationsPerInvocation( EVALUATIONS_COUNT )
+    public double evaluate()
+    {
+        double sum = 0;
+        for (int i = 0; i < EVALUATIONS_COUNT; i++)
+        {
+            calculator.setVariable( 'a', (i % ARGUMENTS_COUNT) * 0.125 );
+            sum += calculator.evaluate( compiledExpression );
+        }
+        return sum;
+    }
+
+    /**
+     * Computes the error function (by its Maclaurin series).
+     *
+     * @param x the argument.
+     *
+     * @return the value of the error function.
+     */
+    private static double erf( double x )
+    {
+        double term = x;
+        double sum = x;
+        for (int n = 1; n < 60; n++)
+        {
+            term *= -x * x / n;
+            sum += term / (2 * n + 1);
+        }
+        return 2 / Math.sqrt( Math.PI ) * sum;
+    }
+}
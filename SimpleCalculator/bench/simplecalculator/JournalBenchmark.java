@@ -0,0 +1,120 @@
+package simplecalculator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This (public) class represents the benchmarks of the assignments persisted by a journal.
+ *
+ * The assignments are evaluated with and without the journal (the journal
+ * checkpointing the variables whenever its log is full, so the cost of the snapshots
+ * is included).
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 2 )
+@State( Scope.Thread )
+public class JournalBenchmark
+{
+    /** Are the variables persisted? */
+    @Param( { "false", "true" } )
+    public boolean journaled;
+
+    /** The directory of the journal. */
+    private File directory;
+
+    /** The calculator. */
+    private SimpleCalculator calculator;
+
+    /** The compiled assignments (evaluated in turn). */
+    private CompiledExpression[] assignments;
+
+    /** The number of the assignments per invocation. */
+    private static final int ASSIGNMENTS_COUNT = 1000;
+
+    /** The size of a log (in bytes). */
+    private static final int LOG_CAPACITY = 1024 * 1024;
+
+    /**
+     * Prepares the benchmark.
+     *
+     * @throws java.io.IOException if the journal cannot be opened.
+     */
+    @Setup
+    public void setUp()
+        throws IOException
+    {
+        directory = File.createTempFile( "journal", "" );
+        directory.delete();
+        calculator = new SimpleCalculator();
+        if (journaled)
+        {
+            calculator.setJournal( VariableJournal.open( directory, LOG_CAPACITY ) );
+        }
+        assignments = new CompiledExpression[] {
+            calculator.compile( "a = a + 1" ),
+            calculator.compile( "total = total + a * 2.5" ),
+            calculator.compile( "unit_price_2 = total / a" )
+        };
+    }
+
+    /**
+     * Closes the journal and deletes its directory.
+     *
+     * @throws java.io.IOException if the journal cannot be closed.
+     */
+    @TearDown
+    public void tearDown()
+        throws IOException
+    {
+        if (calculator.getJournal() != null)
+        {
+            calculator.getJournal().close();
+        }
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Evaluates the assignments.
+     *
+     * @return the sum of the values of the assignments.
+     */
+    @Benchmark
+    @OperationsPerInvocation( ASSIGNMENTS_COUNT )
+    public double assign()
+    {
+        double sum = 0;
+        for (int i = 0; i < ASSIGNMENTS_COUNT; i++)
+        {
+            sum += calculator.evaluate( assignments[ i % assignments.length ] );
+        }
+        return sum;
+    }
+}
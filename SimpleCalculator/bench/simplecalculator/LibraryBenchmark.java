@@ -0,0 +1,122 @@
+package simplecalculator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This (public) class represents the benchmarks of the libraries of precompiled expressions.
+ *
+ * A fresh calculator evaluates every formula of a set once (the cold start of an
+ * application), either compiling the formulas or taking them from a library loaded
+ * from the file (the loading included).
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 2 )
+@State( Scope.Thread )
+public class LibraryBenchmark
+{
+    /** The number of the formulas. */
+    @Param( { "100", "10000" } )
+    public int formulasCount;
+
+    /** The file of the library. */
+    private File file;
+
+    /** The formulas. */
+    private String[] formulas;
+
+    /** The shapes of the formulas (each formula adds its own constant to one of them). */
+    private static final String[] SHAPES = {
+        BenchmarkExpressions.VARIABLES,
+        BenchmarkExpressions.NAMES,
+        BenchmarkExpressions.FUNCTIONS,
+        BenchmarkExpressions.LONG
+    };
+
+    /**
+     * Prepares the benchmark (precompiling the formulas into the library).
+     *
+     * @throws java.io.IOException if the library cannot be written.
+     */
+    @Setup
+    public void setUp()
+        throws IOException
+    {
+        file = File.createTempFile( "library", "" );
+        SimpleCalculator calculator = new SimpleCalculator( 0 );
+        formulas = new String[ formulasCount ];
+        CompiledExpression[] compiledExpressions = new CompiledExpression[ formulasCount ];
+        for (int i = 0; i < formulasCount; i++)
+        {
+            formulas[ i ] = SHAPES[ i % SHAPES.length ] + " + " + i;
+            compiledExpressions[ i ] = calculator.compile( formulas[ i ] );
+        }
+        ExpressionLibrary.write( file, compiledExpressions );
+    }
+
+    /**
+     * Deletes the library.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    /**
+     * Compiles and evaluates every formula once.
+     *
+     * @return the sum of the values of the formulas.
+     */
+    @Benchmark
+    public double compile()
+    {
+        SimpleCalculator calculator = new SimpleCalculator();
+        double sum = 0;
+        for (String formula : formulas)
+        {
+            sum += calculator.evaluate( formula );
+        }
+        return sum;
+    }
+
+    /**
+     * Loads the library, then evaluates every formula once.
+     *
+     * @return the sum of the values of the formulas.
+     *
+     * @throws java.io.IOException if the library cannot be loaded.
+     */
+    @Benchmark
+    public double load()
+        throws IOException
+    {
+        SimpleCalculator calculator = new SimpleCalculator();
+        calculator.setLibrary( ExpressionLibrary.load( file ) );
+        double sum = 0;
+        for (String formula : formulas)
+        {
+            sum += calculator.evaluate( formula );
+        }
+        return sum;
+    }
+}
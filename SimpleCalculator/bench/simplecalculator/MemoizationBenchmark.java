@@ -0,0 +1,110 @@
+package simplecalculator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This (public) class represents the benchmarks of the memoization of the results of the compiled expressions.
+ *
+ * A dashboard polls its formulas, an input changing once per poll of all of them
+ * (so every formula reading it is computed again), with and without memoization.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 2 )
+@State( Scope.Thread )
+public class MemoizationBenchmark
+{
+    /** Are the results memoized? */
+    @Param( { "false", "true" } )
+    public boolean memoizing;
+
+    /** The calculator. */
+    private SimpleCalculator calculator;
+
+    /** The formulas of the dashboard. */
+    private CompiledExpression[] formulas;
+
+    /** The number of the polls so far. */
+    private int pollsCount;
+
+    /** The formulas of the dashboard (the input changing is a). */
+    private static final String[] FORMULAS = {
+        BenchmarkExpressions.VARIABLES,
+        BenchmarkExpressions.NAMES,
+        BenchmarkExpressions.FUNCTIONS,
+        BenchmarkExpressions.LONG,
+        "( b + c ) * ( d - e ) / f",
+        "sqrt( g * g + h * h ) / i"
+    };
+
+    /**
+     * Prepares the benchmark.
+     */
+    @Setup
+    public void setUp()
+    {
+        calculator = new SimpleCalculator();
+        calculator.setMemoizing( memoizing );
+        formulas = new CompiledExpression[ FORMULAS.length ];
+        for (int i = 0; i < FORMULAS.length; i++)
+        {
+            formulas[ i ] = calculator.compile( FORMULAS[ i ] );
+        }
+        for (char variable = 'a'; variable <= 'z'; variable++)
+        {
+            calculator.setVariable( variable, variable - 'a' + 1.5 );
+        }
+    }
+
+    /**
+     * Changes the input, then polls all the formulas.
+     *
+     * @return the sum of the values of the formulas.
+     */
+    @Benchmark
+    @OperationsPerInvocation( 6 )
+    public double poll()
+    {
+        calculator.setVariable( 'a', ++pollsCount % 100 );
+        double sum = 0;
+        for (CompiledExpression formula : formulas)
+        {
+            sum += calculator.evaluate( formula );
+        }
+        return sum;
+    }
+
+    /**
+     * Polls all the formulas with no input changing.
+     *
+     * @return the sum of the values of the formulas.
+     */
+    @Benchmark
+    @OperationsPerInvocation( 6 )
+    public double pollUnchanged()
+    {
+        double sum = 0;
+        for (CompiledExpression formula : formulas)
+        {
+            sum += calculator.evaluate( formula );
+        }
+        return sum;
+    }
+}
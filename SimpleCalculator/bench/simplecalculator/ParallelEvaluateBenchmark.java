@@ -0,0 +1,142 @@
+package simplecalculator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This (public) class represents the benchmarks of the parallel evaluation of a huge expression.
+ *
+ * A huge expression is evaluated by 1, 2, 4, 8 and 16 threads, and sequentially
+ * (without a parallel evaluator); the speedup at a number of threads is the time of
+ * one thread divided by the time of that number of threads. A sum of products splits
+ * into its terms (the additions remaining sequential), a balanced tree into a few
+ * large subtrees.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 2 )
+@State( Scope.Thread )
+public class ParallelEvaluateBenchmark
+{
+    /** The shape of the expression. */
+    @Param( { "SUM", "BALANCED" } )
+    public String shape;
+
+    /** The number of the threads. */
+    @Param( { "1", "2", "4", "8", "16" } )
+    public int threads;
+
+    /** The calculator evaluating the expression sequentially. */
+    private SimpleCalculator sequentialCalculator;
+
+    /** The calculator evaluating the expression in parallel. */
+    private SimpleCalculator parallelCalculator;
+
+    /** The compiled expression. */
+    private CompiledExpression compiledExpression;
+
+    /** The number of the terms of the sum. */
+    private static final int TERMS_COUNT = 200000;
+
+    /** The depth of the balanced tree. */
+    private static final int TREE_DEPTH = 18;
+
+    /**
+     * Prepares the benchmark.
+     */
+    @Setup
+    public void setUp()
+    {
+        StringBuilder sb = new StringBuilder();
+        if ("SUM".equals( shape ))
+        {
+            sb.append( "a * b" );
+            for (int i = 1; i < TERMS_COUNT; i++)
+            {
+                sb.append( (i % 2 == 0) ? " + " : " - " ).append( "sqrt( a * " ).append( i ).append( " ) * b" );
+            }
+        }
+        else
+        {
+            appendTree( sb, TREE_DEPTH, 0 );
+        }
+
+        sequentialCalculator = new SimpleCalculator( 0 );
+        parallelCalculator = new SimpleCalculator( 0 );
+        parallelCalculator.setParallelEvaluator( new ParallelEvaluator( threads ) );
+        for (SimpleCalculator calculator : new SimpleCalculator[] { sequentialCalculator, parallelCalculator })
+        {
+            calculator.setVariable( "a", 1.5 );
+            calculator.setVariable( "b", 0.25 );
+        }
+        compiledExpression = parallelCalculator.compile( sb.toString() );
+    }
+
+    /**
+     * Stops the threads of the parallel evaluator.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        parallelCalculator.getParallelEvaluator().close();
+    }
+
+    /**
+     * Evaluates the expression sequentially.
+     *
+     * @return the value of the expression.
+     */
+    @Benchmark
+    public double evaluateSequentially()
+    {
+        return sequentialCalculator.evaluate( compiledExpression );
+    }
+
+    /**
+     * Evaluates the expression in parallel.
+     *
+     * @return the value of the expression.
+     */
+    @Benchmark
+    public double evaluateInParallel()
+    {
+        return parallelCalculator.evaluate( compiledExpression );
+    }
+
+    /**
+     * Appends a balanced tree of operations over the variables.
+     *
+     * @param sb the string builder.
+     * @param depth the depth of the tree.
+     * @param index the index of the tree (choosing its operator).
+     */
+    private static void appendTree( StringBuilder sb, int depth, int index )
+    {
+        if (depth == 0)
+        {
+            sb.append( (index % 2 == 0) ? "a" : "b" );
+            return;
+        }
+        sb.append( "( " );
+        appendTree( sb, depth - 1, 2 * index );
+        sb.append( (index % 3 == 0) ? " * " : " + " );
+        appendTree( sb, depth - 1, 2 * index + 1 );
+        sb.append( " )" );
+    }
+}
@@ -0,0 +1,112 @@
+package simplecalculator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This (public) class represents the benchmarks of the parallel execution of a script.
+ *
+ * The script assigns a number of independent chains of variables (every line reads
+ * the variable of its chain and a shared read-only one, every few lines a query reads
+ * two chains). It is executed by 1, 2, 4 and 8 threads, and serially (line by line).
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 2 )
+@State( Scope.Thread )
+public class ParallelScriptBenchmark
+{
+    /** The number of the threads. */
+    @Param( { "1", "2", "4", "8" } )
+    public int threads;
+
+    /** The calculator. */
+    private SimpleCalculator calculator;
+
+    /** The executor. */
+    private ScriptExecutor executor;
+
+    /** The compiled lines of the script. */
+    private CompiledExpression[] compiledExpressions;
+
+    /** The values of the lines. */
+    private double[] results;
+
+    /** The number of the independent chains. */
+    private static final int CHAINS_COUNT = 16;
+
+    /** The number of the lines of the script. */
+    private static final int LINES_COUNT = 2048;
+
+    /**
+     * Prepares the benchmark.
+     */
+    @Setup
+    public void setUp()
+    {
+        calculator = new SimpleCalculator();
+        calculator.setVariable( "rate", 0.001 );
+        executor = new ScriptExecutor( threads );
+        compiledExpressions = new CompiledExpression[ LINES_COUNT ];
+        for (int i = 0; i < LINES_COUNT; i++)
+        {
+            String chain = "chain_" + (i % CHAINS_COUNT);
+            compiledExpressions[ i ] = calculator.compile( (i % 8 == 7)
+                ? chain + " - chain_" + ((i + 1) % CHAINS_COUNT)
+                : chain + " = sqrt( " + chain + " * " + chain + " + 1 ) * exp( - rate ) + log( 1 + rate * " + i + " )" );
+        }
+        results = new double[ LINES_COUNT ];
+    }
+
+    /**
+     * Stops the threads of the executor.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        executor.close();
+    }
+
+    /**
+     * Executes the script line by line.
+     *
+     * @return the value of the last line.
+     */
+    @Benchmark
+    public double executeSerially()
+    {
+        for (int i = 0; i < LINES_COUNT; i++)
+        {
+            results[ i ] = calculator.evaluate( compiledExpressions[ i ] );
+        }
+        return results[ LINES_COUNT - 1 ];
+    }
+
+    /**
+     * Executes the script in parallel.
+     *
+     * @return the value of the last line.
+     */
+    @Benchmark
+    public double executeInParallel()
+    {
+        executor.execute( calculator, compiledExpressions, results );
+        return results[ LINES_COUNT - 1 ];
+    }
+}
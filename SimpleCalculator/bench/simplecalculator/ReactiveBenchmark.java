@@ -0,0 +1,105 @@
+package simplecalculator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This (public) class represents the benchmarks of the incremental recomputation of a chain of formulas.
+ *
+ * The variables b-z form a chain (every one is the previous one plus one), so an
+ * update of a is followed by the recomputation of the whole chain, whereas an update
+ * of m is followed by the recomputation of the variables n-z only.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 2 )
+@State( Scope.Thread )
+public class ReactiveBenchmark
+{
+    /** The reactive calculator. */
+    private ReactiveCalculator calculator;
+
+    /** The value assigned to the updated variable. */
+    private double value;
+
+    /**
+     * Prepares the benchmark.
+     */
+    @Setup
+    public void setUp()
+    {
+        calculator = new ReactiveCalculator();
+        calculator.evaluate( "a = 1" );
+        for (char variable = 'b'; variable <= 'z'; variable++)
+        {
+            calculator.evaluate( variable + " = " + (char) (variable - 1) + " + 1" );
+        }
+    }
+
+    /**
+     * Updates the head of the chain and reads its tail (recomputing the whole chain).
+     *
+     * @return the value of the tail.
+     */
+    @Benchmark
+    public double updateHead()
+    {
+        calculator.setVariable( 'a', ++value );
+        return calculator.getVariable( 'z' );
+    }
+
+    /**
+     * Updates the middle of the chain and reads its tail (recomputing half of the chain).
+     *
+     * @return the value of the tail.
+     */
+    @Benchmark
+    public double updateMiddle()
+    {
+        calculator.setVariable( 'm', ++value );
+        return calculator.getVariable( 'z' );
+    }
+
+    /**
+     * Re-evaluates the whole chain (what has to be done without the dependency graph).
+     *
+     * @return the value of the tail.
+     */
+    @Benchmark
+    public double reevaluateChain()
+    {
+        calculator.evaluate( "a = 1" );
+        double tail = 0;
+        for (int i = 0; i < CHAIN.length; i++)
+        {
+            tail = calculator.evaluate( CHAIN[ i ] );
+        }
+        return tail;
+    }
+
+    /** The formulas of the chain (b-z). */
+    private static final String[] CHAIN = new String[ 25 ];
+
+    static
+    {
+        for (int i = 0; i < CHAIN.length; i++)
+        {
+            char variable = (char) ('b' + i);
+            CHAIN[ i ] = variable + " = " + (char) (variable - 1) + " + 1";
+        }
+    }
+}
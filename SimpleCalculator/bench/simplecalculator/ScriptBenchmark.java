@@ -0,0 +1,111 @@
+package simplecalculator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This (public) class represents the benchmarks of the evaluation of a script of formulas sharing subexpressions.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 2 )
+@State( Scope.Thread )
+public class ScriptBenchmark
+{
+    /** The script (every formula reads the shared subexpressions, some of them assign). */
+    static final String[] SCRIPT = {
+        "( a + b ) * ( a + b )",
+        "( x - y ) / z + ( a + b )",
+        "( x - y ) / z * ( x - y ) / z",
+        "s = ( a + b ) * ( x - y ) / z",
+        "s * ( a + b ) - ( x - y ) / z",
+        "( a * b + c * d ) / ( a + b )",
+        "( a * b + c * d ) * ( x - y ) / z",
+        "t = ( a * b + c * d ) - s",
+        "t * t + ( a + b ) * ( a + b )",
+        "( x - y ) / z - ( a * b + c * d ) / ( a + b )",
+        "a = a + 1",
+        "( a + b ) * ( a + b )",
+        "( a + b ) * ( x - y ) / z",
+        "( a * b + c * d ) / ( a + b ) + t",
+        "s * t - ( x - y ) / z",
+        "( a + b ) * ( a + b ) * ( a + b )"
+    };
+
+    /** The calculator. */
+    private SimpleCalculator calculator;
+
+    /** The compiled formulas of the script. */
+    private CompiledExpression[] compiledExpressions;
+
+    /** The compiled script. */
+    private CompiledBatch compiledBatch;
+
+    /** The results. */
+    private double[] results;
+
+    /**
+     * Prepares the benchmark.
+     */
+    @Setup
+    public void setUp()
+    {
+        calculator = new SimpleCalculator();
+        calculator.setCompilationThreshold( 0 );
+        BenchmarkExpressions.initialize( calculator );
+        calculator.setVariable( 'x', 3.5 );
+        calculator.setVariable( 'y', 1.25 );
+        calculator.setVariable( 'z', 0.75 );
+
+        compiledExpressions = new CompiledExpression[ SCRIPT.length ];
+        for (int i = 0; i < SCRIPT.length; i++)
+        {
+            compiledExpressions[ i ] = calculator.compile( SCRIPT[ i ] );
+        }
+        compiledBatch = calculator.compileBatch( SCRIPT );
+        results = new double[ SCRIPT.length ];
+    }
+
+    /**
+     * Evaluates the formulas one by one.
+     *
+     * @return the results.
+     */
+    @Benchmark
+    public double[] evaluateSequentially()
+    {
+        calculator.setVariable( 'a', 1 );
+        for (int i = 0; i < compiledExpressions.length; i++)
+        {
+            results[ i ] = calculator.evaluate( compiledExpressions[ i ] );
+        }
+        return results;
+    }
+
+    /**
+     * Evaluates the formulas as a batch (every distinct subexpression once).
+     *
+     * @return the results.
+     */
+    @Benchmark
+    public double[] evaluateBatch()
+    {
+        calculator.setVariable( 'a', 1 );
+        calculator.evaluate( compiledBatch, results );
+        return results;
+    }
+}
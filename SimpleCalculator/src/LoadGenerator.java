@@ -0,0 +1,250 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+
+import simplecalculator.SimpleCalculator;
+
+/**
+ * This (public) class represents a load generator for the server mode of the application.
+ *
+ * Every connection sends its requests in windows of pipelined expressions (the next
+ * window is sent once all the values of the previous one have been received) and
+ * measures the latency of every request, from the sending of its window to the
+ * receipt of its value. The throughput and the latency percentiles over all the
+ * connections are reported to the standard output.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public class LoadGenerator
+{
+    /** The option selecting the port of the server. */
+    static final String PORT_OPTION = "--port";
+
+    /** The option selecting the number of the connections. */
+    static final String CONNECTIONS_OPTION = "--connections";
+
+    /** The option selecting the number of the requests per connection. */
+    static final String REQUESTS_OPTION = "--requests";
+
+    /** The option selecting the number of the requests pipelined in a window. */
+    static final String PIPELINE_OPTION = "--pipeline";
+
+    /** The usage string. */
+    static final String USAGE = "Usage: LoadGenerator " + PORT_OPTION + " PORT [" + CONNECTIONS_OPTION + " N] ["
+        + REQUESTS_OPTION + " N] [" + PIPELINE_OPTION + " N]";
+
+    /** The expressions sent (in turn). */
+    static final String[] EXPRESSIONS = {
+        "a = a + 1",
+        "b = ( a * 2.5 - 1 ) / 3",
+        "( a + b ) * ( a - b )",
+        "c = a * a + b * b",
+        "c / ( 1 + a ) - 0.125"
+    };
+
+    /**
+     * The entry point of the load generator.
+     *
+     * @param args The command line arguments.
+     */
+    public static void main( String[] args )
+    {
+        // COMMAND LINE ========================================================
+
+        int port = -1;
+        int connectionsCount = 4;
+        int requestsCount = 100000;
+        int pipelineDepth = 16;
+        boolean usage = false;
+        for (int i = 0; i + 1 < args.length && !usage; i += 2)
+        {
+            int value = Main.parseNumber( args[ i + 1 ] );
+            if (args[ i ].equals( PORT_OPTION ))
+            {
+                port = value;
+            }
+            else if (args[ i ].equals( CONNECTIONS_OPTION ))
+            {
+                connectionsCount = value;
+            }
+            else if (args[ i ].equals( REQUESTS_OPTION ))
+            {
+                requestsCount = value;
+            }
+            else if (args[ i ].equals( PIPELINE_OPTION ))
+            {
+                pipelineDepth = value;
+            }
+            else
+            {
+                usage = true;
+            }
+        }
+        if (usage || args.length % 2 != 0 || port < 0 || port > 65535 || connectionsCount < 1 || requestsCount < 1
+            || pipelineDepth < 1)
+        {
+            System.err.println( USAGE );
+            return;
+        }
+        // All the latencies are merged into one array (a few elements short of Integer.MAX_VALUE at most).
+        long totalRequestsCount = (long) connectionsCount * requestsCount;
+        if (totalRequestsCount > Integer.MAX_VALUE - 8)
+        {
+            System.err.println( "Too many requests (" + totalRequestsCount + ")." );
+            return;
+        }
+
+        // APPLICATION LOGIC ===================================================
+
+        // Run the connections (each on its own thread).
+        Connection[] connections = new Connection[ connectionsCount ];
+        Thread[] threads = new Thread[ connectionsCount ];
+        long startTime = System.nanoTime();
+        for (int i = 0; i < connectionsCount; i++)
+        {
+            connections[ i ] = new Connection( port, requestsCount, pipelineDepth );
+            threads[ i ] = new Thread( connections[ i ], "LoadGenerator-connection-" + (i + 1) );
+            threads[ i ].start();
+        }
+        try
+        {
+            for (Thread thread : threads)
+            {
+                thread.join();
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            System.err.println( "Interrupted." );
+            return;
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+
+        // Merge the latencies of the connections.
+        long[] latencies = new long[ (int) totalRequestsCount ];
+        int latenciesCount = 0;
+        long errorsCount = 0;
+        for (Connection connection : connections)
+        {
+            if (connection.failure != null)
+            {
+                System.err.println( connection.failure.getMessage() );
+                return;
+            }
+            System.arraycopy( connection.latencies, 0, latencies, latenciesCount, requestsCount );
+            latenciesCount += requestsCount;
+            errorsCount += connection.errorsCount;
+        }
+        Arrays.sort( latencies );
+
+        // Report the throughput and the latency.
+        System.out.println( latenciesCount + " requests in " + seconds + " s (" + (long) (latenciesCount / seconds)
+            + " requests/s, " + errorsCount + " errors)" );
+        System.out.println( "latency: p50 " + getPercentile( latencies, 50 ) / 1000 + " us, p99 "
+            + getPercentile( latencies, 99 ) / 1000 + " us, max " + latencies[ latencies.length - 1 ] / 1000 + " us" );
+    }
+
+    /**
+     * Gets the percentile of the sorted values.
+     *
+     * @param values the sorted values.
+     * @param percentile the percentile (between 0 and 100).
+     *
+     * @return the percentile.
+     */
+    static long getPercentile( long[] values, double percentile )
+    {
+        int rank = (int) Math.ceil( values.length * percentile / 100 );
+        return values[ Math.max( rank, 1 ) - 1 ];
+    }
+
+    /**
+     * This (package-private) class represents a connection of the load generator.
+     */
+    static final class Connection implements Runnable
+    {
+        /** The port of the server. */
+        private final int port;
+
+        /** The number of the requests pipelined in a window. */
+        private final int pipelineDepth;
+
+        /** The latencies of the requests (in nanoseconds). */
+        final long[] latencies;
+
+        /** The number of the requests answered by the error string. */
+        long errorsCount;
+
+        /** The failure of the connection, or <c>null</c>. */
+        IOException failure;
+
+        /**
+         * Creates a new connection.
+         *
+         * @param port the port of the server.
+         * @param requestsCount the number of the requests.
+         * @param pipelineDepth the number of the requests pipelined in a window.
+         */
+        Connection( int port, int requestsCount, int pipelineDepth )
+        {
+            this.port = port;
+            this.pipelineDepth = pipelineDepth;
+            this.latencies = new long[ requestsCount ];
+        }
+
+        public void run()
+        {
+            try
+            {
+                Socket socket = new Socket( "127.0.0.1", port );
+                try
+                {
+                    socket.setTcpNoDelay( true );
+                    OutputStream outputStream = socket.getOutputStream();
+                    BufferedReader reader = new BufferedReader( new InputStreamReader( socket.getInputStream(), "US-ASCII" ) );
+
+                    int sentCount = 0;
+                    while (sentCount < latencies.length)
+                    {
+                        // Send the window (in a single write).
+                        int windowSize = Math.min( pipelineDepth, latencies.length - sentCount );
+                        StringBuilder window = new StringBuilder();
+                        for (int i = 0; i < windowSize; i++)
+                        {
+                            window.append( EXPRESSIONS[ (sentCount + i) % EXPRESSIONS.length ] ).append( '\n' );
+                        }
+                        long sendTime = System.nanoTime();
+                        outputStream.write( window.toString().getBytes( "US-ASCII" ) );
+                        outputStream.flush();
+
+                        // Receive the values of the window.
+                        for (int i = 0; i < windowSize; i++)
+                        {
+                            String value = reader.readLine();
+                            if (value == null)
+                            {
+                                throw new IOException( "The connection has been closed by the server." );
+                            }
+                            latencies[ sentCount++ ] = System.nanoTime() - sendTime;
+                            if (value.equals( SimpleCalculator.ERROR ))
+                            {
+                                errorsCount++;
+                            }
+                        }
+                    }
+                }
+                finally
+                {
+                    socket.close();
+                }
+            }
+            catch (IOException ex)
+            {
+                failure = ex;
+            }
+        }
+    }
+}
@@ -1,10 +1,26 @@
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
+import simplecalculator.CalculatorMetrics;
+import simplecalculator.CalculatorServer;
+import simplecalculator.CompiledExpression;
+import simplecalculator.ExpressionLibrary;
+import simplecalculator.ExpressionPipeline;
+import simplecalculator.MappedFileProcessor;
+import simplecalculator.ReactiveCalculator;
+import simplecalculator.ResultWriter;
 import simplecalculator.SimpleCalculator;
+import simplecalculator.VariableJournal;
 
 /**
  * This (public) class represents the entry point of the application.
@@ -13,18 +29,235 @@ import simplecalculator.SimpleCalculator;
  */
 public class Main
 {
-    /** The invalid expression error string. */
-    static final String ERROR = "CHYBA";
+    /** The option selecting the pipelined mode (followed by the number of the compiling workers). */
+    static final String WORKERS_OPTION = "--workers";
+    
+    /** The option selecting the memory-mapped file mode (followed by the path of the file). */
+    static final String FILE_OPTION = "--file";
+    
+    /** The option reporting the throughput (in lines per second) to the standard error stream. */
+    static final String THROUGHPUT_OPTION = "--throughput";
+    
+    /** The option selecting the reactive mode (the assignments define the variables by formulas). */
+    static final String REACTIVE_OPTION = "--reactive";
+    
+    /** The option dumping the metrics of the expressions (per phase) to the standard error stream on exit. */
+    static final String METRICS_OPTION = "--metrics";
+    
+    /** The option printing the error string for every illegal expression and going on (instead of stopping at the first one). */
+    static final String KEEP_GOING_OPTION = "--keep-going";
+    
+    /** The option selecting the server mode (followed by the port to listen on). */
+    static final String SERVER_OPTION = "--server";
+    
+    /** The option limiting the number of connections served at once in the server mode (followed by the limit). */
+    static final String MAX_CONNECTIONS_OPTION = "--max-connections";
+    
+    /** The option persisting the variables in a directory (followed by the path of the directory). */
+    static final String STATE_OPTION = "--state";
+    
+    /** The option taking the precompiled expressions from a library (followed by the path of the library). */
+    static final String LIBRARY_OPTION = "--library";
+    
+    /** The option precompiling the expressions of a file into a library (followed by the paths of the file and the library). */
+    static final String PRECOMPILE_OPTION = "--precompile";
+    
+    /** The usage string. */
+    static final String USAGE = "Usage: Main [" + WORKERS_OPTION + " N | " + FILE_OPTION + " PATH | " + REACTIVE_OPTION + "] ["
+        + THROUGHPUT_OPTION + "] [" + METRICS_OPTION + "] [" + KEEP_GOING_OPTION + "] [" + STATE_OPTION + " DIR] ["
+        + LIBRARY_OPTION + " PATH]" + System.getProperty( "line.separator" )
+        + "       Main " + SERVER_OPTION + " PORT [" + MAX_CONNECTIONS_OPTION + " N]" + System.getProperty( "line.separator" )
+        + "       Main " + PRECOMPILE_OPTION + " SOURCE TARGET";
     
     /**
      * The entry point of the application.
      * 
+     * By default, the expressions are read, evaluated and printed one by one. With the
+     * <code>--workers N</code> option, they are processed by a pipeline with N threads
+     * compiling the expressions ahead of their evaluation; with the <code>--file PATH</code>
+     * option, they are read from the memory-mapped file instead of the standard input.
+     * The output is the same. With the <code>--reactive</code> option, an assignment
+     * reading variables defines its variable by a formula, which is recomputed whenever
+     * the variables it reads change (like in a spreadsheet). With the
+     * <code>--throughput</code> option, the number of lines processed per second is
+     * reported to the standard error stream. With the <code>--metrics</code> option
+     * (in the sequential and the memory-mapped file modes), the counts and the times
+     * of the phases of the expressions are dumped to the standard error stream on exit.
+     * 
+     * By default, the application stops at the first illegal expression. With the
+     * <code>--keep-going</code> option (in the sequential, the reactive and the
+     * memory-mapped file modes), every illegal expression is answered by the error
+     * string and the application goes on with the next one.
+     * 
+     * With the <code>--state DIR</code> option (in the sequential and the
+     * memory-mapped file modes), the variables are persisted in the directory: they
+     * are recovered from it on start and every assignment is logged into it, so the
+     * variables survive the application (even if it is killed).
+     * 
+     * With the <code>--server PORT</code> option, the application does not read the
+     * standard input; instead, it keeps serving the expressions sent over the local TCP
+     * connections to the port (each one with its own variables), at most
+     * <code>--max-connections N</code> of them at once.
+     * 
+     * With the <code>--precompile SOURCE TARGET</code> option, the application does not
+     * evaluate anything either; instead, it compiles the expressions of the source file
+     * (one per line) into the library file. With the <code>--library PATH</code> option
+     * (in the sequential mode), the expressions held by the library are not compiled but
+     * read from it (it is mapped into memory); the output is the same.
+     * 
      * @param args The command line arguments.
      */
     public static void main( String[] args )
     {   
+        // COMMAND LINE ========================================================
+        
+        // The number of the compiling workers (zero selects the sequential mode).
+        int workersCount = 0;
+        // The file of the expressions (null selects the standard input).
+        File file = null;
+        // Is the reactive mode selected?
+        boolean reactive = false;
+        // Is the throughput reported?
+        boolean throughput = false;
+        // The metrics of the expressions (null if they are not measured).
+        CalculatorMetrics metrics = null;
+        // The port of the server mode (-1 selects the other modes).
+        int port = -1;
+        // The maximum number of connections served at once (zero selects the default).
+        int maxConnections = 0;
+        // Are the illegal expressions answered by the error string (instead of stopping at the first one)?
+        boolean keepGoing = false;
+        // The directory persisting the variables (null if they are not persisted).
+        File stateDirectory = null;
+        // The library of the precompiled expressions (null if all the expressions are compiled).
+        File libraryFile = null;
+        // The file of the expressions to precompile and the library to precompile them into (null selects the other modes).
+        File sourceFile = null;
+        File targetFile = null;
+        boolean usage = false;
+        for (int i = 0; i < args.length && !usage; i++)
+        {
+            if (args[ i ].equals( WORKERS_OPTION ) && i + 1 < args.length)
+            {
+                try
+                {
+                    workersCount = Integer.parseInt( args[ ++i ] );
+                }
+                catch (NumberFormatException ex)
+                {
+                    workersCount = -1;
+                }
+                usage = (workersCount < 0);
+            }
+            else if (args[ i ].equals( FILE_OPTION ) && i + 1 < args.length)
+            {
+                file = new File( args[ ++i ] );
+            }
+            else if (args[ i ].equals( REACTIVE_OPTION ))
+            {
+                reactive = true;
+            }
+            else if (args[ i ].equals( THROUGHPUT_OPTION ))
+            {
+                throughput = true;
+            }
+            else if (args[ i ].equals( METRICS_OPTION ))
+            {
+                metrics = new CalculatorMetrics();
+            }
+            else if (args[ i ].equals( KEEP_GOING_OPTION ))
+            {
+                keepGoing = true;
+            }
+            else if (args[ i ].equals( STATE_OPTION ) && i + 1 < args.length)
+            {
+                stateDirectory = new File( args[ ++i ] );
+            }
+            else if (args[ i ].equals( SERVER_OPTION ) && i + 1 < args.length)
+            {
+                port = parseNumber( args[ ++i ] );
+                usage = (port < 0 || port > 65535);
+            }
+            else if (args[ i ].equals( MAX_CONNECTIONS_OPTION ) && i + 1 < args.length)
+            {
+                maxConnections = parseNumber( args[ ++i ] );
+                usage = (maxConnections < 1);
+            }
+            else if (args[ i ].equals( LIBRARY_OPTION ) && i + 1 < args.length)
+            {
+                libraryFile = new File( args[ ++i ] );
+            }
+            else if (args[ i ].equals( PRECOMPILE_OPTION ) && i + 2 < args.length)
+            {
+                sourceFile = new File( args[ ++i ] );
+                targetFile = new File( args[ ++i ] );
+            }
+            else
+            {
+                usage = true;
+            }
+        }
+        if (usage || (file != null && workersCount > 0) || (reactive && (file != null || workersCount > 0))
+            || (metrics != null && (reactive || workersCount > 0)) || (keepGoing && workersCount > 0)
+            || (stateDirectory != null && (reactive || workersCount > 0))
+            || (port >= 0 && (file != null || workersCount > 0 || reactive || throughput || metrics != null || keepGoing
+                || stateDirectory != null))
+            || (port < 0 && maxConnections > 0)
+            || (libraryFile != null && (reactive || file != null || workersCount > 0 || port >= 0))
+            || (sourceFile != null && args.length > 3))
+        {
+            System.err.println( USAGE );
+            return;
+        }
+        
+        // PRECOMPILE MODE =====================================================
+        
+        if (sourceFile != null)
+        {
+            precompile( sourceFile, targetFile );
+            return;
+        }
+        
+        // SERVER MODE =========================================================
+        
+        if (port >= 0)
+        {
+            serve( port, (maxConnections > 0) ? maxConnections : CalculatorServer.DEFAULT_MAX_CONNECTIONS );
+            return;
+        }
+        
         // PREREQUISITES ======================================================
         
+        // The journal persisting the variables (recovering them).
+        VariableJournal journal = null;
+        if (stateDirectory != null)
+        {
+            try
+            {
+                journal = VariableJournal.open( stateDirectory );
+            }
+            catch (IOException ex)
+            {
+                System.err.println( ex.getMessage() );
+                return;
+            }
+        }
+        
+        // The library of the precompiled expressions (mapped into memory).
+        ExpressionLibrary library = null;
+        if (libraryFile != null)
+        {
+            try
+            {
+                library = ExpressionLibrary.load( libraryFile );
+            }
+            catch (IOException ex)
+            {
+                System.err.println( ex.getMessage() );
+                return;
+            }
+        }
+        
         // The input stream.
         InputStream inputStream = System.in;
         // Open the input stream reader on the input stream.
@@ -32,49 +265,277 @@ public class Main
         // Open the buffered reader on the input stream reader.
         BufferedReader bufferedReader = new BufferedReader( inputStreamReader );
 
-        // The print stream.
-        PrintStream printStream = System.out;
+        // The result writer (formatting the results into large blocks of the standard output).
+        ResultWriter resultWriter = new ResultWriter( new FileOutputStream( FileDescriptor.out ) );
         
-        // Create the calculator.
-        SimpleCalculator simpleCalculator = new SimpleCalculator();
+        // Create the calculator (one of them).
+        SimpleCalculator simpleCalculator = reactive ? null : new SimpleCalculator();
+        ReactiveCalculator reactiveCalculator = reactive ? new ReactiveCalculator() : null;
+        if (simpleCalculator != null)
+        {
+            simpleCalculator.setMetrics( metrics );
+            simpleCalculator.setJournal( (file == null) ? journal : null );
+            simpleCalculator.setLibrary( library );
+        }
 
         // APPLICATION LOGIC ===================================================
         
+        // The number of lines processed.
+        long linesCount = 0;
+        long startTime = System.nanoTime();
+        
         try
         {
-            // Read the expression from the input.
-            // May throw an IOException.
-            String expression;
-            while ((expression = bufferedReader.readLine()) != null)
+            if (file != null)
+            {
+                // Process the expressions of the memory-mapped file.
+                // May throw an IOException or an IllegalArgumentException.
+                MappedFileProcessor mappedFileProcessor = new MappedFileProcessor();
+                mappedFileProcessor.setMetrics( metrics );
+                mappedFileProcessor.setJournal( journal );
+                if (keepGoing)
+                {
+                    mappedFileProcessor.setErrorString( SimpleCalculator.ERROR );
+                }
+                try
+                {
+                    mappedFileProcessor.process( file, resultWriter );
+                }
+                finally
+                {
+                    linesCount = mappedFileProcessor.getLinesCount();
+                }
+            }
+            else if (workersCount > 0)
             {
-                // Evaluate the expression.
-                // May throw an IllegalArgumentException.
-                double value = simpleCalculator.evaluate( expression );
-         
-                // Print the result to the output.
-                printStream.println( value );
+                // Process the expressions in the pipeline.
+                // May throw an IOException or an IllegalArgumentException.
+                ExpressionPipeline expressionPipeline = new ExpressionPipeline( workersCount );
+                try
+                {
+                    expressionPipeline.process( bufferedReader, resultWriter );
+                }
+                finally
+                {
+                    linesCount = expressionPipeline.getLinesCount();
+                }
+            }
+            else
+            {
+                while (true)
+                {
+                    // Print the results so far if the input has to be waited for.
+                    if (!bufferedReader.ready())
+                    {
+                        resultWriter.flush();
+                    }
+                    
+                    // Read the expression from the input.
+                    // May throw an IOException.
+                    String expression = bufferedReader.readLine();
+                    if (expression == null)
+                    {
+                        break;
+                    }
+                    
+                    if (keepGoing)
+                    {
+                        // Evaluate the expression (printing the error string if it is illegal).
+                        if (reactive)
+                        {
+                            evaluateReactively( reactiveCalculator, expression, resultWriter );
+                        }
+                        else if (simpleCalculator.tryEvaluate( expression ) == null)
+                        {
+                            resultWriter.println( simpleCalculator.getLastValue() );
+                        }
+                        else
+                        {
+                            resultWriter.println( SimpleCalculator.ERROR );
+                        }
+                        linesCount++;
+                        continue;
+                    }
+                    
+                    // Evaluate the expression.
+                    // May throw an IllegalArgumentException.
+                    double value = reactive
+                        ? reactiveCalculator.evaluate( expression )
+                        : simpleCalculator.evaluate( expression );
+             
+                    // Print the result to the output.
+                    resultWriter.println( value );
+                    linesCount++;
+                }
             }
         }
         catch (IllegalArgumentException ex)
         {
-            printStream.println( ERROR );         
+            resultWriter.println( SimpleCalculator.ERROR );
         }
         catch (IOException ex)
         {
             System.err.println( ex.getMessage() );
         }
-
+        finally
+        {
+            resultWriter.flush();
+        }
+        
+        // Report the throughput.
+        if (throughput)
+        {
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            System.err.println( linesCount + " lines in " + seconds + " s (" + (long) (linesCount / seconds) + " lines/s)" );
+        }
+        
+        // Dump the metrics.
+        if (metrics != null)
+        {
+            System.err.println( metrics.snapshot() );
+        }
+        
         // POSTREQUISITES ======================================================
         
-        // Close the buffeered reader and the input stream reader.
+        // Close the journal (writing the snapshot of the variables).
+        if (journal != null)
+        {
+            try
+            {
+                journal.close();
+            }
+            catch (IOException ex)
+            {
+                System.err.println( ex.getMessage() );
+            }
+        }
+        
+        // Close the buffeered reader and the input stream reader (the pipeline closes them itself).
+        if (workersCount == 0)
+        {
+            try
+            {
+                bufferedReader.close();
+                inputStreamReader.close();
+            }
+            catch (IOException ex)
+            {
+                System.err.println( ex.getMessage() );
+            }
+        }
+    }
+    
+    /**
+     * Evaluates the expression by the reactive calculator and prints its value (or the error string if it is illegal).
+     * 
+     * @param reactiveCalculator the reactive calculator.
+     * @param expression the expression.
+     * @param resultWriter the writer receiving the value.
+     */
+    static void evaluateReactively( ReactiveCalculator reactiveCalculator, String expression, ResultWriter resultWriter )
+    {
+        try
+        {
+            resultWriter.println( reactiveCalculator.evaluate( expression ) );
+        }
+        catch (IllegalArgumentException ex)
+        {
+            resultWriter.println( SimpleCalculator.ERROR );
+        }
+    }
+    
+    /**
+     * Precompiles the expressions of the file (one per line) into the library.
+     * 
+     * The first illegal expression is reported to the standard error stream, and no
+     * library is written then.
+     * 
+     * @param sourceFile the file of the expressions.
+     * @param targetFile the file of the library.
+     */
+    static void precompile( File sourceFile, File targetFile )
+    {
+        SimpleCalculator simpleCalculator = new SimpleCalculator( 0 );
+        List< CompiledExpression > compiledExpressions = new ArrayList< CompiledExpression >();
+        Set< String > expressions = new HashSet< String >();
+        try
+        {
+            BufferedReader bufferedReader = new BufferedReader( new FileReader( sourceFile ) );
+            try
+            {
+                int lineNumber = 0;
+                String expression;
+                while ((expression = bufferedReader.readLine()) != null)
+                {
+                    lineNumber++;
+                    if (!expressions.add( expression ))
+                    {
+                        continue;
+                    }
+                    try
+                    {
+                        compiledExpressions.add( simpleCalculator.compile( expression ) );
+                    }
+                    catch (IllegalArgumentException ex)
+                    {
+                        System.err.println( sourceFile + ":" + lineNumber + ": " + SimpleCalculator.ERROR + " " + expression );
+                        return;
+                    }
+                }
+            }
+            finally
+            {
+                bufferedReader.close();
+            }
+            
+            ExpressionLibrary.write( targetFile, compiledExpressions.toArray( new CompiledExpression[ compiledExpressions.size() ] ) );
+        }
+        catch (IllegalArgumentException ex)
+        {
+            System.err.println( "The expressions of " + sourceFile + " are not ASCII." );
+        }
+        catch (IOException ex)
+        {
+            System.err.println( ex.getMessage() );
+        }
+    }
+    
+    /**
+     * Serves the expressions sent over the local TCP connections (until the application is killed).
+     * 
+     * @param port the port to listen on (zero for any free port).
+     * @param maxConnections the maximum number of connections served at once.
+     */
+    static void serve( int port, int maxConnections )
+    {
         try
         {
-            bufferedReader.close();
-            inputStreamReader.close();
+            CalculatorServer calculatorServer = new CalculatorServer( port, maxConnections );
+            System.err.println( "Listening on port " + calculatorServer.getPort() );
+            calculatorServer.serve();
         }
         catch (IOException ex)
         {
             System.err.println( ex.getMessage() );
         }
     }
+    
+    /**
+     * Parses the (non-negative) number of the command line.
+     * 
+     * @param s the string.
+     * 
+     * @return the number, or -1 if the string is not a number.
+     */
+    static int parseNumber( String s )
+    {
+        try
+        {
+            return Integer.parseInt( s );
+        }
+        catch (NumberFormatException ex)
+        {
+            return -1;
+        }
+    }
 }
@@ -0,0 +1,53 @@
+package simplecalculator;
+
+/**
+ * This (package-private) class represents the helpers for the arrays.
+ *
+ * The helpers stand in for <code>java.util.Arrays.copyOf</code>, which is not
+ * available on Java 5 (the target of the project).
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+final class ArrayUtils
+{
+    // Private instance constructors
+
+    /**
+     * Prevents the instantiation of the helpers.
+     */
+    private ArrayUtils()
+    {
+    }
+
+    // Package-private static methods
+
+    /**
+     * Copies the beginning of the array into a new array (padded with zeros if it is longer).
+     *
+     * @param array the array.
+     * @param length the length of the new array.
+     *
+     * @return the new array.
+     */
+    static int[] copyOf( int[] array, int length )
+    {
+        int[] copy = new int[ length ];
+        System.arraycopy( array, 0, copy, 0, Math.min( array.length, length ) );
+        return copy;
+    }
+
+    /**
+     * Copies the beginning of the array into a new array (padded with zeros if it is longer).
+     *
+     * @param array the array.
+     * @param length the length of the new array.
+     *
+     * @return the new array.
+     */
+    static double[] copyOf( double[] array, int length )
+    {
+        double[] copy = new double[ length ];
+        System.arraycopy( array, 0, copy, 0, Math.min( array.length, length ) );
+        return copy;
+    }
+}
@@ -0,0 +1,59 @@
+package simplecalculator;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This (package-private) class represents a byte buffer viewed as a sequence of ASCII characters.
+ *
+ * The characters are indexed by the absolute positions of their bytes in the buffer
+ * (up to its limit), and read right from it: nothing is copied.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+final class AsciiCharSequence implements CharSequence
+{
+    // Private instance fields
+
+    /** The byte buffer. */
+    private ByteBuffer buffer;
+
+    // Package-private instance methods
+
+    /**
+     * Views the byte buffer.
+     *
+     * @param buffer the byte buffer (or <c>null</c> to release the previous one).
+     */
+    void reset( ByteBuffer buffer )
+    {
+        this.buffer = buffer;
+    }
+
+    // Public instance methods
+
+    public int length()
+    {
+        return buffer.limit();
+    }
+
+    public char charAt( int index )
+    {
+        return (char) (buffer.get( index ) & 0xFF);
+    }
+
+    public CharSequence subSequence( int start, int end )
+    {
+        char[] chars = new char[ end - start ];
+        for (int i = start; i < end; i++)
+        {
+            chars[ i - start ] = charAt( i );
+        }
+        return new String( chars );
+    }
+
+    @Override
+    public String toString()
+    {
+        return subSequence( 0, length() ).toString();
+    }
+}
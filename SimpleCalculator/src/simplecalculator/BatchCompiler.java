@@ -0,0 +1,290 @@
+package simplecalculator;
+
+import java.util.Arrays;
+
+/**
+ * This (package-private) class represents a compiler of batches of expressions.
+ *
+ * Every expression is compiled (and optimized) on its own first; then its program is
+ * replayed over a stack of nodes, every operand and every operator becoming a node.
+ * A node is looked up in a hash table (keyed by its opcode and its operands) before
+ * it is created, so equal subexpressions become one node. A constant node is keyed
+ * by the bits of its value, so that, e.g., 0 and -0 remain distinct.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+final class BatchCompiler
+{
+    // Private instance fields
+
+    /** The compiler of the single expressions. */
+    private final ExpressionCompiler compiler;
+
+    /** The opcodes of the nodes (the instructions of the operators, carrying the index of the function of a call). */
+    private int[] opcodes;
+
+    /** The left operands of the nodes (the high bits of the value of a constant, the slot of the variable of a load). */
+    private int[] lefts;
+
+    /** The right operands of the nodes (the low bits of the value of a constant, -1 for an operator of one operand). */
+    private int[] rights;
+
+    /** The number of the nodes. */
+    private int nodesCount;
+
+    /** The hash table of the nodes (open addressing, -1 for an empty entry). */
+    private int[] table;
+
+    /** The nodes of the current values of the variables (indexed by their slots, -1 if not loaded yet). */
+    private int[] variableNodes;
+
+    /** The stack of the nodes of the operands. */
+    private int[] operandStack;
+
+    // Package-private instance constructors
+
+    /**
+     * Creates a new batch compiler.
+     *
+     * @param compiler the compiler of the single expressions.
+     */
+    BatchCompiler( ExpressionCompiler compiler )
+    {
+        this.compiler = compiler;
+        this.variableNodes = new int[ SimpleCalculator.VARIABLES_COUNT ];
+    }
+
+    // Package-private instance methods
+
+    /**
+     * Compiles the batch of expressions.
+     *
+     * @param expressions the expressions (in the order of their evaluation).
+     *
+     * @return the compiled batch.
+     *
+     * @throws java.lang.IllegalArgumentException if an expression is illegal.
+     */
+    CompiledBatch compile( String[] expressions )
+        throws IllegalArgumentException
+    {
+        opcodes = new int[ 64 ];
+        lefts = new int[ 64 ];
+        rights = new int[ 64 ];
+        nodesCount = 0;
+        table = new int[ 128 ];
+        Arrays.fill( table, -1 );
+        Arrays.fill( variableNodes, -1 );
+        operandStack = new int[ 16 ];
+
+        String[] texts = expressions.clone();
+        int[] resultNodes = new int[ texts.length ];
+        int[] assignedSlots = new int[ texts.length ];
+        int assignedCount = 0;
+        int slotsCount = 0;
+        for (int i = 0; i < texts.length; i++)
+        {
+            compiler.compile( texts[ i ], 0, texts[ i ].length() );
+            CompiledExpression compiledExpression = compiler.toCompiledExpression( texts[ i ] );
+            slotsCount = Math.max( slotsCount, compiledExpression.getSlotsCount() );
+            if (variableNodes.length < slotsCount)
+            {
+                growVariableNodes( slotsCount );
+            }
+            resultNodes[ i ] = addProgram( compiledExpression );
+
+            // The expressions following an assignment read the assigned value instead of the variable.
+            if (compiledExpression.isAssignment())
+            {
+                variableNodes[ compiledExpression.getVariableSlot() ] = resultNodes[ i ];
+                assignedSlots[ assignedCount++ ] = compiledExpression.getVariableSlot();
+            }
+        }
+
+        // Every variable assigned (once or more) gets its last assigned value.
+        Arrays.sort( assignedSlots, 0, assignedCount );
+        int distinctCount = 0;
+        for (int i = 0; i < assignedCount; i++)
+        {
+            if (distinctCount == 0 || assignedSlots[ distinctCount - 1 ] != assignedSlots[ i ])
+            {
+                assignedSlots[ distinctCount++ ] = assignedSlots[ i ];
+            }
+        }
+        assignedSlots = ArrayUtils.copyOf( assignedSlots, distinctCount );
+        int[] assignedNodes = new int[ distinctCount ];
+        for (int i = 0; i < distinctCount; i++)
+        {
+            assignedNodes[ i ] = variableNodes[ assignedSlots[ i ] ];
+        }
+
+        double[] constants = new double[ nodesCount ];
+        for (int node = 0; node < nodesCount; node++)
+        {
+            if (opcodes[ node ] == CompiledExpression.PUSH_CONSTANT)
+            {
+                constants[ node ] = Double.longBitsToDouble( ((long) lefts[ node ] << 32) | (rights[ node ] & 0xFFFFFFFFL) );
+            }
+        }
+
+        CompiledBatch compiledBatch = new CompiledBatch( texts, ArrayUtils.copyOf( opcodes, nodesCount ),
+            ArrayUtils.copyOf( lefts, nodesCount ), ArrayUtils.copyOf( rights, nodesCount ), constants, resultNodes,
+            assignedSlots, assignedNodes, slotsCount );
+        opcodes = null;
+        lefts = null;
+        rights = null;
+        table = null;
+        operandStack = null;
+        return compiledBatch;
+    }
+
+    // Private instance methods
+
+    /**
+     * Adds the nodes of the program of the compiled expression.
+     *
+     * @param compiledExpression the compiled expression.
+     *
+     * @return the node of the value of the expression.
+     */
+    private int addProgram( CompiledExpression compiledExpression )
+    {
+        if (operandStack.length < compiledExpression.getMaxStackDepth())
+        {
+            operandStack = new int[ compiledExpression.getMaxStackDepth() ];
+        }
+
+        int[] instructions = compiledExpression.getInstructions();
+        double[] constants = compiledExpression.getConstants();
+        int top = -1;
+        for (int instruction : instructions)
+        {
+            int opcode = CompiledExpression.opcode( instruction );
+            switch (opcode)
+            {
+                case CompiledExpression.PUSH_CONSTANT:
+
+                    long bits = Double.doubleToRawLongBits( constants[ CompiledExpression.operand( instruction ) ] );
+                    operandStack[ ++top ] = getNode( opcode, (int) (bits >>> 32), (int) bits );
+                    break;
+
+                case CompiledExpression.LOAD_VARIABLE:
+
+                    int slot = CompiledExpression.operand( instruction );
+                    if (variableNodes[ slot ] < 0)
+                    {
+                        variableNodes[ slot ] = getNode( opcode, slot, 0 );
+                    }
+                    operandStack[ ++top ] = variableNodes[ slot ];
+                    break;
+
+                default:
+
+                    if (CompiledExpression.getArity( opcode ) == 1)
+                    {
+                        operandStack[ top ] = getNode( instruction, operandStack[ top ], -1 );
+                    }
+                    else
+                    {
+                        int right = operandStack[ top-- ];
+                        operandStack[ top ] = getNode( instruction, operandStack[ top ], right );
+                    }
+                    break;
+            }
+        }
+        return operandStack[ top ];
+    }
+
+    /**
+     * Gets the node (creating it unless an equal one exists).
+     *
+     * @param opcode the opcode of the node (the instruction of an operator).
+     * @param left the left operand of the node.
+     * @param right the right operand of the node.
+     *
+     * @return the node.
+     */
+    private int getNode( int opcode, int left, int right )
+    {
+        int mask = table.length - 1;
+        int index = hash( opcode, left, right ) & mask;
+        while (table[ index ] >= 0)
+        {
+            int node = table[ index ];
+            if (opcodes[ node ] == opcode && lefts[ node ] == left && rights[ node ] == right)
+            {
+                return node;
+            }
+            index = (index + 1) & mask;
+        }
+
+        // Create the node.
+        if (nodesCount == opcodes.length)
+        {
+            opcodes = ArrayUtils.copyOf( opcodes, 2 * nodesCount );
+            lefts = ArrayUtils.copyOf( lefts, 2 * nodesCount );
+            rights = ArrayUtils.copyOf( rights, 2 * nodesCount );
+        }
+        int node = nodesCount++;
+        opcodes[ node ] = opcode;
+        lefts[ node ] = left;
+        rights[ node ] = right;
+        table[ index ] = node;
+
+        // Keep the hash table at most half full.
+        if (2 * nodesCount > table.length)
+        {
+            rehash();
+        }
+        return node;
+    }
+
+    /**
+     * Grows the nodes of the current values of the variables (the new ones not loaded yet).
+     *
+     * @param slotsCount the least number of the slots the nodes must cover.
+     */
+    private void growVariableNodes( int slotsCount )
+    {
+        int length = variableNodes.length;
+        variableNodes = ArrayUtils.copyOf( variableNodes, Math.max( slotsCount, 2 * length ) );
+        Arrays.fill( variableNodes, length, variableNodes.length, -1 );
+    }
+
+    /**
+     * Doubles the hash table of the nodes.
+     */
+    private void rehash()
+    {
+        table = new int[ 2 * table.length ];
+        Arrays.fill( table, -1 );
+        int mask = table.length - 1;
+        for (int node = 0; node < nodesCount; node++)
+        {
+            int index = hash( opcodes[ node ], lefts[ node ], rights[ node ] ) & mask;
+            while (table[ index ] >= 0)
+            {
+                index = (index + 1) & mask;
+            }
+            table[ index ] = node;
+        }
+    }
+
+    // Private static methods
+
+    /**
+     * Hashes the node.
+     *
+     * @param opcode the opcode of the node.
+     * @param left the left operand of the node.
+     * @param right the right operand of the node.
+     *
+     * @return the hash code of the node.
+     */
+    private static int hash( int opcode, int left, int right )
+    {
+        int h = (opcode * 31 + left) * 0x9E3779B9 + right;
+        h *= 0x85EBCA6B;
+        return h ^ (h >>> 16);
+    }
+}
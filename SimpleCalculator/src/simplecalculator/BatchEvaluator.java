@@ -0,0 +1,364 @@
+package simplecalculator;
+
+import java.util.Arrays;
+
+/**
+ * This (public) class represents an evaluator of a compiled expression over many rows at once.
+ *
+ * Every variable is bound either to a column (one value per row) or, if its column
+ * is <c>null</c>, to a single value shared by all the rows. The right-hand side of
+ * the expression is evaluated for every row and the values are written into the
+ * results; an assignment (if any) is not performed.
+ *
+ * There are two paths computing exactly the same values. The scalar path interprets
+ * the program row by row. The columnar path interprets it block by block: every
+ * instruction runs as a simple loop over a block of rows, which the JIT compiler of
+ * the JVM turns into SIMD instructions processing several rows per operation.
+ *
+ * An evaluator reuses its buffers, hence it must not be used by more than one
+ * thread at a time.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public final class BatchEvaluator
+{
+    // Private instance fields
+
+    /** The operand stack of the columnar path (one block per level). */
+    private double[][] blockStack;
+
+    /** The operand stack of the scalar path. */
+    private double[] operandStack;
+
+    /** The variables of the row evaluated by the scalar path. */
+    private double[] rowVariables;
+
+    // Private static fields
+
+    /** The number of rows processed by every instruction of the columnar path. */
+    private static final int BLOCK_SIZE = 512;
+
+    // Public instance constructors
+
+    /**
+     * Creates a new batch evaluator.
+     */
+    public BatchEvaluator()
+    {
+        blockStack = new double[ 0 ][];
+        operandStack = new double[ 16 ];
+        rowVariables = new double[ 0 ];
+    }
+
+    // Public instance methods
+
+    /**
+     * Evaluates the compiled expression for every row (the columnar path).
+     *
+     * @param compiledExpression the compiled expression.
+     * @param columns the columns of the variables (indexed by their slots, <c>null</c> for a variable bound to a single value).
+     * @param variables the values of the variables not bound to a column (indexed by their slots).
+     * @param results the array receiving the value of the expression for every row.
+     *
+     * @throws java.lang.IllegalArgumentException if the columns or the variables do not match the expression or the results.
+     */
+    public void evaluate( CompiledExpression compiledExpression, double[][] columns, double[] variables, double[] results )
+        throws IllegalArgumentException
+    {
+        checkArguments( compiledExpression, columns, variables, results );
+
+        int[] instructions = compiledExpression.getInstructions();
+        double[] constants = compiledExpression.getConstants();
+        double[][] stack = getBlockStack( compiledExpression.getMaxStackDepth() );
+
+        for (int base = 0; base < results.length; base += BLOCK_SIZE)
+        {
+            int n = Math.min( BLOCK_SIZE, results.length - base );
+
+            int top = -1;
+            for (int instruction : instructions)
+            {
+                int operand = CompiledExpression.operand( instruction );
+                switch (CompiledExpression.opcode( instruction ))
+                {
+                    case CompiledExpression.PUSH_CONSTANT:
+                        Arrays.fill( stack[ ++top ], 0, n, constants[ operand ] );
+                        break;
+
+                    case CompiledExpression.LOAD_VARIABLE:
+                        if (columns[ operand ] != null)
+                        {
+                            System.arraycopy( columns[ operand ], base, stack[ ++top ], 0, n );
+                        }
+                        else
+                        {
+                            Arrays.fill( stack[ ++top ], 0, n, variables[ operand ] );
+                        }
+                        break;
+
+                    case CompiledExpression.ADD:
+                        add( stack[ top - 1 ], stack[ top ], n );
+                        top--;
+                        break;
+
+                    case CompiledExpression.SUBTRACT:
+                        subtract( stack[ top - 1 ], stack[ top ], n );
+                        top--;
+                        break;
+
+                    case CompiledExpression.MULTIPLY:
+                        multiply( stack[ top - 1 ], stack[ top ], n );
+                        top--;
+                        break;
+
+                    case CompiledExpression.DIVIDE:
+                        divide( stack[ top - 1 ], stack[ top ], n );
+                        top--;
+                        break;
+
+                    case CompiledExpression.NEGATE:
+                        negate( stack[ top ], n );
+                        break;
+
+                    case CompiledExpression.SQRT:
+                        squareRoot( stack[ top ], n );
+                        break;
+
+                    case CompiledExpression.EXP:
+                    case CompiledExpression.LOG:
+                    case CompiledExpression.CALL_UNARY:
+                        apply( instruction, stack[ top ], n );
+                        break;
+
+                    case CompiledExpression.POW:
+                    case CompiledExpression.MIN:
+                    case CompiledExpression.MAX:
+                    case CompiledExpression.CALL_BINARY:
+                        apply( instruction, stack[ top - 1 ], stack[ top ], n );
+                        top--;
+                        break;
+
+                    default:
+                        throw new IllegalStateException();
+                }
+            }
+
+            System.arraycopy( stack[ top ], 0, results, base, n );
+        }
+    }
+
+    /**
+     * Evaluates the compiled expression for every row (the scalar path).
+     *
+     * @param compiledExpression the compiled expression.
+     * @param columns the columns of the variables (indexed by their slots, <c>null</c> for a variable bound to a single value).
+     * @param variables the values of the variables not bound to a column (indexed by their slots).
+     * @param results the array receiving the value of the expression for every row.
+     *
+     * @throws java.lang.IllegalArgumentException if the columns or the variables do not match the expression or the results.
+     */
+    public void evaluateScalar( CompiledExpression compiledExpression, double[][] columns, double[] variables,
+        double[] results )
+        throws IllegalArgumentException
+    {
+        checkArguments( compiledExpression, columns, variables, results );
+
+        if (operandStack.length < compiledExpression.getMaxStackDepth())
+        {
+            operandStack = new double[ compiledExpression.getMaxStackDepth() ];
+        }
+        if (rowVariables.length < variables.length)
+        {
+            rowVariables = new double[ variables.length ];
+        }
+        System.arraycopy( variables, 0, rowVariables, 0, variables.length );
+
+        int[] variableSlots = compiledExpression.getVariableSlots();
+        for (int row = 0; row < results.length; row++)
+        {
+            // Bind the variables of the row.
+            for (int slot : variableSlots)
+            {
+                if (columns[ slot ] != null)
+                {
+                    rowVariables[ slot ] = columns[ slot ][ row ];
+                }
+            }
+
+            results[ row ] = compiledExpression.interpret( rowVariables, operandStack );
+        }
+    }
+
+    // Private instance methods
+
+    /**
+     * Gets the operand stack of the columnar path (growing it if needed).
+     *
+     * @param depth the required depth.
+     *
+     * @return the operand stack.
+     */
+    private double[][] getBlockStack( int depth )
+    {
+        if (blockStack.length < depth)
+        {
+            double[][] stack = new double[ depth ][];
+            System.arraycopy( blockStack, 0, stack, 0, blockStack.length );
+            for (int i = blockStack.length; i < depth; i++)
+            {
+                stack[ i ] = new double[ BLOCK_SIZE ];
+            }
+            blockStack = stack;
+        }
+        return blockStack;
+    }
+
+    // Private static methods
+
+    /**
+     * Checks the arguments of the evaluation.
+     *
+     * @param compiledExpression the compiled expression.
+     * @param columns the columns of the variables.
+     * @param variables the values of the variables not bound to a column.
+     * @param results the array receiving the values.
+     *
+     * @throws java.lang.IllegalArgumentException if the columns or the variables do not match the expression or the results.
+     */
+    private static void checkArguments( CompiledExpression compiledExpression, double[][] columns, double[] variables,
+        double[] results )
+        throws IllegalArgumentException
+    {
+        // The columns and the variables must cover the slots read by the expression.
+        if (columns.length < compiledExpression.getSlotsCount() || variables.length < compiledExpression.getSlotsCount())
+        {
+            throw new IllegalArgumentException();
+        }
+        for (int slot = 0; slot < columns.length; slot++)
+        {
+            if (columns[ slot ] != null && columns[ slot ].length < results.length)
+            {
+                throw new IllegalArgumentException();
+            }
+        }
+    }
+
+    /**
+     * Adds the right operands to the left operands.
+     *
+     * @param left the left operands (receiving the results).
+     * @param right the right operands.
+     * @param n the number of operands.
+     */
+    private static void add( double[] left, double[] right, int n )
+    {
+        for (int i = 0; i < n; i++)
+        {
+            left[ i ] = left[ i ] + right[ i ];
+        }
+    }
+
+    /**
+     * Subtracts the right operands from the left operands.
+     *
+     * @param left the left operands (receiving the results).
+     * @param right the right operands.
+     * @param n the number of operands.
+     */
+    private static void subtract( double[] left, double[] right, int n )
+    {
+        for (int i = 0; i < n; i++)
+        {
+            left[ i ] = left[ i ] - right[ i ];
+        }
+    }
+
+    /**
+     * Multiplies the left operands by the right operands.
+     *
+     * @param left the left operands (receiving the results).
+     * @param right the right operands.
+     * @param n the number of operands.
+     */
+    private static void multiply( double[] left, double[] right, int n )
+    {
+        for (int i = 0; i < n; i++)
+        {
+            left[ i ] = left[ i ] * right[ i ];
+        }
+    }
+
+    /**
+     * Divides the left operands by the right operands.
+     *
+     * @param left the left operands (receiving the results).
+     * @param right the right operands.
+     * @param n the number of operands.
+     */
+    private static void divide( double[] left, double[] right, int n )
+    {
+        for (int i = 0; i < n; i++)
+        {
+            left[ i ] = left[ i ] / right[ i ];
+        }
+    }
+
+    /**
+     * Negates the operands.
+     *
+     * @param operands the operands (receiving the results).
+     * @param n the number of operands.
+     */
+    private static void negate( double[] operands, int n )
+    {
+        for (int i = 0; i < n; i++)
+        {
+            operands[ i ] = -operands[ i ];
+        }
+    }
+
+    /**
+     * Takes the square roots of the operands.
+     *
+     * @param operands the operands (receiving the results).
+     * @param n the number of operands.
+     */
+    private static void squareRoot( double[] operands, int n )
+    {
+        for (int i = 0; i < n; i++)
+        {
+            operands[ i ] = Math.sqrt( operands[ i ] );
+        }
+    }
+
+    /**
+     * Applies the instruction (of one operand) to the operands.
+     *
+     * @param instruction the instruction.
+     * @param operands the operands (receiving the results).
+     * @param n the number of operands.
+     */
+    private static void apply( int instruction, double[] operands, int n )
+    {
+        for (int i = 0; i < n; i++)
+        {
+            operands[ i ] = CompiledExpression.apply( instruction, operands[ i ] );
+        }
+    }
+
+    /**
+     * Applies the instruction (of two operands) to the left and the right operands.
+     *
+     * @param instruction the instruction.
+     * @param left the left operands (receiving the results).
+     * @param right the right operands.
+     * @param n the number of operands.
+     */
+    private static void apply( int instruction, double[] left, double[] right, int n )
+    {
+        for (int i = 0; i < n; i++)
+        {
+            left[ i ] = CompiledExpression.apply( instruction, left[ i ], right[ i ] );
+        }
+    }
+}
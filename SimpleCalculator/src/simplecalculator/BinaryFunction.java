@@ -0,0 +1,21 @@
+package simplecalculator;
+
+/**
+ * This (public) interface represents a function of two arguments which can be registered with the function registry.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public interface BinaryFunction
+{
+    /**
+     * Applies the function.
+     *
+     * The function must be pure: its value depends on its arguments only.
+     *
+     * @param x the first argument.
+     * @param y the second argument.
+     *
+     * @return the value of the function.
+     */
+    double apply( double x, double y );
+}
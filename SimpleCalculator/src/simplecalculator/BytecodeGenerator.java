@@ -0,0 +1,557 @@
+package simplecalculator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This (package-private) class represents a generator of JVM bytecode for compiled expressions.
+ *
+ * The program of a compiled expression is translated into a subclass of
+ * <code>GeneratedExpression</code> whose <code>evaluate</code> method computes the
+ * expression as straight-line <code>double</code> arithmetic on the JVM operand
+ * stack, reading the variables directly from their slots. Every generated class is
+ * defined by its own class loader, hence it is unloaded together with the (evicted)
+ * compiled expression referencing it.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+final class BytecodeGenerator
+{
+    // Private static fields
+
+    /** The number of classes generated so far (used to name them). */
+    private static final AtomicInteger generatedClassesCount = new AtomicInteger();
+
+    /** The internal name of the superclass of the generated classes (also the prefix of their names). */
+    private static final String SUPERCLASS_NAME = "simplecalculator/GeneratedExpression";
+
+    /** The class of the methods called by the built-in functions. */
+    private static final String MATH_CLASS_NAME = "java/lang/Math";
+
+    /** The maximum length of the code of a method. */
+    private static final int MAX_CODE_LENGTH = 65535;
+
+    /** The maximum number of entries of the constant pool. */
+    private static final int MAX_CONSTANT_POOL_COUNT = 65535;
+
+    /** The maximum depth of the operand stack of a method (in slots). */
+    private static final int MAX_STACK = 0xFFFF;
+
+    // The class file constants.
+    private static final int CLASS_FILE_MAGIC = 0xCAFEBABE;
+    private static final int CLASS_FILE_MAJOR_VERSION = 49;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    // The instruction set constants.
+    private static final int DCONST_0 = 0x0e;
+    private static final int DCONST_1 = 0x0f;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int DALOAD = 0x31;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DDIV = 0x6f;
+    private static final int DNEG = 0x77;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+
+    // Private instance fields
+
+    /** The constant pool (without its count). */
+    private final ByteArrayOutputStream constantPoolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream constantPool = new DataOutputStream( constantPoolBytes );
+
+    /** The number of entries of the constant pool (including the unusable zeroth one). */
+    private int constantPoolCount = 1;
+
+    /** The indices of the constant pool entries (keyed by their contents). */
+    private final HashMap< Object, Integer > constantPoolIndices = new HashMap< Object, Integer >();
+
+    // Private instance constructors
+
+    /**
+     * Creates a new bytecode generator.
+     */
+    private BytecodeGenerator()
+    {
+    }
+
+    // Package-private static methods
+
+    /**
+     * Generates the JVM bytecode for the compiled expression.
+     *
+     * @param compiledExpression the compiled expression.
+     *
+     * @return the generated expression, or <c>null</c> if the expression is too large for a single method or the JVM
+     *         rejected the generated class.
+     */
+    static GeneratedExpression generate( CompiledExpression compiledExpression )
+    {
+        String className = SUPERCLASS_NAME + "$" + generatedClassesCount.incrementAndGet();
+
+        byte[] classFile;
+        try
+        {
+            classFile = new BytecodeGenerator().generateClassFile( className, compiledExpression );
+        }
+        catch (IOException ex)
+        {
+            // Writing into a byte array never fails.
+            throw new IllegalStateException( ex );
+        }
+        if (classFile == null)
+        {
+            return null;
+        }
+
+        ExpressionClassLoader classLoader = new ExpressionClassLoader( GeneratedExpression.class.getClassLoader() );
+        try
+        {
+            Class< ? > generatedClass = classLoader.define( className.replace( '/', '.' ), classFile );
+            return (GeneratedExpression) generatedClass.getConstructor().newInstance();
+        }
+        catch (LinkageError ex)
+        {
+            // The JVM rejected the class (e.g. it failed verification); the expression stays interpreted.
+            return null;
+        }
+        catch (Exception ex)
+        {
+            throw new IllegalStateException( ex );
+        }
+    }
+
+    // Private instance methods
+
+    /**
+     * Generates the class file.
+     *
+     * @param className the (internal) name of the class.
+     * @param compiledExpression the compiled expression.
+     *
+     * @return the class file, or <c>null</c> if the expression is too large for a single method.
+     *
+     * @throws java.io.IOException never.
+     */
+    private byte[] generateClassFile( String className, CompiledExpression compiledExpression )
+        throws IOException
+    {
+        // The constructor (invoking the constructor of the superclass).
+        ByteArrayOutputStream constructorCode = new ByteArrayOutputStream();
+        constructorCode.write( ALOAD_0 );
+        constructorCode.write( INVOKESPECIAL );
+        writeShort( constructorCode, methodReference( SUPERCLASS_NAME, "<init>", "()V" ) );
+        constructorCode.write( RETURN );
+
+        // The evaluate method (straight-line arithmetic).
+        ByteArrayOutputStream evaluateCode = new ByteArrayOutputStream();
+        double[] constants = compiledExpression.getConstants();
+        for (int instruction : compiledExpression.getInstructions())
+        {
+            int operand = CompiledExpression.operand( instruction );
+            switch (CompiledExpression.opcode( instruction ))
+            {
+                case CompiledExpression.PUSH_CONSTANT:
+                    pushDouble( evaluateCode, constants[ operand ] );
+                    break;
+                case CompiledExpression.LOAD_VARIABLE:
+                    evaluateCode.write( ALOAD_1 );
+                    pushInt( evaluateCode, operand );
+                    evaluateCode.write( DALOAD );
+                    break;
+                case CompiledExpression.ADD:
+                    evaluateCode.write( DADD );
+                    break;
+                case CompiledExpression.SUBTRACT:
+                    evaluateCode.write( DSUB );
+                    break;
+                case CompiledExpression.MULTIPLY:
+                    evaluateCode.write( DMUL );
+                    break;
+                case CompiledExpression.DIVIDE:
+                    evaluateCode.write( DDIV );
+                    break;
+                case CompiledExpression.NEGATE:
+                    evaluateCode.write( DNEG );
+                    break;
+                case CompiledExpression.SQRT:
+                    invokeStatic( evaluateCode, MATH_CLASS_NAME, "sqrt", "(D)D" );
+                    break;
+                case CompiledExpression.EXP:
+                    invokeStatic( evaluateCode, MATH_CLASS_NAME, "exp", "(D)D" );
+                    break;
+                case CompiledExpression.LOG:
+                    invokeStatic( evaluateCode, MATH_CLASS_NAME, "log", "(D)D" );
+                    break;
+                case CompiledExpression.POW:
+                    invokeStatic( evaluateCode, MATH_CLASS_NAME, "pow", "(DD)D" );
+                    break;
+                case CompiledExpression.MIN:
+                    invokeStatic( evaluateCode, MATH_CLASS_NAME, "min", "(DD)D" );
+                    break;
+                case CompiledExpression.MAX:
+                    invokeStatic( evaluateCode, MATH_CLASS_NAME, "max", "(DD)D" );
+                    break;
+                case CompiledExpression.CALL_UNARY:
+                    pushInt( evaluateCode, operand );
+                    invokeStatic( evaluateCode, SUPERCLASS_NAME, "call", "(DI)D" );
+                    break;
+                case CompiledExpression.CALL_BINARY:
+                    pushInt( evaluateCode, operand );
+                    invokeStatic( evaluateCode, SUPERCLASS_NAME, "call", "(DDI)D" );
+                    break;
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+        evaluateCode.write( DRETURN );
+
+        int thisClass = classReference( className );
+        int superClass = classReference( SUPERCLASS_NAME );
+        int constructorName = utf8( "<init>" );
+        int constructorDescriptor = utf8( "()V" );
+        int evaluateName = utf8( "evaluate" );
+        int evaluateDescriptor = utf8( "([D)D" );
+        int codeName = utf8( "Code" );
+
+        // Every operand takes two slots; loading a variable (or calling a registered function) temporarily needs two more.
+        int maxStack = 2 * compiledExpression.getMaxStackDepth() + 2;
+
+        if (evaluateCode.size() > MAX_CODE_LENGTH || constantPoolCount > MAX_CONSTANT_POOL_COUNT
+            || maxStack > MAX_STACK)
+        {
+            return null;
+        }
+
+        // The class file.
+        ByteArrayOutputStream classFileBytes = new ByteArrayOutputStream();
+        DataOutputStream classFile = new DataOutputStream( classFileBytes );
+        classFile.writeInt( CLASS_FILE_MAGIC );
+        classFile.writeShort( 0 );
+        classFile.writeShort( CLASS_FILE_MAJOR_VERSION );
+        classFile.writeShort( constantPoolCount );
+        constantPool.flush();
+        constantPoolBytes.writeTo( classFile );
+        classFile.writeShort( ACC_PUBLIC | ACC_FINAL | ACC_SUPER );
+        classFile.writeShort( thisClass );
+        classFile.writeShort( superClass );
+        classFile.writeShort( 0 ); // interfaces
+        classFile.writeShort( 0 ); // fields
+        classFile.writeShort( 2 ); // methods
+        writeMethod( classFile, constructorName, constructorDescriptor, codeName, 1, 1, constructorCode );
+        writeMethod( classFile, evaluateName, evaluateDescriptor, codeName, maxStack, 2, evaluateCode );
+        classFile.writeShort( 0 ); // attributes
+        classFile.flush();
+
+        return classFileBytes.toByteArray();
+    }
+
+    /**
+     * Writes a (public) method.
+     *
+     * @param classFile the class file.
+     * @param name the index of the name of the method.
+     * @param descriptor the index of the descriptor of the method.
+     * @param codeName the index of the "Code" name.
+     * @param maxStack the maximum depth of the operand stack (in slots).
+     * @param maxLocals the number of local variables (in slots).
+     * @param code the code of the method.
+     *
+     * @throws java.io.IOException never.
+     */
+    private void writeMethod( DataOutputStream classFile, int name, int descriptor, int codeName, int maxStack,
+        int maxLocals, ByteArrayOutputStream code )
+        throws IOException
+    {
+        classFile.writeShort( ACC_PUBLIC );
+        classFile.writeShort( name );
+        classFile.writeShort( descriptor );
+        classFile.writeShort( 1 ); // attributes
+
+        // The Code attribute.
+        classFile.writeShort( codeName );
+        classFile.writeInt( 12 + code.size() );
+        classFile.writeShort( maxStack );
+        classFile.writeShort( maxLocals );
+        classFile.writeInt( code.size() );
+        code.writeTo( classFile );
+        classFile.writeShort( 0 ); // exception table
+        classFile.writeShort( 0 ); // attributes
+    }
+
+    /**
+     * Writes the instruction invoking a static method.
+     *
+     * @param code the code.
+     * @param className the (internal) name of the class declaring the method.
+     * @param name the name of the method.
+     * @param descriptor the descriptor of the method.
+     *
+     * @throws java.io.IOException never.
+     */
+    private void invokeStatic( ByteArrayOutputStream code, String className, String name, String descriptor )
+        throws IOException
+    {
+        code.write( INVOKESTATIC );
+        writeShort( code, methodReference( className, name, descriptor ) );
+    }
+
+    /**
+     * Writes the instruction pushing a double constant.
+     *
+     * @param code the code.
+     * @param value the constant.
+     *
+     * @throws java.io.IOException never.
+     */
+    private void pushDouble( ByteArrayOutputStream code, double value )
+        throws IOException
+    {
+        long bits = Double.doubleToRawLongBits( value );
+        if (bits == Double.doubleToRawLongBits( 0.0 ))
+        {
+            code.write( DCONST_0 );
+        }
+        else if (bits == Double.doubleToRawLongBits( 1.0 ))
+        {
+            code.write( DCONST_1 );
+        }
+        else
+        {
+            code.write( LDC2_W );
+            writeShort( code, doubleConstant( value ) );
+        }
+    }
+
+    /**
+     * Writes the instruction pushing an int constant.
+     *
+     * @param code the code.
+     * @param value the constant.
+     *
+     * @throws java.io.IOException never.
+     */
+    private void pushInt( ByteArrayOutputStream code, int value )
+        throws IOException
+    {
+        if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+        {
+            code.write( BIPUSH );
+            code.write( value );
+        }
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+        {
+            code.write( SIPUSH );
+            writeShort( code, value );
+        }
+        else
+        {
+            code.write( LDC_W );
+            writeShort( code, integerConstant( value ) );
+        }
+    }
+
+    /**
+     * Gets (or adds) the UTF-8 entry of the constant pool.
+     *
+     * @param value the string.
+     *
+     * @return the index of the entry.
+     *
+     * @throws java.io.IOException never.
+     */
+    private int utf8( String value )
+        throws IOException
+    {
+        Integer index = constantPoolIndices.get( value );
+        if (index == null)
+        {
+            constantPool.writeByte( CONSTANT_UTF8 );
+            constantPool.writeUTF( value );
+            index = addConstant( value, 1 );
+        }
+        return index;
+    }
+
+    /**
+     * Gets (or adds) the class entry of the constant pool.
+     *
+     * @param className the (internal) name of the class.
+     *
+     * @return the index of the entry.
+     *
+     * @throws java.io.IOException never.
+     */
+    private int classReference( String className )
+        throws IOException
+    {
+        String key = "class:" + className;
+        Integer index = constantPoolIndices.get( key );
+        if (index == null)
+        {
+            int name = utf8( className );
+            constantPool.writeByte( CONSTANT_CLASS );
+            constantPool.writeShort( name );
+            index = addConstant( key, 1 );
+        }
+        return index;
+    }
+
+    /**
+     * Gets (or adds) the method reference entry of the constant pool.
+     *
+     * @param className the (internal) name of the class declaring the method.
+     * @param name the name of the method.
+     * @param descriptor the descriptor of the method.
+     *
+     * @return the index of the entry.
+     *
+     * @throws java.io.IOException never.
+     */
+    private int methodReference( String className, String name, String descriptor )
+        throws IOException
+    {
+        String key = "method:" + className + "." + name + descriptor;
+        Integer index = constantPoolIndices.get( key );
+        if (index == null)
+        {
+            int classIndex = classReference( className );
+            int nameIndex = utf8( name );
+            int descriptorIndex = utf8( descriptor );
+            constantPool.writeByte( CONSTANT_NAME_AND_TYPE );
+            constantPool.writeShort( nameIndex );
+            constantPool.writeShort( descriptorIndex );
+            int nameAndTypeIndex = addConstant( "nameAndType:" + name + descriptor, 1 );
+            constantPool.writeByte( CONSTANT_METHODREF );
+            constantPool.writeShort( classIndex );
+            constantPool.writeShort( nameAndTypeIndex );
+            index = addConstant( key, 1 );
+        }
+        return index;
+    }
+
+    /**
+     * Gets (or adds) the double entry of the constant pool.
+     *
+     * @param value the double.
+     *
+     * @return the index of the entry.
+     *
+     * @throws java.io.IOException never.
+     */
+    private int doubleConstant( double value )
+        throws IOException
+    {
+        // The constants are keyed by their bits, so that -0.0 and the distinct NaNs are kept apart.
+        Long key = Double.doubleToRawLongBits( value );
+        Integer index = constantPoolIndices.get( key );
+        if (index == null)
+        {
+            constantPool.writeByte( CONSTANT_DOUBLE );
+            constantPool.writeLong( key );
+            index = addConstant( key, 2 );
+        }
+        return index;
+    }
+
+    /**
+     * Gets (or adds) the integer entry of the constant pool.
+     *
+     * @param value the integer.
+     *
+     * @return the index of the entry.
+     *
+     * @throws java.io.IOException never.
+     */
+    private int integerConstant( int value )
+        throws IOException
+    {
+        Integer key = value;
+        Integer index = constantPoolIndices.get( key );
+        if (index == null)
+        {
+            constantPool.writeByte( CONSTANT_INTEGER );
+            constantPool.writeInt( value );
+            index = addConstant( key, 1 );
+        }
+        return index;
+    }
+
+    /**
+     * Registers the (already written) entry of the constant pool.
+     *
+     * @param key the key of the entry.
+     * @param size the number of slots taken by the entry (two for doubles).
+     *
+     * @return the index of the entry.
+     */
+    private int addConstant( Object key, int size )
+    {
+        int index = constantPoolCount;
+        constantPoolIndices.put( key, index );
+        constantPoolCount += size;
+        return index;
+    }
+
+    // Private static methods
+
+    /**
+     * Writes an unsigned short (big-endian).
+     *
+     * @param code the code.
+     * @param value the value.
+     */
+    private static void writeShort( ByteArrayOutputStream code, int value )
+    {
+        code.write( value >>> 8 );
+        code.write( value );
+    }
+
+    /**
+     * This (private) class represents a class loader defining a single generated class.
+     */
+    private static final class ExpressionClassLoader extends ClassLoader
+    {
+        /**
+         * Creates a new expression class loader.
+         *
+         * @param parent the parent class loader.
+         */
+        ExpressionClassLoader( ClassLoader parent )
+        {
+            super( parent );
+        }
+
+        /**
+         * Defines the generated class.
+         *
+         * @param name the (binary) name of the class.
+         * @param classFile the class file.
+         *
+         * @return the class.
+         */
+        Class< ? > define( String name, byte[] classFile )
+        {
+            return defineClass( name, classFile, 0, classFile.length );
+        }
+    }
+}
@@ -0,0 +1,586 @@
+package simplecalculator;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This (public) class represents a calculator engine shared by many threads.
+ *
+ * The engine holds what can be shared: the compiled expressions (which are
+ * immutable) and the shared variables. Every thread evaluates expressions in its
+ * own session, which holds the variables assigned by that thread. A variable not
+ * assigned in the session reads the shared value of the engine.
+ *
+ * The cache of the compiled expressions is split into independently locked
+ * segments, and the shared variables are updated lock-free, so the engine can be
+ * used by any number of threads at once. The shared variables are kept in chunks
+ * of a fixed size: as new names come, new chunks are added (under a lock), but the
+ * existing ones are never copied, so no concurrent update can be lost.
+ *
+ * Every shared variable carries a version, so that the sessions may memoize the
+ * results of the compiled expressions. The value and the version of a variable
+ * are held by an immutable cell, which an update replaces (by a compare-and-set)
+ * with a new one of the next version; a reader of the cell thus always sees a
+ * value together with its own version.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public final class CalculatorEngine
+{
+    // Private instance fields
+
+    /** The segments of the cache of the compiled expressions (each guarded by its own lock). */
+    private final ExpressionCache[] expressionCacheSegments;
+
+    /** The chunks of the cells of the shared variables (<c>null</c> until assigned, padded to avoid false sharing; replaced when grown). */
+    private volatile AtomicReferenceArray< SharedVariable >[] sharedVariableChunks;
+
+    /** The number of evaluations after which a compiled expression is translated into JVM bytecode. */
+    private volatile int compilationThreshold;
+
+    // Private static fields
+
+    /** The default capacity of the cache of the compiled expressions. */
+    private static final int DEFAULT_EXPRESSION_CACHE_CAPACITY = 16384;
+
+    /** The default number of evaluations after which a compiled expression is translated into JVM bytecode. */
+    private static final int DEFAULT_COMPILATION_THRESHOLD = 10000;
+
+    /** The number of segments of the cache of the compiled expressions (a power of two). */
+    private static final int EXPRESSION_CACHE_SEGMENTS_COUNT = 64;
+
+    /** The distance (in elements) between two shared variables (one cache line of compressed references). */
+    private static final int SHARED_VARIABLE_STRIDE = 16;
+
+    /** The base-2 logarithm of the number of the shared variables per chunk. */
+    private static final int SHARED_VARIABLE_CHUNK_BITS = 6;
+
+    // Public instance constructors
+
+    /**
+     * Creates a new calculator engine.
+     */
+    public CalculatorEngine()
+    {
+        this( DEFAULT_EXPRESSION_CACHE_CAPACITY );
+    }
+
+    /**
+     * Creates a new calculator engine.
+     *
+     * @param expressionCacheCapacity the capacity of the cache of the compiled expressions (zero disables the cache).
+     *
+     * @throws java.lang.IllegalArgumentException if the capacity is negative.
+     */
+    public CalculatorEngine( int expressionCacheCapacity )
+        throws IllegalArgumentException
+    {
+        if (expressionCacheCapacity < 0)
+        {
+            throw new IllegalArgumentException();
+        }
+
+        int segmentCapacity = (expressionCacheCapacity + EXPRESSION_CACHE_SEGMENTS_COUNT - 1) / EXPRESSION_CACHE_SEGMENTS_COUNT;
+        expressionCacheSegments = new ExpressionCache[ EXPRESSION_CACHE_SEGMENTS_COUNT ];
+        for (int i = 0; i < EXPRESSION_CACHE_SEGMENTS_COUNT; i++)
+        {
+            expressionCacheSegments[ i ] = new ExpressionCache( segmentCapacity );
+        }
+        sharedVariableChunks = newSharedVariableChunks( 1 );
+        sharedVariableChunks[ 0 ] = new AtomicReferenceArray< SharedVariable >( SHARED_VARIABLE_STRIDE << SHARED_VARIABLE_CHUNK_BITS );
+        compilationThreshold = DEFAULT_COMPILATION_THRESHOLD;
+    }
+
+    // Public instance methods
+
+    /**
+     * Creates a new session (to be used by a single thread at a time).
+     *
+     * @return the session.
+     */
+    public CalculatorSession newSession()
+    {
+        return new CalculatorSession( this );
+    }
+
+    /**
+     * Compiles the expression (or gets the compiled expression from the cache).
+     *
+     * @param expression the expression.
+     *
+     * @return the compiled expression.
+     *
+     * @throws java.lang.IllegalArgumentException if the expression is illegal.
+     */
+    public CompiledExpression compile( String expression )
+        throws IllegalArgumentException
+    {
+        ExpressionCache segment = getExpressionCacheSegment( expression );
+
+        CompiledExpression compiledExpression;
+        synchronized (segment)
+        {
+            compiledExpression = segment.get( expression );
+        }
+        if (compiledExpression == null)
+        {
+            // Compile outside the lock; should another thread compile the same expression meanwhile, either result will do.
+            compiledExpression = ExpressionCompiler.compile( expression );
+            synchronized (segment)
+            {
+                segment.put( compiledExpression );
+            }
+        }
+        return compiledExpression;
+    }
+
+    /**
+     * Gets the shared value of the variable.
+     *
+     * @param variable the variable (a-z).
+     *
+     * @return the shared value of the variable (zero if it has not been assigned yet).
+     *
+     * @throws java.lang.IllegalArgumentException if the variable is illegal.
+     */
+    public double getSharedVariable( char variable )
+        throws IllegalArgumentException
+    {
+        return getSharedVariable( SymbolTable.getVariableSlot( variable ) );
+    }
+
+    /**
+     * Gets the shared value of the variable.
+     *
+     * @param name the name of the variable.
+     *
+     * @return the shared value of the variable (zero if it has not been assigned yet).
+     *
+     * @throws java.lang.IllegalArgumentException if the name is illegal.
+     */
+    public double getSharedVariable( String name )
+        throws IllegalArgumentException
+    {
+        return getSharedVariable( SymbolTable.getSlot( name ) );
+    }
+
+    /**
+     * Sets the shared value of the variable.
+     *
+     * @param variable the variable (a-z).
+     * @param value the shared value of the variable.
+     *
+     * @throws java.lang.IllegalArgumentException if the variable is illegal.
+     */
+    public void setSharedVariable( char variable, double value )
+        throws IllegalArgumentException
+    {
+        setSharedVariable( SymbolTable.getVariableSlot( variable ), value );
+    }
+
+    /**
+     * Sets the shared value of the variable.
+     *
+     * @param name the name of the variable.
+     * @param value the shared value of the variable.
+     *
+     * @throws java.lang.IllegalArgumentException if the name is illegal.
+     */
+    public void setSharedVariable( String name, double value )
+        throws IllegalArgumentException
+    {
+        setSharedVariable( SymbolTable.getSlot( name ), value );
+    }
+
+    /**
+     * Atomically adds to the shared value of the variable.
+     *
+     * @param variable the variable (a-z).
+     * @param delta the value to add.
+     *
+     * @return the new shared value of the variable.
+     *
+     * @throws java.lang.IllegalArgumentException if the variable is illegal.
+     */
+    public double addToSharedVariable( char variable, double delta )
+        throws IllegalArgumentException
+    {
+        return addToSharedVariable( SymbolTable.getVariableSlot( variable ), delta );
+    }
+
+    /**
+     * Atomically adds to the shared value of the variable.
+     *
+     * @param name the name of the variable.
+     * @param delta the value to add.
+     *
+     * @return the new shared value of the variable.
+     *
+     * @throws java.lang.IllegalArgumentException if the name is illegal.
+     */
+    public double addToSharedVariable( String name, double delta )
+        throws IllegalArgumentException
+    {
+        return addToSharedVariable( SymbolTable.getSlot( name ), delta );
+    }
+
+    /**
+     * Atomically sets the shared value of the variable if it still has the expected value.
+     *
+     * @param variable the variable (a-z).
+     * @param expectedValue the expected shared value (compared bit for bit).
+     * @param newValue the new shared value.
+     *
+     * @return <c>true</c> if the value has been set, <c>false</c> otherwise.
+     *
+     * @throws java.lang.IllegalArgumentException if the variable is illegal.
+     */
+    public boolean compareAndSetSharedVariable( char variable, double expectedValue, double newValue )
+        throws IllegalArgumentException
+    {
+        return compareAndSetSharedVariable( SymbolTable.getVariableSlot( variable ), expectedValue, newValue );
+    }
+
+    /**
+     * Atomically sets the shared value of the variable if it still has the expected value.
+     *
+     * @param name the name of the variable.
+     * @param expectedValue the expected shared value (compared bit for bit).
+     * @param newValue the new shared value.
+     *
+     * @return <c>true</c> if the value has been set, <c>false</c> otherwise.
+     *
+     * @throws java.lang.IllegalArgumentException if the name is illegal.
+     */
+    public boolean compareAndSetSharedVariable( String name, double expectedValue, double newValue )
+        throws IllegalArgumentException
+    {
+        return compareAndSetSharedVariable( SymbolTable.getSlot( name ), expectedValue, newValue );
+    }
+
+    /**
+     * Gets the number of evaluations after which a compiled expression is translated into JVM bytecode.
+     *
+     * @return the compilation threshold (zero or less if the translation is disabled).
+     */
+    public int getCompilationThreshold()
+    {
+        return compilationThreshold;
+    }
+
+    /**
+     * Sets the number of evaluations after which a compiled expression is translated into JVM bytecode.
+     *
+     * @param compilationThreshold the compilation threshold (zero or less disables the translation).
+     */
+    public void setCompilationThreshold( int compilationThreshold )
+    {
+        this.compilationThreshold = compilationThreshold;
+    }
+
+    /**
+     * Gets the number of cache lookups that found a compiled expression.
+     *
+     * @return the number of cache hits.
+     */
+    public long getExpressionCacheHitCount()
+    {
+        long count = 0;
+        for (ExpressionCache segment : expressionCacheSegments)
+        {
+            synchronized (segment)
+            {
+                count += segment.getHitCount();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of cache lookups that did not find a compiled expression.
+     *
+     * @return the number of cache misses.
+     */
+    public long getExpressionCacheMissCount()
+    {
+        long count = 0;
+        for (ExpressionCache segment : expressionCacheSegments)
+        {
+            synchronized (segment)
+            {
+                count += segment.getMissCount();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of compiled expressions evicted from the cache.
+     *
+     * @return the number of cache evictions.
+     */
+    public long getExpressionCacheEvictionCount()
+    {
+        long count = 0;
+        for (ExpressionCache segment : expressionCacheSegments)
+        {
+            synchronized (segment)
+            {
+                count += segment.getEvictionCount();
+            }
+        }
+        return count;
+    }
+
+    // Package-private instance methods
+
+    /**
+     * Gets the shared value of the variable.
+     *
+     * @param slot the slot of the variable.
+     *
+     * @return the shared value of the variable.
+     */
+    double getSharedVariable( int slot )
+    {
+        SharedVariable sharedVariable = getSharedVariableCell( slot );
+        return (sharedVariable != null) ? Double.longBitsToDouble( sharedVariable.bits ) : 0.0;
+    }
+
+    /**
+     * Gets the shared value of the variable along with its version.
+     *
+     * @param slot the slot of the variable.
+     * @param versions the versions to store the version of the variable into.
+     * @param versionIndex the index of the version of the variable in the versions.
+     *
+     * @return the shared value of the variable (of the version stored).
+     */
+    double getSharedVariable( int slot, long[] versions, int versionIndex )
+    {
+        SharedVariable sharedVariable = getSharedVariableCell( slot );
+        if (sharedVariable == null)
+        {
+            versions[ versionIndex ] = 0;
+            return 0.0;
+        }
+        versions[ versionIndex ] = sharedVariable.version;
+        return Double.longBitsToDouble( sharedVariable.bits );
+    }
+
+    /**
+     * Gets the version of the shared variable.
+     *
+     * @param slot the slot of the variable.
+     *
+     * @return the version of the shared variable (zero if it has not been assigned yet).
+     */
+    long getSharedVariableVersion( int slot )
+    {
+        SharedVariable sharedVariable = getSharedVariableCell( slot );
+        return (sharedVariable != null) ? sharedVariable.version : 0;
+    }
+
+    // Private instance methods
+
+    /**
+     * Sets the shared value of the variable.
+     *
+     * @param slot the slot of the variable.
+     * @param value the shared value of the variable.
+     */
+    private void setSharedVariable( int slot, double value )
+    {
+        AtomicReferenceArray< SharedVariable > chunk = getSharedVariableChunk( slot );
+        int index = getSharedVariableIndex( slot );
+        long bits = Double.doubleToRawLongBits( value );
+        while (true)
+        {
+            SharedVariable sharedVariable = chunk.get( index );
+            if (chunk.compareAndSet( index, sharedVariable, SharedVariable.next( sharedVariable, bits ) ))
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Atomically adds to the shared value of the variable.
+     *
+     * @param slot the slot of the variable.
+     * @param delta the value to add.
+     *
+     * @return the new shared value of the variable.
+     */
+    private double addToSharedVariable( int slot, double delta )
+    {
+        AtomicReferenceArray< SharedVariable > chunk = getSharedVariableChunk( slot );
+        int index = getSharedVariableIndex( slot );
+        while (true)
+        {
+            SharedVariable sharedVariable = chunk.get( index );
+            double value = ((sharedVariable != null) ? Double.longBitsToDouble( sharedVariable.bits ) : 0.0) + delta;
+            if (chunk.compareAndSet( index, sharedVariable,
+                SharedVariable.next( sharedVariable, Double.doubleToRawLongBits( value ) ) ))
+            {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Atomically sets the shared value of the variable if it still has the expected value.
+     *
+     * @param slot the slot of the variable.
+     * @param expectedValue the expected shared value (compared bit for bit).
+     * @param newValue the new shared value.
+     *
+     * @return <c>true</c> if the value has been set, <c>false</c> otherwise.
+     */
+    private boolean compareAndSetSharedVariable( int slot, double expectedValue, double newValue )
+    {
+        AtomicReferenceArray< SharedVariable > chunk = getSharedVariableChunk( slot );
+        int index = getSharedVariableIndex( slot );
+        long expectedBits = Double.doubleToRawLongBits( expectedValue );
+        long newBits = Double.doubleToRawLongBits( newValue );
+        while (true)
+        {
+            // A cell is never reused, so the cell read still holding the expected value means the value is still expected.
+            SharedVariable sharedVariable = chunk.get( index );
+            if (((sharedVariable != null) ? sharedVariable.bits : 0) != expectedBits)
+            {
+                return false;
+            }
+            if (chunk.compareAndSet( index, sharedVariable, SharedVariable.next( sharedVariable, newBits ) ))
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gets the cell of the shared variable.
+     *
+     * @param slot the slot of the variable.
+     *
+     * @return the cell of the shared variable, or <c>null</c> if it has not been assigned yet.
+     */
+    private SharedVariable getSharedVariableCell( int slot )
+    {
+        AtomicReferenceArray< SharedVariable >[] chunks = sharedVariableChunks;
+        int chunk = slot >>> SHARED_VARIABLE_CHUNK_BITS;
+        return (chunk < chunks.length) ? chunks[ chunk ].get( getSharedVariableIndex( slot ) ) : null;
+    }
+
+    /**
+     * Gets the chunk of the shared variables holding the variable (adding the missing chunks).
+     *
+     * @param slot the slot of the variable.
+     *
+     * @return the chunk.
+     */
+    private AtomicReferenceArray< SharedVariable > getSharedVariableChunk( int slot )
+    {
+        int chunk = slot >>> SHARED_VARIABLE_CHUNK_BITS;
+        AtomicReferenceArray< SharedVariable >[] chunks = sharedVariableChunks;
+        if (chunk >= chunks.length)
+        {
+            synchronized (this)
+            {
+                chunks = sharedVariableChunks;
+                if (chunk >= chunks.length)
+                {
+                    // The existing chunks are shared by the new array (their values stay in place).
+                    AtomicReferenceArray< SharedVariable >[] newChunks =
+                        newSharedVariableChunks( Math.max( chunk + 1, 2 * chunks.length ) );
+                    System.arraycopy( chunks, 0, newChunks, 0, chunks.length );
+                    for (int i = chunks.length; i < newChunks.length; i++)
+                    {
+                        newChunks[ i ] = new AtomicReferenceArray< SharedVariable >( SHARED_VARIABLE_STRIDE << SHARED_VARIABLE_CHUNK_BITS );
+                    }
+                    sharedVariableChunks = newChunks;
+                    chunks = newChunks;
+                }
+            }
+        }
+        return chunks[ chunk ];
+    }
+
+    /**
+     * Gets the segment of the cache of the compiled expressions responsible for the expression.
+     *
+     * @param expression the expression.
+     *
+     * @return the segment.
+     */
+    private ExpressionCache getExpressionCacheSegment( String expression )
+    {
+        // Spread the higher bits of the hash code (the lower ones select the segment).
+        int hash = expression.hashCode();
+        hash ^= (hash >>> 16);
+        return expressionCacheSegments[ hash & (EXPRESSION_CACHE_SEGMENTS_COUNT - 1) ];
+    }
+
+    // Private static methods
+
+    /**
+     * Creates an array of the chunks of the shared variables (no chunk created yet).
+     *
+     * @param length the number of the chunks.
+     *
+     * @return the array of the chunks.
+     */
+    @SuppressWarnings( "unchecked" )
+    private static AtomicReferenceArray< SharedVariable >[] newSharedVariableChunks( int length )
+    {
+        return (AtomicReferenceArray< SharedVariable >[]) new AtomicReferenceArray[ length ];
+    }
+
+    /**
+     * Gets the index of the shared variable in its chunk.
+     *
+     * @param slot the slot of the variable.
+     *
+     * @return the index of the variable in its chunk.
+     */
+    private static int getSharedVariableIndex( int slot )
+    {
+        return (slot & ((1 << SHARED_VARIABLE_CHUNK_BITS) - 1)) * SHARED_VARIABLE_STRIDE;
+    }
+
+    /**
+     * This (private) class represents the (immutable) cell of a shared variable.
+     */
+    private static final class SharedVariable
+    {
+        /** The bits of the value. */
+        final long bits;
+
+        /** The version (the number of the updates of the variable so far). */
+        final long version;
+
+        /**
+         * Creates a new cell of a shared variable.
+         *
+         * @param bits the bits of the value.
+         * @param version the version.
+         */
+        SharedVariable( long bits, long version )
+        {
+            this.bits = bits;
+            this.version = version;
+        }
+
+        /**
+         * Creates the cell replacing the cell of a shared variable.
+         *
+         * @param sharedVariable the cell replaced, or <c>null</c> if the variable has not been assigned yet.
+         * @param bits the bits of the new value.
+         *
+         * @return the new cell (of the next version).
+         */
+        static SharedVariable next( SharedVariable sharedVariable, long bits )
+        {
+            return new SharedVariable( bits, (sharedVariable != null) ? sharedVariable.version + 1 : 1 );
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package simplecalculator;
+
+import java.util.Arrays;
+
+/**
+ * This (public) class represents the metrics of the expressions evaluated by a calculator.
+ *
+ * For every phase, the metrics count the expressions and keep a histogram of the
+ * times spent on them (the buckets grow by powers of two, so recording a time costs
+ * a few array writes). The illegal expressions are counted by the cause they are
+ * illegal for, and an expression taking longer than the slow expression threshold
+ * is counted and passed to the slow expression listener (if any).
+ *
+ * The metrics are opt-in: a calculator without metrics does not even read the clock.
+ * The metrics must not be shared by calculators used by different threads.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public final class CalculatorMetrics
+{
+    /**
+     * This (public) enumeration represents the phases of the evaluation of an expression.
+     */
+    public enum Phase
+    {
+        /** The compilation of a legal expression (its lexing and its conversion into the postfix notation, done in a single pass). */
+        COMPILE,
+
+        /** The evaluation of a compiled expression. */
+        EVALUATE,
+
+        /** The compilation of an illegal expression (up to the point it is found illegal). */
+        ERROR
+    }
+
+    // Private instance fields
+
+    /** The numbers of the expressions (indexed by the phases). */
+    private final long[] counts;
+
+    /** The total times (indexed by the phases). */
+    private final long[] totalTimes;
+
+    /** The maximum times (indexed by the phases). */
+    private final long[] maxTimes;
+
+    /** The histograms of the times (indexed by the phases and the buckets). */
+    private final long[][] histograms;
+
+    /** The numbers of the illegal expressions (indexed by the causes). */
+    private final long[] errorCounts;
+
+    /** The number of the slow expressions. */
+    private long slowExpressionsCount;
+
+    /** The number of the evaluations answered by a memoized result. */
+    private long memoizedHitsCount;
+
+    /** The number of the evaluations not answered by a memoized result (while memoizing). */
+    private long memoizedMissesCount;
+
+    /** The time (in nanoseconds) an expression has to take to be slow. */
+    private long slowExpressionThreshold;
+
+    /** The listener notified of the slow expressions, or <c>null</c>. */
+    private SlowExpressionListener slowExpressionListener;
+
+    // Package-private static fields
+
+    /** The number of the buckets of a histogram (the bucket i holds the times below 2^i not held by the previous ones). */
+    static final int BUCKETS_COUNT = 64;
+
+    // Public instance constructors
+
+    /**
+     * Creates new metrics (with no slow expression threshold).
+     */
+    public CalculatorMetrics()
+    {
+        int phasesCount = Phase.values().length;
+        counts = new long[ phasesCount ];
+        totalTimes = new long[ phasesCount ];
+        maxTimes = new long[ phasesCount ];
+        histograms = new long[ phasesCount ][ BUCKETS_COUNT ];
+        errorCounts = new long[ ExpressionError.values().length ];
+        slowExpressionThreshold = Long.MAX_VALUE;
+    }
+
+    // Public instance methods
+
+    /**
+     * Takes a snapshot of the metrics.
+     *
+     * @return the snapshot of the metrics.
+     */
+    public MetricsSnapshot snapshot()
+    {
+        return new MetricsSnapshot( counts, totalTimes, maxTimes, histograms, errorCounts, slowExpressionsCount,
+            memoizedHitsCount, memoizedMissesCount );
+    }
+
+    /**
+     * Resets the metrics (keeping the slow expression threshold and listener).
+     */
+    public void reset()
+    {
+        for (int phase = 0; phase < counts.length; phase++)
+        {
+            counts[ phase ] = 0;
+            totalTimes[ phase ] = 0;
+            maxTimes[ phase ] = 0;
+            Arrays.fill( histograms[ phase ], 0 );
+        }
+        Arrays.fill( errorCounts, 0 );
+        slowExpressionsCount = 0;
+        memoizedHitsCount = 0;
+        memoizedMissesCount = 0;
+    }
+
+    /**
+     * Gets the time an expression has to take to be slow.
+     *
+     * @return the slow expression threshold (in nanoseconds).
+     */
+    public long getSlowExpressionThreshold()
+    {
+        return slowExpressionThreshold;
+    }
+
+    /**
+     * Sets the time an expression has to take to be slow.
+     *
+     * @param slowExpressionThreshold the slow expression threshold (in nanoseconds; <code>Long.MAX_VALUE</code> disables it).
+     *
+     * @throws java.lang.IllegalArgumentException if the threshold is negative.
+     */
+    public void setSlowExpressionThreshold( long slowExpressionThreshold )
+        throws IllegalArgumentException
+    {
+        if (slowExpressionThreshold < 0)
+        {
+            throw new IllegalArgumentException();
+        }
+        this.slowExpressionThreshold = slowExpressionThreshold;
+    }
+
+    /**
+     * Gets the listener notified of the slow expressions.
+     *
+     * @return the slow expression listener, or <c>null</c>.
+     */
+    public SlowExpressionListener getSlowExpressionListener()
+    {
+        return slowExpressionListener;
+    }
+
+    /**
+     * Sets the listener notified of the slow expressions.
+     *
+     * @param slowExpressionListener the slow expression listener (<c>null</c> to notify none).
+     */
+    public void setSlowExpressionListener( SlowExpressionListener slowExpressionListener )
+    {
+        this.slowExpressionListener = slowExpressionListener;
+    }
+
+    // Package-private instance methods
+
+    /**
+     * Records the time spent in the phase.
+     *
+     * @param phase the phase.
+     * @param time the time (in nanoseconds).
+     */
+    void record( Phase phase, long time )
+    {
+        int index = phase.ordinal();
+        counts[ index ]++;
+        totalTimes[ index ] += time;
+        if (time > maxTimes[ index ])
+        {
+            maxTimes[ index ] = time;
+        }
+        histograms[ index ][ getBucket( time ) ]++;
+    }
+
+    /**
+     * Records an illegal expression.
+     *
+     * @param error the cause the expression is illegal for.
+     * @param time the time spent on the expression (in nanoseconds).
+     */
+    void recordError( ExpressionError error, long time )
+    {
+        record( Phase.ERROR, time );
+        errorCounts[ error.ordinal() ]++;
+    }
+
+    /**
+     * Records an evaluation of a compiled expression while memoizing.
+     *
+     * @param hit <c>true</c> if the evaluation has been answered by a memoized result, <c>false</c> otherwise.
+     */
+    void recordMemoization( boolean hit )
+    {
+        if (hit)
+        {
+            memoizedHitsCount++;
+        }
+        else
+        {
+            memoizedMissesCount++;
+        }
+    }
+
+    /**
+     * Records the time spent on the expression as a whole (checking whether it is slow).
+     *
+     * @param input the characters holding the expression.
+     * @param start the position of the first character of the expression.
+     * @param end the position one past the last character of the expression.
+     * @param time the time (in nanoseconds).
+     */
+    void recordExpression( CharSequence input, int start, int end, long time )
+    {
+        if (time >= slowExpressionThreshold)
+        {
+            slowExpressionsCount++;
+            if (slowExpressionListener != null)
+            {
+                slowExpressionListener.slowExpression( input.subSequence( start, end ).toString(), time );
+            }
+        }
+    }
+
+    // Package-private static methods
+
+    /**
+     * Gets the bucket of the histogram holding the time.
+     *
+     * @param time the time (in nanoseconds).
+     *
+     * @return the bucket.
+     */
+    static int getBucket( long time )
+    {
+        return Math.min( Long.SIZE - Long.numberOfLeadingZeros( time ), BUCKETS_COUNT - 1 );
+    }
+}
@@ -0,0 +1,369 @@
+package simplecalculator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * This (public) class represents a server evaluating the expressions sent over local TCP connections.
+ *
+ * The protocol is line-based: a client sends expressions (in ASCII, one per line)
+ * and receives their values (one per line, formatted like the standard output of
+ * the application) in the same order; an illegal expression is answered by the
+ * error string and the connection goes on. A client may send any number of
+ * expressions ahead of their values (pipelining): the values are written in large
+ * blocks while more expressions are waiting, and flushed whenever the client has
+ * to be waited for.
+ *
+ * Every connection is served by its own thread in its own session of a shared
+ * engine, i.e. with its own variables (initially zero), but with the compiled
+ * expressions shared by all the connections. The number of connections served at
+ * once is limited: the server accepts no more connections until one is closed,
+ * leaving the clients waiting in the backlog of the server socket. A connection
+ * whose client does not read its values is not read from either (its values fill
+ * the TCP buffers first), and a line longer than the maximum length is answered by
+ * the error string (its rest being skipped instead of buffered), so a connection
+ * buffers a bounded amount of data. The names of the variables assigned are however
+ * interned for the lifetime of the process (in the symbol table shared by all the
+ * connections), so clients assigning ever new variables grow it without bound.
+ *
+ * The server listens on the loopback interface only.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public final class CalculatorServer
+{
+    // Private instance fields
+
+    /** The server socket. */
+    private final ServerSocket serverSocket;
+
+    /** The engine shared by all the connections. */
+    private final CalculatorEngine engine;
+
+    /** The permits to serve a connection (one per connection which may be served at once). */
+    private final Semaphore connectionPermits;
+
+    /** The threads serving the connections. */
+    private final ExecutorService connectionThreads;
+
+    /** The sockets of the connections being served (guarded by itself). */
+    private final Set< Socket > connections;
+
+    /** Has the server been closed? */
+    private volatile boolean closed;
+
+    // Public static fields
+
+    /** The default maximum number of connections served at once. */
+    public static final int DEFAULT_MAX_CONNECTIONS = 64;
+
+    // Private static fields
+
+    /** The maximum number of connections waiting to be accepted. */
+    private static final int BACKLOG = 128;
+
+    /** The maximum length of a line (in characters, without its terminator). */
+    private static final int MAX_LINE_LENGTH = 65536;
+
+    // Public instance constructors
+
+    /**
+     * Creates a new server (listening on the loopback interface).
+     *
+     * @param port the port (zero for any free port).
+     * @param maxConnections the maximum number of connections served at once.
+     *
+     * @throws java.io.IOException if the server socket cannot be opened.
+     * @throws java.lang.IllegalArgumentException if the maximum number of connections is not positive.
+     */
+    public CalculatorServer( int port, int maxConnections )
+        throws IOException, IllegalArgumentException
+    {
+        if (maxConnections < 1)
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.serverSocket = new ServerSocket( port, BACKLOG, InetAddress.getByName( "127.0.0.1" ) );
+        this.engine = new CalculatorEngine();
+        this.connectionPermits = new Semaphore( maxConnections );
+        this.connectionThreads = Executors.newCachedThreadPool( new DaemonThreadFactory( "CalculatorServer-connection" ) );
+        this.connections = new HashSet< Socket >();
+    }
+
+    // Public instance methods
+
+    /**
+     * Gets the port the server listens on.
+     *
+     * @return the port.
+     */
+    public int getPort()
+    {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts and serves the connections (until the server is closed).
+     *
+     * @throws java.io.IOException if a connection cannot be accepted.
+     */
+    public void serve()
+        throws IOException
+    {
+        try
+        {
+            while (!closed)
+            {
+                // Wait for a connection to be closed if there are too many of them.
+                connectionPermits.acquire();
+
+                final Socket socket;
+                try
+                {
+                    socket = serverSocket.accept();
+                }
+                catch (IOException ex)
+                {
+                    connectionPermits.release();
+                    if (closed)
+                    {
+                        break;
+                    }
+                    throw ex;
+                }
+
+                synchronized (connections)
+                {
+                    connections.add( socket );
+                }
+                connectionThreads.execute( new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            serveConnection( socket );
+                        }
+                        catch (IOException ex)
+                        {
+                            // The connection has been broken (by the client or by closing the server).
+                        }
+                        finally
+                        {
+                            closeConnection( socket );
+                            connectionPermits.release();
+                        }
+                    }
+                } );
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Closes the server (and all its connections).
+     */
+    public void close()
+    {
+        closed = true;
+        try
+        {
+            serverSocket.close();
+        }
+        catch (IOException ex)
+        {
+            // The server socket is closed anyway.
+        }
+
+        Socket[] sockets;
+        synchronized (connections)
+        {
+            sockets = connections.toArray( new Socket[ connections.size() ] );
+        }
+        for (Socket socket : sockets)
+        {
+            closeConnection( socket );
+        }
+        connectionThreads.shutdown();
+    }
+
+    /**
+     * Gets the engine shared by all the connections.
+     *
+     * @return the engine.
+     */
+    public CalculatorEngine getEngine()
+    {
+        return engine;
+    }
+
+    // Private instance methods
+
+    /**
+     * Serves the connection (until the client closes it).
+     *
+     * @param socket the socket of the connection.
+     *
+     * @throws java.io.IOException if the connection is broken.
+     */
+    private void serveConnection( Socket socket )
+        throws IOException
+    {
+        socket.setTcpNoDelay( true );
+        CalculatorSession session = engine.newSession();
+        LineReader reader = new LineReader( new BufferedReader( new InputStreamReader( socket.getInputStream(), "US-ASCII" ) ) );
+        ResultWriter writer = new ResultWriter( socket.getOutputStream() );
+
+        StringBuilder line = new StringBuilder();
+        while (reader.readLine( line ))
+        {
+            if (line.length() > MAX_LINE_LENGTH)
+            {
+                writer.println( SimpleCalculator.ERROR );
+            }
+            else
+            {
+                try
+                {
+                    writer.println( session.evaluate( line.toString() ) );
+                }
+                catch (IllegalArgumentException ex)
+                {
+                    writer.println( SimpleCalculator.ERROR );
+                }
+            }
+
+            // Write the values so far if the client has to be waited for.
+            if (!reader.ready())
+            {
+                writer.flush();
+                if (writer.checkError())
+                {
+                    throw new SocketException( "The connection has been broken." );
+                }
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * Closes the connection (and forgets it).
+     *
+     * @param socket the socket of the connection.
+     */
+    private void closeConnection( Socket socket )
+    {
+        synchronized (connections)
+        {
+            connections.remove( socket );
+        }
+        try
+        {
+            socket.close();
+        }
+        catch (IOException ex)
+        {
+            // The socket is closed anyway.
+        }
+    }
+
+    /**
+     * This (private) class represents a reader of the lines of a connection, not buffering more than the maximum length of a line.
+     *
+     * The lines are terminated like by <code>BufferedReader.readLine</code>; the line
+     * feed following a carriage return is skipped when the next line is read, so that
+     * a client ending its lines by carriage returns is not waited for.
+     */
+    private static final class LineReader
+    {
+        /** The reader of the connection. */
+        private final BufferedReader reader;
+
+        /** Is a line feed to be skipped (the last line having ended by a carriage return)? */
+        private boolean skippingLineFeed;
+
+        /**
+         * Creates a new line reader.
+         *
+         * @param reader the reader of the connection.
+         */
+        LineReader( BufferedReader reader )
+        {
+            this.reader = reader;
+        }
+
+        /**
+         * Reads a line, keeping at most one character past the maximum length (the rest of a longer line is skipped).
+         *
+         * @param line the builder receiving the line (without its terminator; longer than the maximum length if the line is).
+         *
+         * @return <c>true</c> if a line has been read, <c>false</c> at the end of the stream.
+         *
+         * @throws java.io.IOException if the connection is broken.
+         */
+        boolean readLine( StringBuilder line )
+            throws IOException
+        {
+            line.setLength( 0 );
+            int ch = reader.read();
+            if (ch == '\n' && skippingLineFeed)
+            {
+                ch = reader.read();
+            }
+            skippingLineFeed = false;
+            if (ch < 0)
+            {
+                return false;
+            }
+
+            while (ch >= 0 && ch != '\n' && ch != '\r')
+            {
+                if (line.length() <= MAX_LINE_LENGTH)
+                {
+                    line.append( (char) ch );
+                }
+                ch = reader.read();
+            }
+            skippingLineFeed = (ch == '\r');
+            return true;
+        }
+
+        /**
+         * Tells whether a character can be read without waiting for the client.
+         *
+         * @return <c>true</c> if a character can be read without waiting, <c>false</c> otherwise.
+         *
+         * @throws java.io.IOException if the connection is broken.
+         */
+        boolean ready()
+            throws IOException
+        {
+            // The line feed to be skipped (if already received) does not count.
+            if (skippingLineFeed && reader.ready())
+            {
+                reader.mark( 1 );
+                if (reader.read() == '\n')
+                {
+                    skippingLineFeed = false;
+                    return reader.ready();
+                }
+                reader.reset();
+            }
+            return reader.ready();
+        }
+    }
+}
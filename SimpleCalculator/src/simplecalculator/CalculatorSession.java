@@ -0,0 +1,435 @@
+package simplecalculator;
+
+/**
+ * This (public) class represents a session of a calculator engine.
+ *
+ * A session is a lightweight variable scope: it holds the variables assigned in it,
+ * an operand stack and a small cache of compiled expressions, and reads the
+ * variables not assigned in it from the shared variables of its engine. A session
+ * must not be used by more than one thread at a time; its engine and the compiled
+ * expressions are shared by all the sessions.
+ *
+ * Once memoization is turned on, a session keeps the last results of the compiled
+ * expressions it evaluates (in a small table of its own), each along with the
+ * clock of the session and the versions of the shared variables read. Evaluating
+ * an expression again with none of its variables assigned since, neither in the
+ * session nor in the engine, costs only a comparison of their versions.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public final class CalculatorSession
+{
+    // Private instance fields
+
+    /** The engine of the session. */
+    private final CalculatorEngine engine;
+
+    /** The variables of the session (indexed by their slots). */
+    private double[] variables;
+
+    /** The flags of the variables assigned in the session (indexed by their slots, as long as the variables). */
+    private boolean[] assignedVariables;
+
+    /** The operand stack (reused by all the evaluations). */
+    private double[] operandStack;
+
+    /** The (unsynchronized) cache of the compiled expressions recently evaluated in the session. */
+    private final ExpressionCache expressionCache;
+
+    /** The versions of the variables (the clock at their last assignment or unassignment in the session; as long as the variables). */
+    private long[] versions;
+
+    /** The clock (the number of assignments and unassignments in the session so far). */
+    private long clock;
+
+    /** The memoized results (indexed by the identity hash codes of their compiled expressions), or <c>null</c> if not memoizing. */
+    private SessionResult[] memoizedResults;
+
+    // Private static fields
+
+    /** The capacity of the cache of the compiled expressions recently evaluated in the session. */
+    private static final int EXPRESSION_CACHE_CAPACITY = 256;
+
+    /** The number of the memoized results (a power of two). */
+    private static final int MEMOIZED_RESULTS_COUNT = 256;
+
+    // Package-private instance constructors
+
+    /**
+     * Creates a new session.
+     *
+     * @param engine the engine of the session.
+     */
+    CalculatorSession( CalculatorEngine engine )
+    {
+        this.engine = engine;
+        this.variables = new double[ SimpleCalculator.VARIABLES_COUNT ];
+        this.assignedVariables = new boolean[ SimpleCalculator.VARIABLES_COUNT ];
+        this.versions = new long[ SimpleCalculator.VARIABLES_COUNT ];
+        this.operandStack = new double[ 16 ];
+        this.expressionCache = new ExpressionCache( EXPRESSION_CACHE_CAPACITY );
+    }
+
+    // Public instance methods
+
+    /**
+     * Evaluates the expression (compiled by, or cached in, the engine).
+     *
+     * The compiled expressions recently evaluated in the session are also cached in
+     * the session itself, so that the hot expressions do not contend for the locks of
+     * the shared cache.
+     *
+     * @param expression the expression.
+     *
+     * @return the value of the expression.
+     *
+     * @throws java.lang.IllegalArgumentException if the expression is illegal.
+     */
+    public double evaluate( String expression )
+        throws IllegalArgumentException
+    {
+        CompiledExpression compiledExpression = expressionCache.get( expression );
+        if (compiledExpression == null)
+        {
+            compiledExpression = engine.compile( expression );
+            expressionCache.put( compiledExpression );
+        }
+
+        return evaluate( compiledExpression );
+    }
+
+    /**
+     * Evaluates the compiled expression.
+     *
+     * @param compiledExpression the compiled expression.
+     *
+     * @return the value of the expression.
+     */
+    public double evaluate( CompiledExpression compiledExpression )
+    {
+        if (variables.length < compiledExpression.getSlotsCount())
+        {
+            growVariables( compiledExpression.getSlotsCount() );
+        }
+
+        // Answer by the memoized result, if it is still valid.
+        SessionResult memoizedResult = null;
+        if (memoizedResults != null)
+        {
+            int index = System.identityHashCode( compiledExpression ) & (MEMOIZED_RESULTS_COUNT - 1);
+            memoizedResult = memoizedResults[ index ];
+            if (memoizedResult != null && memoizedResult.compiledExpression == compiledExpression
+                && isUnchanged( compiledExpression, memoizedResult ))
+            {
+                if (compiledExpression.isAssignment())
+                {
+                    assign( compiledExpression.getVariableSlot(), memoizedResult.value );
+                }
+                return memoizedResult.value;
+            }
+
+            // Take over the entry of the table (it is the session's own).
+            if (memoizedResult == null)
+            {
+                memoizedResult = new SessionResult();
+                memoizedResults[ index ] = memoizedResult;
+            }
+            memoizedResult.compiledExpression = null;
+            int variablesCount = compiledExpression.getVariableSlots().length;
+            if (memoizedResult.sharedVersions == null || memoizedResult.sharedVersions.length < variablesCount)
+            {
+                memoizedResult.sharedVersions = new long[ variablesCount ];
+            }
+        }
+
+        // Bring in the shared values of the variables read by the expression but not assigned in the session.
+        int[] variableSlots = compiledExpression.getVariableSlots();
+        for (int i = 0; i < variableSlots.length; i++)
+        {
+            int slot = variableSlots[ i ];
+            if (!assignedVariables[ slot ])
+            {
+                variables[ slot ] = (memoizedResult != null)
+                    ? engine.getSharedVariable( slot, memoizedResult.sharedVersions, i )
+                    : engine.getSharedVariable( slot );
+            }
+        }
+
+        // Make sure the operand stack is deep enough.
+        if (operandStack.length < compiledExpression.getMaxStackDepth())
+        {
+            operandStack = new double[ Math.max( compiledExpression.getMaxStackDepth(), 2 * operandStack.length ) ];
+        }
+
+        // Evaluate the right-hand side (giving the result of the expression).
+        double result = compiledExpression.evaluate( variables, operandStack, engine.getCompilationThreshold() );
+        if (memoizedResult != null)
+        {
+            memoizedResult.compiledExpression = compiledExpression;
+            memoizedResult.stamp = clock;
+            memoizedResult.value = result;
+        }
+
+        // If the expression is an assignment expression, assign the result to the left-hand side (in the session).
+        if (compiledExpression.isAssignment())
+        {
+            assign( compiledExpression.getVariableSlot(), result );
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the value of the variable (the shared one, unless it has been assigned in the session).
+     *
+     * @param variable the variable (a-z).
+     *
+     * @return the value of the variable.
+     *
+     * @throws java.lang.IllegalArgumentException if the variable is illegal.
+     */
+    public double getVariable( char variable )
+        throws IllegalArgumentException
+    {
+        return getVariable( SymbolTable.getVariableSlot( variable ) );
+    }
+
+    /**
+     * Gets the value of the variable (the shared one, unless it has been assigned in the session).
+     *
+     * @param name the name of the variable.
+     *
+     * @return the value of the variable.
+     *
+     * @throws java.lang.IllegalArgumentException if the name is illegal.
+     */
+    public double getVariable( String name )
+        throws IllegalArgumentException
+    {
+        return getVariable( SymbolTable.getSlot( name ) );
+    }
+
+    /**
+     * Sets the value of the variable (in the session).
+     *
+     * @param variable the variable (a-z).
+     * @param value the value of the variable.
+     *
+     * @throws java.lang.IllegalArgumentException if the variable is illegal.
+     */
+    public void setVariable( char variable, double value )
+        throws IllegalArgumentException
+    {
+        setVariable( SymbolTable.getVariableSlot( variable ), value );
+    }
+
+    /**
+     * Sets the value of the variable (in the session).
+     *
+     * @param name the name of the variable.
+     * @param value the value of the variable.
+     *
+     * @throws java.lang.IllegalArgumentException if the name is illegal.
+     */
+    public void setVariable( String name, double value )
+        throws IllegalArgumentException
+    {
+        setVariable( SymbolTable.getSlot( name ), value );
+    }
+
+    /**
+     * Forgets the variable assigned in the session (so that it reads the shared value again).
+     *
+     * @param variable the variable (a-z).
+     *
+     * @throws java.lang.IllegalArgumentException if the variable is illegal.
+     */
+    public void unsetVariable( char variable )
+        throws IllegalArgumentException
+    {
+        unsetVariable( SymbolTable.getVariableSlot( variable ) );
+    }
+
+    /**
+     * Forgets the variable assigned in the session (so that it reads the shared value again).
+     *
+     * @param name the name of the variable.
+     *
+     * @throws java.lang.IllegalArgumentException if the name is illegal.
+     */
+    public void unsetVariable( String name )
+        throws IllegalArgumentException
+    {
+        unsetVariable( SymbolTable.getSlot( name ) );
+    }
+
+    /**
+     * Determines whether the results of the compiled expressions are memoized.
+     *
+     * @return <c>true</c> if the results are memoized, <c>false</c> otherwise.
+     */
+    public boolean isMemoizing()
+    {
+        return memoizedResults != null;
+    }
+
+    /**
+     * Turns the memoization of the results of the compiled expressions on or off.
+     *
+     * A memoized result is valid as long as none of the variables read by its
+     * expression has been assigned since, either in the session or (unless
+     * assigned in the session) in the engine by any thread. The functions being
+     * pure, memoization never changes the value of an expression; an assignment
+     * expression memoized still assigns its result. Turning memoization off
+     * forgets the memoized results.
+     *
+     * @param memoizing <c>true</c> to memoize the results, <c>false</c> otherwise.
+     */
+    public void setMemoizing( boolean memoizing )
+    {
+        if (!memoizing)
+        {
+            memoizedResults = null;
+        }
+        else if (memoizedResults == null)
+        {
+            memoizedResults = new SessionResult[ MEMOIZED_RESULTS_COUNT ];
+        }
+    }
+
+    /**
+     * Gets the engine of the session.
+     *
+     * @return the engine of the session.
+     */
+    public CalculatorEngine getEngine()
+    {
+        return engine;
+    }
+
+    // Private instance methods
+
+    /**
+     * Gets the value of the variable (the shared one, unless it has been assigned in the session).
+     *
+     * @param slot the slot of the variable.
+     *
+     * @return the value of the variable.
+     */
+    private double getVariable( int slot )
+    {
+        return (slot < variables.length && assignedVariables[ slot ]) ? variables[ slot ] : engine.getSharedVariable( slot );
+    }
+
+    /**
+     * Sets the value of the variable (in the session).
+     *
+     * @param slot the slot of the variable.
+     * @param value the value of the variable.
+     */
+    private void setVariable( int slot, double value )
+    {
+        if (variables.length <= slot)
+        {
+            growVariables( slot + 1 );
+        }
+        assign( slot, value );
+    }
+
+    /**
+     * Forgets the variable assigned in the session.
+     *
+     * @param slot the slot of the variable.
+     */
+    private void unsetVariable( int slot )
+    {
+        if (slot < variables.length)
+        {
+            assignedVariables[ slot ] = false;
+            versions[ slot ] = ++clock;
+        }
+    }
+
+    /**
+     * Assigns the value to the variable (in the session).
+     *
+     * @param slot the slot of the variable.
+     * @param value the value.
+     */
+    private void assign( int slot, double value )
+    {
+        variables[ slot ] = value;
+        assignedVariables[ slot ] = true;
+        versions[ slot ] = ++clock;
+    }
+
+    /**
+     * Determines whether none of the variables read by the compiled expression has been assigned since its result was memoized.
+     *
+     * @param compiledExpression the compiled expression.
+     * @param memoizedResult the memoized result of the expression.
+     *
+     * @return <c>true</c> if no variable read has been assigned since, <c>false</c> otherwise.
+     */
+    private boolean isUnchanged( CompiledExpression compiledExpression, SessionResult memoizedResult )
+    {
+        int[] variableSlots = compiledExpression.getVariableSlots();
+        for (int i = 0; i < variableSlots.length; i++)
+        {
+            int slot = variableSlots[ i ];
+            if (versions[ slot ] > memoizedResult.stamp)
+            {
+                return false;
+            }
+
+            // A shared variable updated since has a newer version.
+            if (!assignedVariables[ slot ]
+                && engine.getSharedVariableVersion( slot ) != memoizedResult.sharedVersions[ i ])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Grows the variables (the new ones not assigned in the session).
+     *
+     * @param slotsCount the least number of the slots the variables must cover.
+     */
+    private void growVariables( int slotsCount )
+    {
+        int length = Math.max( slotsCount, 2 * variables.length );
+        double[] newVariables = new double[ length ];
+        System.arraycopy( variables, 0, newVariables, 0, variables.length );
+        boolean[] newAssignedVariables = new boolean[ length ];
+        System.arraycopy( assignedVariables, 0, newAssignedVariables, 0, assignedVariables.length );
+        long[] newVersions = new long[ length ];
+        System.arraycopy( versions, 0, newVersions, 0, versions.length );
+        variables = newVariables;
+        assignedVariables = newAssignedVariables;
+        versions = newVersions;
+    }
+
+    /**
+     * This (private) class represents the result of a compiled expression memoized by a session.
+     *
+     * The result is valid as long as none of the variables read by the expression has
+     * been assigned in the session since the stamp, and none of those not assigned in
+     * the session has a version other than the one read.
+     */
+    private static final class SessionResult
+    {
+        /** The compiled expression, or <c>null</c> if the result is not valid. */
+        CompiledExpression compiledExpression;
+
+        /** The clock of the session when the result was computed. */
+        long stamp;
+
+        /** The value of the right-hand side of the expression. */
+        double value;
+
+        /** The versions of the shared variables read (in the order of the variable slots of the expression). */
+        long[] sharedVersions;
+    }
+}
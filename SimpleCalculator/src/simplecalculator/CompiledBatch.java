@@ -0,0 +1,204 @@
+package simplecalculator;
+
+/**
+ * This (public) class represents a compiled batch of expressions.
+ *
+ * The expressions of a batch are evaluated as if one by one, in their order (an
+ * expression reads the variables assigned by the preceding ones), but every distinct
+ * subexpression of the whole batch is evaluated only once. The batch is compiled into
+ * a single graph of subexpressions: equal subexpressions reading the same values are
+ * one node (they are hash-consed), and a variable assigned by an expression of the
+ * batch is replaced by the node of the assigned value in the expressions following
+ * it. So a subexpression reading a variable before an assignment to the variable and
+ * the same subexpression reading it after the assignment are two distinct nodes.
+ *
+ * The nodes are kept in a topological order and evaluated into registers, once per
+ * evaluation of the batch. A compiled batch holds no variables of its own, hence it
+ * can be shared by any number of threads.
+ *
+ * The nodes of all the expressions are interleaved, so the variables are assigned
+ * only after all the nodes are evaluated: if a function fails, the batch assigns no
+ * variables at all (not even those of the expressions preceding the failing one).
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public final class CompiledBatch
+{
+    // Private instance fields
+
+    /** The texts of the expressions. */
+    private final String[] expressions;
+
+    /** The opcodes of the nodes (in a topological order; the instructions of the operators, carrying the index of the function of a call). */
+    private final int[] opcodes;
+
+    /** The left operands of the nodes (the slot of the variable of a load). */
+    private final int[] lefts;
+
+    /** The right operands of the nodes. */
+    private final int[] rights;
+
+    /** The values of the constant nodes (indexed by the nodes). */
+    private final double[] constants;
+
+    /** The nodes of the values of the expressions. */
+    private final int[] resultNodes;
+
+    /** The slots of the variables assigned by the batch. */
+    private final int[] assignedSlots;
+
+    /** The nodes of the (last) values assigned to the variables. */
+    private final int[] assignedNodes;
+
+    /** The number of the slots the batch needs (one past the highest slot it reads or assigns). */
+    private final int slotsCount;
+
+    // Package-private instance constructors
+
+    /**
+     * Creates a new compiled batch.
+     *
+     * @param expressions the texts of the expressions.
+     * @param opcodes the opcodes of the nodes (in a topological order; the instructions of the operators).
+     * @param lefts the left operands of the nodes (the slot of the variable of a load).
+     * @param rights the right operands of the nodes.
+     * @param constants the values of the constant nodes (indexed by the nodes).
+     * @param resultNodes the nodes of the values of the expressions.
+     * @param assignedSlots the slots of the variables assigned by the batch.
+     * @param assignedNodes the nodes of the (last) values assigned to the variables.
+     * @param slotsCount the number of the slots the batch needs (one past the highest slot it reads or assigns).
+     */
+    CompiledBatch( String[] expressions, int[] opcodes, int[] lefts, int[] rights, double[] constants,
+        int[] resultNodes, int[] assignedSlots, int[] assignedNodes, int slotsCount )
+    {
+        this.expressions = expressions;
+        this.opcodes = opcodes;
+        this.lefts = lefts;
+        this.rights = rights;
+        this.constants = constants;
+        this.resultNodes = resultNodes;
+        this.assignedSlots = assignedSlots;
+        this.assignedNodes = assignedNodes;
+        this.slotsCount = slotsCount;
+    }
+
+    // Public instance methods
+
+    /**
+     * Gets the number of the expressions of the batch.
+     *
+     * @return the number of the expressions.
+     */
+    public int getExpressionsCount()
+    {
+        return expressions.length;
+    }
+
+    /**
+     * Gets the text of the expression of the batch.
+     *
+     * @param index the index of the expression.
+     *
+     * @return the text of the expression.
+     */
+    public String getExpression( int index )
+    {
+        return expressions[ index ];
+    }
+
+    /**
+     * Gets the number of the distinct subexpressions of the batch (evaluated once per evaluation of the batch).
+     *
+     * @return the number of the distinct subexpressions.
+     */
+    public int getSubexpressionsCount()
+    {
+        return opcodes.length;
+    }
+
+    // Package-private instance methods
+
+    /**
+     * Gets the number of the slots the batch needs.
+     *
+     * @return one past the highest slot the batch reads or assigns (the least length of the variables).
+     */
+    int getSlotsCount()
+    {
+        return slotsCount;
+    }
+
+    /**
+     * Gets the slots of the variables assigned by the batch.
+     *
+     * @return the slots (in ascending order; not to be modified).
+     */
+    int[] getAssignedSlots()
+    {
+        return assignedSlots;
+    }
+
+    /**
+     * Evaluates the batch.
+     *
+     * @param variables the values of the variables (indexed by their slots; receiving the values assigned by the batch).
+     * @param values the registers receiving the values of the nodes (at least one per node).
+     * @param results the array receiving the values of the expressions.
+     */
+    void evaluate( double[] variables, double[] values, double[] results )
+    {
+        for (int node = 0; node < opcodes.length; node++)
+        {
+            int opcode = opcodes[ node ];
+            switch (CompiledExpression.opcode( opcode ))
+            {
+                case CompiledExpression.PUSH_CONSTANT:
+                    values[ node ] = constants[ node ];
+                    break;
+                case CompiledExpression.LOAD_VARIABLE:
+                    values[ node ] = variables[ lefts[ node ] ];
+                    break;
+                case CompiledExpression.ADD:
+                    values[ node ] = values[ lefts[ node ] ] + values[ rights[ node ] ];
+                    break;
+                case CompiledExpression.SUBTRACT:
+                    values[ node ] = values[ lefts[ node ] ] - values[ rights[ node ] ];
+                    break;
+                case CompiledExpression.MULTIPLY:
+                    values[ node ] = values[ lefts[ node ] ] * values[ rights[ node ] ];
+                    break;
+                case CompiledExpression.DIVIDE:
+                    values[ node ] = values[ lefts[ node ] ] / values[ rights[ node ] ];
+                    break;
+                case CompiledExpression.NEGATE:
+                    values[ node ] = -values[ lefts[ node ] ];
+                    break;
+                case CompiledExpression.SQRT:
+                case CompiledExpression.EXP:
+                case CompiledExpression.LOG:
+                case CompiledExpression.CALL_UNARY:
+                    values[ node ] = CompiledExpression.apply( opcode, values[ lefts[ node ] ] );
+                    break;
+                case CompiledExpression.POW:
+                case CompiledExpression.MIN:
+                case CompiledExpression.MAX:
+                case CompiledExpression.CALL_BINARY:
+                    values[ node ] = CompiledExpression.apply( opcode, values[ lefts[ node ] ], values[ rights[ node ] ] );
+                    break;
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+
+        for (int i = 0; i < resultNodes.length; i++)
+        {
+            results[ i ] = values[ resultNodes[ i ] ];
+        }
+
+        // The variables are read (by the loads) before they are assigned.
+        for (int i = 0; i < assignedSlots.length; i++)
+        {
+            variables[ assignedSlots[ i ] ] = values[ assignedNodes[ i ] ];
+        }
+    }
+}
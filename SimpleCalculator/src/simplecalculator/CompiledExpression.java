@@ -0,0 +1,648 @@
+package simplecalculator;
+
+/**
+ * This (public) class represents a compiled expression.
+ *
+ * A compiled expression is the result of lexing the expression, converting it into
+ * the postfix notation and (unless turned off) optimizing it. It can be evaluated repeatedly (with different values
+ * of the variables) without repeating any of these steps. It holds no variables of
+ * its own, hence one compiled expression can be shared by any number of threads.
+ *
+ * The postfix expression is assembled into a program of instructions. Every
+ * instruction holds an opcode in its low bits and an operand (the index of a
+ * constant, the slot of a variable or the index of a registered function) in its
+ * high bits, so the evaluation runs over primitive arrays only. The built-in
+ * functions have opcodes of their own, calling the methods of
+ * <code>java.lang.Math</code> directly.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public final class CompiledExpression
+{
+    // Private instance fields
+
+    /** The text of the expression. */
+    private final String expression;
+
+    /** The instructions of the program evaluating the right-hand side of the expression. */
+    private final int[] instructions;
+
+    /** The constants of the program. */
+    private final double[] constants;
+
+    /** The maximum depth of the operand stack reached by the program. */
+    private final int maxStackDepth;
+
+    /** The slots of the variables read by the program (distinct, in the ascending order). */
+    private final int[] variableSlots;
+
+    /** The number of the slots the expression needs (one past the highest slot it reads or assigns). */
+    private final int slotsCount;
+
+    /**
+     * The number of times the expression has been evaluated by the interpreter.
+     * (When shared by several threads, some counts may be lost; it is only a heuristic.)
+     */
+    private int evaluationsCount;
+
+    /** The expression translated into JVM bytecode, or <c>null</c> if it has not been translated (yet). */
+    private volatile GeneratedExpression generatedExpression;
+
+    /** Has the translation into JVM bytecode already been attempted? */
+    private volatile boolean generationAttempted;
+
+    /** The slot of the variable assigned to, or -1 if the expression is not an assignment expression. */
+    private final int variableSlot;
+
+    /** The result last memoized (by whichever calculator evaluated the expression last), or <c>null</c>. */
+    private volatile MemoizedResult memoizedResult;
+
+    // Package-private static fields
+
+    /** Pushes a constant onto the operand stack. */
+    static final int PUSH_CONSTANT = 0;
+
+    /** Pushes the value of a variable (in the given slot) onto the operand stack. */
+    static final int LOAD_VARIABLE = 1;
+
+    /** Replaces the two topmost operands with their sum. */
+    static final int ADD = 2;
+
+    /** Replaces the two topmost operands with their difference. */
+    static final int SUBTRACT = 3;
+
+    /** Replaces the two topmost operands with their product. */
+    static final int MULTIPLY = 4;
+
+    /** Replaces the two topmost operands with their quotient. */
+    static final int DIVIDE = 5;
+
+    /** Replaces the topmost operand with its negation. */
+    static final int NEGATE = 6;
+
+    /** Replaces the topmost operand with its square root. */
+    static final int SQRT = 7;
+
+    /** Replaces the topmost operand with the exponential function of it. */
+    static final int EXP = 8;
+
+    /** Replaces the topmost operand with its natural logarithm. */
+    static final int LOG = 9;
+
+    /** Replaces the two topmost operands with the first one raised to the power of the second one. */
+    static final int POW = 10;
+
+    /** Replaces the two topmost operands with the lesser of them. */
+    static final int MIN = 11;
+
+    /** Replaces the two topmost operands with the greater of them. */
+    static final int MAX = 12;
+
+    /** Replaces the topmost operand with the value of the registered function (of the given index) at it. */
+    static final int CALL_UNARY = 13;
+
+    /** Replaces the two topmost operands with the value of the registered function (of the given index) at them. */
+    static final int CALL_BINARY = 14;
+
+    /** The number of bits holding the opcode of an instruction. */
+    static final int OPCODE_BITS = 8;
+
+    /** The mask selecting the opcode of an instruction. */
+    static final int OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+
+    // Package-private instance constructors
+
+    /**
+     * Creates a new compiled expression.
+     *
+     * @param expression the text of the expression.
+     * @param instructions the instructions of the program evaluating the right-hand side of the expression.
+     * @param constants the constants of the program.
+     * @param maxStackDepth the maximum depth of the operand stack reached by the program.
+     * @param variableSlots the slots of the variables read by the program (distinct, in the ascending order).
+     * @param variableSlot the slot of the variable assigned to, or -1 if the expression is not an assignment expression.
+     */
+    CompiledExpression( String expression, int[] instructions, double[] constants, int maxStackDepth,
+        int[] variableSlots, int variableSlot )
+    {
+        this.expression = expression;
+        this.instructions = instructions;
+        this.constants = constants;
+        this.maxStackDepth = maxStackDepth;
+        this.variableSlots = variableSlots;
+        this.variableSlot = variableSlot;
+        this.slotsCount = Math.max( (variableSlots.length > 0) ? variableSlots[ variableSlots.length - 1 ] + 1 : 0,
+            variableSlot + 1 );
+    }
+
+    // Public instance methods
+
+    /**
+     * Gets the text of the expression.
+     *
+     * @return the text of the expression.
+     */
+    public String getExpression()
+    {
+        return expression;
+    }
+
+    /**
+     * Determines whether the expression is an assignment expression.
+     *
+     * @return <c>true</c> if the expression is an assignment expression, <c>false</c> otherwise.
+     */
+    public boolean isAssignment()
+    {
+        return (variableSlot >= 0);
+    }
+
+    /**
+     * Returns the text of the expression.
+     *
+     * @return the text of the expression.
+     */
+    @Override
+    public String toString()
+    {
+        return expression;
+    }
+
+    /**
+     * Returns the (optimized) postfix notation of the right-hand side of the expression.
+     *
+     * The postfix notation lists the operands (the numbers and the variables) and the
+     * operators separated by spaces, exactly as the program evaluates them; e.g. the
+     * expression "( 2 * 3.5 ) * x + 0" is optimized into "7.0 x * 0.0 +". A function
+     * is listed by its name (following its arguments) and a negation as "neg".
+     *
+     * @return the postfix notation of the right-hand side.
+     */
+    public String toPostfixString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int instruction : instructions)
+        {
+            if (sb.length() != 0)
+            {
+                sb.append( ' ' );
+            }
+            switch (opcode( instruction ))
+            {
+                case PUSH_CONSTANT:
+                    sb.append( constants[ operand( instruction ) ] );
+                    break;
+                case LOAD_VARIABLE:
+                    sb.append( SymbolTable.getName( operand( instruction ) ) );
+                    break;
+                case ADD:
+                    sb.append( '+' );
+                    break;
+                case SUBTRACT:
+                    sb.append( '-' );
+                    break;
+                case MULTIPLY:
+                    sb.append( '*' );
+                    break;
+                case DIVIDE:
+                    sb.append( '/' );
+                    break;
+                case NEGATE:
+                    sb.append( "neg" );
+                    break;
+                case SQRT:
+                    sb.append( "sqrt" );
+                    break;
+                case EXP:
+                    sb.append( "exp" );
+                    break;
+                case LOG:
+                    sb.append( "log" );
+                    break;
+                case POW:
+                    sb.append( "pow" );
+                    break;
+                case MIN:
+                    sb.append( "min" );
+                    break;
+                case MAX:
+                    sb.append( "max" );
+                    break;
+                case CALL_UNARY:
+                case CALL_BINARY:
+                    sb.append( FunctionRegistry.getName( operand( instruction ) ) );
+                    break;
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+        return sb.toString();
+    }
+
+    // Package-private instance methods
+
+    /**
+     * Gets the instructions of the program evaluating the right-hand side of the expression.
+     *
+     * @return the instructions of the program.
+     */
+    int[] getInstructions()
+    {
+        return instructions;
+    }
+
+    /**
+     * Gets the constants of the program.
+     *
+     * @return the constants of the program.
+     */
+    double[] getConstants()
+    {
+        return constants;
+    }
+
+    /**
+     * Gets the maximum depth of the operand stack reached by the program.
+     *
+     * @return the maximum depth of the operand stack.
+     */
+    int getMaxStackDepth()
+    {
+        return maxStackDepth;
+    }
+
+    /**
+     * Gets the slots of the variables read by the program.
+     *
+     * @return the slots of the variables (distinct, in the ascending order).
+     */
+    int[] getVariableSlots()
+    {
+        return variableSlots;
+    }
+
+    /**
+     * Gets the result last memoized.
+     *
+     * @return the memoized result, or <c>null</c> if no result has been memoized.
+     */
+    MemoizedResult getMemoizedResult()
+    {
+        return memoizedResult;
+    }
+
+    /**
+     * Sets the result memoized (replacing the one memoized by any calculator).
+     *
+     * @param memoizedResult the memoized result.
+     */
+    void setMemoizedResult( MemoizedResult memoizedResult )
+    {
+        this.memoizedResult = memoizedResult;
+    }
+
+    /**
+     * Gets the number of the slots the expression needs.
+     *
+     * @return one past the highest slot the expression reads or assigns (the least length of the variables).
+     */
+    int getSlotsCount()
+    {
+        return slotsCount;
+    }
+
+    /**
+     * Evaluates the right-hand side of the expression.
+     *
+     * The expression is interpreted until it has been evaluated as many times as the
+     * compilation threshold; then it is translated into JVM bytecode, which computes
+     * exactly the same value.
+     *
+     * @param variables the values of the variables (indexed by their slots, at least as many as the slots needed).
+     * @param stack the operand stack (at least as deep as the maximum depth reached by the program).
+     * @param compilationThreshold the compilation threshold (zero or less disables the translation).
+     *
+     * @return the value of the right-hand side of the expression.
+     */
+    double evaluate( double[] variables, double[] stack, int compilationThreshold )
+    {
+        GeneratedExpression generatedExpression = this.generatedExpression;
+        if (generatedExpression == null && compilationThreshold > 0 && !generationAttempted
+            && ++evaluationsCount > compilationThreshold)
+        {
+            generatedExpression = generate();
+        }
+        return (generatedExpression != null)
+            ? generatedExpression.evaluate( variables )
+            : interpret( variables, stack );
+    }
+
+    /**
+     * Interprets the program (evaluating the right-hand side of the expression).
+     *
+     * The program runs over the given primitive operand stack, so the evaluation
+     * itself allocates nothing.
+     *
+     * @param variables the values of the variables (indexed by their slots).
+     * @param stack the operand stack (at least as deep as the maximum depth reached by the program).
+     *
+     * @return the value of the right-hand side of the expression.
+     */
+    double interpret( double[] variables, double[] stack )
+    {
+        return interpret( instructions, instructions.length, constants, variables, stack );
+    }
+
+    /**
+     * Gets the slot of the variable assigned to.
+     *
+     * @return the slot of the variable assigned to, or -1 if the expression is not an assignment expression.
+     */
+    int getVariableSlot()
+    {
+        return variableSlot;
+    }
+
+    // Private instance methods
+
+    /**
+     * Translates the expression into JVM bytecode (unless it has already been attempted).
+     *
+     * @return the generated expression, or <c>null</c> if the expression could not be translated.
+     */
+    private synchronized GeneratedExpression generate()
+    {
+        if (!generationAttempted)
+        {
+            // Marked first so that a failed translation is never retried.
+            generationAttempted = true;
+            generatedExpression = BytecodeGenerator.generate( this );
+        }
+        return generatedExpression;
+    }
+
+    // Package-private static methods
+
+    /**
+     * Encodes an instruction.
+     *
+     * @param opcode the opcode.
+     * @param operand the operand.
+     *
+     * @return the instruction.
+     */
+    static int instruction( int opcode, int operand )
+    {
+        return (operand << OPCODE_BITS) | opcode;
+    }
+
+    /**
+     * Gets the opcode of an instruction.
+     *
+     * @param instruction the instruction.
+     *
+     * @return the opcode.
+     */
+    static int opcode( int instruction )
+    {
+        return instruction & OPCODE_MASK;
+    }
+
+    /**
+     * Gets the operand of an instruction.
+     *
+     * @param instruction the instruction.
+     *
+     * @return the operand.
+     */
+    static int operand( int instruction )
+    {
+        return instruction >>> OPCODE_BITS;
+    }
+
+    /**
+     * Gets the number of the operands an instruction replaces with its result.
+     *
+     * @param opcode the opcode of the instruction.
+     *
+     * @return the number of the operands (zero for an instruction pushing an operand).
+     */
+    static int getArity( int opcode )
+    {
+        switch (opcode)
+        {
+            case PUSH_CONSTANT:
+            case LOAD_VARIABLE:
+                return 0;
+            case NEGATE:
+            case SQRT:
+            case EXP:
+            case LOG:
+            case CALL_UNARY:
+                return 1;
+            default:
+                return 2;
+        }
+    }
+
+    /**
+     * Applies the instruction of one operand (exactly as the interpreter does).
+     *
+     * @param instruction the instruction.
+     * @param x the operand.
+     *
+     * @return the result.
+     */
+    static double apply( int instruction, double x )
+    {
+        switch (opcode( instruction ))
+        {
+            case NEGATE:
+                return -x;
+            case SQRT:
+                return Math.sqrt( x );
+            case EXP:
+                return Math.exp( x );
+            case LOG:
+                return Math.log( x );
+            case CALL_UNARY:
+                return FunctionRegistry.apply( operand( instruction ), x );
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Applies the instruction of two operands (exactly as the interpreter does).
+     *
+     * @param instruction the instruction.
+     * @param x the left operand.
+     * @param y the right operand.
+     *
+     * @return the result.
+     */
+    static double apply( int instruction, double x, double y )
+    {
+        switch (opcode( instruction ))
+        {
+            case ADD:
+                return x + y;
+            case SUBTRACT:
+                return x - y;
+            case MULTIPLY:
+                return x * y;
+            case DIVIDE:
+                return x / y;
+            case POW:
+                return Math.pow( x, y );
+            case MIN:
+                return Math.min( x, y );
+            case MAX:
+                return Math.max( x, y );
+            case CALL_BINARY:
+                return FunctionRegistry.apply( operand( instruction ), x, y );
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Interprets the program (over the given primitive operand stack).
+     *
+     * @param instructions the instructions of the program.
+     * @param instructionsCount the number of instructions of the program.
+     * @param constants the constants of the program.
+     * @param variables the values of the variables (indexed by their slots).
+     * @param stack the operand stack (at least as deep as the maximum depth reached by the program).
+     *
+     * @return the value computed by the program.
+     */
+    static double interpret( int[] instructions, int instructionsCount, double[] constants, double[] variables,
+        double[] stack )
+    {
+        return interpret( instructions, 0, instructionsCount, constants, variables, stack );
+    }
+
+    /**
+     * Interprets the part of the program computing a subexpression (over the given primitive operand stack).
+     *
+     * @param instructions the instructions of the program.
+     * @param start the position of the first instruction of the subexpression.
+     * @param end the position one past the last instruction of the subexpression.
+     * @param constants the constants of the program.
+     * @param variables the values of the variables (indexed by their slots).
+     * @param stack the operand stack (at least as deep as the maximum depth reached by the subexpression).
+     *
+     * @return the value of the subexpression.
+     */
+    static double interpret( int[] instructions, int start, int end, double[] constants, double[] variables,
+        double[] stack )
+    {
+        int top = -1;
+        for (int i = start; i < end; i++)
+        {
+            int instruction = instructions[ i ];
+            switch (opcode( instruction ))
+            {
+                // Push a number onto the stack.
+                case PUSH_CONSTANT:
+
+                    stack[ ++top ] = constants[ operand( instruction ) ];
+                    break;
+
+                // Push the value of a variable onto the stack.
+                case LOAD_VARIABLE:
+
+                    stack[ ++top ] = variables[ operand( instruction ) ];
+                    break;
+
+                // Addition.
+                case ADD:
+
+                    top--;
+                    stack[ top ] = stack[ top ] + stack[ top + 1 ];
+                    break;
+
+                // Subtraction.
+                case SUBTRACT:
+
+                    top--;
+                    stack[ top ] = stack[ top ] - stack[ top + 1 ];
+                    break;
+
+                // Multiplication.
+                case MULTIPLY:
+
+                    top--;
+                    stack[ top ] = stack[ top ] * stack[ top + 1 ];
+                    break;
+
+                // Division.
+                case DIVIDE:
+
+                    top--;
+                    stack[ top ] = stack[ top ] / stack[ top + 1 ];
+                    break;
+
+                // Negation.
+                case NEGATE:
+
+                    stack[ top ] = -stack[ top ];
+                    break;
+
+                // The built-in functions.
+                case SQRT:
+
+                    stack[ top ] = Math.sqrt( stack[ top ] );
+                    break;
+
+                case EXP:
+
+                    stack[ top ] = Math.exp( stack[ top ] );
+                    break;
+
+                case LOG:
+
+                    stack[ top ] = Math.log( stack[ top ] );
+                    break;
+
+                case POW:
+
+                    top--;
+                    stack[ top ] = Math.pow( stack[ top ], stack[ top + 1 ] );
+                    break;
+
+                case MIN:
+
+                    top--;
+                    stack[ top ] = Math.min( stack[ top ], stack[ top + 1 ] );
+                    break;
+
+                case MAX:
+
+                    top--;
+                    stack[ top ] = Math.max( stack[ top ], stack[ top + 1 ] );
+                    break;
+
+                // The registered functions.
+                case CALL_UNARY:
+
+                    stack[ top ] = FunctionRegistry.apply( operand( instruction ), stack[ top ] );
+                    break;
+
+                case CALL_BINARY:
+
+                    top--;
+                    stack[ top ] = FunctionRegistry.apply( operand( instruction ), stack[ top ], stack[ top + 1 ] );
+                    break;
+
+                // Illegal instruction.
+                default:
+
+                    throw new IllegalStateException();
+            }
+        }
+
+        return stack[ top ];
+    }
+}
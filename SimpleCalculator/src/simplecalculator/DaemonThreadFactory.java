@@ -0,0 +1,47 @@
+package simplecalculator;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This (package-private) class represents a factory of daemon threads.
+ *
+ * The threads are named by the prefix and their number (e.g. ScriptExecutor-helper-1),
+ * and being daemons, they never keep the JVM running. The factory may be called by
+ * more than one thread at once (as a pool creates its threads in the threads it
+ * submits from).
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+final class DaemonThreadFactory implements ThreadFactory
+{
+    // Private instance fields
+
+    /** The prefix of the names of the threads. */
+    private final String prefix;
+
+    /** The number of threads created so far. */
+    private final AtomicInteger threadsCount;
+
+    // Package-private instance constructors
+
+    /**
+     * Creates a new factory of daemon threads.
+     *
+     * @param prefix the prefix of the names of the threads.
+     */
+    DaemonThreadFactory( String prefix )
+    {
+        this.prefix = prefix;
+        this.threadsCount = new AtomicInteger();
+    }
+
+    // Public instance methods
+
+    public Thread newThread( Runnable runnable )
+    {
+        Thread thread = new Thread( runnable, prefix + "-" + threadsCount.incrementAndGet() );
+        thread.setDaemon( true );
+        return thread;
+    }
+}
@@ -0,0 +1,407 @@
+package simplecalculator;
+
+import java.math.BigInteger;
+
+/**
+ * This (package-private) class represents a formatter of doubles.
+ *
+ * The formatter writes the same characters as <code>Double.toString</code>, but
+ * right into a byte buffer, so formatting a double allocates nothing. The shortest
+ * decimal which rounds to the double is found by the Schubfach algorithm (Raffaello
+ * Giulietti, "The Schubfach way to render doubles", 2020): the value and the bounds
+ * of its rounding interval are scaled by a 126-bit approximation of a power of ten,
+ * so only 64-bit integer arithmetic is needed.
+ *
+ * <code>Double.toString</code> of the JDKs before 19 does not give the shortest
+ * decimal for some subnormal values, some powers of two and some values from 2^53
+ * up (e.g. 9.999999999999999E22 for 1.0E23). These values are rare results of a
+ * calculation, so they are simply formatted by <code>Double.toString</code> itself;
+ * all the other ones (the integers below 2^53 included) are formatted here.
+ *
+ * The formatter keeps no state, hence it can be used by any number of threads at once.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+final class DoubleFormatter
+{
+    // Package-private static fields
+
+    /** The maximum number of characters of a formatted double (e.g. -2.2250738585072014E-308). */
+    static final int MAX_LENGTH = 24;
+
+    // Private static fields
+
+    /** The precision of a double (in bits). */
+    private static final int P = 53;
+
+    /** The minimum binary exponent of a double (of its integer significand). */
+    private static final int Q_MIN = -1074;
+
+    /** The minimum significand of a normal double. */
+    private static final long C_MIN = 1L << (P - 1);
+
+    /** The mask selecting the fraction bits of a double. */
+    private static final long T_MASK = (1L << (P - 1)) - 1;
+
+    /** The mask selecting the (biased) exponent bits of a double (shifted down). */
+    private static final int BQ_MASK = (1 << 11) - 1;
+
+    /** The mask selecting the lower 63 bits of a long. */
+    private static final long MASK_63 = (1L << 63) - 1;
+
+    /** The minimum decimal exponent of the powers of ten in the table. */
+    private static final int K_MIN = -324;
+
+    /** The maximum decimal exponent of the powers of ten in the table (the doubles formatted here are below 2^53). */
+    private static final int K_MAX = 0;
+
+    /**
+     * The 126-bit approximations of the powers of ten (10^-k for k from K_MIN to K_MAX),
+     * as pairs of the upper and the lower 63 bits.
+     */
+    private static final long[] G = createPowersOfTen();
+
+    /** The powers of ten representable as longs. */
+    private static final long[] POWERS_OF_TEN = new long[ 19 ];
+
+    static
+    {
+        POWERS_OF_TEN[ 0 ] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+        {
+            POWERS_OF_TEN[ i ] = 10 * POWERS_OF_TEN[ i - 1 ];
+        }
+    }
+
+    // Private instance constructors
+
+    /**
+     * Prevents the instantiation of the formatter.
+     */
+    private DoubleFormatter()
+    {
+    }
+
+    // Package-private static methods
+
+    /**
+     * Formats the double (exactly as <code>Double.toString</code> does).
+     *
+     * @param v the double.
+     * @param buffer the buffer receiving the characters (at least MAX_LENGTH bytes past the offset).
+     * @param offset the position of the first character in the buffer.
+     *
+     * @return the position one past the last character in the buffer.
+     */
+    static int format( double v, byte[] buffer, int offset )
+    {
+        long bits = Double.doubleToRawLongBits( v );
+        long t = bits & T_MASK;
+        int bq = (int) (bits >>> (P - 1)) & BQ_MASK;
+
+        // NaN and the infinities.
+        if (bq == BQ_MASK)
+        {
+            if (t != 0)
+            {
+                return append( "NaN", buffer, offset );
+            }
+            return append( (bits > 0) ? "Infinity" : "-Infinity", buffer, offset );
+        }
+
+        if (bits < 0)
+        {
+            buffer[ offset++ ] = '-';
+        }
+
+        // The zeros.
+        if (bq == 0 && t == 0)
+        {
+            return append( "0.0", buffer, offset );
+        }
+
+        // The normal values below 2^53.
+        int mq = -Q_MIN + 1 - bq;
+        if (bq != 0 && mq >= 0)
+        {
+            long c = C_MIN | t;
+
+            // An integer is its own shortest decimal.
+            if (mq < P)
+            {
+                long f = c >> mq;
+                if (f << mq == c)
+                {
+                    return toChars( f, 0, buffer, offset );
+                }
+            }
+
+            // (The rounding interval of a power of two is asymmetric.)
+            if (t != 0)
+            {
+                return toDecimal( -mq, c, buffer, offset );
+            }
+        }
+
+        // The subnormal values, the powers of two and the values from 2^53 up.
+        return append( Double.toString( Math.abs( v ) ), buffer, offset );
+    }
+
+    // Private static methods
+
+    /**
+     * Finds the shortest decimal rounding to the double c 2^q and formats it.
+     *
+     * @param q the binary exponent.
+     * @param c the significand (not a power of two).
+     * @param buffer the buffer receiving the characters.
+     * @param offset the position of the first character in the buffer.
+     *
+     * @return the position one past the last character in the buffer.
+     */
+    private static int toDecimal( int q, long c, byte[] buffer, int offset )
+    {
+        // The bounds of the rounding interval are (inclusive iff c is even) c - 1/2 and c + 1/2 ulps.
+        int out = (int) c & 0x1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl = cb - 2;
+        int k = flog10pow2( q );
+        int h = q + flog2pow10( -k ) + 2;
+
+        // Scale the value and the bounds by 10^-k.
+        long g1 = G[ (k - K_MIN) << 1 ];
+        long g0 = G[ ((k - K_MIN) << 1) + 1 ];
+        long vb = rop( g1, g0, cb << h );
+        long vbl = rop( g1, g0, cbl << h );
+        long vbr = rop( g1, g0, cbr << h );
+
+        // Try a decimal with one digit less (a multiple of ten) first.
+        long s = vb >> 2;
+        if (s >= 100)
+        {
+            long sp10 = 10 * multiplyHigh( s, 115292150460684698L << 4 );
+            long tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin)
+            {
+                return toChars( upin ? sp10 : tp10, k, buffer, offset );
+            }
+        }
+
+        // Otherwise, one of the two decimals around the value (the closer one if both round to the double).
+        long t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win)
+        {
+            return toChars( uin ? s : t, k, buffer, offset );
+        }
+        long cmp = vb - ((s + t) << 1);
+        return toChars( (cmp < 0 || (cmp == 0 && (s & 0x1) == 0)) ? s : t, k, buffer, offset );
+    }
+
+    /**
+     * Formats the decimal f 10^e the way <code>Double.toString</code> does.
+     *
+     * @param f the significand (positive).
+     * @param e the decimal exponent.
+     * @param buffer the buffer receiving the characters.
+     * @param offset the position of the first character in the buffer.
+     *
+     * @return the position one past the last character in the buffer.
+     */
+    private static int toChars( long f, int e, byte[] buffer, int offset )
+    {
+        // Drop the trailing zeros.
+        while (f % 10 == 0)
+        {
+            f /= 10;
+            e++;
+        }
+        int length = 1;
+        while (length < POWERS_OF_TEN.length && f >= POWERS_OF_TEN[ length ])
+        {
+            length++;
+        }
+
+        // The value is 0.d1d2...dn 10^exponent.
+        int exponent = e + length;
+        if (0 < exponent && exponent <= 7)
+        {
+            // ddd.ddd (at least one digit on either side of the point)
+            if (length <= exponent)
+            {
+                offset = appendDigits( f, length, buffer, offset );
+                for (int i = length; i < exponent; i++)
+                {
+                    buffer[ offset++ ] = '0';
+                }
+                buffer[ offset++ ] = '.';
+                buffer[ offset++ ] = '0';
+                return offset;
+            }
+            offset = appendDigits( f, length, buffer, offset + 1 );
+            System.arraycopy( buffer, offset - length, buffer, offset - length - 1, exponent );
+            buffer[ offset - length - 1 + exponent ] = '.';
+            return offset;
+        }
+        else if (-3 < exponent && exponent <= 0)
+        {
+            // 0.000ddd
+            buffer[ offset++ ] = '0';
+            buffer[ offset++ ] = '.';
+            for (int i = exponent; i < 0; i++)
+            {
+                buffer[ offset++ ] = '0';
+            }
+            return appendDigits( f, length, buffer, offset );
+        }
+        else
+        {
+            // d.dddE-ddd
+            offset = appendDigits( f, length, buffer, offset + 1 );
+            buffer[ offset - length - 1 ] = buffer[ offset - length ];
+            buffer[ offset - length ] = '.';
+            if (length == 1)
+            {
+                buffer[ offset++ ] = '0';
+            }
+            buffer[ offset++ ] = 'E';
+            int scientificExponent = exponent - 1;
+            if (scientificExponent < 0)
+            {
+                buffer[ offset++ ] = '-';
+                scientificExponent = -scientificExponent;
+            }
+            int exponentLength = (scientificExponent >= 100) ? 3 : (scientificExponent >= 10) ? 2 : 1;
+            return appendDigits( scientificExponent, exponentLength, buffer, offset );
+        }
+    }
+
+    /**
+     * Appends the digits of the number.
+     *
+     * @param n the number.
+     * @param length the number of digits of the number.
+     * @param buffer the buffer receiving the digits.
+     * @param offset the position of the first digit in the buffer.
+     *
+     * @return the position one past the last digit in the buffer.
+     */
+    private static int appendDigits( long n, int length, byte[] buffer, int offset )
+    {
+        for (int i = offset + length - 1; i >= offset; i--)
+        {
+            buffer[ i ] = (byte) ('0' + n % 10);
+            n /= 10;
+        }
+        return offset + length;
+    }
+
+    /**
+     * Appends the (ASCII) string.
+     *
+     * @param s the string.
+     * @param buffer the buffer receiving the characters.
+     * @param offset the position of the first character in the buffer.
+     *
+     * @return the position one past the last character in the buffer.
+     */
+    private static int append( String s, byte[] buffer, int offset )
+    {
+        for (int i = 0; i < s.length(); i++)
+        {
+            buffer[ offset++ ] = (byte) s.charAt( i );
+        }
+        return offset;
+    }
+
+    /**
+     * Computes the (rounded to odd) upper 64 bits of the product of the power of ten and the number.
+     *
+     * @param g1 the upper 63 bits of the power of ten.
+     * @param g0 the lower 63 bits of the power of ten.
+     * @param cp the number.
+     *
+     * @return the product.
+     */
+    private static long rop( long g1, long g0, long cp )
+    {
+        long x1 = multiplyHigh( g0, cp );
+        long y0 = g1 * cp;
+        long y1 = multiplyHigh( g1, cp );
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> 63);
+        return vbp | (((z & MASK_63) + MASK_63) >>> 63);
+    }
+
+    /**
+     * Computes the upper 64 bits of the 128-bit product of the two numbers.
+     *
+     * @param x the first number.
+     * @param y the second number.
+     *
+     * @return the upper 64 bits of the product.
+     */
+    private static long multiplyHigh( long x, long y )
+    {
+        long x1 = x >> 32;
+        long x2 = x & 0xFFFFFFFFL;
+        long y1 = y >> 32;
+        long y2 = y & 0xFFFFFFFFL;
+        long z2 = x2 * y2;
+        long t = x1 * y2 + (z2 >>> 32);
+        long z1 = (t & 0xFFFFFFFFL) + x2 * y1;
+        long z0 = t >> 32;
+        return x1 * y1 + z0 + (z1 >> 32);
+    }
+
+    /**
+     * Computes floor(log10(2^e)).
+     *
+     * @param e the exponent.
+     *
+     * @return floor(log10(2^e)).
+     */
+    private static int flog10pow2( int e )
+    {
+        return (int) ((e * 661971961083L) >> 41);
+    }
+
+    /**
+     * Computes floor(log2(10^e)).
+     *
+     * @param e the exponent.
+     *
+     * @return floor(log2(10^e)).
+     */
+    private static int flog2pow10( int e )
+    {
+        return (int) ((e * 913124641741L) >> 38);
+    }
+
+    /**
+     * Creates the 126-bit approximations of the powers of ten.
+     *
+     * For every k, 10^-k = b 2^r with 2^125 &lt;= b &lt; 2^126, and the table holds
+     * floor(b) + 1 split into its upper and lower 63 bits.
+     *
+     * @return the table.
+     */
+    private static long[] createPowersOfTen()
+    {
+        long[] g = new long[ (K_MAX - K_MIN + 1) << 1 ];
+        BigInteger mask63 = BigInteger.ONE.shiftLeft( 63 ).subtract( BigInteger.ONE );
+        for (int k = K_MIN; k <= K_MAX; k++)
+        {
+            BigInteger power = BigInteger.TEN.pow( -k );
+            int r = power.bitLength() - 126;
+            BigInteger b = ((r >= 0) ? power.shiftRight( r ) : power.shiftLeft( -r )).add( BigInteger.ONE );
+            g[ (k - K_MIN) << 1 ] = b.shiftRight( 63 ).longValue();
+            g[ ((k - K_MIN) << 1) + 1 ] = b.and( mask63 ).longValue();
+        }
+        return g;
+    }
+}
@@ -0,0 +1,161 @@
+package simplecalculator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This (public) class represents a bounded cache of compiled expressions.
+ *
+ * The cache is keyed by the text of the expression. When it is full, the least
+ * recently used compiled expression is evicted.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public final class ExpressionCache
+{
+    // Private instance fields
+
+    /** The maximum number of compiled expressions held by the cache. */
+    private final int capacity;
+
+    /** The compiled expressions (in the access order). */
+    private final LinkedHashMap< String, CompiledExpression > compiledExpressions;
+
+    /** The number of lookups that found a compiled expression. */
+    private long hitCount;
+
+    /** The number of lookups that did not find a compiled expression. */
+    private long missCount;
+
+    /** The number of compiled expressions evicted from the cache. */
+    private long evictionCount;
+
+    // Package-private instance constructors
+
+    /**
+     * Creates a new expression cache.
+     *
+     * @param capacity the maximum number of compiled expressions held by the cache (zero disables the cache).
+     *
+     * @throws java.lang.IllegalArgumentException if the capacity is negative.
+     */
+    ExpressionCache( int capacity )
+        throws IllegalArgumentException
+    {
+        if (capacity < 0)
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.capacity = capacity;
+        this.compiledExpressions = new LinkedHashMap< String, CompiledExpression >( 16, 0.75f, true )
+        {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry< String, CompiledExpression > eldest )
+            {
+                if (size() > ExpressionCache.this.capacity)
+                {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // Public instance methods
+
+    /**
+     * Gets the maximum number of compiled expressions held by the cache.
+     *
+     * @return the maximum number of compiled expressions held by the cache.
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Gets the number of compiled expressions held by the cache.
+     *
+     * @return the number of compiled expressions held by the cache.
+     */
+    public int size()
+    {
+        return compiledExpressions.size();
+    }
+
+    /**
+     * Gets the number of lookups that found a compiled expression.
+     *
+     * @return the number of lookups that found a compiled expression.
+     */
+    public long getHitCount()
+    {
+        return hitCount;
+    }
+
+    /**
+     * Gets the number of lookups that did not find a compiled expression.
+     *
+     * @return the number of lookups that did not find a compiled expression.
+     */
+    public long getMissCount()
+    {
+        return missCount;
+    }
+
+    /**
+     * Gets the number of compiled expressions evicted from the cache.
+     *
+     * @return the number of compiled expressions evicted from the cache.
+     */
+    public long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    /**
+     * Removes all the compiled expressions from the cache (the counters are kept).
+     */
+    public void clear()
+    {
+        compiledExpressions.clear();
+    }
+
+    // Package-private instance methods
+
+    /**
+     * Looks up the compiled expression.
+     *
+     * @param expression the text of the expression.
+     *
+     * @return the compiled expression, or <c>null</c> if the cache does not hold it.
+     */
+    CompiledExpression get( String expression )
+    {
+        CompiledExpression compiledExpression = compiledExpressions.get( expression );
+        if (compiledExpression != null)
+        {
+            hitCount++;
+        }
+        else
+        {
+            missCount++;
+        }
+        return compiledExpression;
+    }
+
+    /**
+     * Stores the compiled expression in the cache (possibly evicting the least recently used one).
+     *
+     * @param compiledExpression the compiled expression.
+     */
+    void put( CompiledExpression compiledExpression )
+    {
+        if (capacity > 0)
+        {
+            compiledExpressions.put( compiledExpression.getExpression(), compiledExpression );
+        }
+    }
+}
@@ -0,0 +1,735 @@
+package simplecalculator;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * This (package-private) class represents a compiler of expressions.
+ *
+ * The compiler lexes an expression, converts it into the postfix notation and
+ * assembles the program of the right-hand side, all in a single pass over the
+ * characters: every operand and every operator leaving the operator stack is
+ * emitted as an instruction right away. The operator stack and the program live
+ * in primitive buffers reused by all the compilations, so compiling an expression
+ * allocates nothing until (and unless) a compiled expression is built from it.
+ *
+ * An assignment expression is a single variable, an equality sign and the right-hand
+ * side; any other equality sign makes the expression illegal, a trailing one included
+ * (e.g. "x = 1 =").
+ *
+ * A minus sign where an operand is expected (at the beginning of the expression, or
+ * following an operator, a left parenthesis or a comma) is a negation, binding
+ * tighter than any other operator. A function call is resolved into the instruction
+ * of the function when the name of the function is lexed; the instruction is emitted
+ * once the right parenthesis of the call is reached and the number of its arguments
+ * has been checked.
+ *
+ * The expression may be read from a reader as well: then it is lexed chunk by chunk as
+ * it is read, so compiling it takes memory proportional to its program (and the depth
+ * of its operator stack) only, never to its text.
+ *
+ * A compiled expression built by the compiler is optimized first (its constant
+ * subexpressions folded and its identities dropped, see ExpressionOptimizer),
+ * unless the optimization is turned off.
+ *
+ * A compiler reuses its buffers, hence it must not be used by more than one
+ * thread at a time (the static <code>compile</code> method uses a fresh one).
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+final class ExpressionCompiler
+{
+    // Private instance fields
+
+    /** The lexer (reused by all the compilations). */
+    private final Lexer lexer;
+
+    /** The optimizer (created on first use). */
+    private ExpressionOptimizer optimizer;
+
+    /** Are the compiled expressions optimized? */
+    private boolean optimizing;
+
+    /** The operator stack (opcodes, left parentheses and the left parentheses of the calls). */
+    private int[] operatorStack;
+
+    /** The number of entries on the operator stack. */
+    private int operatorsCount;
+
+    /** The stack of the calls being compiled (the indices of the functions). */
+    private int[] callFunctions;
+
+    /** The stack of the calls being compiled (the numbers of the arguments so far). */
+    private int[] callArgumentsCounts;
+
+    /** The number of the calls being compiled. */
+    private int callsCount;
+
+    /** The instructions of the program. */
+    private int[] instructions;
+
+    /** The number of instructions of the program. */
+    private int instructionsCount;
+
+    /** The constants of the program. */
+    private double[] constants;
+
+    /** The number of constants of the program. */
+    private int constantsCount;
+
+    /** The depth of the operand stack after the instructions assembled so far. */
+    private int stackDepth;
+
+    /** The maximum depth of the operand stack reached by the program. */
+    private int maxStackDepth;
+
+    /** Has an operator lacked its operands? */
+    private boolean stackUnderflow;
+
+    /** One past the highest slot of the variables read by the program. */
+    private int slotsCount;
+
+    /** The slot of the variable assigned to, or -1 if the expression is not an assignment expression. */
+    private int variableSlot;
+
+    /** The cause the last compiled expression is illegal for, or <c>null</c> if it is legal. */
+    private ExpressionError error;
+
+    // Private static fields
+
+    /** The entry of the operator stack standing for a left parenthesis. */
+    private static final int LEFT_PARENTHESIS = -1;
+
+    /** The entry of the operator stack standing for the left parenthesis of a call. */
+    private static final int CALL_PARENTHESIS = -2;
+
+    // Package-private instance constructors
+
+    /**
+     * Creates a new compiler.
+     */
+    ExpressionCompiler()
+    {
+        lexer = new Lexer();
+        operatorStack = new int[ 16 ];
+        callFunctions = new int[ 4 ];
+        callArgumentsCounts = new int[ 4 ];
+        instructions = new int[ 32 ];
+        constants = new double[ 16 ];
+        optimizing = true;
+    }
+
+    // Package-private static methods
+
+    // =========================================================================
+    // COMPILE
+    // =========================================================================
+
+    /**
+     * Compiles the expression.
+     *
+     * @param expression the expression.
+
+     * @return the compiled expression.
+     *
+     * @throws java.lang.IllegalArgumentException if the expression is illegal.
+     */
+    static CompiledExpression compile( String expression )
+        throws IllegalArgumentException
+    {
+        ExpressionCompiler compiler = new ExpressionCompiler();
+        compiler.compile( expression, 0, expression.length() );
+        return compiler.toCompiledExpression( expression );
+    }
+
+    /**
+     * Creates the exception reporting the cause an expression is illegal for.
+     *
+     * @param error the cause.
+     *
+     * @return the exception (an IllegalArgumentException, whatever the cause, an operator lacking its operands included;
+     *         its message is the name of the cause).
+     */
+    static IllegalArgumentException newException( ExpressionError error )
+    {
+        return new IllegalArgumentException( error.name() );
+    }
+
+    // Package-private instance methods
+
+    /**
+     * Compiles the expression (into the buffers of the compiler).
+     *
+     * @param input the characters holding the expression.
+     * @param start the position of the first character of the expression.
+     * @param end the position one past the last character of the expression.
+     *
+     * @throws java.lang.IllegalArgumentException if the expression is illegal.
+     */
+    void compile( CharSequence input, int start, int end )
+        throws IllegalArgumentException
+    {
+        ExpressionError error = tryCompile( input, start, end );
+        if (error != null)
+        {
+            throw newException( error );
+        }
+    }
+
+    /**
+     * Compiles the expression (into the buffers of the compiler) without throwing an exception if it is illegal.
+     *
+     * An illegal expression is reported at the same point (and for the same cause) the
+     * <code>compile</code> method would throw its exception at.
+     *
+     * @param input the characters holding the expression.
+     * @param start the position of the first character of the expression.
+     * @param end the position one past the last character of the expression.
+     *
+     * @return the cause the expression is illegal for, or <c>null</c> if it is legal.
+     */
+    ExpressionError tryCompile( CharSequence input, int start, int end )
+    {
+        lexer.reset( input, start, end );
+        return compileTokens();
+    }
+
+    /**
+     * Compiles the expression read from the reader (into the buffers of the compiler) without throwing an exception if it is illegal.
+     *
+     * @param reader the reader (read up to its end, the whole of it being the expression).
+     *
+     * @return the cause the expression is illegal for, or <c>null</c> if it is legal.
+     *
+     * @throws java.io.IOException if the reader fails.
+     */
+    ExpressionError tryCompile( Reader reader )
+        throws IOException
+    {
+        lexer.reset( reader );
+        ExpressionError error = compileTokens();
+        IOException failure = lexer.getFailure();
+
+        // Release the reader and the buffer of the lexer.
+        lexer.reset( "", 0, 0 );
+        if (failure != null)
+        {
+            throw failure;
+        }
+        return error;
+    }
+
+    /**
+     * Builds the compiled expression from the last compiled expression.
+     *
+     * @param expression the text of the expression.
+     *
+     * @return the compiled expression.
+     */
+    CompiledExpression toCompiledExpression( String expression )
+    {
+        if (optimizing)
+        {
+            optimize();
+        }
+
+        int[] instructions = new int[ instructionsCount ];
+        System.arraycopy( this.instructions, 0, instructions, 0, instructionsCount );
+        double[] constants = new double[ constantsCount ];
+        System.arraycopy( this.constants, 0, constants, 0, constantsCount );
+
+        return new CompiledExpression( expression, instructions, constants, maxStackDepth, getVariableSlots(),
+            variableSlot );
+    }
+
+    /**
+     * Evaluates the last compiled expression (without building a compiled expression).
+     *
+     * @param variables the values of the variables (indexed by their slots).
+     * @param stack the operand stack (at least as deep as the maximum depth reached by the program).
+     *
+     * @return the value of the right-hand side of the expression.
+     */
+    double evaluate( double[] variables, double[] stack )
+    {
+        return CompiledExpression.interpret( instructions, instructionsCount, constants, variables, stack );
+    }
+
+    /**
+     * Gets the maximum depth of the operand stack reached by the last compiled expression.
+     *
+     * @return the maximum depth of the operand stack.
+     */
+    int getMaxStackDepth()
+    {
+        return maxStackDepth;
+    }
+
+    /**
+     * Gets the number of the slots the last compiled expression needs.
+     *
+     * @return one past the highest slot the expression reads or assigns (the least length of the variables).
+     */
+    int getSlotsCount()
+    {
+        return Math.max( slotsCount, variableSlot + 1 );
+    }
+
+    /**
+     * Gets the slot of the variable assigned to by the last compiled expression.
+     *
+     * @return the slot of the variable assigned to, or -1 if the expression is not an assignment expression.
+     */
+    int getVariableSlot()
+    {
+        return variableSlot;
+    }
+
+    /**
+     * Determines whether the compiled expressions are optimized.
+     *
+     * @return <c>true</c> if the compiled expressions are optimized, <c>false</c> otherwise.
+     */
+    boolean isOptimizing()
+    {
+        return optimizing;
+    }
+
+    /**
+     * Turns the optimization of the compiled expressions on or off.
+     *
+     * @param optimizing <c>true</c> to optimize the compiled expressions, <c>false</c> otherwise.
+     */
+    void setOptimizing( boolean optimizing )
+    {
+        this.optimizing = optimizing;
+    }
+
+    /**
+     * Gets the cause the last compiled expression is illegal for.
+     *
+     * @return the cause, or <c>null</c> if the expression is legal.
+     */
+    ExpressionError getError()
+    {
+        return error;
+    }
+
+    // Private instance methods
+
+    /**
+     * Records the cause the expression is illegal for.
+     *
+     * @param error the cause.
+     *
+     * @return the cause.
+     */
+    private ExpressionError fail( ExpressionError error )
+    {
+        this.error = error;
+        return error;
+    }
+
+    /**
+     * Compiles the tokens of the input of the lexer (into the buffers of the compiler).
+     *
+     * @return the cause the expression is illegal for, or <c>null</c> if it is legal.
+     */
+    private ExpressionError compileTokens()
+    {
+        reset();
+        variableSlot = -1;
+        error = null;
+
+        // The left-hand side of an assignment expression (a single variable) precedes its equality sign.
+        int tokensCount = 0;
+        int firstTokenKind = Lexer.END;
+        int firstTokenSlot = -1;
+        int equalitySignsCount = 0;
+        int rightHandSideStart = 0;
+
+        // Is an operand expected (rather than an operator)?
+        boolean operandExpected = true;
+
+        int kind;
+        while ((kind = lexer.next()) != Lexer.END)
+        {
+            if (tokensCount++ == 0)
+            {
+                firstTokenKind = kind;
+                firstTokenSlot = (kind == Lexer.VARIABLE) ? lexer.getSlot() : -1;
+            }
+
+            switch (kind)
+            {
+                case Lexer.NUMBER:
+
+                    // Token is an operand.
+                    pushConstant( lexer.getValue() );
+                    operandExpected = false;
+                    break;
+
+                case Lexer.VARIABLE:
+
+                    // Token is an operand.
+                    loadVariable( lexer.getSlot() );
+                    operandExpected = false;
+                    break;
+
+                case Lexer.LEFT_PARENTHESIS:
+
+                    // Token is a left parenthesis.
+                    pushOperator( LEFT_PARENTHESIS );
+                    operandExpected = true;
+                    break;
+
+                case Lexer.FUNCTION:
+
+                    // Token is the name of a function (with the left parenthesis of its call).
+                    pushCall( lexer.getFunction() );
+                    pushOperator( CALL_PARENTHESIS );
+                    operandExpected = true;
+                    break;
+
+                case Lexer.COMMA:
+
+                    // Token is a comma (separating the arguments of a call).
+                    if (emitUntilParenthesis() != CALL_PARENTHESIS)
+                    {
+                        return fail( ExpressionError.ILLEGAL_CALL );
+                    }
+                    callArgumentsCounts[ callsCount - 1 ]++;
+                    operandExpected = true;
+                    break;
+
+                case Lexer.RIGHT_PARENTHESIS:
+
+                    // Token is a right parenthesis.
+                    int parenthesis = emitUntilParenthesis();
+
+                    // If the stack is already empty before finding a "(", that expression is not a valid expression.
+                    if (parenthesis == 0)
+                    {
+                        return fail( ExpressionError.UNMATCHED_PARENTHESIS );
+                    }
+                    operatorsCount--;
+
+                    // The right parenthesis of a call completes the call.
+                    if (parenthesis == CALL_PARENTHESIS)
+                    {
+                        int function = callFunctions[ --callsCount ];
+                        if (callArgumentsCounts[ callsCount ] != FunctionRegistry.getArity( function ))
+                        {
+                            return fail( ExpressionError.ILLEGAL_CALL );
+                        }
+                        emitOperator( FunctionRegistry.getInstruction( function ) );
+                    }
+                    operandExpected = false;
+                    break;
+
+                case Lexer.OPERATOR:
+
+                    // Token is an operator.
+                    int operator = lexer.getOpcode();
+
+                    // A minus sign where an operand is expected is a negation (a prefix operator, applied to what follows).
+                    if (operandExpected && operator == CompiledExpression.SUBTRACT)
+                    {
+                        pushOperator( CompiledExpression.NEGATE );
+                        break;
+                    }
+
+                    while (operatorsCount > 0)
+                    {
+                        int topOperator = operatorStack[ operatorsCount - 1 ];
+                        if (!isParenthesis( topOperator ) && getPrecedence( topOperator ) >= getPrecedence( operator ))
+                        {
+                            emitOperator( topOperator );
+                            operatorsCount--;
+                        }
+                        else
+                        {
+                            break;
+                        }
+                    }
+                    pushOperator( operator );
+                    operandExpected = true;
+                    break;
+
+                case Lexer.EQUALITY_SIGN:
+
+                    // Only a single variable may precede the (only) equality sign.
+                    if (++equalitySignsCount > 1 || tokensCount != 2 || firstTokenKind != Lexer.VARIABLE)
+                    {
+                        return fail( ExpressionError.ILLEGAL_ASSIGNMENT );
+                    }
+
+                    // The right-hand side follows (giving the result of the expression).
+                    variableSlot = firstTokenSlot;
+                    rightHandSideStart = tokensCount;
+                    reset();
+                    operandExpected = true;
+                    break;
+
+                default:
+
+                    // Token is illegal.
+                    return fail( ExpressionError.ILLEGAL_TOKEN );
+            }
+        }
+
+        // An empty expression (or right-hand side) is not a valid expression.
+        if (tokensCount == rightHandSideStart)
+        {
+            return fail( ExpressionError.EMPTY_EXPRESSION );
+        }
+
+        while (operatorsCount > 0)
+        {
+            int operator = operatorStack[ --operatorsCount ];
+
+            // An unmatched "(" makes the expression invalid.
+            if (isParenthesis( operator ))
+            {
+                return fail( ExpressionError.UNMATCHED_PARENTHESIS );
+            }
+            emitOperator( operator );
+        }
+
+        // An operator lacking its operands (or no operand at all) makes the expression invalid.
+        if (stackUnderflow || stackDepth == 0)
+        {
+            return fail( ExpressionError.MISSING_OPERAND );
+        }
+        return null;
+    }
+
+    /**
+     * Optimizes the program of the last compiled expression (in place).
+     */
+    private void optimize()
+    {
+        if (optimizer == null)
+        {
+            optimizer = new ExpressionOptimizer();
+        }
+        optimizer.optimize( instructions, instructionsCount, constants, maxStackDepth );
+        instructionsCount = optimizer.getInstructionsCount();
+        constantsCount = optimizer.getConstantsCount();
+        maxStackDepth = optimizer.getMaxStackDepth();
+    }
+
+    /**
+     * Gets the slots of the variables read by the program of the last compiled expression.
+     *
+     * @return the slots of the variables (distinct, in the ascending order).
+     */
+    private int[] getVariableSlots()
+    {
+        int[] slots = new int[ instructionsCount ];
+        int count = 0;
+        for (int i = 0; i < instructionsCount; i++)
+        {
+            if (CompiledExpression.opcode( instructions[ i ] ) == CompiledExpression.LOAD_VARIABLE)
+            {
+                slots[ count++ ] = CompiledExpression.operand( instructions[ i ] );
+            }
+        }
+        Arrays.sort( slots, 0, count );
+
+        // Drop the duplicates.
+        int distinctCount = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (distinctCount == 0 || slots[ distinctCount - 1 ] != slots[ i ])
+            {
+                slots[ distinctCount++ ] = slots[ i ];
+            }
+        }
+        int[] variableSlots = new int[ distinctCount ];
+        System.arraycopy( slots, 0, variableSlots, 0, distinctCount );
+        return variableSlots;
+    }
+
+    /**
+     * Clears the operator stack and the program.
+     */
+    private void reset()
+    {
+        operatorsCount = 0;
+        callsCount = 0;
+        instructionsCount = 0;
+        constantsCount = 0;
+        stackDepth = 0;
+        maxStackDepth = 0;
+        stackUnderflow = false;
+        slotsCount = 0;
+    }
+
+    /**
+     * Pushes an entry onto the operator stack.
+     *
+     * @param operator the opcode of the operator, LEFT_PARENTHESIS or CALL_PARENTHESIS.
+     */
+    private void pushOperator( int operator )
+    {
+        if (operatorsCount == operatorStack.length)
+        {
+            int[] stack = new int[ 2 * operatorsCount ];
+            System.arraycopy( operatorStack, 0, stack, 0, operatorsCount );
+            operatorStack = stack;
+        }
+        operatorStack[ operatorsCount++ ] = operator;
+    }
+
+    /**
+     * Pushes a call onto the stack of the calls being compiled.
+     *
+     * @param function the index of the function called.
+     */
+    private void pushCall( int function )
+    {
+        if (callsCount == callFunctions.length)
+        {
+            int[] functions = new int[ 2 * callsCount ];
+            System.arraycopy( callFunctions, 0, functions, 0, callsCount );
+            callFunctions = functions;
+            int[] argumentsCounts = new int[ 2 * callsCount ];
+            System.arraycopy( callArgumentsCounts, 0, argumentsCounts, 0, callsCount );
+            callArgumentsCounts = argumentsCounts;
+        }
+        callFunctions[ callsCount ] = function;
+        callArgumentsCounts[ callsCount++ ] = 1;
+    }
+
+    /**
+     * Emits the operators on the operator stack down to the topmost parenthesis (leaving it on the stack).
+     *
+     * @return the entry of the parenthesis (LEFT_PARENTHESIS or CALL_PARENTHESIS), or 0 if there is none.
+     */
+    private int emitUntilParenthesis()
+    {
+        while (operatorsCount > 0)
+        {
+            int topOperator = operatorStack[ operatorsCount - 1 ];
+            if (isParenthesis( topOperator ))
+            {
+                return topOperator;
+            }
+            emitOperator( topOperator );
+            operatorsCount--;
+        }
+        return 0;
+    }
+
+    /**
+     * Emits an instruction pushing the constant.
+     *
+     * @param value the value of the constant.
+     */
+    private void pushConstant( double value )
+    {
+        if (constantsCount == constants.length)
+        {
+            double[] buffer = new double[ 2 * constantsCount ];
+            System.arraycopy( constants, 0, buffer, 0, constantsCount );
+            constants = buffer;
+        }
+        constants[ constantsCount ] = value;
+        emit( CompiledExpression.instruction( CompiledExpression.PUSH_CONSTANT, constantsCount++ ) );
+        pushOperand();
+    }
+
+    /**
+     * Emits an instruction loading the variable.
+     *
+     * @param slot the slot of the variable.
+     */
+    private void loadVariable( int slot )
+    {
+        slotsCount = Math.max( slotsCount, slot + 1 );
+        emit( CompiledExpression.instruction( CompiledExpression.LOAD_VARIABLE, slot ) );
+        pushOperand();
+    }
+
+    /**
+     * Emits the instruction of the operator (or the function).
+     *
+     * @param operator the instruction of the operator (its opcode) or the function.
+     */
+    private void emitOperator( int operator )
+    {
+        // The underflow is reported only once the whole expression has been checked for illegal tokens.
+        int arity = CompiledExpression.getArity( CompiledExpression.opcode( operator ) );
+        if (stackDepth < arity)
+        {
+            stackUnderflow = true;
+        }
+        else
+        {
+            stackDepth -= arity - 1;
+        }
+        emit( operator );
+    }
+
+    /**
+     * Accounts for an operand pushed onto the operand stack.
+     */
+    private void pushOperand()
+    {
+        stackDepth++;
+        maxStackDepth = Math.max( maxStackDepth, stackDepth );
+    }
+
+    /**
+     * Appends the instruction to the program.
+     *
+     * @param instruction the instruction.
+     */
+    private void emit( int instruction )
+    {
+        if (instructionsCount == instructions.length)
+        {
+            int[] buffer = new int[ 2 * instructionsCount ];
+            System.arraycopy( instructions, 0, buffer, 0, instructionsCount );
+            instructions = buffer;
+        }
+        instructions[ instructionsCount++ ] = instruction;
+    }
+
+    // Private static methods
+
+    /**
+     * Gets the precedence of the operator.
+     *
+     * @param operator the opcode of the operator.
+     *
+     * @return the precedence of the operator (the higher, the tighter it binds).
+     */
+    private static int getPrecedence( int operator )
+    {
+        switch (operator)
+        {
+            case CompiledExpression.NEGATE:
+                return 2;
+            case CompiledExpression.MULTIPLY:
+            case CompiledExpression.DIVIDE:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Determines whether the entry of the operator stack is a parenthesis.
+     *
+     * @param entry the entry.
+     *
+     * @return <c>true</c> if the entry is a left parenthesis (of a call or not), <c>false</c> if it is an operator.
+     */
+    private static boolean isParenthesis( int entry )
+    {
+        return (entry == LEFT_PARENTHESIS || entry == CALL_PARENTHESIS);
+    }
+}
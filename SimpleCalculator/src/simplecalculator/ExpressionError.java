@@ -0,0 +1,27 @@
+package simplecalculator;
+
+/**
+ * This (public) enumeration represents the causes an expression is illegal for.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public enum ExpressionError
+{
+    /** A token is neither a number, a variable, a function, an operator, a parenthesis, a comma nor an equality sign. */
+    ILLEGAL_TOKEN,
+
+    /** An equality sign is not preceded by a single variable (or it is not the only one, e.g. a trailing one). */
+    ILLEGAL_ASSIGNMENT,
+
+    /** The expression (or the right-hand side of the assignment expression) is empty. */
+    EMPTY_EXPRESSION,
+
+    /** A parenthesis is unmatched. */
+    UNMATCHED_PARENTHESIS,
+
+    /** An operator lacks its operands. */
+    MISSING_OPERAND,
+
+    /** A function is called with a wrong number of arguments (or a comma is not within the parentheses of a call). */
+    ILLEGAL_CALL
+}
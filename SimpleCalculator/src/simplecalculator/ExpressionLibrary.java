@@ -0,0 +1,724 @@
+package simplecalculator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This (public) class represents a library of precompiled expressions loaded from a memory-mapped file.
+ *
+ * The file holds the programs of the compiled expressions (their instructions,
+ * constants and variables) in a compact binary form, so loading it involves no
+ * lexing and no conversion into the postfix notation. The file is mapped and
+ * checked as a whole when it is loaded (its magic, its version, its checksum and
+ * the structure of every program, so a stale or corrupt file is rejected instead
+ * of giving wrong results), and the names of its variables and functions are
+ * resolved; a compiled expression is built from the mapped bytes only on its first
+ * use, so loading allocates nothing per expression.
+ *
+ * The file refers to the variables and the functions by their names (listed once
+ * per file), since their slots and indices differ from one process to another; the
+ * functions called must be registered before the library is loaded.
+ *
+ * The format is (all the numbers big-endian):
+ * <ol>
+ * <li>the header: the magic, the version, and the numbers of the names, the
+ * functions and the expressions (ints),</li>
+ * <li>the names of the variables (a short length and the ASCII characters each),</li>
+ * <li>the functions (the number of the arguments as a byte, then the name as above),</li>
+ * <li>the positions of the expressions in the file (ints),</li>
+ * <li>the expressions: the length of the text and its ASCII characters, the variable
+ * assigned to (-1 for none), the maximum depth of the operand stack, the numbers of
+ * the instructions, the constants and the variables read (ints), the instructions
+ * (ints, a variable or a function given by its position in the lists above), the
+ * constants (the bits of the doubles, longs) and the variables read (ints, ascending),</li>
+ * <li>the checksum of all of the above (FNV-1a, a long).</li>
+ * </ol>
+ *
+ * A library may be shared by any number of calculators and threads.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public final class ExpressionLibrary
+{
+    // Private instance fields
+
+    /** The mapped file. */
+    private final ByteBuffer buffer;
+
+    /** The number of the expressions. */
+    private final int expressionsCount;
+
+    /** The position of the positions of the expressions. */
+    private final int indexPosition;
+
+    /** The slots of the variables (indexed by their positions in the file). */
+    private final int[] slots;
+
+    /** The indices of the functions (indexed by their positions in the file). */
+    private final int[] functions;
+
+    /** The hash table of the texts of the expressions (the index of an expression plus one, zero for none). */
+    private final int[] textTable;
+
+    /** The compiled expressions built so far (indexed by the expressions, <c>null</c> until the first use). */
+    private final CompiledExpression[] compiledExpressions;
+
+    // Private static fields
+
+    /** The magic of a library. */
+    private static final int MAGIC = 0x5343454C;
+
+    /** The version of the format (changing whenever the format or the instructions do). */
+    private static final int VERSION = 1;
+
+    /** The size of the header (in bytes). */
+    private static final int HEADER_SIZE = 20;
+
+    /** The size of the fixed part of an expression (after its text; in bytes). */
+    private static final int EXPRESSION_HEADER_SIZE = 20;
+
+    // Private instance constructors
+
+    /**
+     * Creates a new library (checking the mapped file and resolving its names).
+     *
+     * @param file the file (for the messages).
+     * @param buffer the mapped file.
+     *
+     * @throws java.io.IOException if the file is not a library of this version, it is corrupt, or it calls an unregistered function.
+     */
+    private ExpressionLibrary( File file, ByteBuffer buffer )
+        throws IOException
+    {
+        this.buffer = buffer;
+        int end = buffer.limit() - 8;
+        if (end < HEADER_SIZE || buffer.getInt( 0 ) != MAGIC)
+        {
+            throw new IOException( "The file " + file + " is not an expression library." );
+        }
+        if (buffer.getInt( 4 ) != VERSION)
+        {
+            throw new IOException( "The library " + file + " has an unsupported version (" + buffer.getInt( 4 ) + ")." );
+        }
+        if (buffer.getLong( end ) != checksum( buffer, 0, end ))
+        {
+            throw new IOException( "The library " + file + " is corrupt." );
+        }
+
+        int namesCount = buffer.getInt( 8 );
+        int functionsCount = buffer.getInt( 12 );
+        expressionsCount = buffer.getInt( 16 );
+        if (namesCount < 0 || functionsCount < 0 || expressionsCount < 0 || expressionsCount > end / 4)
+        {
+            throw new IOException( "The library " + file + " is corrupt." );
+        }
+
+        // Resolve the names of the variables (interning them right from the mapped bytes).
+        AsciiCharSequence input = new AsciiCharSequence();
+        input.reset( buffer );
+        int position = HEADER_SIZE;
+        slots = new int[ namesCount ];
+        for (int i = 0; i < namesCount; i++)
+        {
+            int length = (position + 2 <= end) ? buffer.getShort( position ) : -1;
+            if (length < 1 || position + 2 + length > end || !Lexer.isIdentifier( input, position + 2, position + 2 + length ))
+            {
+                throw new IOException( "The library " + file + " is corrupt." );
+            }
+            slots[ i ] = SymbolTable.intern( input, position + 2, position + 2 + length );
+            if (slots[ i ] < 0)
+            {
+                throw new IOException( "The library " + file + " has too many names." );
+            }
+            position += 2 + length;
+        }
+
+        // Resolve the functions (which must be registered with the same numbers of arguments).
+        functions = new int[ functionsCount ];
+        int[] functionArities = new int[ functionsCount ];
+        for (int i = 0; i < functionsCount; i++)
+        {
+            int length = (position + 3 <= end) ? buffer.getShort( position + 1 ) : -1;
+            if (length < 1 || position + 3 + length > end || !Lexer.isIdentifier( input, position + 3, position + 3 + length ))
+            {
+                throw new IOException( "The library " + file + " is corrupt." );
+            }
+            functionArities[ i ] = buffer.get( position );
+            int slot = SymbolTable.intern( input, position + 3, position + 3 + length );
+            functions[ i ] = (slot >= 0) ? FunctionRegistry.findFunction( slot ) : -1;
+            if (functions[ i ] < 0 || CompiledExpression.opcode( FunctionRegistry.getInstruction( functions[ i ] ) )
+                != ((functionArities[ i ] == 1) ? CompiledExpression.CALL_UNARY : CompiledExpression.CALL_BINARY))
+            {
+                throw new IOException( "The library " + file + " calls the function "
+                    + input.subSequence( position + 3, position + 3 + length ) + ", which is not registered." );
+            }
+            position += 3 + length;
+        }
+        input.reset( null );
+
+        // Check the expressions and hash their texts.
+        indexPosition = position;
+        if (indexPosition + 4 * expressionsCount > end)
+        {
+            throw new IOException( "The library " + file + " is corrupt." );
+        }
+        textTable = new int[ Math.max( Integer.highestOneBit( Math.max( 2 * expressionsCount - 1, 1 ) ) << 1, 2 ) ];
+        for (int expression = 0; expression < expressionsCount; expression++)
+        {
+            position = buffer.getInt( indexPosition + 4 * expression );
+            if (!isValid( position, end, namesCount, functionArities ))
+            {
+                throw new IOException( "The library " + file + " is corrupt." );
+            }
+            int mask = textTable.length - 1;
+            int index = spread( hash( position ) ) & mask;
+            while (textTable[ index ] != 0)
+            {
+                index = (index + 1) & mask;
+            }
+            textTable[ index ] = expression + 1;
+        }
+        compiledExpressions = new CompiledExpression[ expressionsCount ];
+    }
+
+    // Public static methods
+
+    /**
+     * Loads the library from the file (mapping it into memory).
+     *
+     * @param file the file of the library.
+     *
+     * @return the library.
+     *
+     * @throws java.io.IOException if the file cannot be read, it is not a library of this version, it is corrupt, or it calls an unregistered function.
+     */
+    public static ExpressionLibrary load( File file )
+        throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile( file, "r" );
+        try
+        {
+            long length = randomAccessFile.length();
+            if (length > Integer.MAX_VALUE)
+            {
+                throw new IOException( "The library " + file + " is too large." );
+            }
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, length );
+            return new ExpressionLibrary( file, buffer );
+        }
+        finally
+        {
+            // The mapping stays valid once the file has been closed.
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Writes the library of the compiled expressions into the file.
+     *
+     * @param file the file of the library (replaced if it exists).
+     * @param compiledExpressions the compiled expressions (in the order of their indices in the library).
+     *
+     * @throws java.io.IOException if the file cannot be written, or the library is too large.
+     * @throws java.lang.IllegalArgumentException if the text of an expression is not ASCII, or the name of a variable or a function is longer than <code>Short.MAX_VALUE</code>.
+     */
+    public static void write( File file, CompiledExpression[] compiledExpressions )
+        throws IOException, IllegalArgumentException
+    {
+        // List the variables and the functions (in the order they first appear).
+        Map< Integer, Integer > names = new HashMap< Integer, Integer >();
+        Map< Integer, Integer > functions = new HashMap< Integer, Integer >();
+        int[] nameSlots = new int[ 16 ];
+        int[] functionIndices = new int[ 16 ];
+        long length = HEADER_SIZE + 8;
+        for (CompiledExpression compiledExpression : compiledExpressions)
+        {
+            String expression = compiledExpression.getExpression();
+            for (int i = 0; i < expression.length(); i++)
+            {
+                if (expression.charAt( i ) > 0x7F)
+                {
+                    throw new IllegalArgumentException();
+                }
+            }
+            if (compiledExpression.isAssignment())
+            {
+                nameSlots = list( names, nameSlots, compiledExpression.getVariableSlot() );
+            }
+            for (int slot : compiledExpression.getVariableSlots())
+            {
+                nameSlots = list( names, nameSlots, slot );
+            }
+            for (int instruction : compiledExpression.getInstructions())
+            {
+                int opcode = CompiledExpression.opcode( instruction );
+                if (opcode == CompiledExpression.CALL_UNARY || opcode == CompiledExpression.CALL_BINARY)
+                {
+                    functionIndices = list( functions, functionIndices, CompiledExpression.operand( instruction ) );
+                }
+            }
+            length += 4 + 4 + compiledExpression.getExpression().length() + EXPRESSION_HEADER_SIZE
+                + 4L * compiledExpression.getInstructions().length + 8L * compiledExpression.getConstants().length
+                + 4L * compiledExpression.getVariableSlots().length;
+        }
+        // The names are stored with a short length.
+        for (int i = 0; i < names.size(); i++)
+        {
+            length += 2 + checkNameLength( SymbolTable.getName( nameSlots[ i ] ) );
+        }
+        for (int i = 0; i < functions.size(); i++)
+        {
+            length += 3 + checkNameLength( FunctionRegistry.getName( functionIndices[ i ] ) );
+        }
+        if (length > Integer.MAX_VALUE)
+        {
+            throw new IOException( "The library is too large." );
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile( file, "rw" );
+        try
+        {
+            randomAccessFile.setLength( length );
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, length );
+            buffer.putInt( MAGIC ).putInt( VERSION ).putInt( names.size() ).putInt( functions.size() )
+                .putInt( compiledExpressions.length );
+            for (int i = 0; i < names.size(); i++)
+            {
+                putAscii( buffer.putShort( (short) SymbolTable.getName( nameSlots[ i ] ).length() ),
+                    SymbolTable.getName( nameSlots[ i ] ) );
+            }
+            for (int i = 0; i < functions.size(); i++)
+            {
+                String name = FunctionRegistry.getName( functionIndices[ i ] );
+                putAscii( buffer.put( (byte) FunctionRegistry.getArity( functionIndices[ i ] ) ).putShort( (short) name.length() ),
+                    name );
+            }
+
+            // The positions of the expressions.
+            int position = buffer.position() + 4 * compiledExpressions.length;
+            for (CompiledExpression compiledExpression : compiledExpressions)
+            {
+                buffer.putInt( position );
+                position += 4 + compiledExpression.getExpression().length() + EXPRESSION_HEADER_SIZE
+                    + 4 * compiledExpression.getInstructions().length + 8 * compiledExpression.getConstants().length
+                    + 4 * compiledExpression.getVariableSlots().length;
+            }
+
+            for (CompiledExpression compiledExpression : compiledExpressions)
+            {
+                int[] instructions = compiledExpression.getInstructions();
+                double[] constants = compiledExpression.getConstants();
+                int[] variableSlots = compiledExpression.getVariableSlots();
+                putAscii( buffer.putInt( compiledExpression.getExpression().length() ), compiledExpression.getExpression() );
+                buffer.putInt( compiledExpression.isAssignment() ? names.get( compiledExpression.getVariableSlot() ) : -1 )
+                    .putInt( compiledExpression.getMaxStackDepth() ).putInt( instructions.length )
+                    .putInt( constants.length ).putInt( variableSlots.length );
+                for (int instruction : instructions)
+                {
+                    int opcode = CompiledExpression.opcode( instruction );
+                    if (opcode == CompiledExpression.LOAD_VARIABLE)
+                    {
+                        instruction = CompiledExpression.instruction( opcode, names.get( CompiledExpression.operand( instruction ) ) );
+                    }
+                    else if (opcode == CompiledExpression.CALL_UNARY || opcode == CompiledExpression.CALL_BINARY)
+                    {
+                        instruction = CompiledExpression.instruction( opcode, functions.get( CompiledExpression.operand( instruction ) ) );
+                    }
+                    buffer.putInt( instruction );
+                }
+                for (double constant : constants)
+                {
+                    buffer.putLong( Double.doubleToRawLongBits( constant ) );
+                }
+                int[] variables = new int[ variableSlots.length ];
+                for (int i = 0; i < variableSlots.length; i++)
+                {
+                    variables[ i ] = names.get( variableSlots[ i ] );
+                }
+                Arrays.sort( variables );
+                for (int variable : variables)
+                {
+                    buffer.putInt( variable );
+                }
+            }
+            buffer.putLong( checksum( buffer, 0, buffer.position() ) );
+            buffer.force();
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+    }
+
+    // Public instance methods
+
+    /**
+     * Gets the number of the expressions of the library.
+     *
+     * @return the number of the expressions.
+     */
+    public int getExpressionsCount()
+    {
+        return expressionsCount;
+    }
+
+    /**
+     * Gets the compiled expression (building it from the mapped bytes on its first use).
+     *
+     * @param index the index of the expression.
+     *
+     * @return the compiled expression.
+     *
+     * @throws java.lang.IllegalArgumentException if there is no expression of the index.
+     */
+    public CompiledExpression get( int index )
+        throws IllegalArgumentException
+    {
+        if (index < 0 || index >= expressionsCount)
+        {
+            throw new IllegalArgumentException();
+        }
+
+        // A compiled expression is immutable, so it can be built by more than one thread at once.
+        CompiledExpression compiledExpression = compiledExpressions[ index ];
+        if (compiledExpression == null)
+        {
+            compiledExpression = build( buffer.getInt( indexPosition + 4 * index ) );
+            compiledExpressions[ index ] = compiledExpression;
+        }
+        return compiledExpression;
+    }
+
+    /**
+     * Finds the compiled expression of the text.
+     *
+     * @param expression the text of the expression.
+     *
+     * @return the compiled expression, or <c>null</c> if the library has no expression of the text.
+     */
+    public CompiledExpression find( String expression )
+    {
+        int mask = textTable.length - 1;
+        for (int index = spread( expression.hashCode() ) & mask; textTable[ index ] != 0; index = (index + 1) & mask)
+        {
+            int position = buffer.getInt( indexPosition + 4 * (textTable[ index ] - 1) );
+            if (hasText( position, expression ))
+            {
+                return get( textTable[ index ] - 1 );
+            }
+        }
+        return null;
+    }
+
+    // Private instance methods
+
+    /**
+     * Checks the structure of the expression in the mapped file.
+     *
+     * @param position the position of the expression.
+     * @param end the position of the checksum.
+     * @param namesCount the number of the names.
+     * @param functionArities the numbers of the arguments of the functions (indexed by their positions in the file).
+     *
+     * @return <c>true</c> if the expression is valid, <c>false</c> otherwise.
+     */
+    private boolean isValid( int position, int end, int namesCount, int[] functionArities )
+    {
+        if (position < indexPosition || position > end - 4)
+        {
+            return false;
+        }
+        int textLength = buffer.getInt( position );
+        if (textLength < 0 || textLength > end - position - 4 - EXPRESSION_HEADER_SIZE)
+        {
+            return false;
+        }
+        for (int i = position + 4; i < position + 4 + textLength; i++)
+        {
+            if (buffer.get( i ) < 0)
+            {
+                return false;
+            }
+        }
+
+        position += 4 + textLength;
+        int variable = buffer.getInt( position );
+        int maxStackDepth = buffer.getInt( position + 4 );
+        int instructionsCount = buffer.getInt( position + 8 );
+        int constantsCount = buffer.getInt( position + 12 );
+        int variablesCount = buffer.getInt( position + 16 );
+        position += EXPRESSION_HEADER_SIZE;
+        if (variable < -1 || variable >= namesCount || instructionsCount < 1 || constantsCount < 0 || variablesCount < 0
+            || (long) position + 4L * instructionsCount + 8L * constantsCount + 4L * variablesCount > end)
+        {
+            return false;
+        }
+        int variablesPosition = position + 4 * instructionsCount + 8 * constantsCount;
+        for (int i = 0; i < variablesCount; i++)
+        {
+            int name = buffer.getInt( variablesPosition + 4 * i );
+            if (name < 0 || name >= namesCount || (i > 0 && name <= buffer.getInt( variablesPosition + 4 * (i - 1) )))
+            {
+                return false;
+            }
+        }
+
+        // Run the program on the depth of the operand stack only.
+        int depth = 0;
+        int maxDepth = 0;
+        for (int i = 0; i < instructionsCount; i++)
+        {
+            int instruction = buffer.getInt( position + 4 * i );
+            int opcode = CompiledExpression.opcode( instruction );
+            int operand = CompiledExpression.operand( instruction );
+            boolean valid;
+            switch (opcode)
+            {
+                case CompiledExpression.PUSH_CONSTANT:
+                    valid = (operand < constantsCount);
+                    break;
+                case CompiledExpression.LOAD_VARIABLE:
+                    valid = isRead( variablesPosition, variablesCount, operand );
+                    break;
+                case CompiledExpression.CALL_UNARY:
+                case CompiledExpression.CALL_BINARY:
+                    valid = (operand < functionArities.length
+                        && functionArities[ operand ] == CompiledExpression.getArity( opcode ));
+                    break;
+                default:
+                    valid = (opcode <= CompiledExpression.CALL_BINARY && operand == 0);
+                    break;
+            }
+            depth -= CompiledExpression.getArity( opcode );
+            if (!valid || depth < 0)
+            {
+                return false;
+            }
+            maxDepth = Math.max( maxDepth, ++depth );
+        }
+        return (depth == 1 && maxDepth == maxStackDepth);
+    }
+
+    /**
+     * Builds the compiled expression from the mapped file.
+     *
+     * @param position the position of the expression.
+     *
+     * @return the compiled expression.
+     */
+    private CompiledExpression build( int position )
+    {
+        int textLength = buffer.getInt( position );
+        char[] text = new char[ textLength ];
+        for (int i = 0; i < textLength; i++)
+        {
+            text[ i ] = (char) buffer.get( position + 4 + i );
+        }
+
+        position += 4 + textLength;
+        int variable = buffer.getInt( position );
+        int maxStackDepth = buffer.getInt( position + 4 );
+        int[] instructions = new int[ buffer.getInt( position + 8 ) ];
+        double[] constants = new double[ buffer.getInt( position + 12 ) ];
+        int[] variableSlots = new int[ buffer.getInt( position + 16 ) ];
+        position += EXPRESSION_HEADER_SIZE;
+        for (int i = 0; i < instructions.length; i++, position += 4)
+        {
+            int instruction = buffer.getInt( position );
+            int opcode = CompiledExpression.opcode( instruction );
+            if (opcode == CompiledExpression.LOAD_VARIABLE)
+            {
+                instruction = CompiledExpression.instruction( opcode, slots[ CompiledExpression.operand( instruction ) ] );
+            }
+            else if (opcode == CompiledExpression.CALL_UNARY || opcode == CompiledExpression.CALL_BINARY)
+            {
+                instruction = FunctionRegistry.getInstruction( functions[ CompiledExpression.operand( instruction ) ] );
+            }
+            instructions[ i ] = instruction;
+        }
+        for (int i = 0; i < constants.length; i++, position += 8)
+        {
+            constants[ i ] = Double.longBitsToDouble( buffer.getLong( position ) );
+        }
+        for (int i = 0; i < variableSlots.length; i++, position += 4)
+        {
+            variableSlots[ i ] = slots[ buffer.getInt( position ) ];
+        }
+        Arrays.sort( variableSlots );
+        return new CompiledExpression( new String( text ), instructions, constants, maxStackDepth, variableSlots,
+            (variable >= 0) ? slots[ variable ] : -1 );
+    }
+
+    /**
+     * Determines whether the expression reads the variable (searching the ascending variables in the mapped file).
+     *
+     * @param position the position of the variables read.
+     * @param count the number of the variables read.
+     * @param variable the variable (its position in the list of the names).
+     *
+     * @return <c>true</c> if the expression reads the variable, <c>false</c> otherwise.
+     */
+    private boolean isRead( int position, int count, int variable )
+    {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            int name = buffer.getInt( position + 4 * middle );
+            if (name < variable)
+            {
+                low = middle + 1;
+            }
+            else if (name > variable)
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determines whether the expression in the mapped file has the text.
+     *
+     * @param position the position of the expression.
+     * @param expression the text.
+     *
+     * @return <c>true</c> if the expression has the text, <c>false</c> otherwise.
+     */
+    private boolean hasText( int position, String expression )
+    {
+        int length = buffer.getInt( position );
+        if (length != expression.length())
+        {
+            return false;
+        }
+        for (int i = 0; i < length; i++)
+        {
+            if (buffer.get( position + 4 + i ) != expression.charAt( i ))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hashes the text of the expression in the mapped file (exactly as <code>String.hashCode</code> hashes it).
+     *
+     * @param position the position of the expression.
+     *
+     * @return the hash.
+     */
+    private int hash( int position )
+    {
+        int length = buffer.getInt( position );
+        int hash = 0;
+        for (int i = 0; i < length; i++)
+        {
+            hash = 31 * hash + buffer.get( position + 4 + i );
+        }
+        return hash;
+    }
+
+    // Private static methods
+
+    /**
+     * Lists the element (unless it has been listed already).
+     *
+     * @param positions the positions of the elements listed (indexed by the elements).
+     * @param elements the elements listed (in the order of their positions).
+     * @param element the element.
+     *
+     * @return the elements listed (grown, if needed).
+     */
+    private static int[] list( Map< Integer, Integer > positions, int[] elements, int element )
+    {
+        if (!positions.containsKey( element ))
+        {
+            if (positions.size() == elements.length)
+            {
+                elements = ArrayUtils.copyOf( elements, 2 * elements.length );
+            }
+            elements[ positions.size() ] = element;
+            positions.put( element, positions.size() );
+        }
+        return elements;
+    }
+
+    /**
+     * Checks that the name fits its (short) length.
+     *
+     * @param name the name.
+     *
+     * @return the length of the name.
+     *
+     * @throws java.lang.IllegalArgumentException if the name is longer than <code>Short.MAX_VALUE</code>.
+     */
+    private static int checkNameLength( String name )
+        throws IllegalArgumentException
+    {
+        if (name.length() > Short.MAX_VALUE)
+        {
+            throw new IllegalArgumentException();
+        }
+        return name.length();
+    }
+
+    /**
+     * Writes the ASCII characters of the string into the buffer.
+     *
+     * @param buffer the buffer.
+     * @param s the string.
+     */
+    private static void putAscii( ByteBuffer buffer, String s )
+    {
+        for (int i = 0; i < s.length(); i++)
+        {
+            buffer.put( (byte) s.charAt( i ) );
+        }
+    }
+
+    /**
+     * Spreads the bits of the hash (so the low bits selecting the bucket depend on all of them).
+     *
+     * @param hash the hash.
+     *
+     * @return the spread hash.
+     */
+    private static int spread( int hash )
+    {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Checksums the bytes of the buffer (FNV-1a).
+     *
+     * @param buffer the buffer.
+     * @param start the position of the first byte.
+     * @param end the position one past the last byte.
+     *
+     * @return the checksum.
+     */
+    private static long checksum( ByteBuffer buffer, int start, int end )
+    {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = start; i < end; i++)
+        {
+            hash ^= buffer.get( i ) & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,303 @@
+package simplecalculator;
+
+/**
+ * This (package-private) class represents an optimizer of the programs of compiled expressions.
+ *
+ * The optimizer rewrites the program in a single pass, tracking which operands on
+ * the (symbolic) operand stack are constants:
+ *
+ * - an operator (or a function) applied to constants only is folded into a constant
+ *   (computed by the very same IEEE 754 operation, or the very same method, the
+ *   evaluation would perform),
+ * - an operator applied to an operand and its identity element is dropped, but only
+ *   where the identity holds for every double (NaN, infinities and signed zeros
+ *   included): x * 1, 1 * x, x / 1, x + (-0), (-0) + x and x - (+0),
+ * - a division by a power of two whose reciprocal is exact becomes a multiplication
+ *   by the reciprocal (x / 2^k and x * 2^-k round the same exact value).
+ *
+ * Nothing else is simplified: x + 0 is not x for x = -0, x * 0 is not 0 for infinite
+ * or NaN x, and reassociating the operators (e.g. folding x * 2 * 3 into x * 6) may
+ * change the rounding, hence the result.
+ *
+ * The program is rewritten in place: the optimized program is never longer than the
+ * original one and it uses its constants in the same order. An optimizer reuses its
+ * buffers, hence it must not be used by more than one thread at a time.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+final class ExpressionOptimizer
+{
+    // Private instance fields
+
+    /** The positions (in the optimized program) of the first instructions of the operands on the symbolic stack. */
+    private int[] operandStarts;
+
+    /** The indices of the constants the operands on the symbolic stack are (-1 for an operand which is not a constant). */
+    private int[] operandConstants;
+
+    /** The number of instructions of the optimized program. */
+    private int instructionsCount;
+
+    /** The number of constants of the optimized program. */
+    private int constantsCount;
+
+    /** The maximum depth of the operand stack reached by the optimized program. */
+    private int maxStackDepth;
+
+    // Private static fields
+
+    /** The mask selecting the fraction of a double. */
+    private static final long FRACTION_MASK = 0x000FFFFFFFFFFFFFL;
+
+    /** The biased exponent of a double shifted by the fraction bits. */
+    private static final int EXPONENT_SHIFT = 52;
+
+    /** The mask selecting the biased exponent of a double (once shifted). */
+    private static final int EXPONENT_MASK = 0x7FF;
+
+    // Package-private instance constructors
+
+    /**
+     * Creates a new optimizer.
+     */
+    ExpressionOptimizer()
+    {
+        operandStarts = new int[ 16 ];
+        operandConstants = new int[ 16 ];
+    }
+
+    // Package-private instance methods
+
+    /**
+     * Optimizes the program (in place).
+     *
+     * @param instructions the instructions of the program (receiving the instructions of the optimized program).
+     * @param instructionsCount the number of instructions of the program.
+     * @param constants the constants of the program (receiving the constants of the optimized program).
+     * @param maxStackDepth the maximum depth of the operand stack reached by the program.
+     */
+    void optimize( int[] instructions, int instructionsCount, double[] constants, int maxStackDepth )
+    {
+        if (operandStarts.length < maxStackDepth)
+        {
+            operandStarts = new int[ maxStackDepth ];
+            operandConstants = new int[ maxStackDepth ];
+        }
+
+        // The optimized program is written over the original one (never overtaking it).
+        int count = 0;
+        int constantsCount = 0;
+        int top = -1;
+        for (int i = 0; i < instructionsCount; i++)
+        {
+            int instruction = instructions[ i ];
+            int opcode = CompiledExpression.opcode( instruction );
+            switch (opcode)
+            {
+                case CompiledExpression.PUSH_CONSTANT:
+
+                    top++;
+                    operandStarts[ top ] = count;
+                    operandConstants[ top ] = constantsCount;
+                    constants[ constantsCount ] = constants[ CompiledExpression.operand( instruction ) ];
+                    instructions[ count++ ] = CompiledExpression.instruction( CompiledExpression.PUSH_CONSTANT,
+                        constantsCount++ );
+                    break;
+
+                case CompiledExpression.LOAD_VARIABLE:
+
+                    top++;
+                    operandStarts[ top ] = count;
+                    operandConstants[ top ] = -1;
+                    instructions[ count++ ] = instruction;
+                    break;
+
+                default:
+
+                    if (CompiledExpression.getArity( opcode ) == 1)
+                    {
+                        // The operand (pushed by the last instruction if it is a constant) is replaced with the result.
+                        int operandConstant = operandConstants[ top ];
+                        if (operandConstant >= 0)
+                        {
+                            constants[ operandConstant ] = CompiledExpression.apply( instruction, constants[ operandConstant ] );
+                        }
+                        else
+                        {
+                            instructions[ count++ ] = instruction;
+                        }
+                        break;
+                    }
+
+                    // The operator replaces its operands with its result (taking the place of the left one).
+                    int right = top--;
+                    int left = top;
+                    int leftConstant = operandConstants[ left ];
+                    int rightConstant = operandConstants[ right ];
+
+                    if (leftConstant >= 0 && rightConstant >= 0)
+                    {
+                        // Both operands are constants (pushed by the last two instructions): fold them.
+                        constants[ leftConstant ] = CompiledExpression.apply( instruction, constants[ leftConstant ],
+                            constants[ rightConstant ] );
+                        constantsCount = rightConstant;
+                        count = operandStarts[ right ];
+                    }
+                    else if (rightConstant >= 0 && isRightIdentity( opcode, constants[ rightConstant ] ))
+                    {
+                        // The right operand (pushed by the last instruction) is the identity: drop it.
+                        constantsCount = rightConstant;
+                        count = operandStarts[ right ];
+                    }
+                    else if (leftConstant >= 0 && isLeftIdentity( opcode, constants[ leftConstant ] ))
+                    {
+                        // The left operand (pushed by the first instruction of the two operands) is the identity: drop it.
+                        int start = operandStarts[ left ];
+                        for (int j = start + 1; j < count; j++)
+                        {
+                            int moved = instructions[ j ];
+                            if (CompiledExpression.opcode( moved ) == CompiledExpression.PUSH_CONSTANT)
+                            {
+                                moved = CompiledExpression.instruction( CompiledExpression.PUSH_CONSTANT,
+                                    CompiledExpression.operand( moved ) - 1 );
+                            }
+                            instructions[ j - 1 ] = moved;
+                        }
+                        System.arraycopy( constants, leftConstant + 1, constants, leftConstant, constantsCount - leftConstant - 1 );
+                        constantsCount--;
+                        count--;
+                        operandConstants[ left ] = -1;
+                    }
+                    else
+                    {
+                        // A division by a power of two is a multiplication by its (exact) reciprocal.
+                        if (opcode == CompiledExpression.DIVIDE && rightConstant >= 0
+                            && hasExactReciprocal( constants[ rightConstant ] ))
+                        {
+                            constants[ rightConstant ] = 1 / constants[ rightConstant ];
+                            instruction = CompiledExpression.instruction( CompiledExpression.MULTIPLY, 0 );
+                        }
+                        instructions[ count++ ] = instruction;
+                        operandConstants[ left ] = -1;
+                    }
+                    break;
+            }
+        }
+
+        this.instructionsCount = count;
+        this.constantsCount = constantsCount;
+        this.maxStackDepth = getMaxStackDepth( instructions, count );
+    }
+
+    /**
+     * Gets the number of instructions of the last optimized program.
+     *
+     * @return the number of instructions.
+     */
+    int getInstructionsCount()
+    {
+        return instructionsCount;
+    }
+
+    /**
+     * Gets the number of constants of the last optimized program.
+     *
+     * @return the number of constants.
+     */
+    int getConstantsCount()
+    {
+        return constantsCount;
+    }
+
+    /**
+     * Gets the maximum depth of the operand stack reached by the last optimized program.
+     *
+     * @return the maximum depth of the operand stack.
+     */
+    int getMaxStackDepth()
+    {
+        return maxStackDepth;
+    }
+
+    // Private static methods
+
+    /**
+     * Determines whether the constant is the right identity of the operator (for every double).
+     *
+     * @param opcode the opcode of the operator.
+     * @param constant the constant.
+     *
+     * @return <c>true</c> if x op constant is x for every double x, <c>false</c> otherwise.
+     */
+    private static boolean isRightIdentity( int opcode, double constant )
+    {
+        switch (opcode)
+        {
+            case CompiledExpression.ADD:
+                return (Double.doubleToLongBits( constant ) == Double.doubleToLongBits( -0.0 ));
+            case CompiledExpression.SUBTRACT:
+                return (Double.doubleToLongBits( constant ) == Double.doubleToLongBits( 0.0 ));
+            case CompiledExpression.MULTIPLY:
+            case CompiledExpression.DIVIDE:
+                return (constant == 1);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Determines whether the constant is the left identity of the operator (for every double).
+     *
+     * @param opcode the opcode of the operator.
+     * @param constant the constant.
+     *
+     * @return <c>true</c> if constant op x is x for every double x, <c>false</c> otherwise.
+     */
+    private static boolean isLeftIdentity( int opcode, double constant )
+    {
+        switch (opcode)
+        {
+            case CompiledExpression.ADD:
+                return (Double.doubleToLongBits( constant ) == Double.doubleToLongBits( -0.0 ));
+            case CompiledExpression.MULTIPLY:
+                return (constant == 1);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Determines whether the constant is a power of two whose reciprocal is a double.
+     *
+     * @param constant the constant.
+     *
+     * @return <c>true</c> if the constant is a (normal) power of two whose reciprocal is a double, <c>false</c> otherwise.
+     */
+    private static boolean hasExactReciprocal( double constant )
+    {
+        long bits = Double.doubleToLongBits( constant );
+        int exponent = (int) (bits >>> EXPONENT_SHIFT) & EXPONENT_MASK;
+        return ((bits & FRACTION_MASK) == 0 && exponent != 0 && exponent != EXPONENT_MASK);
+    }
+
+    /**
+     * Gets the maximum depth of the operand stack reached by the program.
+     *
+     * @param instructions the instructions of the program.
+     * @param instructionsCount the number of instructions of the program.
+     *
+     * @return the maximum depth of the operand stack.
+     */
+    private static int getMaxStackDepth( int[] instructions, int instructionsCount )
+    {
+        int depth = 0;
+        int maxDepth = 0;
+        for (int i = 0; i < instructionsCount; i++)
+        {
+            // Every instruction replaces its operands with a single result.
+            depth += 1 - CompiledExpression.getArity( CompiledExpression.opcode( instructions[ i ] ) );
+            maxDepth = Math.max( maxDepth, depth );
+        }
+        return maxDepth;
+    }
+}
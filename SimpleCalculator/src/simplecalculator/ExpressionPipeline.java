@@ -0,0 +1,499 @@
+package simplecalculator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * This (public) class represents a pipeline evaluating the expressions of a stream line by line.
+ *
+ * The pipeline has four stages:
+ * <ol>
+ * <li>a reader thread reading the lines in batches,</li>
+ * <li>a pool of workers compiling the batches (lexing and converting into the
+ * postfix notation do not depend on the variables, so they run ahead in parallel),</li>
+ * <li>the calling thread evaluating the compiled batches strictly in the input
+ * order (so the assignments are applied in the input order), and</li>
+ * <li>a writer thread printing the results.</li>
+ * </ol>
+ * The stages are connected by bounded queues, hence only a few batches are in
+ * flight at any time, however large the input is. The output is exactly the output
+ * of evaluating the lines one by one.
+ *
+ * The reader of the expressions is owned by the reader thread, which closes it once
+ * it stops reading. Should the processing fail, the reader thread may still be
+ * blocked reading a line (an interactive input cannot be interrupted), holding the
+ * lock of the reader; it is a daemon thread, so it does not keep the application
+ * alive, and it closes the reader as soon as the line comes.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public final class ExpressionPipeline
+{
+    // Private instance fields
+
+    /** The number of the compiling workers. */
+    private final int workersCount;
+
+    /** The engine compiling (and caching) the expressions for the workers. */
+    private final CalculatorEngine engine;
+
+    /** The calculator evaluating the compiled expressions. */
+    private final SimpleCalculator calculator;
+
+    /** The number of lines evaluated so far. */
+    private long linesCount;
+
+    // Private static fields
+
+    /** The number of lines in a batch. */
+    private static final int BATCH_SIZE = 512;
+
+    /** The number of compiled (or compiling) batches in flight per worker. */
+    private static final int BATCHES_PER_WORKER = 4;
+
+    /** The number of evaluated batches waiting for the writer. */
+    private static final int EVALUATED_BATCHES_COUNT = 16;
+
+    // Public instance constructors
+
+    /**
+     * Creates a new expression pipeline.
+     *
+     * @param workersCount the number of the compiling workers.
+     *
+     * @throws java.lang.IllegalArgumentException if the number of workers is not positive.
+     */
+    public ExpressionPipeline( int workersCount )
+        throws IllegalArgumentException
+    {
+        if (workersCount < 1)
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.workersCount = workersCount;
+        this.engine = new CalculatorEngine();
+        this.calculator = new SimpleCalculator();
+    }
+
+    // Public instance methods
+
+    /**
+     * Evaluates the expressions read from the reader (one per line) and prints their values.
+     *
+     * The processing stops at the first illegal expression; the values of all the
+     * preceding expressions have been printed (and the print stream flushed) by the
+     * time the exception is thrown. The reader is closed by the pipeline; the caller
+     * must neither use nor close it afterwards.
+     *
+     * @param bufferedReader the reader of the expressions.
+     * @param printStream the print stream receiving the values.
+     *
+     * @throws java.io.IOException if the expressions cannot be read.
+     * @throws java.lang.IllegalArgumentException if an expression is illegal.
+     */
+    public void process( BufferedReader bufferedReader, PrintStream printStream )
+        throws IOException, IllegalArgumentException
+    {
+        process( bufferedReader, new ResultWriter( printStream ) );
+    }
+
+    /**
+     * Evaluates the expressions read from the reader (one per line) and prints their values.
+     *
+     * The processing stops at the first illegal expression; the values of all the
+     * preceding expressions have been written (and the writer flushed) by the time
+     * the exception is thrown. The reader is closed by the pipeline; the caller must
+     * neither use nor close it afterwards.
+     *
+     * @param bufferedReader the reader of the expressions.
+     * @param resultWriter the writer receiving the values.
+     *
+     * @throws java.io.IOException if the expressions cannot be read.
+     * @throws java.lang.IllegalArgumentException if an expression is illegal.
+     */
+    public void process( final BufferedReader bufferedReader, final ResultWriter resultWriter )
+        throws IOException, IllegalArgumentException
+    {
+        final ExecutorService workers = Executors.newFixedThreadPool( workersCount, new DaemonThreadFactory( "ExpressionPipeline-worker" ) );
+        final BlockingQueue< Future< CompiledLines > > compiledBatches =
+            new ArrayBlockingQueue< Future< CompiledLines > >( BATCHES_PER_WORKER * workersCount );
+        final BlockingQueue< EvaluatedLines > evaluatedBatches =
+            new ArrayBlockingQueue< EvaluatedLines >( EVALUATED_BATCHES_COUNT );
+
+        // The reader stage (owning the reader).
+        Thread reader = new Thread( new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    read( bufferedReader, workers, compiledBatches );
+                }
+                catch (InterruptedException ex)
+                {
+                    // The pipeline has been stopped.
+                }
+                finally
+                {
+                    try
+                    {
+                        bufferedReader.close();
+                    }
+                    catch (IOException ex)
+                    {
+                        // Nothing is read anymore.
+                    }
+                }
+            }
+        }, "ExpressionPipeline-reader" );
+        reader.setDaemon( true );
+
+        // The writer stage.
+        Thread writer = new Thread( new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    write( evaluatedBatches, resultWriter );
+                }
+                catch (InterruptedException ex)
+                {
+                    // The pipeline has been stopped.
+                }
+            }
+        }, "ExpressionPipeline-writer" );
+        writer.setDaemon( true );
+
+        reader.start();
+        writer.start();
+
+        // The evaluation stage (on the calling thread).
+        Throwable failure = null;
+        try
+        {
+            failure = evaluate( compiledBatches, evaluatedBatches );
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            failure = ex;
+        }
+        finally
+        {
+            // Let the writer drain its queue, then stop the other stages (the reader thread closes the reader).
+            try
+            {
+                evaluatedBatches.put( EvaluatedLines.END );
+                writer.join();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+            reader.interrupt();
+            workers.shutdownNow();
+        }
+
+        // Report the failure (if any) the same way the sequential processing would.
+        if (failure instanceof IOException)
+        {
+            throw (IOException) failure;
+        }
+        else if (failure instanceof RuntimeException)
+        {
+            throw (RuntimeException) failure;
+        }
+        else if (failure instanceof Error)
+        {
+            throw (Error) failure;
+        }
+        else if (failure != null)
+        {
+            throw new IllegalStateException( failure );
+        }
+    }
+
+    /**
+     * Gets the number of lines evaluated so far.
+     *
+     * @return the number of lines evaluated (the illegal one not included).
+     */
+    public long getLinesCount()
+    {
+        return linesCount;
+    }
+
+    // Private instance methods
+
+    /**
+     * Reads the lines in batches and submits them to the workers (the reader stage).
+     *
+     * @param bufferedReader the reader of the expressions.
+     * @param workers the compiling workers.
+     * @param compiledBatches the queue receiving the (future) compiled batches in the input order.
+     *
+     * @throws java.lang.InterruptedException if the pipeline has been stopped.
+     */
+    private void read( BufferedReader bufferedReader, ExecutorService workers,
+        BlockingQueue< Future< CompiledLines > > compiledBatches )
+        throws InterruptedException
+    {
+        while (true)
+        {
+            final String[] lines = new String[ BATCH_SIZE ];
+            int count = 0;
+            IOException failure = null;
+            try
+            {
+                String line;
+                while (count < BATCH_SIZE && (line = bufferedReader.readLine()) != null)
+                {
+                    lines[ count++ ] = line;
+                }
+            }
+            catch (IOException ex)
+            {
+                failure = ex;
+            }
+
+            if (count > 0)
+            {
+                final int linesCount = count;
+                compiledBatches.put( workers.submit( new Callable< CompiledLines >()
+                {
+                    public CompiledLines call()
+                    {
+                        return compile( lines, linesCount );
+                    }
+                } ) );
+            }
+            if (failure != null)
+            {
+                compiledBatches.put( completed( new CompiledLines( failure ) ) );
+                return;
+            }
+            if (count < BATCH_SIZE)
+            {
+                compiledBatches.put( completed( CompiledLines.END ) );
+                return;
+            }
+        }
+    }
+
+    /**
+     * Compiles the batch of lines (in a worker).
+     *
+     * @param lines the lines.
+     * @param count the number of lines.
+     *
+     * @return the compiled batch.
+     */
+    private CompiledLines compile( String[] lines, int count )
+    {
+        CompiledExpression[] compiledExpressions = new CompiledExpression[ count ];
+        for (int i = 0; i < count; i++)
+        {
+            try
+            {
+                compiledExpressions[ i ] = engine.compile( lines[ i ] );
+            }
+            catch (RuntimeException ex)
+            {
+                // The failure is reported by the evaluation stage, in the input order.
+                return new CompiledLines( compiledExpressions, i, ex );
+            }
+        }
+        return new CompiledLines( compiledExpressions, count, null );
+    }
+
+    /**
+     * Evaluates the compiled batches in the input order (the evaluation stage).
+     *
+     * @param compiledBatches the queue of the (future) compiled batches in the input order.
+     * @param evaluatedBatches the queue receiving the evaluated batches.
+     *
+     * @return the failure stopping the processing, or <c>null</c> if all the lines have been processed.
+     *
+     * @throws java.lang.InterruptedException if the pipeline has been stopped.
+     */
+    private Throwable evaluate( BlockingQueue< Future< CompiledLines > > compiledBatches,
+        BlockingQueue< EvaluatedLines > evaluatedBatches )
+        throws InterruptedException
+    {
+        while (true)
+        {
+            CompiledLines compiledBatch;
+            try
+            {
+                compiledBatch = compiledBatches.take().get();
+            }
+            catch (ExecutionException ex)
+            {
+                return ex.getCause();
+            }
+            if (compiledBatch == CompiledLines.END)
+            {
+                return null;
+            }
+
+            double[] values = new double[ compiledBatch.count ];
+            int count = 0;
+            Throwable failure = compiledBatch.failure;
+            try
+            {
+                for (; count < compiledBatch.count; count++)
+                {
+                    values[ count ] = calculator.evaluate( compiledBatch.compiledExpressions[ count ] );
+                }
+            }
+            catch (RuntimeException ex)
+            {
+                failure = ex;
+            }
+            evaluatedBatches.put( new EvaluatedLines( values, count ) );
+            linesCount += count;
+
+            if (failure != null)
+            {
+                return failure;
+            }
+        }
+    }
+
+    /**
+     * Prints the values of the evaluated batches (the writer stage).
+     *
+     * The writer is flushed whenever no evaluated batch is waiting, so the values
+     * are not held back while the other stages wait for the input.
+     *
+     * @param evaluatedBatches the queue of the evaluated batches.
+     * @param resultWriter the writer receiving the values.
+     *
+     * @throws java.lang.InterruptedException if the pipeline has been stopped.
+     */
+    private void write( BlockingQueue< EvaluatedLines > evaluatedBatches, ResultWriter resultWriter )
+        throws InterruptedException
+    {
+        while (true)
+        {
+            EvaluatedLines evaluatedBatch = evaluatedBatches.poll();
+            if (evaluatedBatch == null)
+            {
+                resultWriter.flush();
+                evaluatedBatch = evaluatedBatches.take();
+            }
+            if (evaluatedBatch == EvaluatedLines.END)
+            {
+                break;
+            }
+
+            for (int i = 0; i < evaluatedBatch.count; i++)
+            {
+                resultWriter.println( evaluatedBatch.values[ i ] );
+            }
+        }
+        resultWriter.flush();
+    }
+
+    // Private static methods
+
+    /**
+     * Creates an already completed future.
+     *
+     * @param compiledBatch the value of the future.
+     *
+     * @return the future.
+     */
+    private static Future< CompiledLines > completed( final CompiledLines compiledBatch )
+    {
+        FutureTask< CompiledLines > future = new FutureTask< CompiledLines >( new Callable< CompiledLines >()
+        {
+            public CompiledLines call()
+            {
+                return compiledBatch;
+            }
+        } );
+        future.run();
+        return future;
+    }
+
+    /**
+     * This (private) class represents a batch of compiled lines.
+     */
+    private static final class CompiledLines
+    {
+        /** The end of the input. */
+        static final CompiledLines END = new CompiledLines( new CompiledExpression[ 0 ], 0, null );
+
+        /** The compiled expressions. */
+        final CompiledExpression[] compiledExpressions;
+
+        /** The number of compiled expressions (preceding the failure, if any). */
+        final int count;
+
+        /** The failure following the compiled expressions, or <c>null</c>. */
+        final Throwable failure;
+
+        /**
+         * Creates a new batch of compiled lines.
+         *
+         * @param compiledExpressions the compiled expressions.
+         * @param count the number of compiled expressions.
+         * @param failure the failure following the compiled expressions, or <c>null</c>.
+         */
+        CompiledLines( CompiledExpression[] compiledExpressions, int count, Throwable failure )
+        {
+            this.compiledExpressions = compiledExpressions;
+            this.count = count;
+            this.failure = failure;
+        }
+
+        /**
+         * Creates a new batch of compiled lines holding only a failure.
+         *
+         * @param failure the failure.
+         */
+        CompiledLines( Throwable failure )
+        {
+            this( new CompiledExpression[ 0 ], 0, failure );
+        }
+    }
+
+    /**
+     * This (private) class represents a batch of evaluated lines.
+     */
+    private static final class EvaluatedLines
+    {
+        /** The end of the output. */
+        static final EvaluatedLines END = new EvaluatedLines( new double[ 0 ], 0 );
+
+        /** The values. */
+        final double[] values;
+
+        /** The number of values. */
+        final int count;
+
+        /**
+         * Creates a new batch of evaluated lines.
+         *
+         * @param values the values.
+         * @param count the number of values.
+         */
+        EvaluatedLines( double[] values, int count )
+        {
+            this.values = values;
+            this.count = count;
+        }
+    }
+}
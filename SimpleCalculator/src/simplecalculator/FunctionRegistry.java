@@ -0,0 +1,424 @@
+package simplecalculator;
+
+/**
+ * This (public) class represents the registry of the functions which can be called in the expressions.
+ *
+ * A function is called by its name followed by its arguments in parentheses, separated
+ * by commas, e.g. "pow( x , 2 )". The call is resolved when the expression is compiled:
+ * a built-in function (sqrt, exp, log, pow, min and max) becomes an instruction of its
+ * own, calling the method of <code>java.lang.Math</code> directly, and any other
+ * function becomes an instruction calling it by its index, so no name is ever looked up
+ * while evaluating. A name not followed by a left parenthesis is a variable, hence a
+ * variable may be named like a function.
+ *
+ * Like the symbol table, the registry is shared by the whole JVM, so a compiled
+ * expression can be evaluated by any calculator; a function, once registered, can be
+ * neither replaced nor removed. A function must be pure (its value depends on its
+ * arguments only): the calls with constant arguments are folded by the optimizer and
+ * the equal calls of a batch are evaluated once. An expensive function may be
+ * memoized: its values are then kept in a bounded cache indexed by the hash of the
+ * arguments, a new value replacing the one it collides with. The cache is shared by
+ * all the threads without locking.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public final class FunctionRegistry
+{
+    // Public static fields
+
+    /** The maximum size of the cache of a memoized function. */
+    public static final int MAX_CACHE_SIZE = 1 << 20;
+
+    // Private static fields
+
+    /** The functions (indexed by their indices; replaced when a function is registered). */
+    private static volatile Function[] functions;
+
+    /** The indices of the functions (indexed by the slots of their names, -1 for no function; replaced when a function is registered). */
+    private static volatile int[] functionIndices;
+
+    static
+    {
+        functions = new Function[ 0 ];
+        functionIndices = new int[ 0 ];
+        add( "sqrt", CompiledExpression.SQRT, 1, null, null, 0 );
+        add( "exp", CompiledExpression.EXP, 1, null, null, 0 );
+        add( "log", CompiledExpression.LOG, 1, null, null, 0 );
+        add( "pow", CompiledExpression.POW, 2, null, null, 0 );
+        add( "min", CompiledExpression.MIN, 2, null, null, 0 );
+        add( "max", CompiledExpression.MAX, 2, null, null, 0 );
+    }
+
+    // Private instance constructors
+
+    /**
+     * Prevents the instantiation of the class.
+     */
+    private FunctionRegistry()
+    {
+    }
+
+    // Public static methods
+
+    /**
+     * Registers the function (of one argument).
+     *
+     * @param name the name of the function.
+     * @param function the function.
+     *
+     * @throws java.lang.IllegalArgumentException if the name is not a legal identifier or it is already registered.
+     */
+    public static void register( String name, UnaryFunction function )
+        throws IllegalArgumentException
+    {
+        register( name, function, 0 );
+    }
+
+    /**
+     * Registers the function (of one argument), memoizing it.
+     *
+     * @param name the name of the function.
+     * @param function the function.
+     * @param cacheSize the number of the values cached (rounded up to a power of two, zero for no memoization).
+     *
+     * @throws java.lang.IllegalArgumentException if the name is not a legal identifier or it is already registered, or the size of the cache is illegal.
+     */
+    public static void register( String name, UnaryFunction function, int cacheSize )
+        throws IllegalArgumentException
+    {
+        if (function == null)
+        {
+            throw new IllegalArgumentException();
+        }
+        add( name, CompiledExpression.CALL_UNARY, 1, function, null, cacheSize );
+    }
+
+    /**
+     * Registers the function (of two arguments).
+     *
+     * @param name the name of the function.
+     * @param function the function.
+     *
+     * @throws java.lang.IllegalArgumentException if the name is not a legal identifier or it is already registered.
+     */
+    public static void register( String name, BinaryFunction function )
+        throws IllegalArgumentException
+    {
+        register( name, function, 0 );
+    }
+
+    /**
+     * Registers the function (of two arguments), memoizing it.
+     *
+     * @param name the name of the function.
+     * @param function the function.
+     * @param cacheSize the number of the values cached (rounded up to a power of two, zero for no memoization).
+     *
+     * @throws java.lang.IllegalArgumentException if the name is not a legal identifier or it is already registered, or the size of the cache is illegal.
+     */
+    public static void register( String name, BinaryFunction function, int cacheSize )
+        throws IllegalArgumentException
+    {
+        if (function == null)
+        {
+            throw new IllegalArgumentException();
+        }
+        add( name, CompiledExpression.CALL_BINARY, 2, null, function, cacheSize );
+    }
+
+    /**
+     * Determines whether a function of the name is registered (built-in functions included).
+     *
+     * @param name the name.
+     *
+     * @return <c>true</c> if a function of the name is registered, <c>false</c> otherwise.
+     */
+    public static boolean isRegistered( String name )
+    {
+        int slot = SymbolTable.findSlot( name );
+        return (slot >= 0 && findFunction( slot ) >= 0);
+    }
+
+    // Package-private static methods
+
+    /**
+     * Finds the function of the name.
+     *
+     * @param slot the slot of the name.
+     *
+     * @return the index of the function, or -1 if no function of the name is registered.
+     */
+    static int findFunction( int slot )
+    {
+        int[] functionIndices = FunctionRegistry.functionIndices;
+        return (slot < functionIndices.length) ? functionIndices[ slot ] : -1;
+    }
+
+    /**
+     * Gets the instruction calling the function.
+     *
+     * @param function the index of the function.
+     *
+     * @return the instruction.
+     */
+    static int getInstruction( int function )
+    {
+        return functions[ function ].instruction;
+    }
+
+    /**
+     * Gets the number of the arguments of the function.
+     *
+     * @param function the index of the function.
+     *
+     * @return the number of the arguments.
+     */
+    static int getArity( int function )
+    {
+        return functions[ function ].arity;
+    }
+
+    /**
+     * Gets the name of the function.
+     *
+     * @param function the index of the function.
+     *
+     * @return the name.
+     */
+    static String getName( int function )
+    {
+        return functions[ function ].name;
+    }
+
+    /**
+     * Applies the registered function (of one argument).
+     *
+     * @param function the index of the function.
+     * @param x the argument.
+     *
+     * @return the value of the function.
+     */
+    static double apply( int function, double x )
+    {
+        return functions[ function ].apply( x );
+    }
+
+    /**
+     * Applies the registered function (of two arguments).
+     *
+     * @param function the index of the function.
+     * @param x the first argument.
+     * @param y the second argument.
+     *
+     * @return the value of the function.
+     */
+    static double apply( int function, double x, double y )
+    {
+        return functions[ function ].apply( x, y );
+    }
+
+    // Private static methods
+
+    /**
+     * Adds the function to the registry.
+     *
+     * @param name the name of the function.
+     * @param opcode the opcode of the instruction calling the function.
+     * @param arity the number of the arguments.
+     * @param unaryFunction the function of one argument, or <c>null</c>.
+     * @param binaryFunction the function of two arguments, or <c>null</c>.
+     * @param cacheSize the number of the values cached (zero for no memoization).
+     *
+     * @throws java.lang.IllegalArgumentException if the name is not a legal identifier or it is already registered, or the size of the cache is illegal.
+     */
+    private static synchronized void add( String name, int opcode, int arity, UnaryFunction unaryFunction,
+        BinaryFunction binaryFunction, int cacheSize )
+        throws IllegalArgumentException
+    {
+        if (cacheSize < 0 || cacheSize > MAX_CACHE_SIZE)
+        {
+            throw new IllegalArgumentException();
+        }
+        int slot = SymbolTable.getSlot( name );
+        if (findFunction( slot ) >= 0)
+        {
+            throw new IllegalArgumentException();
+        }
+
+        // The built-in functions are called by their own instructions, the other ones by their indices.
+        int index = functions.length;
+        int instruction = CompiledExpression.instruction( opcode,
+            (opcode == CompiledExpression.CALL_UNARY || opcode == CompiledExpression.CALL_BINARY) ? index : 0 );
+        Function function = new Function( name, instruction, arity, unaryFunction, binaryFunction, cacheSize );
+
+        // The function is published before its name, so a compiled call always finds it.
+        Function[] newFunctions = new Function[ index + 1 ];
+        System.arraycopy( functions, 0, newFunctions, 0, index );
+        newFunctions[ index ] = function;
+        functions = newFunctions;
+
+        int[] newFunctionIndices = new int[ Math.max( functionIndices.length, slot + 1 ) ];
+        System.arraycopy( functionIndices, 0, newFunctionIndices, 0, functionIndices.length );
+        for (int i = functionIndices.length; i < newFunctionIndices.length; i++)
+        {
+            newFunctionIndices[ i ] = -1;
+        }
+        newFunctionIndices[ slot ] = index;
+        functionIndices = newFunctionIndices;
+    }
+
+    /**
+     * This (private) class represents a registered function.
+     */
+    private static final class Function
+    {
+        /** The name. */
+        final String name;
+
+        /** The instruction calling the function. */
+        final int instruction;
+
+        /** The number of the arguments. */
+        final int arity;
+
+        /** The function of one argument, or <c>null</c>. */
+        private final UnaryFunction unaryFunction;
+
+        /** The function of two arguments, or <c>null</c>. */
+        private final BinaryFunction binaryFunction;
+
+        /** The cache of the values (indexed by the hashes of the arguments), or <c>null</c> if the function is not memoized. */
+        private final CacheEntry[] cache;
+
+        /**
+         * Creates a new function.
+         *
+         * @param name the name.
+         * @param instruction the instruction calling the function.
+         * @param arity the number of the arguments.
+         * @param unaryFunction the function of one argument, or <c>null</c>.
+         * @param binaryFunction the function of two arguments, or <c>null</c>.
+         * @param cacheSize the number of the values cached (zero for no memoization).
+         */
+        Function( String name, int instruction, int arity, UnaryFunction unaryFunction, BinaryFunction binaryFunction,
+            int cacheSize )
+        {
+            this.name = name;
+            this.instruction = instruction;
+            this.arity = arity;
+            this.unaryFunction = unaryFunction;
+            this.binaryFunction = binaryFunction;
+
+            int size = 1;
+            while (size < cacheSize)
+            {
+                size <<= 1;
+            }
+            this.cache = (cacheSize > 0) ? new CacheEntry[ size ] : null;
+        }
+
+        /**
+         * Applies the function (of one argument).
+         *
+         * @param x the argument.
+         *
+         * @return the value of the function.
+         */
+        double apply( double x )
+        {
+            if (cache == null)
+            {
+                return unaryFunction.apply( x );
+            }
+
+            // The arguments are compared by their bits (a pure function may tell -0 from 0, or one NaN from another).
+            long bits = Double.doubleToRawLongBits( x );
+            int index = hash( bits ) & (cache.length - 1);
+            CacheEntry entry = cache[ index ];
+            if (entry != null && entry.x == bits)
+            {
+                return entry.value;
+            }
+            double value = unaryFunction.apply( x );
+            cache[ index ] = new CacheEntry( bits, 0, value );
+            return value;
+        }
+
+        /**
+         * Applies the function (of two arguments).
+         *
+         * @param x the first argument.
+         * @param y the second argument.
+         *
+         * @return the value of the function.
+         */
+        double apply( double x, double y )
+        {
+            if (cache == null)
+            {
+                return binaryFunction.apply( x, y );
+            }
+
+            long xBits = Double.doubleToRawLongBits( x );
+            long yBits = Double.doubleToRawLongBits( y );
+            int index = hash( xBits * 31 + yBits ) & (cache.length - 1);
+            CacheEntry entry = cache[ index ];
+            if (entry != null && entry.x == xBits && entry.y == yBits)
+            {
+                return entry.value;
+            }
+            double value = binaryFunction.apply( x, y );
+            cache[ index ] = new CacheEntry( xBits, yBits, value );
+            return value;
+        }
+
+        /**
+         * Hashes the bits of the arguments.
+         *
+         * @param bits the bits.
+         *
+         * @return the hash code.
+         */
+        private static int hash( long bits )
+        {
+            // The bits of a double vary in its high bits mostly, so they are mixed into the low ones (MurmurHash3).
+            bits ^= bits >>> 33;
+            bits *= 0xFF51AFD7ED558CCDL;
+            bits ^= bits >>> 33;
+            bits *= 0xC4CEB9FE1A85EC53L;
+            return (int) (bits ^ (bits >>> 33));
+        }
+    }
+
+    /**
+     * This (private) class represents an entry of the cache of a memoized function.
+     *
+     * The entries are immutable, so a thread reading an entry never sees the arguments
+     * of one value paired with another value.
+     */
+    private static final class CacheEntry
+    {
+        /** The bits of the first argument. */
+        final long x;
+
+        /** The bits of the second argument (zero for a function of one argument). */
+        final long y;
+
+        /** The value of the function. */
+        final double value;
+
+        /**
+         * Creates a new cache entry.
+         *
+         * @param x the bits of the first argument.
+         * @param y the bits of the second argument.
+         * @param value the value of the function.
+         */
+        CacheEntry( long x, long y, double value )
+        {
+            this.x = x;
+            this.y = y;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package simplecalculator;
+
+/**
+ * This (public) abstract class represents a compiled expression translated into JVM bytecode.
+ *
+ * The subclasses are generated at run time (one per hot expression) and every one
+ * of them is defined by its own class loader, so that it can be unloaded as soon as
+ * its compiled expression is no longer referenced. This class is public only
+ * because the generated classes live in a different run-time package: a run-time
+ * package is defined by its class loader as well as its name, so a generated class
+ * could neither extend a package-private class nor call a package-private method.
+ *
+ * The generated classes call the registered functions by their indices in the
+ * function registry (through the <code>call</code> methods). The index of a function
+ * is assigned when it is registered and it stays valid for the life of the JVM, since
+ * a function can be neither replaced nor removed. A wrong index (of no function, of a
+ * built-in one or of one taking another number of arguments) makes the call throw a
+ * runtime exception instead of calling anything else. An index reaches nothing but
+ * the function registered under it, i.e. nothing an expression calling the function
+ * by its name could not reach. The indices are internal to the JVM (they depend on
+ * the order of the registrations), so they must never be stored or passed between
+ * processes; no class but the generated ones should extend this class.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public abstract class GeneratedExpression
+{
+    // Protected instance constructors
+
+    /**
+     * Creates a new generated expression.
+     */
+    protected GeneratedExpression()
+    {
+    }
+
+    // Public instance methods
+
+    /**
+     * Evaluates the right-hand side of the expression.
+     *
+     * @param variables the values of the variables (indexed by their slots).
+     *
+     * @return the value of the right-hand side of the expression.
+     */
+    public abstract double evaluate( double[] variables );
+
+    // Protected static methods
+
+    /**
+     * Calls the registered function (of one argument).
+     *
+     * @param x the argument.
+     * @param function the index of the function (a function of one argument, see the class comment).
+     *
+     * @return the value of the function.
+     */
+    protected static double call( double x, int function )
+    {
+        return FunctionRegistry.apply( function, x );
+    }
+
+    /**
+     * Calls the registered function (of two arguments).
+     *
+     * @param x the first argument.
+     * @param y the second argument.
+     * @param function the index of the function (a function of two arguments, see the class comment).
+     *
+     * @return the value of the function.
+     */
+    protected static double call( double x, double y, int function )
+    {
+        return FunctionRegistry.apply( function, x, y );
+    }
+}
@@ -0,0 +1,841 @@
+package simplecalculator;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+/**
+ * This (package-private) class represents a lexer of expressions.
+ *
+ * The lexer scans the expression character by character in a single pass. Tokens
+ * are delimited by white space, parentheses, commas and equality signs. The white
+ * space is spaces and tabs; any other control character is allowed only where it
+ * would be trimmed off (like by <code>String.trim</code>): at the start or the end
+ * of a side of the expression, or right before or after a number (not separated
+ * from it by white space). Anywhere else, it makes an illegal token. Every other
+ * run of characters is classified as an operator, a variable, a function or a number.
+ * A variable is an identifier (a letter or an underscore followed by letters, digits
+ * and underscores, NaN and Infinity being numbers) interned into the symbol table; an
+ * identifier followed by a left parenthesis is rather a function if a function of
+ * that name is registered (the parenthesis is then a part of its token). Numbers are
+ * recognized by their grammar (the one accepted by
+ * <code>Double.parseDouble</code>), so no exception is thrown for a valid token; an
+ * illegal token is returned as such (it is up to the caller to reject it).
+ *
+ * The lexer returns the kind of every token and keeps its attributes (the value
+ * of a number, the slot of a variable, the index of a function or the opcode of an
+ * operator) until the
+ * next token is scanned, so scanning allocates nothing (but the first occurrence
+ * of a name, which is interned). The input may be any
+ * character sequence, e.g. a view of a (memory-mapped) byte buffer, or a reader:
+ * then the characters are read in chunks into a buffer holding just the token being
+ * scanned (and the characters read ahead of it), so an expression of any length is
+ * lexed in memory proportional to its longest token.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+final class Lexer
+{
+    // Private instance fields
+
+    /** The input. */
+    private CharSequence input;
+
+    /** The position of the next character to scan. */
+    private int position;
+
+    /** The position one past the last character to scan. */
+    private int end;
+
+    /** The value of the last number token. */
+    private double value;
+
+    /** The slot of the last variable token. */
+    private int slot;
+
+    /** The opcode of the last operator token. */
+    private int opcode;
+
+    /** The index of the function of the last function token. */
+    private int function;
+
+    /** The reader the input is read from, or <c>null</c> if the input is all there. */
+    private Reader reader;
+
+    /** The buffer of the characters read (the input, if they are read from a reader). */
+    private char[] chunk;
+
+    /** The failure of the reader, or <c>null</c>. */
+    private IOException failure;
+
+    /** Is the lexer at the start of a side of the expression (at the start of the input or just past an equality sign)? */
+    private boolean atSideStart;
+
+    /** The kind of the last token. */
+    private int lastKind;
+
+    // Package-private static fields
+
+    /** The end of the input. */
+    static final int END = 0;
+
+    /** A number (its value is available). */
+    static final int NUMBER = 1;
+
+    /** A variable (its slot is available). */
+    static final int VARIABLE = 2;
+
+    /** An operator (its opcode is available). */
+    static final int OPERATOR = 3;
+
+    /** A left parenthesis. */
+    static final int LEFT_PARENTHESIS = 4;
+
+    /** A right parenthesis. */
+    static final int RIGHT_PARENTHESIS = 5;
+
+    /** An equality sign. */
+    static final int EQUALITY_SIGN = 6;
+
+    /** The name of a function followed by the left parenthesis of its call (the index of the function is available). */
+    static final int FUNCTION = 7;
+
+    /** A comma. */
+    static final int COMMA = 8;
+
+    /** An illegal token. */
+    static final int ILLEGAL = 9;
+
+    // Private static fields
+
+    /** The maximum number of significant digits which are always represented exactly by a double. */
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    /** The number of the characters read from a reader at once. */
+    private static final int CHUNK_SIZE = 8192;
+
+    /** The powers of ten which are represented exactly by a double. */
+    private static final double[] EXACT_POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+        1e21, 1e22
+    };
+
+    // Package-private instance constructors
+
+    /**
+     * Creates a new lexer (with no input).
+     */
+    Lexer()
+    {
+        reset( "", 0, 0 );
+    }
+
+    // Package-private instance methods
+
+    /**
+     * Sets the input of the lexer.
+     *
+     * @param input the input.
+     * @param start the position of the first character to scan.
+     * @param end the position one past the last character to scan.
+     */
+    void reset( CharSequence input, int start, int end )
+    {
+        this.input = input;
+        this.position = start;
+        this.end = end;
+        this.reader = null;
+        this.chunk = null;
+        this.failure = null;
+        this.atSideStart = true;
+        this.lastKind = END;
+    }
+
+    /**
+     * Sets the input of the lexer to the characters of the reader (read in chunks, up to the end of the reader).
+     *
+     * @param reader the reader.
+     */
+    void reset( Reader reader )
+    {
+        reset( "", 0, 0 );
+        this.reader = reader;
+        this.chunk = new char[ CHUNK_SIZE ];
+        this.input = CharBuffer.wrap( chunk );
+    }
+
+    /**
+     * Gets the failure of the reader (which ends the input).
+     *
+     * @return the failure, or <c>null</c> if the input has not been read from a reader, or the reader has not failed.
+     */
+    IOException getFailure()
+    {
+        return failure;
+    }
+
+    /**
+     * Scans the next token.
+     *
+     * @return the kind of the next token (END if the end of the input has been reached).
+     */
+    int next()
+    {
+        int kind = scan();
+        lastKind = kind;
+        return kind;
+    }
+
+    /**
+     * Gets the value of the last number token.
+     *
+     * @return the value of the number.
+     */
+    double getValue()
+    {
+        return value;
+    }
+
+    /**
+     * Gets the slot of the last variable token.
+     *
+     * @return the slot of the variable.
+     */
+    int getSlot()
+    {
+        return slot;
+    }
+
+    /**
+     * Gets the opcode of the last operator token.
+     *
+     * @return the opcode of the operator.
+     */
+    int getOpcode()
+    {
+        return opcode;
+    }
+
+    /**
+     * Gets the index of the function of the last function token.
+     *
+     * @return the index of the function.
+     */
+    int getFunction()
+    {
+        return function;
+    }
+
+    // Private instance methods
+
+    /**
+     * Scans the next token (checking the control characters skipped before it).
+     *
+     * @return the kind of the next token (END if the end of the input has been reached).
+     */
+    private int scan()
+    {
+        // Skip the white space and the control characters (reading on from the reader, if any), noting where the
+        // control characters are: before any white space (so adjacent to the last token), after all of it (so
+        // adjacent to the next token) or within it; without any white space, they are adjacent to both tokens.
+        boolean whiteSpaceSkipped = false;
+        boolean controlBeforeWhiteSpace = false;
+        boolean controlAfterWhiteSpace = false;
+        boolean controlWithinWhiteSpace = false;
+        do
+        {
+            compact();
+            char ch;
+            while (position < end && isTrimmed( ch = input.charAt( position ) ))
+            {
+                if (isWhiteSpace( ch ))
+                {
+                    whiteSpaceSkipped = true;
+                    controlWithinWhiteSpace |= controlAfterWhiteSpace;
+                    controlAfterWhiteSpace = false;
+                }
+                else if (whiteSpaceSkipped)
+                {
+                    controlAfterWhiteSpace = true;
+                }
+                else
+                {
+                    controlBeforeWhiteSpace = true;
+                }
+                position++;
+            }
+        }
+        while (position == end && fill());
+        if (position == end)
+        {
+            return END;
+        }
+
+        // The control characters at the start or the end of a side are trimmed off; elsewhere, they must stick to a
+        // number (and be delimited from the other token by white space or a delimiting token).
+        boolean sideStart = atSideStart;
+        atSideStart = false;
+        boolean numberRequired = false;
+        if (!sideStart && input.charAt( position ) != '=')
+        {
+            boolean lastDelimiting = (lastKind == LEFT_PARENTHESIS || lastKind == RIGHT_PARENTHESIS
+                || lastKind == COMMA || lastKind == FUNCTION);
+            boolean nextDelimiting = isDelimiter( input.charAt( position ) );
+            if (whiteSpaceSkipped)
+            {
+                if (controlWithinWhiteSpace || (controlBeforeWhiteSpace && lastKind != NUMBER))
+                {
+                    return ILLEGAL;
+                }
+                numberRequired = controlAfterWhiteSpace;
+            }
+            else if (controlBeforeWhiteSpace)
+            {
+                if (lastDelimiting ? nextDelimiting : (lastKind != NUMBER || !nextDelimiting))
+                {
+                    return ILLEGAL;
+                }
+                numberRequired = lastDelimiting;
+            }
+            if (numberRequired && nextDelimiting)
+            {
+                return ILLEGAL;
+            }
+        }
+
+        // The single-character delimiting tokens.
+        switch (input.charAt( position ))
+        {
+            case '(':
+                position++;
+                return LEFT_PARENTHESIS;
+            case ')':
+                position++;
+                return RIGHT_PARENTHESIS;
+            case '=':
+                position++;
+                atSideStart = true;
+                return EQUALITY_SIGN;
+            case ',':
+                position++;
+                return COMMA;
+            default:
+                break;
+        }
+
+        // Any other token extends up to the next delimiter.
+        int start = position;
+        do
+        {
+            while (position < end && !isDelimiter( input.charAt( position ) ))
+            {
+                position++;
+            }
+        }
+        while (position == end && fill());
+
+        int kind = classify( start, position );
+        return (numberRequired && kind != NUMBER) ? ILLEGAL : kind;
+    }
+
+    /**
+     * Classifies the token.
+     *
+     * @param start the position of the first character of the token.
+     * @param end the position one past the last character of the token.
+     *
+     * @return the kind of the token.
+     */
+    private int classify( int start, int end )
+    {
+        if (end - start == 1)
+        {
+            char ch = input.charAt( start );
+
+            // Is the token an operator (+, -, *, /)?
+            switch (ch)
+            {
+                case '+':
+                    opcode = CompiledExpression.ADD;
+                    return OPERATOR;
+                case '-':
+                    opcode = CompiledExpression.SUBTRACT;
+                    return OPERATOR;
+                case '*':
+                    opcode = CompiledExpression.MULTIPLY;
+                    return OPERATOR;
+                case '/':
+                    opcode = CompiledExpression.DIVIDE;
+                    return OPERATOR;
+                default:
+                    break;
+            }
+
+            // Is the token a single-letter variable (a-z, in the fixed slots)?
+            if (SymbolTable.isVariable( ch ))
+            {
+                slot = SymbolTable.getSlot( ch );
+                return classifyName();
+            }
+        }
+
+        // Is the token a variable (any other identifier)?
+        if (isIdentifier( input, start, end ))
+        {
+            slot = SymbolTable.intern( input, start, end );
+            return (slot >= 0) ? classifyName() : ILLEGAL;
+        }
+
+        // Is the token a number?
+        if (scanNumber( start, end ))
+        {
+            return NUMBER;
+        }
+
+        // Token is illegal.
+        return ILLEGAL;
+    }
+
+    /**
+     * Classifies the name (just interned) as a variable or a function.
+     *
+     * @return FUNCTION if the name is followed by a left parenthesis (consumed) and a function of the name is registered, VARIABLE otherwise.
+     */
+    private int classifyName()
+    {
+        int i = position;
+        do
+        {
+            while (i < end && isWhiteSpace( input.charAt( i ) ))
+            {
+                i++;
+            }
+        }
+        while (i == end && fill());
+        if (i < end && input.charAt( i ) == '(')
+        {
+            int function = FunctionRegistry.findFunction( slot );
+            if (function >= 0)
+            {
+                this.function = function;
+                position = i + 1;
+                return FUNCTION;
+            }
+        }
+        return VARIABLE;
+    }
+
+    /**
+     * Drops the characters scanned from the buffer (if the input is read from a reader).
+     *
+     * The characters not scanned yet are moved to the beginning of the buffer once the
+     * scanned ones fill half of it (or all of it), so every character is moved a few
+     * times at most.
+     */
+    private void compact()
+    {
+        if (reader != null && (position == end || 2 * position > chunk.length))
+        {
+            System.arraycopy( chunk, position, chunk, 0, end - position );
+            end -= position;
+            position = 0;
+        }
+    }
+
+    /**
+     * Reads more characters from the reader into the buffer (growing it if it is full).
+     *
+     * The characters already in the buffer keep their positions.
+     *
+     * @return <c>true</c> if some characters have been read, <c>false</c> if the end of the input has been reached.
+     */
+    private boolean fill()
+    {
+        if (reader == null)
+        {
+            return false;
+        }
+        if (end == chunk.length)
+        {
+            char[] newChunk = new char[ 2 * chunk.length ];
+            System.arraycopy( chunk, 0, newChunk, 0, end );
+            chunk = newChunk;
+            input = CharBuffer.wrap( chunk );
+        }
+
+        int count;
+        try
+        {
+            do
+            {
+                count = reader.read( chunk, end, chunk.length - end );
+            }
+            while (count == 0);
+        }
+        catch (IOException ex)
+        {
+            // The failure ends the input (and is reported by the caller).
+            failure = ex;
+            count = -1;
+        }
+        if (count < 0)
+        {
+            reader = null;
+            return false;
+        }
+        end += count;
+        return true;
+    }
+
+    /**
+     * Scans a number (setting its value).
+     *
+     * @param start the position of the first character of the number.
+     * @param end the position one past the last character of the number.
+     *
+     * @return <c>true</c> if the characters form a number, <c>false</c> otherwise.
+     */
+    private boolean scanNumber( int start, int end )
+    {
+        int i = start;
+
+        // The optional sign.
+        boolean negative = false;
+        char ch = input.charAt( i );
+        if (ch == '+' || ch == '-')
+        {
+            negative = (ch == '-');
+            i++;
+        }
+        if (i == end)
+        {
+            return false;
+        }
+
+        // The special values.
+        if (isWord( input, i, end, "NaN" ))
+        {
+            value = Double.NaN;
+            return true;
+        }
+        if (isWord( input, i, end, "Infinity" ))
+        {
+            value = negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+            return true;
+        }
+
+        // The hexadecimal numbers are rare, hence they are only validated here and converted by the library.
+        if (end - i > 2 && input.charAt( i ) == '0' && (input.charAt( i + 1 ) == 'x' || input.charAt( i + 1 ) == 'X'))
+        {
+            if (!isHexadecimalNumber( i + 2, end ))
+            {
+                return false;
+            }
+            value = parse( start, end );
+            return true;
+        }
+
+        // The decimal significand.
+        long significand = 0;
+        int significantDigits = 0;
+        int scale = 0;
+        boolean digits = false;
+        while (i < end && isDigit( input.charAt( i ) ))
+        {
+            int digit = input.charAt( i ) - '0';
+            if (significantDigits > 0 || digit != 0)
+            {
+                if (significantDigits < MAX_EXACT_DIGITS)
+                {
+                    significand = significand * 10 + digit;
+                }
+                else
+                {
+                    scale++;
+                }
+                significantDigits++;
+            }
+            digits = true;
+            i++;
+        }
+        if (i < end && input.charAt( i ) == '.')
+        {
+            i++;
+            while (i < end && isDigit( input.charAt( i ) ))
+            {
+                int digit = input.charAt( i ) - '0';
+                if (significantDigits > 0 || digit != 0)
+                {
+                    if (significantDigits < MAX_EXACT_DIGITS)
+                    {
+                        significand = significand * 10 + digit;
+                        scale--;
+                    }
+                    significantDigits++;
+                }
+                else
+                {
+                    scale--;
+                }
+                digits = true;
+                i++;
+            }
+        }
+        if (!digits)
+        {
+            return false;
+        }
+
+        // The optional exponent.
+        int exponent = 0;
+        if (i < end && (input.charAt( i ) == 'e' || input.charAt( i ) == 'E'))
+        {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (input.charAt( i ) == '+' || input.charAt( i ) == '-'))
+            {
+                negativeExponent = (input.charAt( i ) == '-');
+                i++;
+            }
+            if (i == end || !isDigit( input.charAt( i ) ))
+            {
+                return false;
+            }
+            while (i < end && isDigit( input.charAt( i ) ))
+            {
+                if (exponent < 100000)
+                {
+                    exponent = exponent * 10 + (input.charAt( i ) - '0');
+                }
+                i++;
+            }
+            if (negativeExponent)
+            {
+                exponent = -exponent;
+            }
+        }
+
+        // The optional type suffix (ignored by Double.parseDouble as well).
+        if (i < end && isFloatTypeSuffix( input.charAt( i ) ))
+        {
+            i++;
+        }
+        if (i != end)
+        {
+            return false;
+        }
+
+        // The fast path: an exact significand scaled by an exact power of ten is rounded correctly.
+        double magnitude;
+        if (significand == 0)
+        {
+            magnitude = 0.0;
+        }
+        else if (significantDigits <= MAX_EXACT_DIGITS && Math.abs( scale + exponent ) < EXACT_POWERS_OF_TEN.length)
+        {
+            int power = scale + exponent;
+            magnitude = (power >= 0) ? significand * EXACT_POWERS_OF_TEN[ power ] : significand / EXACT_POWERS_OF_TEN[ -power ];
+        }
+        else
+        {
+            value = parse( start, end );
+            return true;
+        }
+        value = negative ? -magnitude : magnitude;
+        return true;
+    }
+
+    /**
+     * Determines whether the characters (following the "0x" prefix) form a hexadecimal number.
+     *
+     * @param start the position of the first character following the prefix.
+     * @param end the position one past the last character of the number.
+     *
+     * @return <c>true</c> if the characters form a hexadecimal number, <c>false</c> otherwise.
+     */
+    private boolean isHexadecimalNumber( int start, int end )
+    {
+        int i = start;
+        boolean digits = false;
+        while (i < end && Character.digit( input.charAt( i ), 16 ) >= 0)
+        {
+            digits = true;
+            i++;
+        }
+        if (i < end && input.charAt( i ) == '.')
+        {
+            i++;
+            while (i < end && Character.digit( input.charAt( i ), 16 ) >= 0)
+            {
+                digits = true;
+                i++;
+            }
+        }
+        if (!digits || i == end || (input.charAt( i ) != 'p' && input.charAt( i ) != 'P'))
+        {
+            return false;
+        }
+        i++;
+        if (i < end && (input.charAt( i ) == '+' || input.charAt( i ) == '-'))
+        {
+            i++;
+        }
+        if (i == end || !isDigit( input.charAt( i ) ))
+        {
+            return false;
+        }
+        while (i < end && isDigit( input.charAt( i ) ))
+        {
+            i++;
+        }
+        if (i < end && isFloatTypeSuffix( input.charAt( i ) ))
+        {
+            i++;
+        }
+        return (i == end);
+    }
+
+    /**
+     * Converts the (already validated) number by the library.
+     *
+     * @param start the position of the first character of the number.
+     * @param end the position one past the last character of the number.
+     *
+     * @return the value of the number.
+     */
+    private double parse( int start, int end )
+    {
+        return Double.parseDouble( input.subSequence( start, end ).toString() );
+    }
+
+    // Package-private static methods
+
+    /**
+     * Determines whether the characters form an identifier (the name of a variable).
+     *
+     * @param input the characters.
+     * @param start the position of the first character.
+     * @param end the position one past the last character.
+     *
+     * @return <c>true</c> if the characters form an identifier, <c>false</c> otherwise.
+     */
+    static boolean isIdentifier( CharSequence input, int start, int end )
+    {
+        if (start == end || !isIdentifierStart( input.charAt( start ) ))
+        {
+            return false;
+        }
+        for (int i = start + 1; i < end; i++)
+        {
+            char ch = input.charAt( i );
+            if (!isIdentifierStart( ch ) && !isDigit( ch ))
+            {
+                return false;
+            }
+        }
+
+        // The special values are numbers.
+        return !(isWord( input, start, end, "NaN" ) || isWord( input, start, end, "Infinity" ));
+    }
+
+    // Private static methods
+
+    /**
+     * Determines whether the character may start an identifier (a letter or an underscore).
+     *
+     * @param ch the character.
+     *
+     * @return <c>true</c> if the character may start an identifier, <c>false</c> otherwise.
+     */
+    private static boolean isIdentifierStart( char ch )
+    {
+        return ((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || ch == '_');
+    }
+
+    /**
+     * Determines whether the characters are exactly the given word.
+     *
+     * @param input the characters.
+     * @param start the position of the first character.
+     * @param end the position one past the last character.
+     * @param word the word.
+     *
+     * @return <c>true</c> if the characters are exactly the word, <c>false</c> otherwise.
+     */
+    private static boolean isWord( CharSequence input, int start, int end, String word )
+    {
+        if (end - start != word.length())
+        {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++)
+        {
+            if (input.charAt( start + i ) != word.charAt( i ))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determines whether the character is a white space.
+     *
+     * @param ch the character.
+     *
+     * @return <c>true</c> if the character is a white space, <c>false</c> otherwise.
+     */
+    private static boolean isWhiteSpace( char ch )
+    {
+        return (ch == ' ' || ch == '\t');
+    }
+
+    /**
+     * Determines whether the character is trimmed off the ends of a side of the expression (a white space or a control character).
+     *
+     * @param ch the character.
+     *
+     * @return <c>true</c> if the character is trimmed off, <c>false</c> otherwise.
+     */
+    private static boolean isTrimmed( char ch )
+    {
+        return (ch <= ' ');
+    }
+
+    /**
+     * Determines whether the character delimits tokens.
+     *
+     * @param ch the character.
+     *
+     * @return <c>true</c> if the character delimits tokens, <c>false</c> otherwise.
+     */
+    private static boolean isDelimiter( char ch )
+    {
+        return (isTrimmed( ch ) || ch == '(' || ch == ')' || ch == '=' || ch == ',');
+    }
+
+    /**
+     * Determines whether the character is a decimal digit.
+     *
+     * @param ch the character.
+     *
+     * @return <c>true</c> if the character is a decimal digit, <c>false</c> otherwise.
+     */
+    private static boolean isDigit( char ch )
+    {
+        return (ch >= '0' && ch <= '9');
+    }
+
+    /**
+     * Determines whether the character is a float type suffix (f, F, d, D).
+     *
+     * @param ch the character.
+     *
+     * @return <c>true</c> if the character is a float type suffix, <c>false</c> otherwise.
+     */
+    private static boolean isFloatTypeSuffix( char ch )
+    {
+        return (ch == 'f' || ch == 'F' || ch == 'd' || ch == 'D');
+    }
+}
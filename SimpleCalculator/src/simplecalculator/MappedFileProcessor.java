@@ -0,0 +1,319 @@
+package simplecalculator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * This (public) class represents a processor evaluating the expressions of a file line by line.
+ *
+ * The file is memory-mapped window by window (so files larger than 2 GB can be
+ * processed too), the line boundaries are found in the mapped bytes and every line
+ * is lexed right from the mapped bytes: no string is built per line. The bytes are
+ * read as ASCII characters; any other byte is an illegal character. The lines are
+ * terminated the same way <code>BufferedReader.readLine</code> terminates them (by
+ * a line feed, a carriage return, or a carriage return followed by a line feed), so
+ * the output is exactly the output of reading the lines from a reader.
+ *
+ * By default, the processing stops at the first illegal expression. Once an error
+ * string has been set, an illegal expression is answered by the error string and
+ * the processing goes on; then the illegal expressions are detected without
+ * throwing any exception.
+ *
+ * A processor evaluates the expressions with its own calculator (whose variables
+ * persist from one file to another), hence it must not be used by more than one
+ * thread at a time.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public final class MappedFileProcessor
+{
+    // Private instance fields
+
+    /** The calculator evaluating the expressions. */
+    private final SimpleCalculator calculator;
+
+    /** The mapped window viewed as a sequence of characters. */
+    private final AsciiCharSequence window;
+
+    /** The size of the mapped window (in bytes). */
+    private final int windowSize;
+
+    /** The number of lines processed so far. */
+    private long linesCount;
+
+    /** The number of illegal expressions processed so far. */
+    private long errorsCount;
+
+    /** The string printed for an illegal expression, or <c>null</c> if the processing stops at it. */
+    private String errorString;
+
+    // Private static fields
+
+    /** The default size of the mapped window (in bytes). */
+    private static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    // Public instance constructors
+
+    /**
+     * Creates a new mapped file processor.
+     */
+    public MappedFileProcessor()
+    {
+        this( DEFAULT_WINDOW_SIZE );
+    }
+
+    /**
+     * Creates a new mapped file processor.
+     *
+     * @param windowSize the size of the mapped window in bytes (a longer line gets a larger window).
+     *
+     * @throws java.lang.IllegalArgumentException if the size is not positive.
+     */
+    public MappedFileProcessor( int windowSize )
+        throws IllegalArgumentException
+    {
+        if (windowSize < 1)
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.calculator = new SimpleCalculator();
+        this.window = new AsciiCharSequence();
+        this.windowSize = windowSize;
+    }
+
+    // Public instance methods
+
+    /**
+     * Evaluates the expressions of the file (one per line) and prints their values.
+     *
+     * Unless an error string has been set, the processing stops at the first illegal
+     * expression; the values of all the preceding expressions have been printed by
+     * the time the exception is thrown.
+     *
+     * @param file the file of the expressions.
+     * @param printStream the print stream receiving the values.
+     *
+     * @throws java.io.IOException if the file cannot be read.
+     * @throws java.lang.IllegalArgumentException if an expression is illegal.
+     */
+    public void process( File file, PrintStream printStream )
+        throws IOException, IllegalArgumentException
+    {
+        process( file, new ResultWriter( printStream ) );
+    }
+
+    /**
+     * Evaluates the expressions of the file (one per line) and prints their values.
+     *
+     * Unless an error string has been set, the processing stops at the first illegal
+     * expression; the values of all the preceding expressions have been written (and
+     * the writer flushed) by the time the exception is thrown.
+     *
+     * @param file the file of the expressions.
+     * @param resultWriter the writer receiving the values.
+     *
+     * @throws java.io.IOException if the file cannot be read.
+     * @throws java.lang.IllegalArgumentException if an expression is illegal.
+     */
+    public void process( File file, ResultWriter resultWriter )
+        throws IOException, IllegalArgumentException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile( file, "r" );
+        try
+        {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+
+            // The position (in the file) of the first line not processed yet.
+            long position = 0;
+            int mappedSize = windowSize;
+            while (position < size)
+            {
+                int length = (int) Math.min( mappedSize, size - position );
+                boolean lastWindow = (position + length == size);
+                window.reset( channel.map( FileChannel.MapMode.READ_ONLY, position, length ) );
+
+                int lineStart = processLines( length, lastWindow, resultWriter );
+                if (lineStart == 0 && !lastWindow)
+                {
+                    // The line does not fit into the window, hence the window has to grow.
+                    if (mappedSize == Integer.MAX_VALUE)
+                    {
+                        throw new IOException( "The line starting at " + position + " is too long." );
+                    }
+                    mappedSize = (int) Math.min( 2L * mappedSize, Integer.MAX_VALUE );
+                }
+                position += lineStart;
+            }
+        }
+        finally
+        {
+            window.reset( null );
+            randomAccessFile.close();
+            resultWriter.flush();
+        }
+    }
+
+    /**
+     * Gets the number of lines processed so far.
+     *
+     * @return the number of lines processed (the illegal one the processing has stopped at not included).
+     */
+    public long getLinesCount()
+    {
+        return linesCount;
+    }
+
+    /**
+     * Gets the number of illegal expressions processed (and answered by the error string) so far.
+     *
+     * @return the number of illegal expressions.
+     */
+    public long getErrorsCount()
+    {
+        return errorsCount;
+    }
+
+    /**
+     * Gets the string printed for an illegal expression.
+     *
+     * @return the error string, or <c>null</c> if the processing stops at an illegal expression.
+     */
+    public String getErrorString()
+    {
+        return errorString;
+    }
+
+    /**
+     * Sets the string printed for an illegal expression.
+     *
+     * @param errorString the error string (<c>null</c> to stop the processing at an illegal expression).
+     */
+    public void setErrorString( String errorString )
+    {
+        this.errorString = errorString;
+    }
+
+    /**
+     * Gets the metrics of the expressions evaluated.
+     *
+     * @return the metrics, or <c>null</c> if the expressions are not measured.
+     */
+    public CalculatorMetrics getMetrics()
+    {
+        return calculator.getMetrics();
+    }
+
+    /**
+     * Sets the metrics of the expressions evaluated.
+     *
+     * @param metrics the metrics (<c>null</c> to stop measuring the expressions).
+     */
+    public void setMetrics( CalculatorMetrics metrics )
+    {
+        calculator.setMetrics( metrics );
+    }
+
+    /**
+     * Gets the journal persisting the variables.
+     *
+     * @return the journal, or <c>null</c> if the variables are not persisted.
+     */
+    public VariableJournal getJournal()
+    {
+        return calculator.getJournal();
+    }
+
+    /**
+     * Sets the journal persisting the variables (replacing the variables by those recovered by the journal).
+     *
+     * @param journal the journal (<c>null</c> to stop persisting the variables).
+     */
+    public void setJournal( VariableJournal journal )
+    {
+        calculator.setJournal( journal );
+    }
+
+    // Private instance methods
+
+    /**
+     * Processes the complete lines of the mapped window.
+     *
+     * @param length the length of the window.
+     * @param lastWindow does the window reach the end of the file?
+     * @param resultWriter the writer receiving the values.
+     *
+     * @return the position (in the window) of the first line not processed.
+     *
+     * @throws java.lang.IllegalArgumentException if an expression is illegal.
+     */
+    private int processLines( int length, boolean lastWindow, ResultWriter resultWriter )
+        throws IllegalArgumentException
+    {
+        int lineStart = 0;
+        while (lineStart < length)
+        {
+            // Find the end of the line.
+            int lineEnd = lineStart;
+            char ch = 0;
+            while (lineEnd < length && (ch = window.charAt( lineEnd )) != '\n' && ch != '\r')
+            {
+                lineEnd++;
+            }
+
+            if (lineEnd == length)
+            {
+                // The last line of the file need not be terminated; any other one continues in the next window.
+                if (lastWindow)
+                {
+                    processLine( lineStart, lineEnd, resultWriter );
+                    lineStart = length;
+                }
+                break;
+            }
+            if (ch == '\r' && lineEnd + 1 == length && !lastWindow)
+            {
+                // A line feed may follow in the next window.
+                break;
+            }
+
+            processLine( lineStart, lineEnd, resultWriter );
+            lineStart = (ch == '\r' && lineEnd + 1 < length && window.charAt( lineEnd + 1 ) == '\n')
+                ? lineEnd + 2
+                : lineEnd + 1;
+        }
+        return lineStart;
+    }
+
+    /**
+     * Evaluates the expression on the line and prints its value (or the error string if it is illegal).
+     *
+     * @param start the position (in the window) of the first character of the line.
+     * @param end the position (in the window) one past the last character of the line.
+     * @param resultWriter the writer receiving the value.
+     *
+     * @throws java.lang.IllegalArgumentException if the expression is illegal (and no error string has been set).
+     */
+    private void processLine( int start, int end, ResultWriter resultWriter )
+        throws IllegalArgumentException
+    {
+        if (errorString == null)
+        {
+            resultWriter.println( calculator.evaluate( window, start, end ) );
+        }
+        else if (calculator.tryEvaluate( window, start, end ) == null)
+        {
+            resultWriter.println( calculator.getLastValue() );
+        }
+        else
+        {
+            resultWriter.println( errorString );
+            errorsCount++;
+        }
+        linesCount++;
+    }
+}
@@ -0,0 +1,38 @@
+package simplecalculator;
+
+/**
+ * This (package-private) class represents the result of a compiled expression memoized by a calculator.
+ *
+ * The result is valid as long as no variable read by the expression has been
+ * assigned since the stamp, i.e. as long as the versions of all those variables
+ * (the clock of the calculator at their last assignment) do not exceed it. Only the
+ * calculator owning the result reads or updates its stamp and value; any other
+ * calculator merely sees it is not its own.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+final class MemoizedResult
+{
+    // Package-private instance fields
+
+    /** The identifier of the calculator owning the result. */
+    final long ownerId;
+
+    /** The clock of the calculator when the result was computed. */
+    long stamp;
+
+    /** The value of the right-hand side of the expression. */
+    double value;
+
+    // Package-private instance constructors
+
+    /**
+     * Creates a new memoized result.
+     *
+     * @param ownerId the identifier of the calculator owning the result.
+     */
+    MemoizedResult( long ownerId )
+    {
+        this.ownerId = ownerId;
+    }
+}
@@ -0,0 +1,269 @@
+package simplecalculator;
+
+/**
+ * This (public) class represents a snapshot of the metrics of a calculator.
+ *
+ * A snapshot is immutable: it keeps the metrics as they were when it was taken. The
+ * percentiles are estimated from the histograms, i.e. they are accurate to a factor
+ * of two (and never above the maximum time).
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public final class MetricsSnapshot
+{
+    // Private instance fields
+
+    /** The numbers of the expressions (indexed by the phases). */
+    private final long[] counts;
+
+    /** The total times (indexed by the phases). */
+    private final long[] totalTimes;
+
+    /** The maximum times (indexed by the phases). */
+    private final long[] maxTimes;
+
+    /** The histograms of the times (indexed by the phases and the buckets). */
+    private final long[][] histograms;
+
+    /** The numbers of the illegal expressions (indexed by the causes). */
+    private final long[] errorCounts;
+
+    /** The number of the slow expressions. */
+    private final long slowExpressionsCount;
+
+    /** The number of the evaluations answered by a memoized result. */
+    private final long memoizedHitsCount;
+
+    /** The number of the evaluations not answered by a memoized result (while memoizing). */
+    private final long memoizedMissesCount;
+
+    // Package-private instance constructors
+
+    /**
+     * Creates a new snapshot (copying the metrics).
+     *
+     * @param counts the numbers of the expressions (indexed by the phases).
+     * @param totalTimes the total times (indexed by the phases).
+     * @param maxTimes the maximum times (indexed by the phases).
+     * @param histograms the histograms of the times (indexed by the phases and the buckets).
+     * @param errorCounts the numbers of the illegal expressions (indexed by the causes).
+     * @param slowExpressionsCount the number of the slow expressions.
+     * @param memoizedHitsCount the number of the evaluations answered by a memoized result.
+     * @param memoizedMissesCount the number of the evaluations not answered by a memoized result.
+     */
+    MetricsSnapshot( long[] counts, long[] totalTimes, long[] maxTimes, long[][] histograms, long[] errorCounts,
+        long slowExpressionsCount, long memoizedHitsCount, long memoizedMissesCount )
+    {
+        this.counts = counts.clone();
+        this.totalTimes = totalTimes.clone();
+        this.maxTimes = maxTimes.clone();
+        this.histograms = new long[ histograms.length ][];
+        for (int phase = 0; phase < histograms.length; phase++)
+        {
+            this.histograms[ phase ] = histograms[ phase ].clone();
+        }
+        this.errorCounts = errorCounts.clone();
+        this.slowExpressionsCount = slowExpressionsCount;
+        this.memoizedHitsCount = memoizedHitsCount;
+        this.memoizedMissesCount = memoizedMissesCount;
+    }
+
+    // Public instance methods
+
+    /**
+     * Gets the number of the expressions which have gone through the phase.
+     *
+     * @param phase the phase.
+     *
+     * @return the number of the expressions.
+     */
+    public long getCount( CalculatorMetrics.Phase phase )
+    {
+        return counts[ phase.ordinal() ];
+    }
+
+    /**
+     * Gets the total time spent in the phase.
+     *
+     * @param phase the phase.
+     *
+     * @return the total time (in nanoseconds).
+     */
+    public long getTotalTime( CalculatorMetrics.Phase phase )
+    {
+        return totalTimes[ phase.ordinal() ];
+    }
+
+    /**
+     * Gets the mean time spent in the phase.
+     *
+     * @param phase the phase.
+     *
+     * @return the mean time (in nanoseconds; zero if no expression has gone through the phase).
+     */
+    public long getMeanTime( CalculatorMetrics.Phase phase )
+    {
+        long count = counts[ phase.ordinal() ];
+        return (count != 0) ? totalTimes[ phase.ordinal() ] / count : 0;
+    }
+
+    /**
+     * Gets the maximum time spent in the phase.
+     *
+     * @param phase the phase.
+     *
+     * @return the maximum time (in nanoseconds).
+     */
+    public long getMaxTime( CalculatorMetrics.Phase phase )
+    {
+        return maxTimes[ phase.ordinal() ];
+    }
+
+    /**
+     * Estimates the percentile of the times spent in the phase.
+     *
+     * @param phase the phase.
+     * @param percentile the percentile (between 0 and 100).
+     *
+     * @return the estimated percentile (in nanoseconds; zero if no expression has gone through the phase).
+     *
+     * @throws java.lang.IllegalArgumentException if the percentile is out of range.
+     */
+    public long getPercentile( CalculatorMetrics.Phase phase, double percentile )
+        throws IllegalArgumentException
+    {
+        if (!(percentile >= 0 && percentile <= 100))
+        {
+            throw new IllegalArgumentException();
+        }
+
+        // The rank of the time in the sorted times (1-based).
+        long count = counts[ phase.ordinal() ];
+        long rank = Math.max( (long) Math.ceil( count * percentile / 100 ), 1 );
+        long[] histogram = histograms[ phase.ordinal() ];
+        for (int bucket = 0; bucket < histogram.length; bucket++)
+        {
+            rank -= histogram[ bucket ];
+            if (rank <= 0)
+            {
+                // The upper bound of the bucket.
+                long upperBound = (bucket < Long.SIZE - 1) ? (1L << bucket) - 1 : Long.MAX_VALUE;
+                return Math.min( upperBound, maxTimes[ phase.ordinal() ] );
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the number of the illegal expressions.
+     *
+     * @return the number of the illegal expressions.
+     */
+    public long getErrorsCount()
+    {
+        long errorsCount = 0;
+        for (long errorCount : errorCounts)
+        {
+            errorsCount += errorCount;
+        }
+        return errorsCount;
+    }
+
+    /**
+     * Gets the number of the expressions illegal for the cause.
+     *
+     * @param error the cause.
+     *
+     * @return the number of the illegal expressions.
+     */
+    public long getErrorCount( ExpressionError error )
+    {
+        return errorCounts[ error.ordinal() ];
+    }
+
+    /**
+     * Gets the number of the slow expressions.
+     *
+     * @return the number of the slow expressions.
+     */
+    public long getSlowExpressionsCount()
+    {
+        return slowExpressionsCount;
+    }
+
+    /**
+     * Gets the number of the evaluations answered by a memoized result.
+     *
+     * @return the number of the memoization hits.
+     */
+    public long getMemoizedHitsCount()
+    {
+        return memoizedHitsCount;
+    }
+
+    /**
+     * Gets the number of the evaluations not answered by a memoized result (while memoizing).
+     *
+     * @return the number of the memoization misses.
+     */
+    public long getMemoizedMissesCount()
+    {
+        return memoizedMissesCount;
+    }
+
+    /**
+     * Gets the ratio of the evaluations answered by a memoized result (while memoizing).
+     *
+     * @return the hit ratio (between 0 and 1; zero if nothing has been memoized).
+     */
+    public double getMemoizedHitRatio()
+    {
+        long count = memoizedHitsCount + memoizedMissesCount;
+        return (count != 0) ? (double) memoizedHitsCount / count : 0;
+    }
+
+    /**
+     * Formats the snapshot (one phase per line, followed by the illegal and the slow expressions, and the memoization if any).
+     *
+     * @return the formatted snapshot.
+     */
+    @Override
+    public String toString()
+    {
+        String lineSeparator = System.getProperty( "line.separator" );
+        StringBuilder sb = new StringBuilder();
+        for (CalculatorMetrics.Phase phase : CalculatorMetrics.Phase.values())
+        {
+            sb.append( phase.name().toLowerCase() ).append( ": " ).append( getCount( phase ) )
+                .append( " (total " ).append( getTotalTime( phase ) )
+                .append( " ns, mean " ).append( getMeanTime( phase ) )
+                .append( " ns, p50 " ).append( getPercentile( phase, 50 ) )
+                .append( " ns, p99 " ).append( getPercentile( phase, 99 ) )
+                .append( " ns, max " ).append( getMaxTime( phase ) )
+                .append( " ns)" ).append( lineSeparator );
+        }
+        sb.append( "errors: " ).append( getErrorsCount() );
+        String separator = " (";
+        for (ExpressionError error : ExpressionError.values())
+        {
+            if (getErrorCount( error ) != 0)
+            {
+                sb.append( separator ).append( error.name() ).append( ' ' ).append( getErrorCount( error ) );
+                separator = ", ";
+            }
+        }
+        if (getErrorsCount() != 0)
+        {
+            sb.append( ')' );
+        }
+        sb.append( lineSeparator );
+        sb.append( "slow expressions: " ).append( getSlowExpressionsCount() );
+        if (memoizedHitsCount + memoizedMissesCount != 0)
+        {
+            sb.append( lineSeparator );
+            sb.append( "memoized: " ).append( memoizedHitsCount ).append( " hits, " ).append( memoizedMissesCount )
+                .append( " misses (hit ratio " ).append( getMemoizedHitRatio() ).append( ')' );
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,460 @@
+package simplecalculator;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This (public) class represents an evaluator splitting the evaluation of a large expression among threads.
+ *
+ * The program of the expression (a tree in the postfix notation) is split into its
+ * largest subtrees not exceeding the cutoff: a balanced tree splits into a few large
+ * subtrees, a long chain (e.g. a sum of many terms) into its terms. The subtrees are
+ * evaluated in parallel, in groups of roughly equal sizes taken by the threads as
+ * they go (the calling thread included), and then the rest of the tree (the operators
+ * above the subtrees) is evaluated by the calling thread, in the order of the program.
+ * Every operation gets exactly the operands it gets in the sequential evaluation
+ * (nothing is reassociated), so the value is exactly the value computed sequentially;
+ * the operators above the subtrees (e.g. the additions of a long sum) remain sequential.
+ *
+ * A program not exceeding the cutoff (or any program, for a single thread) is
+ * evaluated sequentially. The split of the last expression evaluated is kept, so
+ * evaluating one expression repeatedly splits it only once. If a function fails
+ * in more than one subtree, the failure rethrown need not be the first one in the
+ * order of the program. An evaluator may be shared by any number of calculators
+ * and threads, hence the functions called by the expressions must be thread-safe.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public final class ParallelEvaluator
+{
+    // Private instance fields
+
+    /** The number of the threads evaluating an expression (the calling thread included). */
+    private final int threadsCount;
+
+    /** The maximum number of instructions of a subtree evaluated by a single thread. */
+    private final int cutoff;
+
+    /** The threads helping the calling thread, or <c>null</c> if it works alone. */
+    private final ExecutorService helpers;
+
+    /** The split of the last expression evaluated, or <c>null</c>. */
+    private volatile Split lastSplit;
+
+    // Public static fields
+
+    /** The default maximum number of instructions of a subtree evaluated by a single thread. */
+    public static final int DEFAULT_CUTOFF = 4096;
+
+    // Private static fields
+
+    /** The number of the groups of subtrees per thread (more groups balance the threads better). */
+    private static final int GROUPS_PER_THREAD = 8;
+
+    // Public instance constructors
+
+    /**
+     * Creates a new parallel evaluator.
+     *
+     * @param threadsCount the number of the threads evaluating an expression (the calling thread included).
+     *
+     * @throws java.lang.IllegalArgumentException if the number of threads is not positive.
+     */
+    public ParallelEvaluator( int threadsCount )
+        throws IllegalArgumentException
+    {
+        this( threadsCount, DEFAULT_CUTOFF );
+    }
+
+    /**
+     * Creates a new parallel evaluator.
+     *
+     * @param threadsCount the number of the threads evaluating an expression (the calling thread included).
+     * @param cutoff the maximum number of instructions of a subtree evaluated by a single thread.
+     *
+     * @throws java.lang.IllegalArgumentException if the number of threads or the cutoff is not positive.
+     */
+    public ParallelEvaluator( int threadsCount, int cutoff )
+        throws IllegalArgumentException
+    {
+        if (threadsCount < 1 || cutoff < 1)
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.threadsCount = threadsCount;
+        this.cutoff = cutoff;
+        this.helpers = (threadsCount > 1)
+            ? Executors.newFixedThreadPool( threadsCount - 1, new DaemonThreadFactory( "ParallelEvaluator-helper" ) )
+            : null;
+    }
+
+    // Public instance methods
+
+    /**
+     * Gets the number of the threads evaluating an expression.
+     *
+     * @return the number of the threads (the calling thread included).
+     */
+    public int getThreadsCount()
+    {
+        return threadsCount;
+    }
+
+    /**
+     * Gets the maximum number of instructions of a subtree evaluated by a single thread.
+     *
+     * @return the cutoff.
+     */
+    public int getCutoff()
+    {
+        return cutoff;
+    }
+
+    /**
+     * Closes the evaluator (stopping its threads once they are idle).
+     */
+    public void close()
+    {
+        if (helpers != null)
+        {
+            helpers.shutdown();
+        }
+    }
+
+    // Package-private instance methods
+
+    /**
+     * Evaluates the right-hand side of the compiled expression.
+     *
+     * @param compiledExpression the compiled expression.
+     * @param variables the values of the variables (indexed by their slots, at least as many as the slots needed; only read).
+     *
+     * @return the value of the right-hand side of the expression.
+     */
+    double evaluate( CompiledExpression compiledExpression, double[] variables )
+    {
+        int[] instructions = compiledExpression.getInstructions();
+        if (helpers == null || instructions.length <= cutoff)
+        {
+            return CompiledExpression.interpret( instructions, instructions.length, compiledExpression.getConstants(),
+                variables, new double[ compiledExpression.getMaxStackDepth() ] );
+        }
+
+        Split split = lastSplit;
+        if (split == null || split.compiledExpression != compiledExpression)
+        {
+            split = new Split( compiledExpression, cutoff, threadsCount );
+            lastSplit = split;
+        }
+
+        // Evaluate the subtrees (the calling thread takes the groups left by the helpers).
+        double[] values = new double[ split.subtreesCount ];
+        Worker worker = new Worker( split, variables, values );
+        int helpersCount = (helpers != null) ? Math.min( threadsCount, split.groupsCount ) - 1 : 0;
+        try
+        {
+            for (int i = 0; i < helpersCount; i++)
+            {
+                helpers.execute( worker );
+            }
+        }
+        catch (RejectedExecutionException ex)
+        {
+            // The evaluator has been closed; the calling thread evaluates the groups alone.
+        }
+        worker.run();
+        worker.await();
+
+        // Evaluate the rest of the tree (each subtree being a constant now).
+        return CompiledExpression.interpret( split.topInstructions, split.topInstructions.length, values, variables,
+            new double[ split.topMaxStackDepth ] );
+    }
+
+    /**
+     * This (private) class represents the split of a program into subtrees evaluated in parallel.
+     */
+    private static final class Split
+    {
+        /** The compiled expression split. */
+        final CompiledExpression compiledExpression;
+
+        /** The positions of the first instructions of the subtrees (in the order of the program). */
+        final int[] subtreeStarts;
+
+        /** The positions one past the last instructions of the subtrees. */
+        final int[] subtreeEnds;
+
+        /** The number of the subtrees. */
+        final int subtreesCount;
+
+        /** The maximum depth of the operand stack reached by a subtree. */
+        final int subtreeMaxStackDepth;
+
+        /** The first subtrees of the groups (followed by the number of the subtrees). */
+        final int[] groupStarts;
+
+        /** The number of the groups. */
+        final int groupsCount;
+
+        /** The instructions of the rest of the tree (loading the value of a subtree as the constant of its index). */
+        final int[] topInstructions;
+
+        /** The maximum depth of the operand stack reached by the rest of the tree. */
+        final int topMaxStackDepth;
+
+        /**
+         * Splits the program of the compiled expression.
+         *
+         * @param compiledExpression the compiled expression.
+         * @param cutoff the maximum number of instructions of a subtree.
+         * @param threadsCount the number of the threads evaluating the subtrees.
+         */
+        Split( CompiledExpression compiledExpression, int cutoff, int threadsCount )
+        {
+            this.compiledExpression = compiledExpression;
+            int[] instructions = compiledExpression.getInstructions();
+            int n = instructions.length;
+
+            // The subtree of an instruction ends with it, hence it is given by its first instruction.
+            int[] starts = new int[ n ];
+            int[] stack = new int[ compiledExpression.getMaxStackDepth() ];
+            int top = -1;
+            for (int i = 0; i < n; i++)
+            {
+                int arity = CompiledExpression.getArity( CompiledExpression.opcode( instructions[ i ] ) );
+                if (arity == 0)
+                {
+                    stack[ ++top ] = i;
+                }
+                top -= (arity == 2) ? 1 : 0;
+                starts[ i ] = stack[ top ];
+            }
+
+            // Descend from the root to the largest subtrees within the cutoff (left first, so they come in the order of the program).
+            int[] subtreeStarts = new int[ 16 ];
+            int[] subtreeEnds = new int[ 16 ];
+            int subtreesCount = 0;
+            int[] pendingEnds = new int[ 16 ];
+            int pendingCount = 0;
+            pendingEnds[ pendingCount++ ] = n;
+            while (pendingCount > 0)
+            {
+                int end = pendingEnds[ --pendingCount ];
+                int start = starts[ end - 1 ];
+                if (end - start <= cutoff)
+                {
+                    if (subtreesCount == subtreeStarts.length)
+                    {
+                        subtreeStarts = ArrayUtils.copyOf( subtreeStarts, 2 * subtreesCount );
+                        subtreeEnds = ArrayUtils.copyOf( subtreeEnds, 2 * subtreesCount );
+                    }
+                    subtreeStarts[ subtreesCount ] = start;
+                    subtreeEnds[ subtreesCount++ ] = end;
+                    continue;
+                }
+
+                if (pendingCount + 2 > pendingEnds.length)
+                {
+                    pendingEnds = ArrayUtils.copyOf( pendingEnds, 2 * pendingEnds.length );
+                }
+                int arity = CompiledExpression.getArity( CompiledExpression.opcode( instructions[ end - 1 ] ) );
+                pendingEnds[ pendingCount++ ] = end - 1;
+                if (arity == 2)
+                {
+                    pendingEnds[ pendingCount++ ] = starts[ end - 2 ];
+                }
+            }
+            this.subtreeStarts = subtreeStarts;
+            this.subtreeEnds = subtreeEnds;
+            this.subtreesCount = subtreesCount;
+
+            // Group the subtrees (each group of at least the cutoff instructions, if there are enough of them).
+            int groupSize = Math.max( cutoff, (n + GROUPS_PER_THREAD * threadsCount - 1) / (GROUPS_PER_THREAD * threadsCount) );
+            int[] groupStarts = new int[ subtreesCount + 1 ];
+            int groupsCount = 0;
+            int size = groupSize;
+            int subtreeMaxStackDepth = 0;
+            for (int subtree = 0; subtree < subtreesCount; subtree++)
+            {
+                if (size >= groupSize)
+                {
+                    groupStarts[ groupsCount++ ] = subtree;
+                    size = 0;
+                }
+                size += subtreeEnds[ subtree ] - subtreeStarts[ subtree ];
+                subtreeMaxStackDepth = Math.max( subtreeMaxStackDepth,
+                    getMaxStackDepth( instructions, subtreeStarts[ subtree ], subtreeEnds[ subtree ] ) );
+            }
+            groupStarts[ groupsCount ] = subtreesCount;
+            this.groupStarts = groupStarts;
+            this.groupsCount = groupsCount;
+            this.subtreeMaxStackDepth = subtreeMaxStackDepth;
+
+            // The rest of the tree loads the values of the subtrees in place of their instructions.
+            int[] topInstructions = new int[ n ];
+            int topCount = 0;
+            int subtree = 0;
+            for (int i = 0; i < n; i++)
+            {
+                if (subtree < subtreesCount && i == subtreeStarts[ subtree ])
+                {
+                    topInstructions[ topCount++ ] = CompiledExpression.instruction( CompiledExpression.PUSH_CONSTANT, subtree );
+                    i = subtreeEnds[ subtree++ ] - 1;
+                }
+                else
+                {
+                    topInstructions[ topCount++ ] = instructions[ i ];
+                }
+            }
+            this.topInstructions = ArrayUtils.copyOf( topInstructions, topCount );
+            this.topMaxStackDepth = getMaxStackDepth( this.topInstructions, 0, topCount );
+        }
+
+        /**
+         * Gets the maximum depth of the operand stack reached by the part of a program.
+         *
+         * @param instructions the instructions of the program.
+         * @param start the position of the first instruction of the part.
+         * @param end the position one past the last instruction of the part.
+         *
+         * @return the maximum depth of the operand stack.
+         */
+        private static int getMaxStackDepth( int[] instructions, int start, int end )
+        {
+            int depth = 0;
+            int maxDepth = 0;
+            for (int i = start; i < end; i++)
+            {
+                depth += 1 - CompiledExpression.getArity( CompiledExpression.opcode( instructions[ i ] ) );
+                maxDepth = Math.max( maxDepth, depth );
+            }
+            return maxDepth;
+        }
+    }
+
+    /**
+     * This (private) class represents the work of evaluating the subtrees of a split (shared by all the threads).
+     */
+    private static final class Worker implements Runnable
+    {
+        /** The split. */
+        private final Split split;
+
+        /** The values of the variables. */
+        private final double[] variables;
+
+        /** The values of the subtrees (indexed by the subtrees). */
+        private final double[] values;
+
+        /** The next group to evaluate. */
+        private final AtomicInteger nextGroup;
+
+        /** The number of the groups not evaluated yet. */
+        private final CountDownLatch remainingGroups;
+
+        /** The first failure of the evaluation of a group, or <c>null</c>. */
+        private volatile Throwable failure;
+
+        /**
+         * Creates a new worker.
+         *
+         * @param split the split.
+         * @param variables the values of the variables.
+         * @param values the array receiving the values of the subtrees.
+         */
+        Worker( Split split, double[] variables, double[] values )
+        {
+            this.split = split;
+            this.variables = variables;
+            this.values = values;
+            this.nextGroup = new AtomicInteger();
+            this.remainingGroups = new CountDownLatch( split.groupsCount );
+        }
+
+        public void run()
+        {
+            int[] instructions = split.compiledExpression.getInstructions();
+            double[] constants = split.compiledExpression.getConstants();
+            double[] stack = new double[ split.subtreeMaxStackDepth ];
+            int group;
+            while ((group = nextGroup.getAndIncrement()) < split.groupsCount)
+            {
+                try
+                {
+                    for (int subtree = split.groupStarts[ group ]; subtree < split.groupStarts[ group + 1 ]; subtree++)
+                    {
+                        values[ subtree ] = CompiledExpression.interpret( instructions, split.subtreeStarts[ subtree ],
+                            split.subtreeEnds[ subtree ], constants, variables, stack );
+                    }
+                }
+                catch (RuntimeException ex)
+                {
+                    fail( ex );
+                }
+                catch (Error ex)
+                {
+                    fail( ex );
+                }
+                finally
+                {
+                    remainingGroups.countDown();
+                }
+            }
+        }
+
+        /**
+         * Waits for all the groups to be evaluated (even if the calling thread is interrupted meanwhile).
+         *
+         * @throws java.lang.RuntimeException if the evaluation of a group has failed with it.
+         * @throws java.lang.Error if the evaluation of a group has failed with it.
+         */
+        void await()
+            throws RuntimeException, Error
+        {
+            boolean interrupted = false;
+            while (true)
+            {
+                try
+                {
+                    remainingGroups.await();
+                    break;
+                }
+                catch (InterruptedException ex)
+                {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            Throwable failure = this.failure;
+            if (failure instanceof RuntimeException)
+            {
+                throw (RuntimeException) failure;
+            }
+            else if (failure != null)
+            {
+                throw (Error) failure;
+            }
+        }
+
+        /**
+         * Records the failure of the evaluation of a group (unless a failure has been recorded already).
+         *
+         * @param failure the failure.
+         */
+        private synchronized void fail( Throwable failure )
+        {
+            if (this.failure == null)
+            {
+                this.failure = failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,511 @@
+package simplecalculator;
+
+import java.util.Arrays;
+
+/**
+ * This (public) class represents a calculator keeping its variables up to date, like a spreadsheet.
+ *
+ * An assignment expression whose right-hand side reads some variables defines its
+ * variable by a formula: whenever any of the variables read changes, the variable is
+ * recomputed. An assignment expression reading no variables (or setting a variable
+ * directly) makes the variable an input again.
+ *
+ * The recomputation is incremental and lazy. A change of a variable only marks the
+ * variables depending on it (directly or not) as dirty; a dirty variable is
+ * recomputed when it is read, after the dirty variables its formula reads (so the
+ * formulas are evaluated in a topological order), and only those. An assignment
+ * which would make a variable depend on itself is rejected.
+ *
+ * The dependency graph is kept as lists of the slots of the dependent variables,
+ * so marking the dependents of a variable costs only the variables affected, and
+ * the graph is walked with explicit stacks, so however long the chains of the
+ * formulas are, the recomputation does not overflow the call stack.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public final class ReactiveCalculator
+{
+    // Private instance fields
+
+    /** The values of the variables (indexed by their slots; a dirty value is stale). */
+    private double[] values;
+
+    /** The formulas of the variables (indexed by their slots; <c>null</c> for an input). */
+    private CompiledExpression[] formulas;
+
+    /** The slots of the variables depending directly on a variable (indexed by its slot; <c>null</c> for none). */
+    private int[][] dependents;
+
+    /** The numbers of the variables depending directly on a variable (indexed by its slot). */
+    private int[] dependentsCounts;
+
+    /** The flags of the dirty variables (indexed by their slots; closed under the dependents). */
+    private boolean[] dirty;
+
+    /** The marks of the variables visited by the last walk of the dependency graph (indexed by their slots). */
+    private int[] visitMarks;
+
+    /** The mark of the last walk of the dependency graph. */
+    private int visitMark;
+
+    /** The stack of the slots of the variables pending in a walk of the dependency graph. */
+    private int[] pendingStack;
+
+    /** The stack of the positions (in the slots read by the formulas) reached by the recomputation. */
+    private int[] positionStack;
+
+    /** The cache of the compiled expressions. */
+    private final ExpressionCache expressionCache;
+
+    /** The operand stack (reused by all the evaluations). */
+    private double[] operandStack;
+
+    /** The number of evaluations after which a compiled expression is translated into JVM bytecode. */
+    private int compilationThreshold;
+
+    // Private static fields
+
+    /** The default capacity of the cache of the compiled expressions. */
+    private static final int DEFAULT_EXPRESSION_CACHE_CAPACITY = 4096;
+
+    /** The default number of evaluations after which a compiled expression is translated into JVM bytecode. */
+    private static final int DEFAULT_COMPILATION_THRESHOLD = 10000;
+
+    // Public instance constructors
+
+    /**
+     * Creates a new reactive calculator.
+     */
+    public ReactiveCalculator()
+    {
+        values = new double[ SimpleCalculator.VARIABLES_COUNT ];
+        formulas = new CompiledExpression[ SimpleCalculator.VARIABLES_COUNT ];
+        dependents = new int[ SimpleCalculator.VARIABLES_COUNT ][];
+        dependentsCounts = new int[ SimpleCalculator.VARIABLES_COUNT ];
+        dirty = new boolean[ SimpleCalculator.VARIABLES_COUNT ];
+        visitMarks = new int[ SimpleCalculator.VARIABLES_COUNT ];
+        pendingStack = new int[ SimpleCalculator.VARIABLES_COUNT ];
+        positionStack = new int[ SimpleCalculator.VARIABLES_COUNT ];
+        expressionCache = new ExpressionCache( DEFAULT_EXPRESSION_CACHE_CAPACITY );
+        operandStack = new double[ 16 ];
+        compilationThreshold = DEFAULT_COMPILATION_THRESHOLD;
+    }
+
+    // Public instance methods
+
+    /**
+     * Evaluates the expression (defining its variable by it if it is an assignment expression reading variables).
+     *
+     * @param expression the expression.
+     *
+     * @return the value of the expression.
+     *
+     * @throws java.lang.IllegalArgumentException if the expression is illegal or it would make a variable depend on itself.
+     */
+    public double evaluate( String expression )
+        throws IllegalArgumentException
+    {
+        CompiledExpression compiledExpression = expressionCache.get( expression );
+        if (compiledExpression == null)
+        {
+            compiledExpression = ExpressionCompiler.compile( expression );
+            expressionCache.put( compiledExpression );
+        }
+
+        return evaluate( compiledExpression );
+    }
+
+    /**
+     * Evaluates the compiled expression (defining its variable by it if it is an assignment expression reading variables).
+     *
+     * @param compiledExpression the compiled expression.
+     *
+     * @return the value of the expression.
+     *
+     * @throws java.lang.IllegalArgumentException if the expression would make a variable depend on itself.
+     */
+    public double evaluate( CompiledExpression compiledExpression )
+        throws IllegalArgumentException
+    {
+        if (values.length < compiledExpression.getSlotsCount())
+        {
+            growVariables( compiledExpression.getSlotsCount() );
+        }
+        if (!compiledExpression.isAssignment())
+        {
+            return compute( compiledExpression );
+        }
+
+        // A variable must not depend on itself (not even through other variables).
+        int slot = compiledExpression.getVariableSlot();
+        if (dependsOn( compiledExpression, slot ))
+        {
+            throw new IllegalArgumentException();
+        }
+
+        // Define the variable (by its formula if it reads any variables, otherwise as an input).
+        double value = compute( compiledExpression );
+        define( slot, (compiledExpression.getVariableSlots().length != 0) ? compiledExpression : null );
+        values[ slot ] = value;
+        return value;
+    }
+
+    /**
+     * Gets the value of the variable (recomputing it if it is dirty).
+     *
+     * @param variable the variable (a-z).
+     *
+     * @return the value of the variable (zero if it has not been assigned yet).
+     *
+     * @throws java.lang.IllegalArgumentException if the variable is illegal.
+     */
+    public double getVariable( char variable )
+        throws IllegalArgumentException
+    {
+        return getVariable( SymbolTable.getVariableSlot( variable ) );
+    }
+
+    /**
+     * Gets the value of the variable (recomputing it if it is dirty).
+     *
+     * @param name the name of the variable.
+     *
+     * @return the value of the variable (zero if it has not been assigned yet).
+     *
+     * @throws java.lang.IllegalArgumentException if the name is illegal.
+     */
+    public double getVariable( String name )
+        throws IllegalArgumentException
+    {
+        return getVariable( SymbolTable.getSlot( name ) );
+    }
+
+    /**
+     * Sets the value of the variable (making it an input).
+     *
+     * @param variable the variable (a-z).
+     * @param value the value of the variable.
+     *
+     * @throws java.lang.IllegalArgumentException if the variable is illegal.
+     */
+    public void setVariable( char variable, double value )
+        throws IllegalArgumentException
+    {
+        setVariable( SymbolTable.getVariableSlot( variable ), value );
+    }
+
+    /**
+     * Sets the value of the variable (making it an input).
+     *
+     * @param name the name of the variable.
+     * @param value the value of the variable.
+     *
+     * @throws java.lang.IllegalArgumentException if the name is illegal.
+     */
+    public void setVariable( String name, double value )
+        throws IllegalArgumentException
+    {
+        setVariable( SymbolTable.getSlot( name ), value );
+    }
+
+    /**
+     * Gets the formula of the variable.
+     *
+     * @param variable the variable (a-z).
+     *
+     * @return the compiled expression defining the variable, or <c>null</c> if the variable is an input.
+     *
+     * @throws java.lang.IllegalArgumentException if the variable is illegal.
+     */
+    public CompiledExpression getFormula( char variable )
+        throws IllegalArgumentException
+    {
+        return formulas[ SymbolTable.getVariableSlot( variable ) ];
+    }
+
+    /**
+     * Determines whether the variable is dirty (i.e. it will be recomputed when read).
+     *
+     * @param variable the variable (a-z).
+     *
+     * @return <c>true</c> if the variable is dirty, <c>false</c> otherwise.
+     *
+     * @throws java.lang.IllegalArgumentException if the variable is illegal.
+     */
+    public boolean isDirty( char variable )
+        throws IllegalArgumentException
+    {
+        return dirty[ SymbolTable.getVariableSlot( variable ) ];
+    }
+
+    // Private instance methods
+
+    /**
+     * Gets the value of the variable (recomputing it if it is dirty).
+     *
+     * @param slot the slot of the variable.
+     *
+     * @return the value of the variable.
+     */
+    private double getVariable( int slot )
+    {
+        if (slot >= values.length)
+        {
+            return 0.0;
+        }
+        if (dirty[ slot ])
+        {
+            recompute( slot );
+        }
+        return values[ slot ];
+    }
+
+    /**
+     * Sets the value of the variable (making it an input).
+     *
+     * @param slot the slot of the variable.
+     * @param value the value of the variable.
+     */
+    private void setVariable( int slot, double value )
+    {
+        if (values.length <= slot)
+        {
+            growVariables( slot + 1 );
+        }
+        define( slot, null );
+        values[ slot ] = value;
+    }
+
+    /**
+     * Computes the value of the right-hand side of the compiled expression (recomputing the dirty variables it reads).
+     *
+     * @param compiledExpression the compiled expression.
+     *
+     * @return the value of the right-hand side.
+     */
+    private double compute( CompiledExpression compiledExpression )
+    {
+        for (int slot : compiledExpression.getVariableSlots())
+        {
+            if (dirty[ slot ])
+            {
+                recompute( slot );
+            }
+        }
+        return evaluateRightHandSide( compiledExpression );
+    }
+
+    /**
+     * Evaluates the right-hand side of the compiled expression (reading the variables as they are).
+     *
+     * @param compiledExpression the compiled expression.
+     *
+     * @return the value of the right-hand side.
+     */
+    private double evaluateRightHandSide( CompiledExpression compiledExpression )
+    {
+        // Make sure the operand stack is deep enough.
+        if (operandStack.length < compiledExpression.getMaxStackDepth())
+        {
+            operandStack = new double[ Math.max( compiledExpression.getMaxStackDepth(), 2 * operandStack.length ) ];
+        }
+
+        return compiledExpression.evaluate( values, operandStack, compilationThreshold );
+    }
+
+    /**
+     * Recomputes the dirty variable (after the dirty variables its formula reads, depth first).
+     *
+     * @param slot the slot of the variable.
+     */
+    private void recompute( int slot )
+    {
+        int top = 0;
+        pendingStack[ 0 ] = slot;
+        positionStack[ 0 ] = 0;
+        while (top >= 0)
+        {
+            // Descend into the next dirty variable read by the formula (there are no cycles).
+            int variableSlot = pendingStack[ top ];
+            int[] variableSlots = formulas[ variableSlot ].getVariableSlots();
+            int position = positionStack[ top ];
+            while (position < variableSlots.length && !dirty[ variableSlots[ position ] ])
+            {
+                position++;
+            }
+            if (position < variableSlots.length)
+            {
+                positionStack[ top ] = position + 1;
+                top++;
+                pendingStack[ top ] = variableSlots[ position ];
+                positionStack[ top ] = 0;
+                continue;
+            }
+
+            // All the variables read by the formula are up to date.
+            values[ variableSlot ] = evaluateRightHandSide( formulas[ variableSlot ] );
+            dirty[ variableSlot ] = false;
+            top--;
+        }
+    }
+
+    /**
+     * Redefines the variable and marks its dependents as dirty.
+     *
+     * @param slot the slot of the variable.
+     * @param formula the formula of the variable, or <c>null</c> for an input.
+     */
+    private void define( int slot, CompiledExpression formula )
+    {
+        // Unlink the old formula from the variables it reads and link the new one.
+        if (formulas[ slot ] != null)
+        {
+            for (int variableSlot : formulas[ slot ].getVariableSlots())
+            {
+                removeDependent( variableSlot, slot );
+            }
+        }
+        if (formula != null)
+        {
+            for (int variableSlot : formula.getVariableSlots())
+            {
+                addDependent( variableSlot, slot );
+            }
+        }
+        formulas[ slot ] = formula;
+        dirty[ slot ] = false;
+
+        // Mark the variables depending on the variable (directly or not) as dirty.
+        int top = -1;
+        pendingStack[ ++top ] = slot;
+        while (top >= 0)
+        {
+            int variableSlot = pendingStack[ top-- ];
+            for (int i = 0; i < dependentsCounts[ variableSlot ]; i++)
+            {
+                int dependent = dependents[ variableSlot ][ i ];
+                if (!dirty[ dependent ])
+                {
+                    dirty[ dependent ] = true;
+                    pendingStack[ ++top ] = dependent;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the variable to the dependents of the variable.
+     *
+     * @param slot the slot of the variable.
+     * @param dependent the slot of the dependent variable.
+     */
+    private void addDependent( int slot, int dependent )
+    {
+        int count = dependentsCounts[ slot ];
+        if (dependents[ slot ] == null)
+        {
+            dependents[ slot ] = new int[ 4 ];
+        }
+        else if (count == dependents[ slot ].length)
+        {
+            int[] slots = new int[ 2 * count ];
+            System.arraycopy( dependents[ slot ], 0, slots, 0, count );
+            dependents[ slot ] = slots;
+        }
+        dependents[ slot ][ count ] = dependent;
+        dependentsCounts[ slot ] = count + 1;
+    }
+
+    /**
+     * Removes the variable from the dependents of the variable.
+     *
+     * @param slot the slot of the variable.
+     * @param dependent the slot of the dependent variable.
+     */
+    private void removeDependent( int slot, int dependent )
+    {
+        int[] slots = dependents[ slot ];
+        int count = dependentsCounts[ slot ];
+        for (int i = 0; i < count; i++)
+        {
+            if (slots[ i ] == dependent)
+            {
+                // The order of the dependents does not matter.
+                slots[ i ] = slots[ count - 1 ];
+                dependentsCounts[ slot ] = count - 1;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Determines whether the compiled expression depends on the variable (directly or not).
+     *
+     * @param compiledExpression the compiled expression.
+     * @param slot the slot of the variable.
+     *
+     * @return <c>true</c> if the expression reads the variable or a variable depending on it, <c>false</c> otherwise.
+     */
+    private boolean dependsOn( CompiledExpression compiledExpression, int slot )
+    {
+        // A new mark stands for "not visited yet" for all the variables at once.
+        if (++visitMark == 0)
+        {
+            Arrays.fill( visitMarks, 0 );
+            visitMark = 1;
+        }
+
+        int top = -1;
+        for (int variableSlot : compiledExpression.getVariableSlots())
+        {
+            visitMarks[ variableSlot ] = visitMark;
+            pendingStack[ ++top ] = variableSlot;
+        }
+        while (top >= 0)
+        {
+            int variableSlot = pendingStack[ top-- ];
+            if (variableSlot == slot)
+            {
+                return true;
+            }
+            if (formulas[ variableSlot ] != null)
+            {
+                for (int dependency : formulas[ variableSlot ].getVariableSlots())
+                {
+                    if (visitMarks[ dependency ] != visitMark)
+                    {
+                        visitMarks[ dependency ] = visitMark;
+                        pendingStack[ ++top ] = dependency;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Grows the variables (the new ones being inputs equal to zero).
+     *
+     * @param slotsCount the least number of the slots the variables must cover.
+     */
+    private void growVariables( int slotsCount )
+    {
+        int length = Math.max( slotsCount, 2 * values.length );
+        values = ArrayUtils.copyOf( values, length );
+        CompiledExpression[] newFormulas = new CompiledExpression[ length ];
+        System.arraycopy( formulas, 0, newFormulas, 0, formulas.length );
+        formulas = newFormulas;
+        int[][] newDependents = new int[ length ][];
+        System.arraycopy( dependents, 0, newDependents, 0, dependents.length );
+        dependents = newDependents;
+        dependentsCounts = ArrayUtils.copyOf( dependentsCounts, length );
+        boolean[] newDirty = new boolean[ length ];
+        System.arraycopy( dirty, 0, newDirty, 0, dirty.length );
+        dirty = newDirty;
+        visitMarks = ArrayUtils.copyOf( visitMarks, length );
+
+        // Every variable is pushed at most once per walk.
+        pendingStack = new int[ length ];
+        positionStack = new int[ length ];
+    }
+}
@@ -0,0 +1,211 @@
+package simplecalculator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This (public) class represents a writer of the results of the expressions.
+ *
+ * A result is written exactly as <code>PrintStream.println( double )</code> writes
+ * it, but the double is formatted right into the buffer of the writer (no string is
+ * built for it) and the buffer is written to the underlying stream only when it is
+ * full or flushed, i.e. in large blocks.
+ *
+ * Like a print stream, the writer never throws an I/O exception; the first one is
+ * remembered and can be checked by the <code>checkError</code> method. A writer must
+ * not be used by more than one thread at a time.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public final class ResultWriter
+{
+    // Private instance fields
+
+    /** The underlying output stream. */
+    private final OutputStream outputStream;
+
+    /** The buffer. */
+    private final byte[] buffer;
+
+    /** The number of bytes in the buffer. */
+    private int count;
+
+    /** The line separator. */
+    private final byte[] lineSeparator;
+
+    /** The first I/O exception thrown by the underlying output stream, or <c>null</c>. */
+    private IOException error;
+
+    // Private static fields
+
+    /** The default size of the buffer (in bytes). */
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    // Public instance constructors
+
+    /**
+     * Creates a new result writer.
+     *
+     * @param outputStream the underlying output stream.
+     */
+    public ResultWriter( OutputStream outputStream )
+    {
+        this( outputStream, DEFAULT_BUFFER_SIZE );
+    }
+
+    /**
+     * Creates a new result writer.
+     *
+     * @param outputStream the underlying output stream.
+     * @param bufferSize the size of the buffer (in bytes).
+     *
+     * @throws java.lang.IllegalArgumentException if the size is too small to hold a result.
+     */
+    public ResultWriter( OutputStream outputStream, int bufferSize )
+        throws IllegalArgumentException
+    {
+        this.lineSeparator = toBytes( System.getProperty( "line.separator" ) );
+        if (bufferSize < DoubleFormatter.MAX_LENGTH + lineSeparator.length)
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.outputStream = outputStream;
+        this.buffer = new byte[ bufferSize ];
+    }
+
+    // Public instance methods
+
+    /**
+     * Writes the result followed by the line separator.
+     *
+     * @param value the result.
+     */
+    public void println( double value )
+    {
+        if (buffer.length - count < DoubleFormatter.MAX_LENGTH + lineSeparator.length)
+        {
+            flushBuffer();
+        }
+        count = DoubleFormatter.format( value, buffer, count );
+        System.arraycopy( lineSeparator, 0, buffer, count, lineSeparator.length );
+        count += lineSeparator.length;
+    }
+
+    /**
+     * Writes the (ASCII) message followed by the line separator.
+     *
+     * @param message the message.
+     */
+    public void println( String message )
+    {
+        write( toBytes( message ) );
+        write( lineSeparator );
+    }
+
+    /**
+     * Writes the buffered results to the underlying output stream and flushes it.
+     */
+    public void flush()
+    {
+        flushBuffer();
+        try
+        {
+            outputStream.flush();
+        }
+        catch (IOException ex)
+        {
+            setError( ex );
+        }
+    }
+
+    /**
+     * Determines whether the underlying output stream has thrown an I/O exception.
+     *
+     * @return <c>true</c> if an I/O exception has been thrown, <c>false</c> otherwise.
+     */
+    public boolean checkError()
+    {
+        return (error != null);
+    }
+
+    // Private instance methods
+
+    /**
+     * Writes the bytes (through the buffer).
+     *
+     * @param bytes the bytes.
+     */
+    private void write( byte[] bytes )
+    {
+        if (buffer.length - count < bytes.length)
+        {
+            flushBuffer();
+        }
+        if (bytes.length > buffer.length)
+        {
+            try
+            {
+                outputStream.write( bytes );
+            }
+            catch (IOException ex)
+            {
+                setError( ex );
+            }
+            return;
+        }
+        System.arraycopy( bytes, 0, buffer, count, bytes.length );
+        count += bytes.length;
+    }
+
+    /**
+     * Writes the buffered bytes to the underlying output stream.
+     */
+    private void flushBuffer()
+    {
+        if (count > 0)
+        {
+            try
+            {
+                outputStream.write( buffer, 0, count );
+            }
+            catch (IOException ex)
+            {
+                setError( ex );
+            }
+            count = 0;
+        }
+    }
+
+    /**
+     * Remembers the (first) I/O exception.
+     *
+     * @param ex the I/O exception.
+     */
+    private void setError( IOException ex )
+    {
+        if (error == null)
+        {
+            error = ex;
+        }
+    }
+
+    // Private static methods
+
+    /**
+     * Converts the (ASCII) string into bytes.
+     *
+     * @param s the string.
+     *
+     * @return the bytes.
+     */
+    private static byte[] toBytes( String s )
+    {
+        byte[] bytes = new byte[ s.length() ];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            bytes[ i ] = (byte) s.charAt( i );
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,569 @@
+package simplecalculator;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * This (public) class represents an executor running the independent lines of a script in parallel.
+ *
+ * The variables every line reads and assigns are known once the line is compiled,
+ * so the lines are ordered only as far as they have to be: a line reading a variable
+ * runs after the line last assigning it (read after write), and a line assigning a
+ * variable runs after the line last assigning it (write after write) and after the
+ * lines reading it since (write after read). Lines not ordered this way run on as
+ * many threads as the executor has (the calling thread included). Every line hence
+ * reads exactly the values it reads in the serial execution: the values of the
+ * lines and the final values of the variables are exactly those of executing the
+ * lines one by one, and so are the assignments logged into the journal of the
+ * calculator (logged in the order of the script once it has been executed).
+ *
+ * If a line is illegal (or cannot be compiled), the lines preceding it are executed,
+ * then the exception is thrown. If a function fails, the variables are restored and the lines preceding
+ * the failing line are executed again one by one, so the failure is thrown exactly
+ * as in the serial execution.
+ *
+ * An executor may be shared by any number of threads (each executing its script on
+ * its own calculator); the functions called by the scripts must be thread-safe.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public final class ScriptExecutor
+{
+    // Private instance fields
+
+    /** The number of the threads executing a script (the calling thread included). */
+    private final int threadsCount;
+
+    /** The threads helping the calling thread, or <c>null</c> if it works alone. */
+    private final ExecutorService helpers;
+
+    // Private static fields
+
+    /** The line waking a thread once all the lines have been executed. */
+    private static final Integer DONE = Integer.valueOf( -1 );
+
+    // Public instance constructors
+
+    /**
+     * Creates a new script executor.
+     *
+     * @param threadsCount the number of the threads executing a script (the calling thread included).
+     *
+     * @throws java.lang.IllegalArgumentException if the number of threads is not positive.
+     */
+    public ScriptExecutor( int threadsCount )
+        throws IllegalArgumentException
+    {
+        if (threadsCount < 1)
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.threadsCount = threadsCount;
+        this.helpers = (threadsCount > 1)
+            ? Executors.newFixedThreadPool( threadsCount - 1, new DaemonThreadFactory( "ScriptExecutor-helper" ) )
+            : null;
+    }
+
+    // Public instance methods
+
+    /**
+     * Gets the number of the threads executing a script.
+     *
+     * @return the number of the threads (the calling thread included).
+     */
+    public int getThreadsCount()
+    {
+        return threadsCount;
+    }
+
+    /**
+     * Closes the executor (stopping its threads once they are idle).
+     */
+    public void close()
+    {
+        if (helpers != null)
+        {
+            helpers.shutdown();
+        }
+    }
+
+    /**
+     * Executes the script on the calculator.
+     *
+     * The lines are compiled by the calculator first (so they are cached, and measured
+     * if the calculator has metrics), then executed.
+     *
+     * @param calculator the calculator.
+     * @param lines the lines of the script (one expression each).
+     * @param results the array receiving the value of every line.
+     *
+     * @throws java.lang.IllegalArgumentException if a line is illegal (the values of the lines preceding it have been stored).
+     */
+    public void execute( SimpleCalculator calculator, String[] lines, double[] results )
+        throws IllegalArgumentException
+    {
+        if (results.length < lines.length)
+        {
+            throw new IllegalArgumentException();
+        }
+
+        CompiledExpression[] compiledExpressions = new CompiledExpression[ lines.length ];
+        for (int i = 0; i < lines.length; i++)
+        {
+            try
+            {
+                compiledExpressions[ i ] = calculator.compile( lines[ i ] );
+            }
+            catch (RuntimeException ex)
+            {
+                // The line is illegal (or a function has failed while its constants were folded).
+                execute( calculator, compiledExpressions, i, results );
+                throw ex;
+            }
+        }
+        execute( calculator, compiledExpressions, lines.length, results );
+    }
+
+    /**
+     * Executes the compiled script on the calculator.
+     *
+     * @param calculator the calculator.
+     * @param compiledExpressions the compiled lines of the script.
+     * @param results the array receiving the value of every line.
+     *
+     * @throws java.lang.IllegalArgumentException if the results are fewer than the lines.
+     */
+    public void execute( SimpleCalculator calculator, CompiledExpression[] compiledExpressions, double[] results )
+        throws IllegalArgumentException
+    {
+        if (results.length < compiledExpressions.length)
+        {
+            throw new IllegalArgumentException();
+        }
+
+        execute( calculator, compiledExpressions, compiledExpressions.length, results );
+    }
+
+    // Private instance methods
+
+    /**
+     * Executes the beginning of the compiled script on the calculator.
+     *
+     * @param calculator the calculator.
+     * @param compiledExpressions the compiled lines of the script.
+     * @param linesCount the number of the lines to execute.
+     * @param results the array receiving the value of every line.
+     */
+    private void execute( SimpleCalculator calculator, CompiledExpression[] compiledExpressions, int linesCount,
+        double[] results )
+    {
+        if (helpers == null || linesCount < 2)
+        {
+            for (int i = 0; i < linesCount; i++)
+            {
+                results[ i ] = calculator.evaluate( compiledExpressions[ i ] );
+            }
+            return;
+        }
+
+        // Make sure the variables cover the slots of all the lines (the threads share the array).
+        int slotsCount = 0;
+        int maxStackDepth = 0;
+        for (int i = 0; i < linesCount; i++)
+        {
+            slotsCount = Math.max( slotsCount, compiledExpressions[ i ].getSlotsCount() );
+            maxStackDepth = Math.max( maxStackDepth, compiledExpressions[ i ].getMaxStackDepth() );
+        }
+        double[] variables = calculator.getVariableArray( slotsCount );
+        double[] savedVariables = new double[ slotsCount ];
+        System.arraycopy( variables, 0, savedVariables, 0, slotsCount );
+
+        // Execute the lines in the order of their dependences.
+        Graph graph = new Graph( compiledExpressions, linesCount, slotsCount );
+        double[] values = new double[ linesCount ];
+        Worker worker = new Worker( graph, compiledExpressions, variables, values, maxStackDepth,
+            calculator.getCompilationThreshold(), threadsCount );
+        for (int i = 0; i < linesCount; i++)
+        {
+            if (graph.dependencesCounts.get( i ) == 0)
+            {
+                worker.ready.add( Integer.valueOf( i ) );
+            }
+        }
+        try
+        {
+            for (int i = 1; i < threadsCount; i++)
+            {
+                helpers.execute( worker );
+            }
+        }
+        catch (RejectedExecutionException ex)
+        {
+            // The executor has been closed; the calling thread executes the lines alone.
+        }
+        worker.run();
+        worker.await();
+        for (int i = 0; i < linesCount; i++)
+        {
+            if (compiledExpressions[ i ].isAssignment())
+            {
+                calculator.touchVariable( compiledExpressions[ i ].getVariableSlot() );
+            }
+        }
+
+        if (worker.failedLine >= 0)
+        {
+            // Restore the variables and execute the lines up to the failing one serially (so that it fails as there).
+            System.arraycopy( savedVariables, 0, variables, 0, slotsCount );
+            for (int i = 0; i <= worker.failedLine; i++)
+            {
+                results[ i ] = calculator.evaluate( compiledExpressions[ i ] );
+            }
+            return;
+        }
+        System.arraycopy( values, 0, results, 0, linesCount );
+
+        // Log the assignments in the order of the script.
+        VariableJournal journal = calculator.getJournal();
+        if (journal != null)
+        {
+            for (int i = 0; i < linesCount; i++)
+            {
+                if (compiledExpressions[ i ].isAssignment())
+                {
+                    journal.logAssignment( compiledExpressions[ i ].getVariableSlot(), values[ i ] );
+                }
+            }
+        }
+    }
+
+    /**
+     * This (private) class represents the graph of the dependences among the lines of a script.
+     */
+    private static final class Graph
+    {
+        /** The number of the lines. */
+        final int linesCount;
+
+        /** The number of the lines every line waits for (decremented as they are executed). */
+        final AtomicIntegerArray dependencesCounts;
+
+        /** The positions of the first dependents of every line in the dependents (followed by the number of them). */
+        final int[] dependentStarts;
+
+        /** The lines depending on every line (grouped by the line they depend on). */
+        final int[] dependents;
+
+        /**
+         * Builds the graph of the dependences among the lines.
+         *
+         * @param compiledExpressions the compiled lines.
+         * @param linesCount the number of the lines.
+         * @param slotsCount the number of the slots of the variables the lines read or assign.
+         */
+        Graph( CompiledExpression[] compiledExpressions, int linesCount, int slotsCount )
+        {
+            this.linesCount = linesCount;
+
+            // The line last assigning every variable, and the lines reading it since (as a linked list).
+            int[] lastWriters = new int[ slotsCount ];
+            int[] lastReaders = new int[ slotsCount ];
+            Arrays.fill( lastWriters, -1 );
+            Arrays.fill( lastReaders, -1 );
+            int[] readerLines = new int[ 16 ];
+            int[] nextReaders = new int[ 16 ];
+            int readersCount = 0;
+
+            // The dependences (pairs of the line depended on and the dependent line).
+            int[] edges = new int[ 32 ];
+            int edgesCount = 0;
+
+            for (int line = 0; line < linesCount; line++)
+            {
+                CompiledExpression compiledExpression = compiledExpressions[ line ];
+                int writtenSlot = compiledExpression.isAssignment() ? compiledExpression.getVariableSlot() : -1;
+                int[] readSlots = compiledExpression.getVariableSlots();
+                if (edgesCount + 2 * (readSlots.length + 1) > edges.length)
+                {
+                    edges = ArrayUtils.copyOf( edges, Math.max( 2 * edges.length, edgesCount + 2 * (readSlots.length + 1) ) );
+                }
+
+                // Read after write.
+                for (int slot : readSlots)
+                {
+                    if (lastWriters[ slot ] >= 0)
+                    {
+                        edges[ edgesCount++ ] = lastWriters[ slot ];
+                        edges[ edgesCount++ ] = line;
+                    }
+                    if (slot != writtenSlot)
+                    {
+                        if (readersCount == readerLines.length)
+                        {
+                            readerLines = ArrayUtils.copyOf( readerLines, 2 * readersCount );
+                            nextReaders = ArrayUtils.copyOf( nextReaders, 2 * readersCount );
+                        }
+                        readerLines[ readersCount ] = line;
+                        nextReaders[ readersCount ] = lastReaders[ slot ];
+                        lastReaders[ slot ] = readersCount++;
+                    }
+                }
+
+                if (writtenSlot >= 0)
+                {
+                    // Write after write.
+                    if (lastWriters[ writtenSlot ] >= 0)
+                    {
+                        edges[ edgesCount++ ] = lastWriters[ writtenSlot ];
+                        edges[ edgesCount++ ] = line;
+                    }
+
+                    // Write after read.
+                    for (int reader = lastReaders[ writtenSlot ]; reader >= 0; reader = nextReaders[ reader ])
+                    {
+                        if (edgesCount == edges.length)
+                        {
+                            edges = ArrayUtils.copyOf( edges, 2 * edges.length );
+                        }
+                        edges[ edgesCount++ ] = readerLines[ reader ];
+                        edges[ edgesCount++ ] = line;
+                    }
+                    lastWriters[ writtenSlot ] = line;
+                    lastReaders[ writtenSlot ] = -1;
+                }
+            }
+
+            // Group the dependents by the line they depend on.
+            int[] dependencesCounts = new int[ linesCount ];
+            int[] dependentStarts = new int[ linesCount + 1 ];
+            for (int i = 0; i < edgesCount; i += 2)
+            {
+                dependentStarts[ edges[ i ] + 1 ]++;
+                dependencesCounts[ edges[ i + 1 ] ]++;
+            }
+            for (int line = 0; line < linesCount; line++)
+            {
+                dependentStarts[ line + 1 ] += dependentStarts[ line ];
+            }
+            int[] dependents = new int[ edgesCount / 2 ];
+            int[] positions = ArrayUtils.copyOf( dependentStarts, linesCount );
+            for (int i = 0; i < edgesCount; i += 2)
+            {
+                dependents[ positions[ edges[ i ] ]++ ] = edges[ i + 1 ];
+            }
+            this.dependencesCounts = new AtomicIntegerArray( dependencesCounts );
+            this.dependentStarts = dependentStarts;
+            this.dependents = dependents;
+        }
+    }
+
+    /**
+     * This (private) class represents the work of executing the lines of a script (shared by all the threads).
+     */
+    private static final class Worker implements Runnable
+    {
+        /** The graph of the dependences among the lines. */
+        private final Graph graph;
+
+        /** The compiled lines. */
+        private final CompiledExpression[] compiledExpressions;
+
+        /** The variables of the calculator. */
+        private final double[] variables;
+
+        /** The values of the lines. */
+        private final double[] results;
+
+        /** The maximum depth of the operand stack reached by a line. */
+        private final int maxStackDepth;
+
+        /** The compilation threshold of the calculator. */
+        private final int compilationThreshold;
+
+        /** The number of the threads taking the lines. */
+        private final int threadsCount;
+
+        /** The lines ready to be executed (all the lines they depend on having been executed). */
+        final BlockingQueue< Integer > ready;
+
+        /** The number of the lines not executed yet. */
+        private final AtomicInteger remainingLines;
+
+        /** Signals that all the lines have been executed. */
+        private final CountDownLatch done;
+
+        /** The first failing line, or -1. */
+        int failedLine;
+
+        /**
+         * Creates a new worker.
+         *
+         * @param graph the graph of the dependences among the lines.
+         * @param compiledExpressions the compiled lines.
+         * @param variables the variables of the calculator.
+         * @param results the array receiving the values of the lines.
+         * @param maxStackDepth the maximum depth of the operand stack reached by a line.
+         * @param compilationThreshold the compilation threshold of the calculator.
+         * @param threadsCount the number of the threads taking the lines.
+         */
+        Worker( Graph graph, CompiledExpression[] compiledExpressions, double[] variables, double[] results,
+            int maxStackDepth, int compilationThreshold, int threadsCount )
+        {
+            this.graph = graph;
+            this.compiledExpressions = compiledExpressions;
+            this.variables = variables;
+            this.results = results;
+            this.maxStackDepth = maxStackDepth;
+            this.compilationThreshold = compilationThreshold;
+            this.threadsCount = threadsCount;
+            this.ready = new LinkedBlockingQueue< Integer >();
+            this.remainingLines = new AtomicInteger( graph.linesCount );
+            this.done = new CountDownLatch( 1 );
+            this.failedLine = -1;
+        }
+
+        public void run()
+        {
+            double[] stack = new double[ maxStackDepth ];
+            int line = take();
+            while (line >= 0)
+            {
+                execute( line, stack );
+
+                // Release the dependents (going on with one of those ready, if any).
+                int nextLine = -1;
+                for (int i = graph.dependentStarts[ line ]; i < graph.dependentStarts[ line + 1 ]; i++)
+                {
+                    int dependent = graph.dependents[ i ];
+                    if (graph.dependencesCounts.decrementAndGet( dependent ) == 0)
+                    {
+                        if (nextLine < 0)
+                        {
+                            nextLine = dependent;
+                        }
+                        else
+                        {
+                            ready.add( Integer.valueOf( dependent ) );
+                        }
+                    }
+                }
+                if (remainingLines.decrementAndGet() == 0)
+                {
+                    for (int i = 0; i < threadsCount; i++)
+                    {
+                        ready.add( DONE );
+                    }
+                    done.countDown();
+                }
+                line = (nextLine >= 0) ? nextLine : take();
+            }
+        }
+
+        /**
+         * Waits for all the lines to be executed (even if the calling thread is interrupted meanwhile).
+         */
+        void await()
+        {
+            boolean interrupted = false;
+            while (true)
+            {
+                try
+                {
+                    done.await();
+                    break;
+                }
+                catch (InterruptedException ex)
+                {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Executes the line (recording its failure, if it fails).
+         *
+         * @param line the line.
+         * @param stack the operand stack of the thread.
+         */
+        private void execute( int line, double[] stack )
+        {
+            CompiledExpression compiledExpression = compiledExpressions[ line ];
+            double result;
+            try
+            {
+                result = compiledExpression.evaluate( variables, stack, compilationThreshold );
+            }
+            catch (RuntimeException ex)
+            {
+                fail( line );
+                result = Double.NaN;
+            }
+            catch (Error ex)
+            {
+                fail( line );
+                result = Double.NaN;
+            }
+            if (compiledExpression.isAssignment())
+            {
+                variables[ compiledExpression.getVariableSlot() ] = result;
+            }
+            results[ line ] = result;
+        }
+
+        /**
+         * Records the failure of the line (unless a preceding line has failed).
+         *
+         * @param line the line.
+         */
+        private synchronized void fail( int line )
+        {
+            if (failedLine < 0 || line < failedLine)
+            {
+                failedLine = line;
+            }
+        }
+
+        /**
+         * Takes the next line ready to be executed (waiting for one, if needed).
+         *
+         * @return the line, or -1 if all the lines have been executed.
+         */
+        private int take()
+        {
+            boolean interrupted = false;
+            try
+            {
+                while (true)
+                {
+                    try
+                    {
+                        return ready.take().intValue();
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        interrupted = true;
+                    }
+                }
+            }
+            finally
+            {
+                if (interrupted)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
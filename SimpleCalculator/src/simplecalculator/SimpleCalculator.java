@@ -1,25 +1,108 @@
 package simplecalculator;
 
-import java.util.ArrayList;
-import java.util.Hashtable;
-import java.util.Stack;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This (public) class represents a simple calculator.
  * 
+ * A variable is any identifier (e.g. x, total or unit_price_2). The names are
+ * interned into the symbol table when the expressions are compiled, so the
+ * variables of a calculator are a plain array indexed by the slots of the names,
+ * growing as new names come.
+ * 
+ * Besides the operators +, -, * and /, an expression may negate (e.g. "- x * 2")
+ * and call functions (e.g. "sqrt( x )" or "pow( x , 2 )"): the built-in ones and
+ * those registered with the function registry.
+ * 
+ * The variables live in memory only, unless a journal is set: then every assignment
+ * is logged and the variables survive the process.
+ * 
+ * Every variable carries a version (the clock of the calculator, bumped by every
+ * assignment, at its last assignment). Once memoization is turned on, a compiled
+ * expression keeps its last result along with the clock it was computed at, so
+ * evaluating it again with none of the variables it reads assigned since costs
+ * only a comparison of their versions.
+ * 
+ * The expressions may also be precompiled into a library file ahead of time: once
+ * the library is set, an expression it holds is never lexed nor parsed, but merely
+ * read from the memory-mapped file on its first use.
+ * 
  * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
  */
 public class SimpleCalculator
 {
     // Private instance fields
     
-    /** The variables of the calculator. */
-    private Hashtable< Character, Double > variables;
+    /** The variables of the calculator (indexed by their slots). */
+    private double[] variables;
+    
+    /** The cache of the compiled expressions. */
+    private ExpressionCache expressionCache;
+    
+    /** The operand stack (reused by all the evaluations). */
+    private double[] operandStack;
+    
+    /** The number of evaluations after which a compiled expression is translated into JVM bytecode. */
+    private int compilationThreshold;
+    
+    /** The evaluator of the compiled expressions over many rows (created on first use). */
+    private BatchEvaluator batchEvaluator;
+    
+    /** The compiler of the expressions (reused by all the compilations). */
+    private ExpressionCompiler compiler;
+    
+    /** The metrics of the expressions evaluated, or <c>null</c> if they are not measured. */
+    private CalculatorMetrics metrics;
+    
+    /** The registers receiving the values of the subexpressions of a compiled batch (reused by all the batches). */
+    private double[] batchRegisters;
+    
+    /** The journal persisting the variables, or <c>null</c> if they are not persisted. */
+    private VariableJournal journal;
+    
+    /** The evaluator splitting large expressions among threads, or <c>null</c> if they are evaluated sequentially. */
+    private ParallelEvaluator parallelEvaluator;
+    
+    /** The library of the precompiled expressions, or <c>null</c> if all the expressions are compiled. */
+    private ExpressionLibrary library;
+    
+    /** The value of the expression last evaluated by the <code>tryEvaluate</code> method (NaN if it was illegal). */
+    private double lastValue;
+    
+    /** The versions of the variables (the clock at their last assignment; indexed by their slots, as long as the variables). */
+    private long[] versions;
+    
+    /** The clock (the number of assignments so far). */
+    private long clock;
+    
+    /** Are the results of the compiled expressions memoized? */
+    private boolean memoizing;
+    
+    /** The identifier of the calculator (telling its memoized results from those of the other calculators). */
+    private final long id;
+    
+    // Public static fields
+    
+    /** The number of the single-letter variables (a-z), which take the first slots (in this order). */
+    public static final int VARIABLES_COUNT = 26;
+    
+    /** The string reporting an illegal expression (by every mode of the application and by the server). */
+    public static final String ERROR = "CHYBA";
     
     // Private static fields
     
-    private static final String OPERATORS = "+-*/";
-    private static final String TOKEN_DELIMITER_REGEX = "[ \t]+";
+    /** The default capacity of the cache of the compiled expressions. */
+    private static final int DEFAULT_EXPRESSION_CACHE_CAPACITY = 4096;
+    
+    /** The default number of evaluations after which a compiled expression is translated into JVM bytecode. */
+    private static final int DEFAULT_COMPILATION_THRESHOLD = 10000;
+    
+    /** The identifier of the next calculator. */
+    private static final AtomicLong nextId = new AtomicLong();
     
     // Public instance constructors
     
@@ -28,7 +111,26 @@ public class SimpleCalculator
      */
     public SimpleCalculator()
     {
-        variables = new Hashtable< Character, Double >();
+        this( DEFAULT_EXPRESSION_CACHE_CAPACITY );
+    }
+    
+    /**
+     * Creates a new simple calculator.
+     * 
+     * @param expressionCacheCapacity the capacity of the cache of the compiled expressions (zero disables the cache).
+     * 
+     * @throws java.lang.IllegalArgumentException if the capacity is negative.
+     */
+    public SimpleCalculator( int expressionCacheCapacity )
+        throws IllegalArgumentException
+    {
+        variables = new double[ VARIABLES_COUNT ];
+        versions = new long[ VARIABLES_COUNT ];
+        id = nextId.incrementAndGet();
+        expressionCache = new ExpressionCache( expressionCacheCapacity );
+        operandStack = new double[ 16 ];
+        compilationThreshold = DEFAULT_COMPILATION_THRESHOLD;
+        compiler = new ExpressionCompiler();
     }
     
     // Public instance methods
@@ -40,6 +142,11 @@ public class SimpleCalculator
     /**
      * Evaluates the expression.
      * 
+     * The compiled form of the expression is looked up in (or stored into) the cache
+     * of the compiled expressions, so that re-evaluating the same expression skips
+     * its lexing and its conversion into the postfix notation. An expression missing
+     * from the cache is looked up in the library (if any) before it is compiled.
+     * 
      * @param expression the expression.
      
      * @return the value of the expression.
@@ -49,499 +156,855 @@ public class SimpleCalculator
     public double evaluate( String expression )
         throws IllegalArgumentException
     {
-        // The expression is split on the equality sign to determine its nature.
-        String[] sides = expression.split( "=" );
-        int equalitySignsCount = sides.length - 1;
+        long startTime = (metrics != null) ? System.nanoTime() : 0;
         
-        double result;
-        switch (equalitySignsCount)
-        {
-            // The expression contains no equality sign, hence it is a simple expression.
-            case 0:
-                
-                // Evaluate the expression as a simple expression.
-                result = evaluateInfix( expression );
-                
-                break;
-                
-            // The expression contains one equality sign, hence it is an assignment expression.
-            case 1:
-                
-                // Split the expression into the left-hand side and the right-hand side.
-                String leftHandSide = sides[ 0 ];
-                String rightHandSide = sides[ 1 ];
-                
-                // Evaluate the right-hand side (giving the result of the expression).
-                result = evaluateInfix( rightHandSide );
-                
-                // Assign the result to the left-hand side.
-                assign( leftHandSide, result );
-                
-                break;
-                
-            // The expression contains two or more equality signs, hence it is an illegal expression.
-            default:
-                
-                // Throw the exception notifying the caller, that an illegal expression
-                // has been passed as an argument.
-                throw new IllegalArgumentException();
+        CompiledExpression compiledExpression = expressionCache.get( expression );
+        if (compiledExpression == null)
+        {
+            compiledExpression = (library != null) ? library.find( expression ) : null;
+            if (compiledExpression == null)
+            {
+                compiledExpression = compile( expression, startTime );
+            }
+            expressionCache.put( compiledExpression );
         }
         
-        return result;
+        return evaluate( compiledExpression, startTime );
     }
     
-    // =========================================================================
-    // EVALUATE INFIX
-    // =========================================================================
+    /**
+     * Evaluates the expression without throwing an exception if it is illegal.
+     * 
+     * Just like the <code>evaluate</code> method, but an illegal expression is reported
+     * by its cause instead of an exception, which makes evaluating many expressions
+     * with a few illegal ones cheap: no stack trace is ever filled in. The value of a
+     * legal expression is got by the <code>getLastValue</code> method.
+     * 
+     * @param expression the expression.
+     
+     * @return the cause the expression is illegal for, or <c>null</c> if it is legal (and has been evaluated).
+     */
+    public ExpressionError tryEvaluate( String expression )
+    {
+        long startTime = (metrics != null) ? System.nanoTime() : 0;
+        
+        CompiledExpression compiledExpression = expressionCache.get( expression );
+        if (compiledExpression == null && library != null)
+        {
+            compiledExpression = library.find( expression );
+            if (compiledExpression != null)
+            {
+                expressionCache.put( compiledExpression );
+            }
+        }
+        if (compiledExpression == null)
+        {
+            ExpressionError error = tryCompile( expression, 0, expression.length(), startTime );
+            if (error != null)
+            {
+                lastValue = Double.NaN;
+                return error;
+            }
+            compiledExpression = compiler.toCompiledExpression( expression );
+            expressionCache.put( compiledExpression );
+        }
+        
+        lastValue = evaluate( compiledExpression, startTime );
+        return null;
+    }
     
     /**
-     * Evaluates the (tokenized) expression in the infix notation.
+     * Gets the value of the expression last evaluated by the <code>tryEvaluate</code> method.
      * 
-     * @param infixExpression the (tokenized) expression in the infix notation.
+     * @return the value of the expression (NaN if it was illegal).
+     */
+    public double getLastValue()
+    {
+        return lastValue;
+    }
+    
+    /**
+     * Evaluates the compiled expression.
      * 
+     * A compiled expression is interpreted until it has been evaluated as many times
+     * as the compilation threshold; then it is translated into JVM bytecode, which
+     * computes exactly the same value.
+     * 
+     * @param compiledExpression the compiled expression.
+     
      * @return the value of the expression.
      * 
      * @throws java.lang.IllegalArgumentException if the expression is illegal.
      */
-    private double evaluateInfix( String[] tokenizedInfixExpression )
+    public double evaluate( CompiledExpression compiledExpression )
         throws IllegalArgumentException
     {
-        String[] tokenizedPostfixExpression = convertInfixToPostfix( tokenizedInfixExpression );
-        return evaluatePostfix( tokenizedPostfixExpression );
+        return evaluate( compiledExpression, (metrics != null) ? System.nanoTime() : 0 );
     }
     
     /**
-     * Evaluates the expression in the infix notation.
+     * Evaluates the compiled expression for every row of the columns.
      * 
-     * @param infixExpression the expression in the infix notation.
+     * Every variable is bound either to a column (one value per row) or, if its column
+     * is <c>null</c>, to its current value in the calculator. The assignment (if any)
+     * is not performed.
      * 
-     * @return the value of the expression.
+     * @param compiledExpression the compiled expression.
+     * @param columns the columns of the variables (indexed by their slots, <c>null</c> for a variable not bound to a column).
+     * @param results the array receiving the value of the expression for every row.
      * 
-     * @throws java.lang.IllegalArgumentException if the expression is illegal.
+     * @throws java.lang.IllegalArgumentException if the columns do not match the results.
      */
-    private double evaluateInfix( String infixExpression )
+    public void evaluate( CompiledExpression compiledExpression, double[][] columns, double[] results )
         throws IllegalArgumentException
     {
-        String[] tokenizedPostfixExpression = convertInfixToPostfix( infixExpression );
-        return evaluatePostfix( tokenizedPostfixExpression );
+        if (batchEvaluator == null)
+        {
+            batchEvaluator = new BatchEvaluator();
+        }
+        if (variables.length < compiledExpression.getSlotsCount())
+        {
+            growVariables( compiledExpression.getSlotsCount() );
+        }
+        batchEvaluator.evaluate( compiledExpression, columns, variables, results );
     }
     
-    // =========================================================================
-    // CONVERT INFIX TO POSTFIX
-    // =========================================================================
-    
     /**
-     * Converts the (tokenized) expression in the infix notation into the expression in the postfix notation.
+     * Evaluates the compiled batch of expressions.
      * 
-     * @param tokenizedInfixExpression the (tokenized) expression in the infix notation.
+     * The expressions are evaluated as if one by one, in their order (so the variables
+     * assigned by the batch end up with their last assigned values), but every distinct
+     * subexpression of the batch is evaluated only once. If a function fails, no variables
+     * are assigned (the batch is evaluated all or nothing).
      * 
-     * @return the expression in the postfix notation.
+     * @param compiledBatch the compiled batch.
+     * @param results the array receiving the values of the expressions (in their order).
      * 
-     * @throws java.lang.IllegalArgumentException if the expression is illegal.
+     * @throws java.lang.IllegalArgumentException if the array does not have exactly one element per expression.
      */
-    private String[] convertInfixToPostfix( String[] tokenizedInfixExpression )
+    public void evaluate( CompiledBatch compiledBatch, double[] results )
         throws IllegalArgumentException
-    {        
-        Stack< String > tokenStack = new Stack< String >();
-        
-        ArrayList< String > tokenizedPostfixExpression = new ArrayList< String >();
-
-        for (String token : tokenizedInfixExpression)
+    {
+        if (results.length != compiledBatch.getExpressionsCount())
         {
-            if (isOperand( token ))
-            {
-                // Token is an operand.
-                tokenizedPostfixExpression.add( token );
-            }
-            else if (token.equals( "(" ))
-            {
-                // Token is a left parenthesis.
-                tokenStack.push( token );
-            }
-            else if (token.equals( ")" ))
-            {
-                // Token is a right parenthesis.
-                boolean openingParenthesisFound = false;
-                while (!tokenStack.isEmpty())
-                {
-                    token = tokenStack.pop();
-                    if (token.equals( "(" ))
-                    {
-                        openingParenthesisFound = true;
-                        break;
-                    }
-                    tokenizedPostfixExpression.add( token );
-                }
-                
-                // If the stack is already empty before finding a "(", that expression is not a valid expression.
-                if (!openingParenthesisFound)
-                {
-                    throw new IllegalArgumentException();
-                }
-            }
-            else if (isOperator( token ))
-            {
-                // Token is an operator.
-                while (!tokenStack.isEmpty())
-                {
-                    String topToken = tokenStack.peek();
-                    
-                    if (!topToken.equals( "(" ) && isOperator( topToken ) && higherOrEqualPrecedence( topToken, token ))
-                    {
-                        tokenizedPostfixExpression.add( tokenStack.pop() );
-                    }
-                    else
-                    {
-                        break;
-                    }
-                }
-                tokenStack.push( token );
-            }
-            else
+            throw new IllegalArgumentException();
+        }
+        if (batchRegisters == null || batchRegisters.length < compiledBatch.getSubexpressionsCount())
+        {
+            batchRegisters = new double[ compiledBatch.getSubexpressionsCount() ];
+        }
+        if (variables.length < compiledBatch.getSlotsCount())
+        {
+            growVariables( compiledBatch.getSlotsCount() );
+        }
+        compiledBatch.evaluate( variables, batchRegisters, results );
+        for (int slot : compiledBatch.getAssignedSlots())
+        {
+            versions[ slot ] = ++clock;
+            if (journal != null)
             {
-                // Token is illegal.
-                throw new IllegalArgumentException();
+                journal.logAssignment( slot, variables[ slot ] );
             }
         }
-        
-        while (!tokenStack.isEmpty())
+    }
+    
+    /**
+     * Gets the value of the variable.
+     * 
+     * @param variable the variable (a-z).
+     * 
+     * @return the value of the variable (zero if it has not been assigned yet).
+     * 
+     * @throws java.lang.IllegalArgumentException if the variable is illegal.
+     */
+    public double getVariable( char variable )
+        throws IllegalArgumentException
+    {
+        return variables[ SymbolTable.getVariableSlot( variable ) ];
+    }
+    
+    /**
+     * Sets the value of the variable.
+     * 
+     * @param variable the variable (a-z).
+     * @param value the value of the variable.
+     * 
+     * @throws java.lang.IllegalArgumentException if the variable is illegal.
+     */
+    public void setVariable( char variable, double value )
+        throws IllegalArgumentException
+    {
+        assign( SymbolTable.getVariableSlot( variable ), value );
+    }
+    
+    /**
+     * Gets the value of the variable.
+     * 
+     * @param name the name of the variable.
+     * 
+     * @return the value of the variable (zero if it has not been assigned yet).
+     * 
+     * @throws java.lang.IllegalArgumentException if the name is illegal.
+     */
+    public double getVariable( String name )
+        throws IllegalArgumentException
+    {
+        int slot = SymbolTable.getSlot( name );
+        return (slot < variables.length) ? variables[ slot ] : 0.0;
+    }
+    
+    /**
+     * Sets the value of the variable.
+     * 
+     * @param name the name of the variable.
+     * @param value the value of the variable.
+     * 
+     * @throws java.lang.IllegalArgumentException if the name is illegal.
+     */
+    public void setVariable( String name, double value )
+        throws IllegalArgumentException
+    {
+        int slot = SymbolTable.getSlot( name );
+        if (variables.length <= slot)
         {
-            String token = tokenStack.pop();
-            tokenizedPostfixExpression.add( token );
+            growVariables( slot + 1 );
         }
-        
-        String[] a = new String[ 0 ];
-        return tokenizedPostfixExpression.toArray( a );
+        assign( slot, value );
     }
     
     /**
-     * Converts the expression in the infix notation into the expression in the postfix notation.
+     * Gets the values of the single-letter variables.
      * 
-     * @param infixExpression the expression in the infix notation.
+     * @param values the array receiving the values of the variables a-z (in this order).
      * 
-     * @return the expression in the postfix notation.
+     * @throws java.lang.IllegalArgumentException if the array does not have exactly one element per variable.
+     */
+    public void getVariables( double[] values )
+        throws IllegalArgumentException
+    {
+        if (values.length != VARIABLES_COUNT)
+        {
+            throw new IllegalArgumentException();
+        }
+        System.arraycopy( variables, 0, values, 0, VARIABLES_COUNT );
+    }
+    
+    /**
+     * Sets the values of the single-letter variables.
      * 
-     * @throws java.lang.IllegalArgumentException if the expression is illegal.
+     * @param values the values of the variables a-z (in this order).
+     * 
+     * @throws java.lang.IllegalArgumentException if the array does not have exactly one element per variable.
      */
-    private String[] convertInfixToPostfix( String infixExpression )
+    public void setVariables( double[] values )
         throws IllegalArgumentException
     {
-        // Tokenize (trim and split) the expression.
-        String[] tokenizedInfixExpression = tokenizeExpression( infixExpression );
-        
-        // Evaluate the tokenized expression.
-        return convertInfixToPostfix( tokenizedInfixExpression );
+        if (values.length != VARIABLES_COUNT)
+        {
+            throw new IllegalArgumentException();
+        }
+        for (int slot = 0; slot < VARIABLES_COUNT; slot++)
+        {
+            assign( slot, values[ slot ] );
+        }
     }
     
     /**
-     * Tokenizes the expression.
+     * Gets the number of evaluations after which a compiled expression is translated into JVM bytecode.
      * 
-     * @param expression the expression.
+     * @return the compilation threshold (zero or less if the translation is disabled).
+     */
+    public int getCompilationThreshold()
+    {
+        return compilationThreshold;
+    }
+    
+    /**
+     * Sets the number of evaluations after which a compiled expression is translated into JVM bytecode.
      * 
-     * @return the tokenized expression.
+     * @param compilationThreshold the compilation threshold (zero or less disables the translation).
      */
-    private String[] tokenizeExpression( String expression )
+    public void setCompilationThreshold( int compilationThreshold )
     {
-        // Surround all the parentheses with a leading and a trailing sapce character.
-        expression = expression.replaceAll( "[(]", " ( " );
-        expression = expression.replaceAll( "[)]", " ) " );
-        
-        // Trim the expression.
-        expression = expression.trim();
-        
-        // Split the expression into the tokens.
-        String[] tokens = expression.split( TOKEN_DELIMITER_REGEX );
-        
-        return tokens;
+        this.compilationThreshold = compilationThreshold;
+    }
+    
+    /**
+     * Determines whether the compiled expressions are optimized.
+     * 
+     * @return <c>true</c> if the compiled expressions are optimized, <c>false</c> otherwise.
+     */
+    public boolean isOptimizing()
+    {
+        return compiler.isOptimizing();
     }
     
     /**
-     * Determines whether an operator has higher or greater precedence than another operator.
+     * Turns the optimization of the compiled expressions on or off.
      * 
-     * @param operator1 the first operator.
-     * @param operator2 the second operator.
+     * The optimization (the folding of the constant subexpressions and the dropping of
+     * the identities valid for every double) never changes the value of an expression.
+     * It applies to the expressions compiled from now on; the cached ones are kept.
      * 
-     * @return <c>true</c> if the first operator has higher or equal precedence than the second operator, <c>false</c> otherwise.
+     * @param optimizing <c>true</c> to optimize the compiled expressions, <c>false</c> otherwise.
      */
-    private boolean higherOrEqualPrecedence( String operator1, String operator2 )
+    public void setOptimizing( boolean optimizing )
     {
-        return (getPrecedence( operator1 ) >= getPrecedence( operator2 ));
+        compiler.setOptimizing( optimizing );
     }
     
     /**
-     * Gets the precedence of an operator.
-     * Accepts only valid operators (+, -, *, /).
+     * Determines whether the results of the compiled expressions are memoized.
      * 
-     * @param operator the operator.
+     * @return <c>true</c> if the results are memoized, <c>false</c> otherwise.
+     */
+    public boolean isMemoizing()
+    {
+        return memoizing;
+    }
+    
+    /**
+     * Turns the memoization of the results of the compiled expressions on or off.
      * 
-     * @return the precedence of the operator.
+     * A compiled expression keeps only the result of the calculator which evaluated
+     * it last, so an expression evaluated by several calculators in turn is computed
+     * every time. The functions being pure, memoization never changes the value of
+     * an expression; an assignment expression memoized still assigns its result. The
+     * hits and misses are recorded into the metrics, if any.
      * 
-     * @throws java.lang.IllegalArgumentException if the operator is illegal.
+     * @param memoizing <c>true</c> to memoize the results, <c>false</c> otherwise.
      */
-    private int getPrecedence( String operator )
-        throws IllegalArgumentException
+    public void setMemoizing( boolean memoizing )
     {
-        char ch = operator.charAt( 0 );
-        
-        switch (ch)
+        this.memoizing = memoizing;
+    }
+    
+    /**
+     * Gets the cache of the compiled expressions.
+     * 
+     * @return the cache of the compiled expressions.
+     */
+    public ExpressionCache getExpressionCache()
+    {
+        return expressionCache;
+    }
+    
+    /**
+     * Gets the metrics of the expressions evaluated.
+     * 
+     * @return the metrics, or <c>null</c> if the expressions are not measured.
+     */
+    public CalculatorMetrics getMetrics()
+    {
+        return metrics;
+    }
+    
+    /**
+     * Sets the metrics of the expressions evaluated.
+     * 
+     * The phases of every expression evaluated (or compiled) from now on are measured
+     * and recorded into the metrics. Without metrics, nothing is measured.
+     * 
+     * @param metrics the metrics (<c>null</c> to stop measuring the expressions).
+     */
+    public void setMetrics( CalculatorMetrics metrics )
+    {
+        this.metrics = metrics;
+    }
+    
+    /**
+     * Gets the journal persisting the variables.
+     * 
+     * @return the journal, or <c>null</c> if the variables are not persisted.
+     */
+    public VariableJournal getJournal()
+    {
+        return journal;
+    }
+    
+    /**
+     * Sets the journal persisting the variables.
+     * 
+     * The variables of the calculator are replaced by those recovered by the journal
+     * (the other ones becoming zero), and every assignment from now on is logged. A
+     * journal must not be set to more than one calculator.
+     * 
+     * @param journal the journal (<c>null</c> to stop persisting the variables).
+     */
+    public void setJournal( VariableJournal journal )
+    {
+        if (journal != null)
         {
-            case '+':
-            case '-':
-                
-                return 0;
-                
-            case '*':
-            case '/':
-                
-                return 1;
-                
-            default:
-                
-                throw new IllegalArgumentException();
+            if (variables.length < journal.getSlotsCount())
+            {
+                growVariables( journal.getSlotsCount() );
+            }
+            Arrays.fill( variables, 0.0 );
+            journal.getValues( variables );
+            Arrays.fill( versions, ++clock );
         }
+        this.journal = journal;
+    }
+    
+    /**
+     * Gets the evaluator splitting large expressions among threads.
+     * 
+     * @return the parallel evaluator, or <c>null</c> if the expressions are evaluated sequentially.
+     */
+    public ParallelEvaluator getParallelEvaluator()
+    {
+        return parallelEvaluator;
+    }
+    
+    /**
+     * Sets the evaluator splitting large expressions among threads.
+     * 
+     * An expression whose program exceeds the cutoff of the evaluator is evaluated by
+     * its threads from now on (giving exactly the value computed sequentially); the
+     * other expressions are evaluated sequentially, as without the evaluator.
+     * 
+     * @param parallelEvaluator the parallel evaluator (<c>null</c> to evaluate all the expressions sequentially).
+     */
+    public void setParallelEvaluator( ParallelEvaluator parallelEvaluator )
+    {
+        this.parallelEvaluator = parallelEvaluator;
+    }
+    
+    /**
+     * Gets the library of the precompiled expressions.
+     * 
+     * @return the library, or <c>null</c> if all the expressions are compiled.
+     */
+    public ExpressionLibrary getLibrary()
+    {
+        return library;
+    }
+    
+    /**
+     * Sets the library of the precompiled expressions.
+     * 
+     * An expression evaluated by its text is taken from the library (if it has the
+     * text) instead of being compiled from now on; the cached expressions are kept.
+     * 
+     * @param library the library (<c>null</c> to compile all the expressions).
+     */
+    public void setLibrary( ExpressionLibrary library )
+    {
+        this.library = library;
     }
     
     // =========================================================================
-    // EVALUATE POSTFIX
+    // COMPILE
     // =========================================================================
     
     /**
-     * Evaluates the (tokenized) expression in the postfix notation.
-     * 
-     * @param tokenizedPostfixExpression the (tokenized) expression in the postfix notation.
+     * Compiles the expression (without evaluating it).
      * 
-     * @return the value of the expression.
+     * @param expression the expression.
+     
+     * @return the compiled expression.
      * 
      * @throws java.lang.IllegalArgumentException if the expression is illegal.
      */
-    private double evaluatePostfix( String[] tokenizedPostfixExpression )
+    public CompiledExpression compile( String expression )
         throws IllegalArgumentException
     {
-        Stack< Double > tokenStack = new Stack< Double >();
-        
-        for (String token : tokenizedPostfixExpression)
+        return compile( expression, (metrics != null) ? System.nanoTime() : 0 );
+    }
+    
+    /**
+     * Compiles the expression read from the reader (without evaluating it).
+     * 
+     * The whole of the reader is the expression (line terminators included, as white
+     * space). It is read in chunks and every token is compiled as soon as it is read, so
+     * the memory taken grows with the program of the expression only, not with its text.
+     * The compiled expression keeps no text (its text is empty).
+     * 
+     * @param reader the reader (read up to its end).
+     * 
+     * @return the compiled expression.
+     * 
+     * @throws java.io.IOException if the reader fails.
+     * @throws java.lang.IllegalArgumentException if the expression is illegal.
+     */
+    public CompiledExpression compile( Reader reader )
+        throws IOException, IllegalArgumentException
+    {
+        long startTime = (metrics != null) ? System.nanoTime() : 0;
+        ExpressionError error = compiler.tryCompile( reader );
+        if (metrics != null)
         {
-            if (isOperand( token ))
-            {
-                // The token is an operand (number or variable).
-                
-                // Get the value of the operand.
-                double value = getOperandValue( token );
-                
-                // Push the value of the operand onto the stack.
-                tokenStack.push( value );
-            }
-            else if (isOperator( token ))
+            long endTime = System.nanoTime();
+            if (error == null)
             {
-                // The token is an operator.
-                
-                // Get the operands of the operator.
-                double rightOperand = tokenStack.pop();
-                double leftOperand = tokenStack.pop();
-                
-                // The value of the operator applied to its operands.
-                double value;
-                
-                char operator = token.charAt( 0 );
-                switch (operator)
-                {
-                    // Addition.
-                    case '+':
-                        
-                        value = leftOperand + rightOperand;
-                        break;
-                    
-                    // Subtraction.
-                    case '-':
-                        
-                        value = leftOperand - rightOperand;
-                        break;
-                    
-                    // Multiplication.
-                    case '*':
-                        
-                        value = leftOperand * rightOperand;
-                        break;
-                    
-                    // Division.
-                    case '/':
-                        
-                        value = leftOperand / rightOperand;
-                        break;
-                    
-                    // Illegal operand => Illegal argument.
-                    default:
-                        throw new IllegalArgumentException();
-                }
-                
-                // Push the value of the operator onto the stack.
-                tokenStack.push( value );
+                metrics.record( CalculatorMetrics.Phase.COMPILE, endTime - startTime );
             }
             else
             {
-                // Token is not an operand nor an operator, hence the postfix expression is invalid.
-                throw new IllegalArgumentException();
+                metrics.recordError( error, endTime - startTime );
             }
         }
-        
-        return tokenStack.pop();
+        if (error != null)
+        {
+            throw ExpressionCompiler.newException( error );
+        }
+        return compiler.toCompiledExpression( "" );
     }
     
-    
     /**
-     * Evaluates the expression in the postfix notation.
+     * Compiles the expression held by the byte buffer (without evaluating it).
      * 
-     * @param postfixExpression the expression in the postfix notation.
+     * The expression is the bytes between the position and the limit of the buffer
+     * (as ASCII characters). They are lexed right from the buffer, e.g. a memory-mapped
+     * file, and never copied; the position of the buffer is left unchanged. The compiled
+     * expression keeps no text (its text is empty).
      * 
-     * @return the value of the expression.
+     * @param buffer the byte buffer.
+     * 
+     * @return the compiled expression.
      * 
      * @throws java.lang.IllegalArgumentException if the expression is illegal.
      */
-    private double evaluatePostfix( String postfixExpression )
+    public CompiledExpression compile( ByteBuffer buffer )
+        throws IllegalArgumentException
     {
-        // Tokenize (trim and split) the expression.
-        String[] tokenizedPostfixExpression = tokenizeExpression( postfixExpression );
-        
-        // Evaluate the tokenized expression.
-        return evaluatePostfix( tokenizedPostfixExpression );
+        AsciiCharSequence input = new AsciiCharSequence();
+        input.reset( buffer );
+        compile( input, buffer.position(), buffer.limit(), (metrics != null) ? System.nanoTime() : 0 );
+        return compiler.toCompiledExpression( "" );
     }
     
     /**
-     * Determine whether a string is an operand (number or variable).
+     * Compiles the batch of expressions (without evaluating it).
+     * 
+     * The equal subexpressions of the batch (reading the same values of the variables)
+     * are compiled into one, so that it is evaluated only once per evaluation of the batch.
      * 
-     * @param str the (trimmed) string.
+     * @param expressions the expressions (in the order of their evaluation).
+     
+     * @return the compiled batch.
      * 
-     * @return <c>true</c> if the string is an operand, <c>false</c> otherwise.
+     * @throws java.lang.IllegalArgumentException if an expression is illegal.
      */
-    private boolean isOperand( String str )
+    public CompiledBatch compileBatch( String[] expressions )
+        throws IllegalArgumentException
     {
-        return (isNumber( str ) || isVariable( str )); 
+        return new BatchCompiler( compiler ).compile( expressions );
     }
     
+    // Package-private instance methods
+
     /**
-     * Determines whether a string is a number.
-     * 
-     * @param str the (trimmed) string.
-     * 
-     * @return <c>true</c> if the string is a double, <c>false</c> otherwise.
+     * Gets the variables of the calculator (growing them to cover the slots, if needed).
+     *
+     * @param slotsCount the least number of the slots the variables must cover.
+     *
+     * @return the variables (indexed by their slots; the array itself, not a copy).
      */
-    private boolean isNumber( String str )
+    double[] getVariableArray( int slotsCount )
     {
-        try
+        if (variables.length < slotsCount)
         {
-            Double.parseDouble( str );
+            growVariables( slotsCount );
         }
-        catch (NumberFormatException ex)
+        return variables;
+    }
+
+    /**
+     * Bumps the version of the variable assigned right in the variables (as if it was assigned by the calculator).
+     *
+     * @param slot the slot of the variable.
+     */
+    void touchVariable( int slot )
+    {
+        versions[ slot ] = ++clock;
+    }
+
+    /**
+     * Evaluates the expression (without building a compiled expression).
+     *
+     * @param input the characters holding the expression.
+     * @param start the position of the first character of the expression.
+     * @param end the position one past the last character of the expression.
+     *
+     * @return the value of the expression.
+     *
+     * @throws java.lang.IllegalArgumentException if the expression is illegal.
+     */
+    double evaluate( CharSequence input, int start, int end )
+        throws IllegalArgumentException
+    {
+        long startTime = (metrics != null) ? System.nanoTime() : 0;
+        compile( input, start, end, startTime );
+        return evaluateCompiled( input, start, end, startTime );
+    }
+
+    /**
+     * Evaluates the expression (without building a compiled expression) without throwing an exception if it is illegal.
+     *
+     * @param input the characters holding the expression.
+     * @param start the position of the first character of the expression.
+     * @param end the position one past the last character of the expression.
+     *
+     * @return the cause the expression is illegal for, or <c>null</c> if it is legal (and has been evaluated).
+     */
+    ExpressionError tryEvaluate( CharSequence input, int start, int end )
+    {
+        long startTime = (metrics != null) ? System.nanoTime() : 0;
+        ExpressionError error = tryCompile( input, start, end, startTime );
+        if (error != null)
         {
-            return false;
+            lastValue = Double.NaN;
+            return error;
         }
-        
-        return true;
+        lastValue = evaluateCompiled( input, start, end, startTime );
+        return null;
     }
+
+    // Private instance methods
     
     /**
-     * Determines whether the string is a variable.
+     * Evaluates the compiled expression (recording its evaluation into the metrics, if any).
      * 
-     * @param str the (trimmed) string.
+     * @param compiledExpression the compiled expression.
+     * @param startTime the time the calculator started to work on the expression at (if it is measured).
      * 
-     * @return <c>true</c> if the string is a variable, <c>false</c> otherwise.
+     * @return the value of the expression.
      */
-    private boolean isVariable( String str )
+    private double evaluate( CompiledExpression compiledExpression, long startTime )
     {
-        // If the string does not contain exactly one character, it is not a variable.
-        if (str.length() != 1)
+        long evaluationStartTime = (metrics != null) ? System.nanoTime() : 0;
+        
+        // Make sure the variables cover the slots of the expression and the operand stack is deep enough.
+        if (variables.length < compiledExpression.getSlotsCount())
+        {
+            growVariables( compiledExpression.getSlotsCount() );
+        }
+        if (operandStack.length < compiledExpression.getMaxStackDepth())
         {
-            return false;
+            operandStack = new double[ Math.max( compiledExpression.getMaxStackDepth(), 2 * operandStack.length ) ];
         }
         
-        // Get the single char.
-        char ch = str.charAt( 0 );
+        // Evaluate the right-hand side (giving the result of the expression), unless its memoized result is valid.
+        double result;
+        MemoizedResult memoizedResult = memoizing ? compiledExpression.getMemoizedResult() : null;
+        boolean memoized = memoizedResult != null && memoizedResult.ownerId == id
+            && isUnchanged( compiledExpression, memoizedResult.stamp );
+        if (memoized)
+        {
+            result = memoizedResult.value;
+        }
+        else
+        {
+            result = (parallelEvaluator != null
+                    && compiledExpression.getInstructions().length > parallelEvaluator.getCutoff())
+                ? parallelEvaluator.evaluate( compiledExpression, variables )
+                : compiledExpression.evaluate( variables, operandStack, compilationThreshold );
+            if (memoizing)
+            {
+                if (memoizedResult == null || memoizedResult.ownerId != id)
+                {
+                    memoizedResult = new MemoizedResult( id );
+                    compiledExpression.setMemoizedResult( memoizedResult );
+                }
+                memoizedResult.stamp = clock;
+                memoizedResult.value = result;
+            }
+        }
+        if (memoizing && metrics != null)
+        {
+            metrics.recordMemoization( memoized );
+        }
         
-        // If the char is not a letter, or if it is not lower-case, it is not a variable.
-        if (!Character.isLetter( ch ) || !Character.isLowerCase( ch ))
+        // If the expression is an assignment expression, assign the result to the left-hand side.
+        if (compiledExpression.isAssignment())
         {
-            return false;
+            assign( compiledExpression.getVariableSlot(), result );
         }
         
-        return true;
+        if (metrics != null)
+        {
+            String expression = compiledExpression.getExpression();
+            recordEvaluation( expression, 0, expression.length(), startTime, evaluationStartTime );
+        }
+        return result;
     }
     
     /**
-     * Gets the value of the operand.
-     * 
-     * @param operand the (trimmed) operand (number or variable).
+     * Assigns the value to the variable (logging the assignment into the journal, if any).
      * 
-     * @return the value of the operand.
+     * @param slot the slot of the variable.
+     * @param value the value.
      */
-    private double getOperandValue( String operand )
+    private void assign( int slot, double value )
     {
-        double value;
-        
-        try
+        variables[ slot ] = value;
+        versions[ slot ] = ++clock;
+        if (journal != null)
         {
-            // Operand is either a legal number (parsable double) ...
-            value = Double.parseDouble( operand );
+            journal.logAssignment( slot, value );
         }
-        catch (NumberFormatException ex)
+    }
+    
+    /**
+     * Determines whether none of the variables read by the compiled expression has been assigned since the clock.
+     * 
+     * @param compiledExpression the compiled expression.
+     * @param stamp the clock.
+     * 
+     * @return <c>true</c> if no variable read has been assigned since, <c>false</c> otherwise.
+     */
+    private boolean isUnchanged( CompiledExpression compiledExpression, long stamp )
+    {
+        for (int slot : compiledExpression.getVariableSlots())
         {
-            // ... or a legal variable.
-            char variable = operand.charAt( 0 );
-            value = (variables.containsKey( variable )) ? variables.get( variable ) : 0;
+            if (versions[ slot ] > stamp)
+            {
+                return false;
+            }
         }
-        
-        return value; 
+        return true;
     }
     
     /**
-     * Determine whether the string is an operator (+, -, *, /).
+     * Grows the variables (the new ones being zero).
      * 
-     * @param str the (trimmed) string.
+     * @param slotsCount the least number of the slots the variables must cover.
+     */
+    private void growVariables( int slotsCount )
+    {
+        double[] newVariables = new double[ Math.max( slotsCount, 2 * variables.length ) ];
+        System.arraycopy( variables, 0, newVariables, 0, variables.length );
+        long[] newVersions = new long[ newVariables.length ];
+        System.arraycopy( versions, 0, newVersions, 0, versions.length );
+        variables = newVariables;
+        versions = newVersions;
+    }
+    
+    /**
+     * Evaluates the expression last compiled into the buffers of the compiler (recording its evaluation into the metrics, if any).
      * 
-     * @return <c>true</c> if the string is an operator, <c>false</c> otherwise.
+     * @param input the characters holding the expression.
+     * @param start the position of the first character of the expression.
+     * @param end the position one past the last character of the expression.
+     * @param startTime the time the calculator started to work on the expression at (if it is measured).
+     * 
+     * @return the value of the expression.
      */
-    private boolean isOperator( String str )
+    private double evaluateCompiled( CharSequence input, int start, int end, long startTime )
     {
-        // If the string does not contain exactly one character, it is not an operator.
-        if (str.length() != 1)
+        long evaluationStartTime = (metrics != null) ? System.nanoTime() : 0;
+        
+        // Make sure the variables cover the slots of the expression and the operand stack is deep enough.
+        if (variables.length < compiler.getSlotsCount())
         {
-            return false;
+            growVariables( compiler.getSlotsCount() );
         }
+        if (operandStack.length < compiler.getMaxStackDepth())
+        {
+            operandStack = new double[ Math.max( compiler.getMaxStackDepth(), 2 * operandStack.length ) ];
+        }
+        
+        // Evaluate the right-hand side (giving the result of the expression).
+        double result = compiler.evaluate( variables, operandStack );
         
-        // Get the single character.
-        char ch = str.charAt( 0 );
+        // If the expression is an assignment expression, assign the result to the left-hand side.
+        if (compiler.getVariableSlot() >= 0)
+        {
+            assign( compiler.getVariableSlot(), result );
+        }
         
-        // Is the character an actual operator (+, -, *, /)?
-        return (OPERATORS.indexOf( ch ) >= 0) ? true : false;
+        if (metrics != null)
+        {
+            recordEvaluation( input, start, end, startTime, evaluationStartTime );
+        }
+        return result;
     }
     
-    // =========================================================================
-    // ASSIGN
-    // =========================================================================
+    /**
+     * Compiles the expression (recording its compilation into the metrics, if any).
+     * 
+     * @param expression the expression.
+     * @param startTime the time the calculator started to work on the expression at (if it is measured).
+     * 
+     * @return the compiled expression.
+     * 
+     * @throws java.lang.IllegalArgumentException if the expression is illegal.
+     */
+    private CompiledExpression compile( String expression, long startTime )
+        throws IllegalArgumentException
+    {
+        compile( expression, 0, expression.length(), startTime );
+        return compiler.toCompiledExpression( expression );
+    }
     
     /**
-     * Assigns the result of the right-hand side into the left-hand side.
+     * Compiles the expression into the buffers of the compiler (recording its compilation into the metrics, if any).
      * 
-     * @param leftHandSide the left-hand side.
-     * @param value the value of the right-hand side.
+     * @param input the characters holding the expression.
+     * @param start the position of the first character of the expression.
+     * @param end the position one past the last character of the expression.
+     * @param startTime the time the calculator started to work on the expression at (if it is measured).
      * 
-     * @throws java.lang.IllegalArgumentException if the left-hand side is illegal.
+     * @throws java.lang.IllegalArgumentException if the expression is illegal.
      */
-    private void assign( String leftHandSide, double value )
+    private void compile( CharSequence input, int start, int end, long startTime )
         throws IllegalArgumentException
-    {   
-        // Trim the left-hand side.
-        leftHandSide = leftHandSide.trim();
+    {
+        ExpressionError error = tryCompile( input, start, end, startTime );
+        if (error != null)
+        {
+            throw ExpressionCompiler.newException( error );
+        }
+    }
+    
+    /**
+     * Compiles the expression into the buffers of the compiler (recording its compilation into the metrics, if any)
+     * without throwing an exception if it is illegal.
+     * 
+     * @param input the characters holding the expression.
+     * @param start the position of the first character of the expression.
+     * @param end the position one past the last character of the expression.
+     * @param startTime the time the calculator started to work on the expression at (if it is measured).
+     * 
+     * @return the cause the expression is illegal for, or <c>null</c> if it is legal.
+     */
+    private ExpressionError tryCompile( CharSequence input, int start, int end, long startTime )
+    {
+        if (metrics == null)
+        {
+            return compiler.tryCompile( input, start, end );
+        }
         
-        // If the left-hand side is a variable, assign to it, otherwise throw the illegal argument exception.
-        if (isVariable( leftHandSide ))
+        long compilationStartTime = System.nanoTime();
+        ExpressionError error = compiler.tryCompile( input, start, end );
+        long endTime = System.nanoTime();
+        if (error == null)
         {
-            // Store the variable's name and value into the variables table.
-            char variable = leftHandSide.charAt( 0 );
-            variables.put( variable, value );
+            metrics.record( CalculatorMetrics.Phase.COMPILE, endTime - compilationStartTime );
         }
         else
         {
-            throw new IllegalArgumentException();
+            // The expression is illegal (and the calculator is done with it).
+            metrics.recordError( error, endTime - compilationStartTime );
+            metrics.recordExpression( input, start, end, endTime - startTime );
         }
+        return error;
+    }
+    
+    /**
+     * Records the evaluation of the expression into the metrics.
+     * 
+     * @param input the characters holding the expression.
+     * @param start the position of the first character of the expression.
+     * @param end the position one past the last character of the expression.
+     * @param startTime the time the calculator started to work on the expression at.
+     * @param evaluationStartTime the time the evaluation of the expression started at.
+     */
+    private void recordEvaluation( CharSequence input, int start, int end, long startTime, long evaluationStartTime )
+    {
+        long endTime = System.nanoTime();
+        metrics.record( CalculatorMetrics.Phase.EVALUATE, endTime - evaluationStartTime );
+        metrics.recordExpression( input, start, end, endTime - startTime );
     }
 }
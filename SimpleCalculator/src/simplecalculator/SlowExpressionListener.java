@@ -0,0 +1,20 @@
+package simplecalculator;
+
+/**
+ * This (public) interface represents a listener notified of the expressions a calculator has spent too long on.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public interface SlowExpressionListener
+{
+    /**
+     * Notifies the listener of a slow expression.
+     *
+     * The listener is notified by the thread evaluating the expression, right after
+     * the expression has been evaluated (or found illegal).
+     *
+     * @param expression the expression.
+     * @param time the time spent on the expression (in nanoseconds).
+     */
+    void slowExpression( String expression, long time );
+}
@@ -0,0 +1,370 @@
+package simplecalculator;
+
+/**
+ * This (public) class represents the symbol table interning the names of the variables.
+ *
+ * Every name is given a dense slot (0, 1, 2, ...) the first time it is seen, and
+ * keeps it for the lifetime of the JVM, so the slots of the compiled expressions stay
+ * valid however much the table grows and a compiled expression can be evaluated by
+ * any calculator. The single-letter variables a-z are interned first, in slots 0-25.
+ *
+ * The names are interned when an expression is compiled; the evaluation only ever
+ * indexes the variables by their slots and never sees the names. The names are kept
+ * in an open-addressing hash table which is read without locking: a name already
+ * interned is looked up right from the characters of the expression (no string is
+ * built), and only a new name takes the lock of the table.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public final class SymbolTable
+{
+    // Private static fields
+
+    /** The hash table of the symbols (open addressing, <c>null</c> for an empty entry; replaced when grown). */
+    private static volatile Symbol[] table;
+
+    /** The names of the symbols (indexed by their slots; guarded by the class). */
+    private static String[] names;
+
+    /** The number of the symbols (guarded by the class). */
+    private static int symbolsCount;
+
+    /** The maximum number of the symbols (the slots must fit into the operands of the instructions). */
+    private static final int MAX_SYMBOLS_COUNT = 1 << (Integer.SIZE - CompiledExpression.OPCODE_BITS);
+
+    static
+    {
+        table = new Symbol[ 64 ];
+        names = new String[ 32 ];
+
+        // The single-letter variables take the slots 0-25 (see the getSlot method).
+        for (char variable = 'a'; variable <= 'z'; variable++)
+        {
+            String name = String.valueOf( variable );
+            intern( name, 0, name.length() );
+        }
+    }
+
+    // Private instance constructors
+
+    /**
+     * Prevents the instantiation of the class.
+     */
+    private SymbolTable()
+    {
+    }
+
+    // Public static methods
+
+    /**
+     * Gets the slot of the variable (interning its name unless it has been interned already).
+     *
+     * @param name the name of the variable.
+     *
+     * @return the slot of the variable.
+     *
+     * @throws java.lang.IllegalArgumentException if the name is not a legal identifier (or the table is full).
+     */
+    public static int getSlot( String name )
+        throws IllegalArgumentException
+    {
+        if (!Lexer.isIdentifier( name, 0, name.length() ))
+        {
+            throw new IllegalArgumentException();
+        }
+        int slot = intern( name, 0, name.length() );
+        if (slot < 0)
+        {
+            throw new IllegalArgumentException();
+        }
+        return slot;
+    }
+
+    /**
+     * Finds the slot of the variable (without interning its name).
+     *
+     * @param name the name of the variable.
+     *
+     * @return the slot of the variable, or -1 if its name has not been interned (yet).
+     */
+    public static int findSlot( String name )
+    {
+        Symbol symbol = find( table, name, 0, name.length(), hash( name, 0, name.length() ) );
+        return (symbol != null) ? symbol.slot : -1;
+    }
+
+    /**
+     * Gets the name of the variable.
+     *
+     * @param slot the slot of the variable.
+     *
+     * @return the name of the variable.
+     *
+     * @throws java.lang.IllegalArgumentException if no name has been given the slot.
+     */
+    public static synchronized String getName( int slot )
+        throws IllegalArgumentException
+    {
+        if (slot < 0 || slot >= symbolsCount)
+        {
+            throw new IllegalArgumentException();
+        }
+        return names[ slot ];
+    }
+
+    /**
+     * Gets the number of the names interned so far.
+     *
+     * @return the number of the names (one past the highest slot given).
+     */
+    public static synchronized int getSymbolsCount()
+    {
+        return symbolsCount;
+    }
+
+    // Package-private static methods
+
+    /**
+     * Determines whether the character is a single-letter variable (a-z).
+     *
+     * @param ch the character.
+     *
+     * @return <c>true</c> if the character is a single-letter variable, <c>false</c> otherwise.
+     */
+    static boolean isVariable( char ch )
+    {
+        return (ch >= 'a' && ch <= 'z');
+    }
+
+    /**
+     * Gets the slot of the single-letter variable (a-z, interned first, in slots 0-25).
+     *
+     * @param variable the variable.
+     *
+     * @return the slot of the variable.
+     */
+    static int getSlot( char variable )
+    {
+        return variable - 'a';
+    }
+
+    /**
+     * Gets the slot of the single-letter variable (checking its validity).
+     *
+     * @param variable the variable.
+     *
+     * @return the slot of the variable.
+     *
+     * @throws java.lang.IllegalArgumentException if the variable is not a-z.
+     */
+    static int getVariableSlot( char variable )
+        throws IllegalArgumentException
+    {
+        if (!isVariable( variable ))
+        {
+            throw new IllegalArgumentException();
+        }
+        return getSlot( variable );
+    }
+
+    /**
+     * Gets the slot of the variable (interning its name unless it has been interned already).
+     *
+     * @param input the characters holding the name (a legal identifier).
+     * @param start the position of the first character of the name.
+     * @param end the position one past the last character of the name.
+     *
+     * @return the slot of the variable, or -1 if the table is full.
+     */
+    static int intern( CharSequence input, int start, int end )
+    {
+        int hash = hash( input, start, end );
+        Symbol symbol = find( table, input, start, end, hash );
+        return (symbol != null) ? symbol.slot : add( input, start, end, hash );
+    }
+
+    // Private static methods
+
+    /**
+     * Adds the name to the table (unless another thread has just added it).
+     *
+     * @param input the characters holding the name.
+     * @param start the position of the first character of the name.
+     * @param end the position one past the last character of the name.
+     * @param hash the hash code of the name.
+     *
+     * @return the slot of the variable, or -1 if the table is full.
+     */
+    private static synchronized int add( CharSequence input, int start, int end, int hash )
+    {
+        Symbol symbol = find( table, input, start, end, hash );
+        if (symbol != null)
+        {
+            return symbol.slot;
+        }
+        if (symbolsCount == MAX_SYMBOLS_COUNT)
+        {
+            return -1;
+        }
+
+        // Keep the hash table at most half full (the readers see either the old table or the new complete one).
+        if (2 * (symbolsCount + 1) > table.length)
+        {
+            Symbol[] newTable = new Symbol[ 2 * table.length ];
+            for (Symbol entry : table)
+            {
+                if (entry != null)
+                {
+                    newTable[ getFreeIndex( newTable, entry.hash ) ] = entry;
+                }
+            }
+            table = newTable;
+        }
+        if (symbolsCount == names.length)
+        {
+            String[] newNames = new String[ 2 * symbolsCount ];
+            System.arraycopy( names, 0, newNames, 0, symbolsCount );
+            names = newNames;
+        }
+
+        // A reader may miss the new symbol (it then takes the lock and finds it here), but never sees it half-built.
+        symbol = new Symbol( input.subSequence( start, end ).toString(), symbolsCount, hash );
+        names[ symbolsCount++ ] = symbol.name;
+        Symbol[] currentTable = table;
+        currentTable[ getFreeIndex( currentTable, hash ) ] = symbol;
+        return symbol.slot;
+    }
+
+    /**
+     * Finds the symbol of the name.
+     *
+     * @param table the hash table of the symbols.
+     * @param input the characters holding the name.
+     * @param start the position of the first character of the name.
+     * @param end the position one past the last character of the name.
+     * @param hash the hash code of the name.
+     *
+     * @return the symbol, or <c>null</c> if the name is not in the table.
+     */
+    private static Symbol find( Symbol[] table, CharSequence input, int start, int end, int hash )
+    {
+        int mask = table.length - 1;
+        for (int index = spread( hash ) & mask; ; index = (index + 1) & mask)
+        {
+            Symbol symbol = table[ index ];
+            if (symbol == null)
+            {
+                return null;
+            }
+            if (symbol.hash == hash && symbol.matches( input, start, end ))
+            {
+                return symbol;
+            }
+        }
+    }
+
+    /**
+     * Gets the first free entry of the hash table for the hash code.
+     *
+     * @param table the hash table of the symbols.
+     * @param hash the hash code.
+     *
+     * @return the index of the entry.
+     */
+    private static int getFreeIndex( Symbol[] table, int hash )
+    {
+        int mask = table.length - 1;
+        int index = spread( hash ) & mask;
+        while (table[ index ] != null)
+        {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    /**
+     * Hashes the name (the same way <code>String.hashCode</code> does).
+     *
+     * @param input the characters holding the name.
+     * @param start the position of the first character of the name.
+     * @param end the position one past the last character of the name.
+     *
+     * @return the hash code of the name.
+     */
+    private static int hash( CharSequence input, int start, int end )
+    {
+        int hash = 0;
+        for (int i = start; i < end; i++)
+        {
+            hash = 31 * hash + input.charAt( i );
+        }
+        return hash;
+    }
+
+    /**
+     * Spreads the bits of the hash code (the lower ones select the entry of the hash table).
+     *
+     * @param hash the hash code.
+     *
+     * @return the spread hash code.
+     */
+    private static int spread( int hash )
+    {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * This (private) class represents a symbol (an interned name and its slot).
+     */
+    private static final class Symbol
+    {
+        /** The name. */
+        final String name;
+
+        /** The slot. */
+        final int slot;
+
+        /** The hash code of the name. */
+        final int hash;
+
+        /**
+         * Creates a new symbol.
+         *
+         * @param name the name.
+         * @param slot the slot.
+         * @param hash the hash code of the name.
+         */
+        Symbol( String name, int slot, int hash )
+        {
+            this.name = name;
+            this.slot = slot;
+            this.hash = hash;
+        }
+
+        /**
+         * Determines whether the characters are the name of the symbol.
+         *
+         * @param input the characters.
+         * @param start the position of the first character.
+         * @param end the position one past the last character.
+         *
+         * @return <c>true</c> if the characters are the name, <c>false</c> otherwise.
+         */
+        boolean matches( CharSequence input, int start, int end )
+        {
+            if (end - start != name.length())
+            {
+                return false;
+            }
+            for (int i = 0; i < name.length(); i++)
+            {
+                if (input.charAt( start + i ) != name.charAt( i ))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package simplecalculator;
+
+/**
+ * This (public) interface represents a function of one argument which can be registered with the function registry.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public interface UnaryFunction
+{
+    /**
+     * Applies the function.
+     *
+     * The function must be pure: its value depends on its argument only.
+     *
+     * @param x the argument.
+     *
+     * @return the value of the function.
+     */
+    double apply( double x );
+}
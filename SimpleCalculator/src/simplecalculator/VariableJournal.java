@@ -0,0 +1,809 @@
+package simplecalculator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Arrays;
+
+/**
+ * This (public) class represents a journal persisting the variables of a calculator in a directory.
+ *
+ * Every assignment is appended to a write-ahead log: a preallocated, memory-mapped
+ * file, so an assignment is logged by a few stores into the mapped bytes (no system
+ * call) and survives a crash of the process as soon as it has been made. Once a log
+ * is full, the variables are checkpointed: a compact snapshot of all of them (every
+ * name and the bits of its value) is written to a memory-mapped temporary file,
+ * forced to the disk and renamed over the previous snapshot, and a new log (of the
+ * next generation) replaces the old ones. Hence the directory never holds more than
+ * one snapshot and one log, however many assignments have been made.
+ *
+ * Opening the journal recovers the variables from the snapshot and the logs of the
+ * later generations, up to the last complete record (a record is committed by its
+ * type, written after the rest of it and its check, so a torn record ends the log),
+ * and checkpoints them at once, so the recovery never replays more than one log.
+ *
+ * A log records the names by the slots of the process which wrote it (every name is
+ * recorded once per log, before its first assignment), so the slots of a process
+ * need not match those of the next one. The logged assignments survive a power
+ * failure only once they have been forced to the disk (the snapshots are forced
+ * always). The directory is locked while the journal is open.
+ *
+ * A journal must be used by one calculator only, and by one thread at a time.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public final class VariableJournal
+{
+    // Private instance fields
+
+    /** The directory of the journal. */
+    private final File directory;
+
+    /** The size of a log (in bytes). */
+    private final int logCapacity;
+
+    /** The file locking the directory. */
+    private final RandomAccessFile lockFile;
+
+    /** The values of the variables (indexed by their slots). */
+    private double[] values;
+
+    /** Have the names of the variables been recorded in the current log (indexed by their slots)? */
+    private boolean[] namedSlots;
+
+    /** The generation of the current log. */
+    private long generation;
+
+    /** The current log, or <c>null</c> if the journal has been closed. */
+    private MappedByteBuffer log;
+
+    /** The position of the next record of the current log. */
+    private int logPosition;
+
+    /** The number of the assignments replayed by the recovery. */
+    private long replayedCount;
+
+    // Public static fields
+
+    /** The default size of a log (in bytes). */
+    public static final int DEFAULT_LOG_CAPACITY = 64 * 1024 * 1024;
+
+    /** The minimum size of a log (in bytes). */
+    public static final int MIN_LOG_CAPACITY = 4096;
+
+    // Private static fields
+
+    /** The magic number of a snapshot. */
+    private static final int SNAPSHOT_MAGIC = 0x53435653;
+
+    /** The magic number of a log. */
+    private static final int LOG_MAGIC = 0x5343564C;
+
+    /** The version of the format of the files. */
+    private static final int VERSION = 1;
+
+    /** The size of the header of a snapshot (magic, version, next generation and number of the variables). */
+    private static final int SNAPSHOT_HEADER_SIZE = 20;
+
+    /** The size of the header of a log (magic, version and generation). */
+    private static final int LOG_HEADER_SIZE = 16;
+
+    /** The type of a record naming a slot (followed by the slot, the length of the name, the name and the check). */
+    private static final byte NAME_RECORD = 1;
+
+    /** The type of a record assigning a variable (followed by the slot, the bits of the value and the check). */
+    private static final byte ASSIGNMENT_RECORD = 2;
+
+    /** The size of a record naming a slot (without the name). */
+    private static final int NAME_RECORD_SIZE = 13;
+
+    /** The size of a record assigning a variable. */
+    private static final int ASSIGNMENT_RECORD_SIZE = 17;
+
+    /** The name of the snapshot file. */
+    private static final String SNAPSHOT_FILE_NAME = "snapshot";
+
+    /** The name of the snapshot file being written. */
+    private static final String TEMPORARY_SNAPSHOT_FILE_NAME = "snapshot.tmp";
+
+    /** The prefix of the name of a log file (followed by its generation). */
+    private static final String LOG_FILE_PREFIX = "log-";
+
+    /** The name of the file locking the directory. */
+    private static final String LOCK_FILE_NAME = "lock";
+
+    // Private instance constructors
+
+    /**
+     * Creates a new journal (recovering the variables persisted in the directory).
+     *
+     * @param directory the directory of the journal.
+     * @param logCapacity the size of a log (in bytes).
+     *
+     * @throws java.io.IOException if the directory is locked by another journal, or the variables cannot be recovered.
+     */
+    private VariableJournal( File directory, int logCapacity )
+        throws IOException
+    {
+        this.directory = directory;
+        this.logCapacity = logCapacity;
+        this.values = new double[ SimpleCalculator.VARIABLES_COUNT ];
+        this.namedSlots = new boolean[ SimpleCalculator.VARIABLES_COUNT ];
+        this.lockFile = new RandomAccessFile( new File( directory, LOCK_FILE_NAME ), "rw" );
+
+        boolean opened = false;
+        try
+        {
+            FileLock lock;
+            try
+            {
+                lock = lockFile.getChannel().tryLock();
+            }
+            catch (OverlappingFileLockException ex)
+            {
+                lock = null;
+            }
+            if (lock == null)
+            {
+                throw new IOException( "The directory " + directory + " is used by another journal." );
+            }
+
+            recover();
+            checkpoint( logCapacity );
+            opened = true;
+        }
+        finally
+        {
+            // Closing the file releases the lock.
+            if (!opened)
+            {
+                lockFile.close();
+            }
+        }
+    }
+
+    // Public static methods
+
+    /**
+     * Opens the journal in the directory (creating the directory unless it exists).
+     *
+     * @param directory the directory of the journal.
+     *
+     * @return the journal, holding the variables recovered from the directory.
+     *
+     * @throws java.io.IOException if the directory cannot be created, it is locked by another journal, or the variables cannot be recovered.
+     */
+    public static VariableJournal open( File directory )
+        throws IOException
+    {
+        return open( directory, DEFAULT_LOG_CAPACITY );
+    }
+
+    /**
+     * Opens the journal in the directory (creating the directory unless it exists).
+     *
+     * @param directory the directory of the journal.
+     * @param logCapacity the size of a log in bytes (the variables are checkpointed whenever a log is full).
+     *
+     * @return the journal, holding the variables recovered from the directory.
+     *
+     * @throws java.io.IOException if the directory cannot be created, it is locked by another journal, or the variables cannot be recovered.
+     * @throws java.lang.IllegalArgumentException if the size of a log is less than the minimum.
+     */
+    public static VariableJournal open( File directory, int logCapacity )
+        throws IOException, IllegalArgumentException
+    {
+        if (logCapacity < MIN_LOG_CAPACITY)
+        {
+            throw new IllegalArgumentException();
+        }
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException( "The directory " + directory + " cannot be created." );
+        }
+        return new VariableJournal( directory, logCapacity );
+    }
+
+    // Public instance methods
+
+    /**
+     * Gets the number of the assignments replayed (from the logs) when the journal was opened.
+     *
+     * @return the number of the assignments.
+     */
+    public long getReplayedCount()
+    {
+        return replayedCount;
+    }
+
+    /**
+     * Checkpoints the variables (writing their snapshot and starting a new log).
+     *
+     * @throws java.io.IOException if the snapshot cannot be written or the log cannot be created.
+     * @throws java.lang.IllegalStateException if the journal has been closed.
+     */
+    public void checkpoint()
+        throws IOException, IllegalStateException
+    {
+        if (log == null)
+        {
+            throw new IllegalStateException();
+        }
+        checkpoint( logCapacity );
+    }
+
+    /**
+     * Forces the logged assignments to the disk (so they survive a power failure too).
+     *
+     * @throws java.lang.IllegalStateException if the journal has been closed.
+     */
+    public void force()
+        throws IllegalStateException
+    {
+        if (log == null)
+        {
+            throw new IllegalStateException();
+        }
+        log.force();
+    }
+
+    /**
+     * Closes the journal (writing the snapshot of the variables and unlocking the directory).
+     *
+     * @throws java.io.IOException if the snapshot cannot be written.
+     */
+    public void close()
+        throws IOException
+    {
+        if (log == null)
+        {
+            return;
+        }
+        try
+        {
+            writeSnapshot( generation + 1 );
+            deleteStaleFiles( generation + 1 );
+        }
+        finally
+        {
+            log = null;
+            lockFile.close();
+        }
+    }
+
+    // Package-private instance methods
+
+    /**
+     * Gets the number of the slots of the variables.
+     *
+     * @return one past the highest slot of a variable journaled (the least length of the variables).
+     */
+    int getSlotsCount()
+    {
+        return values.length;
+    }
+
+    /**
+     * Gets the values of the variables.
+     *
+     * @param variables the array receiving the values of the variables (indexed by their slots).
+     */
+    void getValues( double[] variables )
+    {
+        System.arraycopy( values, 0, variables, 0, values.length );
+    }
+
+    /**
+     * Logs the assignment of the variable.
+     *
+     * @param slot the slot of the variable.
+     * @param value the value assigned.
+     *
+     * @throws java.lang.IllegalStateException if the journal has been closed, or the variables cannot be checkpointed (when the log is full).
+     */
+    void logAssignment( int slot, double value )
+        throws IllegalStateException
+    {
+        if (log == null)
+        {
+            throw new IllegalStateException();
+        }
+        if (values.length <= slot)
+        {
+            growValues( slot + 1 );
+        }
+        values[ slot ] = value;
+
+        // Checkpoint the variables if the log is full (the new log names no slot yet).
+        String name = namedSlots[ slot ] ? null : SymbolTable.getName( slot );
+        int size = ASSIGNMENT_RECORD_SIZE + ((name != null) ? NAME_RECORD_SIZE + name.length() : 0);
+        if (log.capacity() - logPosition < size)
+        {
+            name = SymbolTable.getName( slot );
+            size = ASSIGNMENT_RECORD_SIZE + NAME_RECORD_SIZE + name.length();
+            try
+            {
+                checkpoint( Math.max( logCapacity, LOG_HEADER_SIZE + size ) );
+            }
+            catch (IOException ex)
+            {
+                throw new IllegalStateException( ex );
+            }
+        }
+
+        int position = logPosition;
+        if (name != null)
+        {
+            log.putInt( position + 1, slot );
+            log.putInt( position + 5, name.length() );
+            for (int i = 0; i < name.length(); i++)
+            {
+                log.put( position + 9 + i, (byte) name.charAt( i ) );
+            }
+            int end = position + 9 + name.length();
+            log.putInt( end, (int) checksum( log, position + 1, end ) );
+            log.put( position, NAME_RECORD );
+            position = end + 4;
+            namedSlots[ slot ] = true;
+        }
+
+        // The type is written last, so the record is either complete or not there at all.
+        long bits = Double.doubleToRawLongBits( value );
+        log.putInt( position + 1, slot );
+        log.putLong( position + 5, bits );
+        log.putInt( position + 13, check( slot, bits ) );
+        log.put( position, ASSIGNMENT_RECORD );
+        logPosition = position + ASSIGNMENT_RECORD_SIZE;
+    }
+
+    // Private instance methods
+
+    /**
+     * Recovers the variables from the snapshot and the logs of the later generations.
+     *
+     * @throws java.io.IOException if the snapshot is corrupt or a file cannot be read.
+     */
+    private void recover()
+        throws IOException
+    {
+        File snapshotFile = new File( directory, SNAPSHOT_FILE_NAME );
+        File temporaryFile = new File( directory, TEMPORARY_SNAPSHOT_FILE_NAME );
+        long nextGeneration = -1;
+        if (snapshotFile.exists())
+        {
+            nextGeneration = readSnapshot( snapshotFile );
+            if (nextGeneration < 0)
+            {
+                throw new IOException( "The snapshot " + snapshotFile + " is corrupt." );
+            }
+        }
+        else if (temporaryFile.exists())
+        {
+            // The snapshot may have been deleted to be replaced by the (complete) temporary one.
+            nextGeneration = readSnapshot( temporaryFile );
+            if (nextGeneration >= 0 && !temporaryFile.renameTo( snapshotFile ))
+            {
+                throw new IOException( "The snapshot " + snapshotFile + " cannot be replaced." );
+            }
+        }
+        nextGeneration = Math.max( nextGeneration, 0 );
+
+        // Replay the logs written since the snapshot (in the order of their generations).
+        long[] generations = getLogGenerations();
+        generation = nextGeneration - 1;
+        for (long logGeneration : generations)
+        {
+            if (logGeneration >= nextGeneration)
+            {
+                replayLog( getLogFile( logGeneration ) );
+                generation = logGeneration;
+            }
+        }
+    }
+
+    /**
+     * Reads the snapshot of the variables.
+     *
+     * @param file the snapshot file.
+     *
+     * @return the generation of the first log following the snapshot, or -1 if the snapshot is incomplete (then no variable is read).
+     *
+     * @throws java.io.IOException if the file cannot be read.
+     */
+    private long readSnapshot( File file )
+        throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile( file, "r" );
+        try
+        {
+            long length = randomAccessFile.length();
+            if (length < SNAPSHOT_HEADER_SIZE + 8 || length > Integer.MAX_VALUE)
+            {
+                return -1;
+            }
+            int end = (int) length - 8;
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, length );
+            if (buffer.getInt( 0 ) != SNAPSHOT_MAGIC || buffer.getInt( 4 ) != VERSION
+                || buffer.getLong( end ) != checksum( buffer, 0, end ))
+            {
+                return -1;
+            }
+
+            int count = buffer.getInt( 16 );
+            int position = SNAPSHOT_HEADER_SIZE;
+            for (int i = 0; i < count; i++)
+            {
+                int nameLength = (position + 4 <= end) ? buffer.getInt( position ) : -1;
+                if (nameLength < 1 || nameLength > end - position - 12)
+                {
+                    throw new IOException( "The snapshot " + file + " is corrupt." );
+                }
+                int slot = getSlot( buffer, position + 4, nameLength );
+                if (slot < 0)
+                {
+                    throw new IOException( "The snapshot " + file + " is corrupt." );
+                }
+                if (values.length <= slot)
+                {
+                    growValues( slot + 1 );
+                }
+                values[ slot ] = Double.longBitsToDouble( buffer.getLong( position + 4 + nameLength ) );
+                position += 12 + nameLength;
+            }
+            return buffer.getLong( 8 );
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Replays the log (up to its last complete record).
+     *
+     * @param file the log file.
+     *
+     * @throws java.io.IOException if the file cannot be read.
+     */
+    private void replayLog( File file )
+        throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile( file, "r" );
+        try
+        {
+            long length = Math.min( randomAccessFile.length(), Integer.MAX_VALUE );
+            if (length < LOG_HEADER_SIZE)
+            {
+                return;
+            }
+            int end = (int) length;
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, end );
+            if (buffer.getInt( 0 ) != LOG_MAGIC || buffer.getInt( 4 ) != VERSION)
+            {
+                // The log was being created (it holds no record).
+                return;
+            }
+
+            // The slots of this process (indexed by the slots of the process which wrote the log, -1 if not named).
+            int[] slots = new int[ SimpleCalculator.VARIABLES_COUNT ];
+            Arrays.fill( slots, -1 );
+            int position = LOG_HEADER_SIZE;
+            while (position < end)
+            {
+                byte type = buffer.get( position );
+                if (type == NAME_RECORD && end - position >= NAME_RECORD_SIZE)
+                {
+                    int logSlot = buffer.getInt( position + 1 );
+                    int nameLength = buffer.getInt( position + 5 );
+                    if (logSlot < 0 || nameLength < 1 || nameLength > end - position - NAME_RECORD_SIZE
+                        || buffer.getInt( position + 9 + nameLength ) != (int) checksum( buffer, position + 1,
+                            position + 9 + nameLength ))
+                    {
+                        break;
+                    }
+                    int slot = getSlot( buffer, position + 9, nameLength );
+                    if (slot < 0)
+                    {
+                        break;
+                    }
+                    if (slots.length <= logSlot)
+                    {
+                        int slotsLength = slots.length;
+                        slots = ArrayUtils.copyOf( slots, Math.max( logSlot + 1, 2 * slotsLength ) );
+                        Arrays.fill( slots, slotsLength, slots.length, -1 );
+                    }
+                    slots[ logSlot ] = slot;
+                    position += NAME_RECORD_SIZE + nameLength;
+                }
+                else if (type == ASSIGNMENT_RECORD && end - position >= ASSIGNMENT_RECORD_SIZE)
+                {
+                    int logSlot = buffer.getInt( position + 1 );
+                    long bits = buffer.getLong( position + 5 );
+                    if (logSlot < 0 || logSlot >= slots.length || slots[ logSlot ] < 0
+                        || buffer.getInt( position + 13 ) != check( logSlot, bits ))
+                    {
+                        break;
+                    }
+                    int slot = slots[ logSlot ];
+                    if (values.length <= slot)
+                    {
+                        growValues( slot + 1 );
+                    }
+                    values[ slot ] = Double.longBitsToDouble( bits );
+                    replayedCount++;
+                    position += ASSIGNMENT_RECORD_SIZE;
+                }
+                else
+                {
+                    // The end of the log (or a torn record).
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Checkpoints the variables (writing their snapshot and starting a new log).
+     *
+     * @param capacity the size of the new log (in bytes).
+     *
+     * @throws java.io.IOException if the snapshot cannot be written or the log cannot be created.
+     */
+    private void checkpoint( int capacity )
+        throws IOException
+    {
+        // The snapshot covers the current log, so the recovery starts with the new one.
+        long nextGeneration = generation + 1;
+        writeSnapshot( nextGeneration );
+        startLog( nextGeneration, capacity );
+        deleteStaleFiles( nextGeneration );
+    }
+
+    /**
+     * Writes the snapshot of the variables (replacing the previous one).
+     *
+     * @param nextGeneration the generation of the first log following the snapshot.
+     *
+     * @throws java.io.IOException if the snapshot cannot be written.
+     */
+    private void writeSnapshot( long nextGeneration )
+        throws IOException
+    {
+        // Only the variables which are not (positive) zero are written.
+        String[] names = new String[ values.length ];
+        int count = 0;
+        long length = SNAPSHOT_HEADER_SIZE + 8;
+        for (int slot = 0; slot < values.length; slot++)
+        {
+            if (Double.doubleToRawLongBits( values[ slot ] ) != 0)
+            {
+                names[ slot ] = SymbolTable.getName( slot );
+                length += 12 + names[ slot ].length();
+                count++;
+            }
+        }
+        if (length > Integer.MAX_VALUE)
+        {
+            throw new IOException( "The snapshot is too large." );
+        }
+
+        File temporaryFile = new File( directory, TEMPORARY_SNAPSHOT_FILE_NAME );
+        RandomAccessFile randomAccessFile = new RandomAccessFile( temporaryFile, "rw" );
+        try
+        {
+            randomAccessFile.setLength( length );
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, length );
+            buffer.putInt( SNAPSHOT_MAGIC ).putInt( VERSION ).putLong( nextGeneration ).putInt( count );
+            for (int slot = 0; slot < values.length; slot++)
+            {
+                if (names[ slot ] != null)
+                {
+                    buffer.putInt( names[ slot ].length() );
+                    for (int i = 0; i < names[ slot ].length(); i++)
+                    {
+                        buffer.put( (byte) names[ slot ].charAt( i ) );
+                    }
+                    buffer.putLong( Double.doubleToRawLongBits( values[ slot ] ) );
+                }
+            }
+            buffer.putLong( checksum( buffer, 0, buffer.position() ) );
+            buffer.force();
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+
+        // Replace the snapshot (atomically, unless the file system cannot rename a file over another one).
+        File snapshotFile = new File( directory, SNAPSHOT_FILE_NAME );
+        if (!temporaryFile.renameTo( snapshotFile ))
+        {
+            snapshotFile.delete();
+            if (!temporaryFile.renameTo( snapshotFile ))
+            {
+                throw new IOException( "The snapshot " + snapshotFile + " cannot be replaced." );
+            }
+        }
+    }
+
+    /**
+     * Starts the new log.
+     *
+     * @param logGeneration the generation of the log.
+     * @param capacity the size of the log (in bytes).
+     *
+     * @throws java.io.IOException if the log cannot be created.
+     */
+    private void startLog( long logGeneration, int capacity )
+        throws IOException
+    {
+        File file = getLogFile( logGeneration );
+        file.delete();
+        RandomAccessFile randomAccessFile = new RandomAccessFile( file, "rw" );
+        try
+        {
+            // The file is preallocated (with zeros, i.e. the end of the log) and stays mapped after it is closed.
+            randomAccessFile.setLength( capacity );
+            log = randomAccessFile.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, capacity );
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+        log.putInt( 0, LOG_MAGIC );
+        log.putInt( 4, VERSION );
+        log.putLong( 8, logGeneration );
+        log.force();
+
+        generation = logGeneration;
+        logPosition = LOG_HEADER_SIZE;
+        Arrays.fill( namedSlots, false );
+    }
+
+    /**
+     * Deletes the logs preceding the generation (and the temporary snapshot, if any).
+     *
+     * @param logGeneration the generation of the first log kept.
+     */
+    private void deleteStaleFiles( long logGeneration )
+    {
+        // A file which cannot be deleted now (e.g. while it is mapped) is deleted by a later checkpoint.
+        for (long staleGeneration : getLogGenerations())
+        {
+            if (staleGeneration < logGeneration)
+            {
+                getLogFile( staleGeneration ).delete();
+            }
+        }
+        new File( directory, TEMPORARY_SNAPSHOT_FILE_NAME ).delete();
+    }
+
+    /**
+     * Gets the generations of the logs in the directory.
+     *
+     * @return the generations (in ascending order).
+     */
+    private long[] getLogGenerations()
+    {
+        String[] fileNames = directory.list();
+        long[] generations = new long[ (fileNames != null) ? fileNames.length : 0 ];
+        int count = 0;
+        for (int i = 0; i < generations.length; i++)
+        {
+            if (fileNames[ i ].startsWith( LOG_FILE_PREFIX ))
+            {
+                try
+                {
+                    generations[ count ] = Long.parseLong( fileNames[ i ].substring( LOG_FILE_PREFIX.length() ) );
+                    count++;
+                }
+                catch (NumberFormatException ex)
+                {
+                    // Not a log.
+                }
+            }
+        }
+        long[] logGenerations = new long[ count ];
+        System.arraycopy( generations, 0, logGenerations, 0, count );
+        Arrays.sort( logGenerations );
+        return logGenerations;
+    }
+
+    /**
+     * Gets the log file of the generation.
+     *
+     * @param logGeneration the generation of the log.
+     *
+     * @return the log file.
+     */
+    private File getLogFile( long logGeneration )
+    {
+        return new File( directory, LOG_FILE_PREFIX + logGeneration );
+    }
+
+    /**
+     * Grows the values of the variables (the new ones being zero).
+     *
+     * @param slotsCount the least number of the slots the values must cover.
+     */
+    private void growValues( int slotsCount )
+    {
+        int length = Math.max( slotsCount, 2 * values.length );
+        double[] newValues = new double[ length ];
+        System.arraycopy( values, 0, newValues, 0, values.length );
+        values = newValues;
+        boolean[] newNamedSlots = new boolean[ length ];
+        System.arraycopy( namedSlots, 0, newNamedSlots, 0, namedSlots.length );
+        namedSlots = newNamedSlots;
+    }
+
+    // Private static methods
+
+    /**
+     * Gets the slot of the variable named in the buffer.
+     *
+     * @param buffer the buffer.
+     * @param position the position of the name (in ASCII).
+     * @param length the length of the name.
+     *
+     * @return the slot of the variable, or -1 if the name is not a legal identifier.
+     */
+    private static int getSlot( ByteBuffer buffer, int position, int length )
+    {
+        char[] characters = new char[ length ];
+        for (int i = 0; i < length; i++)
+        {
+            characters[ i ] = (char) (buffer.get( position + i ) & 0xFF);
+        }
+        String name = new String( characters );
+        return Lexer.isIdentifier( name, 0, length ) ? SymbolTable.getSlot( name ) : -1;
+    }
+
+    /**
+     * Checksums the bytes of the buffer (FNV-1a).
+     *
+     * @param buffer the buffer.
+     * @param start the position of the first byte.
+     * @param end the position one past the last byte.
+     *
+     * @return the checksum.
+     */
+    private static long checksum( ByteBuffer buffer, int start, int end )
+    {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = start; i < end; i++)
+        {
+            hash ^= buffer.get( i ) & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Gets the check of the record assigning the variable.
+     *
+     * @param slot the slot of the variable.
+     * @param bits the bits of the value assigned.
+     *
+     * @return the check.
+     */
+    private static int check( int slot, long bits )
+    {
+        // The bits are mixed (MurmurHash3), so a torn record hardly ever passes the check.
+        long hash = bits + 0x9E3779B97F4A7C15L * (slot + 1);
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return (int) (hash ^ (hash >>> 33));
+    }
+}
@@ -0,0 +1,108 @@
+package simplecalculator;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * This (public) class represents the tests of the compiled batches of expressions.
+ *
+ * A subexpression reading a variable before and after an assignment to it must be
+ * evaluated twice (with either value), and equal subexpressions reading the same
+ * values only once. A batch failing in a function assigns no variables.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public class BatchCompilerTest
+{
+    /** The name of the function failing for large arguments. */
+    private static final String FAILING_FUNCTION = "batch_check";
+
+    /** The argument above which the function fails. */
+    private static final double FAILING_ARGUMENT = 1000.0;
+
+    /**
+     * Registers the failing function.
+     */
+    @BeforeClass
+    public static void setUpClass()
+    {
+        if (!FunctionRegistry.isRegistered( FAILING_FUNCTION ))
+        {
+            FunctionRegistry.register( FAILING_FUNCTION, new UnaryFunction()
+            {
+                public double apply( double x )
+                {
+                    if (x > FAILING_ARGUMENT)
+                    {
+                        throw new ArithmeticException( "too large" );
+                    }
+                    return x;
+                }
+            } );
+        }
+    }
+
+    /**
+     * Tests that a subexpression is recomputed after an assignment to its variable.
+     */
+    @Test
+    public void testRecomputedAfterAssignment()
+    {
+        SimpleCalculator calculator = new SimpleCalculator();
+        calculator.evaluate( "x = 2" );
+        CompiledBatch compiledBatch = calculator.compileBatch( new String[] { "x + 1", "x = 5", "x + 1" } );
+        double[] results = new double[ 3 ];
+        calculator.evaluate( compiledBatch, results );
+
+        assertEquals( 3.0, results[ 0 ], 0.0 );
+        assertEquals( 5.0, results[ 1 ], 0.0 );
+        assertEquals( 6.0, results[ 2 ], 0.0 );
+        assertEquals( 5.0, calculator.evaluate( "x" ), 0.0 );
+
+        // Evaluated again, the batch reads the value it assigned.
+        calculator.evaluate( compiledBatch, results );
+        assertEquals( 6.0, results[ 0 ], 0.0 );
+        assertEquals( 6.0, results[ 2 ], 0.0 );
+    }
+
+    /**
+     * Tests that equal subexpressions reading the same values are evaluated only once.
+     */
+    @Test
+    public void testSharedSubexpressions()
+    {
+        SimpleCalculator calculator = new SimpleCalculator();
+        CompiledBatch sharedBatch = calculator.compileBatch( new String[] { "x * y + 1", "x * y + 1", "y = x * y" } );
+        CompiledBatch splitBatch = calculator.compileBatch( new String[] { "x * y + 1", "y = 3", "x * y + 1" } );
+
+        assertTrue( sharedBatch.getSubexpressionsCount() < splitBatch.getSubexpressionsCount() );
+    }
+
+    /**
+     * Tests that a batch failing in a function assigns no variables.
+     */
+    @Test
+    public void testFailingFunction()
+    {
+        SimpleCalculator calculator = new SimpleCalculator();
+        calculator.evaluate( "a = 1" );
+        double[] values = new double[ SimpleCalculator.VARIABLES_COUNT ];
+        calculator.getVariables( values );
+        CompiledBatch compiledBatch = calculator.compileBatch( new String[] {
+            "a = 2000", "b = " + FAILING_FUNCTION + "( a )", "c = 3"
+        } );
+        try
+        {
+            calculator.evaluate( compiledBatch, new double[ 3 ] );
+            fail();
+        }
+        catch (ArithmeticException ex)
+        {
+        }
+
+        double[] failedValues = new double[ SimpleCalculator.VARIABLES_COUNT ];
+        calculator.getVariables( failedValues );
+        assertArrayEquals( values, failedValues, 0.0 );
+    }
+}
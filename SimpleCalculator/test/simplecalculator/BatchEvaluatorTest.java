@@ -0,0 +1,86 @@
+package simplecalculator;
+
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * This (public) class represents the tests that the columnar and the scalar paths of the batch evaluator agree.
+ *
+ * A corpus of expressions is evaluated over more rows than one block of the columnar
+ * path (so the last block is partial), with columns mixing special values (NaN, the
+ * infinities, the signed zeros and the extremes) with random ones, and a variable
+ * bound to a single value. The values of the two paths must have the same bits (but
+ * for the sign of NaN, on which the hardware and the JIT compiler do not agree).
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public class BatchEvaluatorTest
+{
+    /** The special values of the columns. */
+    private static final double[] SPECIAL_VALUES = {
+        Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 0.0, -0.0,
+        Double.MIN_VALUE, -Double.MIN_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, 1.0, -1.0
+    };
+
+    /** The corpus of the expressions (of the variables x and y bound to columns, and z bound to a single value). */
+    private static final String[] CORPUS = {
+        "x", "z", "1.5", "x + y", "x - y", "x * y", "x / y", "- x", "x * z - y / z", "sqrt( x )", "exp( y ) - 1",
+        "log( x ) + log( y )", "pow( x , y )", "min( x , y )", "max( x , - 0 )", "min( - 0 , y )",
+        "( x + y ) * ( x - y ) / ( z + x * y )", "sqrt( x * x + y * y ) + max( min( x , y ) , z )", "w = x * 2 + y"
+    };
+
+    /** The number of the rows (more than one block). */
+    private static final int ROWS_COUNT = 1000;
+
+    /** The single value of z. */
+    private static final double Z = 0.75;
+
+    /**
+     * Tests that the columnar and the scalar paths give the same values.
+     */
+    @Test
+    public void testColumnarAndScalarPaths()
+    {
+        Random random = new Random( 7 );
+        double[] x = new double[ ROWS_COUNT ];
+        double[] y = new double[ ROWS_COUNT ];
+        for (int row = 0; row < ROWS_COUNT; row++)
+        {
+            // Every pair of special values, then random values (around the block boundary too).
+            x[ row ] = (row < SPECIAL_VALUES.length * SPECIAL_VALUES.length)
+                ? SPECIAL_VALUES[ row / SPECIAL_VALUES.length ]
+                : (random.nextInt( 8 ) == 0) ? SPECIAL_VALUES[ random.nextInt( SPECIAL_VALUES.length ) ]
+                : (random.nextDouble() - 0.5) * 100.0;
+            y[ row ] = (row < SPECIAL_VALUES.length * SPECIAL_VALUES.length)
+                ? SPECIAL_VALUES[ row % SPECIAL_VALUES.length ]
+                : (random.nextInt( 8 ) == 0) ? SPECIAL_VALUES[ random.nextInt( SPECIAL_VALUES.length ) ]
+                : (random.nextDouble() - 0.5) * 100.0;
+        }
+
+        SimpleCalculator calculator = new SimpleCalculator();
+        BatchEvaluator batchEvaluator = new BatchEvaluator();
+        for (String expression : CORPUS)
+        {
+            CompiledExpression compiledExpression = calculator.compile( expression );
+            int slotsCount = Math.max( compiledExpression.getSlotsCount(), SimpleCalculator.VARIABLES_COUNT );
+            double[][] columns = new double[ slotsCount ][];
+            columns[ SymbolTable.getSlot( "x" ) ] = x;
+            columns[ SymbolTable.getSlot( "y" ) ] = y;
+            double[] variables = new double[ slotsCount ];
+            variables[ SymbolTable.getSlot( "z" ) ] = Z;
+
+            double[] columnarResults = new double[ ROWS_COUNT ];
+            batchEvaluator.evaluate( compiledExpression, columns, variables, columnarResults );
+            double[] scalarResults = new double[ ROWS_COUNT ];
+            batchEvaluator.evaluateScalar( compiledExpression, columns, variables, scalarResults );
+
+            for (int row = 0; row < ROWS_COUNT; row++)
+            {
+                assertEquals( expression + " (x = " + x[ row ] + ", y = " + y[ row ] + ")",
+                    Double.doubleToLongBits( scalarResults[ row ] ), Double.doubleToLongBits( columnarResults[ row ] ) );
+            }
+        }
+    }
+}
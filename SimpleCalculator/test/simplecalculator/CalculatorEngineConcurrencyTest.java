@@ -0,0 +1,279 @@
+package simplecalculator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * This (public) class represents the tests of the shared variables of a calculator engine updated by many threads.
+ *
+ * The threads are released at once (by a latch) and hammer the same variables, so
+ * the lock-free updates (compare-and-sets of immutable cells) race; a lost update
+ * shows as a wrong final value, and a stale memoized result as a value lower than
+ * the one the shared variable had before the evaluation.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public class CalculatorEngineConcurrencyTest
+{
+    /** The number of the threads. */
+    private static final int THREADS_COUNT = 8;
+
+    /** The number of the updates per thread. */
+    private static final int UPDATES_COUNT = 50000;
+
+    /**
+     * Tests that the atomic additions to a shared variable lose no update.
+     *
+     * @throws java.lang.Throwable if a thread fails.
+     */
+    @Test
+    public void testAddToSharedVariable()
+        throws Throwable
+    {
+        final CalculatorEngine engine = new CalculatorEngine();
+        run( new Runnable()
+        {
+            public void run()
+            {
+                for (int i = 0; i < UPDATES_COUNT; i++)
+                {
+                    engine.addToSharedVariable( 'z', 1.0 );
+                }
+            }
+        } );
+        assertEquals( (double) THREADS_COUNT * UPDATES_COUNT, engine.getSharedVariable( 'z' ), 0.0 );
+    }
+
+    /**
+     * Tests that the compare-and-set of a shared variable succeeds exactly once per value.
+     *
+     * @throws java.lang.Throwable if a thread fails.
+     */
+    @Test
+    public void testCompareAndSetSharedVariable()
+        throws Throwable
+    {
+        final CalculatorEngine engine = new CalculatorEngine();
+        run( new Runnable()
+        {
+            public void run()
+            {
+                int successesCount = 0;
+                while (successesCount < UPDATES_COUNT)
+                {
+                    double value = engine.getSharedVariable( "cas_counter" );
+                    if (engine.compareAndSetSharedVariable( "cas_counter", value, value + 1 ))
+                    {
+                        successesCount++;
+                    }
+                }
+            }
+        } );
+        assertEquals( (double) THREADS_COUNT * UPDATES_COUNT, engine.getSharedVariable( "cas_counter" ), 0.0 );
+
+        // A stale expected value fails (compared bit for bit, -0 differing from 0).
+        assertFalse( engine.compareAndSetSharedVariable( "cas_counter", 0.0, 1.0 ) );
+        engine.setSharedVariable( "cas_zero", 0.0 );
+        assertFalse( engine.compareAndSetSharedVariable( "cas_zero", -0.0, 1.0 ) );
+        assertTrue( engine.compareAndSetSharedVariable( "cas_zero", 0.0, 1.0 ) );
+    }
+
+    /**
+     * Tests that the shared variables lose no update while new names grow their storage.
+     *
+     * @throws java.lang.Throwable if a thread fails.
+     */
+    @Test
+    public void testGrowingSharedVariables()
+        throws Throwable
+    {
+        final CalculatorEngine engine = new CalculatorEngine();
+        final int[] nextThread = new int[ 1 ];
+        run( new Runnable()
+        {
+            public void run()
+            {
+                int thread;
+                synchronized (nextThread)
+                {
+                    thread = nextThread[ 0 ]++;
+                }
+                for (int i = 0; i < UPDATES_COUNT; i++)
+                {
+                    engine.addToSharedVariable( "grow_hot", 1.0 );
+                    if (i % 100 == 0)
+                    {
+                        engine.setSharedVariable( "grow_" + thread + "_" + i, i );
+                    }
+                }
+            }
+        } );
+        assertEquals( (double) THREADS_COUNT * UPDATES_COUNT, engine.getSharedVariable( "grow_hot" ), 0.0 );
+        for (int thread = 0; thread < THREADS_COUNT; thread++)
+        {
+            for (int i = 0; i < UPDATES_COUNT; i += 100)
+            {
+                assertEquals( i, engine.getSharedVariable( "grow_" + thread + "_" + i ), 0.0 );
+            }
+        }
+    }
+
+    /**
+     * Tests that the sessions read the shared variables being updated and keep their own ones.
+     *
+     * @throws java.lang.Throwable if a thread fails.
+     */
+    @Test
+    public void testSessionsReadSharedVariables()
+        throws Throwable
+    {
+        final CalculatorEngine engine = new CalculatorEngine();
+        final int[] nextThread = new int[ 1 ];
+        run( new Runnable()
+        {
+            public void run()
+            {
+                int thread;
+                synchronized (nextThread)
+                {
+                    thread = nextThread[ 0 ]++;
+                }
+                CalculatorSession session = engine.newSession();
+                session.setVariable( 'c', thread );
+                double lastValue = 0;
+                for (int i = 0; i < UPDATES_COUNT; i++)
+                {
+                    // The shared variable only grows (every thread adds to it), so the session never sees it shrink.
+                    double value = session.evaluate( "b = a * 2 + c" ) - thread;
+                    assertTrue( value >= lastValue );
+                    assertEquals( 0.0, value % 2, 0.0 );
+                    lastValue = value;
+                    engine.addToSharedVariable( 'a', 1.0 );
+
+                    // The session variables are the session's own.
+                    assertEquals( value + thread, session.getVariable( 'b' ), 0.0 );
+                    assertEquals( thread, session.evaluate( "c" ), 0.0 );
+                }
+            }
+        } );
+        assertEquals( (double) THREADS_COUNT * UPDATES_COUNT, engine.getSharedVariable( 'a' ), 0.0 );
+        assertEquals( 0.0, engine.getSharedVariable( 'b' ), 0.0 );
+        assertEquals( 0.0, engine.getSharedVariable( 'c' ), 0.0 );
+    }
+
+    /**
+     * Tests that the memoizing sessions never answer by a result stale with respect to the shared variables.
+     *
+     * @throws java.lang.Throwable if a thread fails.
+     */
+    @Test
+    public void testSessionsMemoizeSharedVariables()
+        throws Throwable
+    {
+        final CalculatorEngine engine = new CalculatorEngine();
+        final int[] nextThread = new int[ 1 ];
+        run( new Runnable()
+        {
+            public void run()
+            {
+                int thread;
+                synchronized (nextThread)
+                {
+                    thread = nextThread[ 0 ]++;
+                }
+                CalculatorSession session = engine.newSession();
+                session.setMemoizing( true );
+                session.setVariable( 'e', thread );
+                for (int i = 0; i < UPDATES_COUNT; i++)
+                {
+                    // The shared variable only grows, so a result below the value read before evaluating is stale.
+                    double sharedValue = engine.getSharedVariable( 'd' );
+                    double value = session.evaluate( "f = d * 2 + e" ) - thread;
+                    assertTrue( value >= 2 * sharedValue );
+                    assertEquals( value + thread, session.getVariable( 'f' ), 0.0 );
+
+                    // Most evaluations are answered by the memoized result; now and then the shared variable changes.
+                    if (i % 16 == thread)
+                    {
+                        engine.addToSharedVariable( 'd', 1.0 );
+                    }
+                    if (i % 1000 == 0)
+                    {
+                        // A session assignment invalidates the result as well (a stale one would be odd).
+                        session.setVariable( 'e', thread + 1 );
+                        sharedValue = engine.getSharedVariable( 'd' );
+                        value = session.evaluate( "f = d * 2 + e" ) - thread - 1;
+                        assertTrue( value >= 2 * sharedValue );
+                        assertEquals( 0.0, value % 2, 0.0 );
+                        session.setVariable( 'e', thread );
+                    }
+                }
+            }
+        } );
+        assertEquals( (double) THREADS_COUNT * (UPDATES_COUNT / 16), engine.getSharedVariable( 'd' ), 0.0 );
+
+        // Quiescent now: the memoized result agrees with the shared variable.
+        CalculatorSession session = engine.newSession();
+        session.setMemoizing( true );
+        assertEquals( 2 * engine.getSharedVariable( 'd' ), session.evaluate( "d * 2" ), 0.0 );
+        engine.setSharedVariable( 'd', -1.0 );
+        assertEquals( -2.0, session.evaluate( "d * 2" ), 0.0 );
+        assertTrue( engine.compareAndSetSharedVariable( 'd', -1.0, 3.0 ) );
+        assertEquals( 6.0, session.evaluate( "d * 2" ), 0.0 );
+        session.setVariable( 'd', 5.0 );
+        assertEquals( 10.0, session.evaluate( "d * 2" ), 0.0 );
+        session.unsetVariable( 'd' );
+        assertEquals( 6.0, session.evaluate( "d * 2" ), 0.0 );
+    }
+
+    /**
+     * Runs the task on all the threads at once (rethrowing the first failure).
+     *
+     * @param task the task.
+     *
+     * @throws java.lang.Throwable if a thread fails.
+     */
+    private static void run( final Runnable task )
+        throws Throwable
+    {
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final List< Throwable > failures = new ArrayList< Throwable >();
+        Thread[] threads = new Thread[ THREADS_COUNT ];
+        for (int i = 0; i < THREADS_COUNT; i++)
+        {
+            threads[ i ] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        task.run();
+                    }
+                    catch (Throwable ex)
+                    {
+                        synchronized (failures)
+                        {
+                            failures.add( ex );
+                        }
+                    }
+                }
+            };
+            threads[ i ].start();
+        }
+        start.countDown();
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        if (!failures.isEmpty())
+        {
+            throw failures.get( 0 );
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package simplecalculator;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * This (public) class represents the multithreaded throughput test of a calculator engine.
+ *
+ * Every thread evaluates the expressions in its own session of a shared engine for a
+ * fixed time, first on a single thread and then on as many threads as there are
+ * processors (at most 32), and the test asserts that the engine scales close to
+ * linearly. Such a measurement depends on the machine and its load, so the test is
+ * skipped unless the <code>simplecalculator.throughput</code> system property is
+ * <code>true</code> (and on a single processor, where the scaling cannot be
+ * measured). The JMH benchmarks of the engine (EngineBenchmark) measure the same
+ * more precisely.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public class CalculatorEngineThroughputTest
+{
+    /** The maximum number of the threads. */
+    private static final int MAX_THREADS_COUNT = 32;
+
+    /** The system property enabling the test. */
+    private static final String ENABLED_PROPERTY = "simplecalculator.throughput";
+
+    /** The minimum ratio of the throughput to the single-threaded throughput times the number of the threads. */
+    private static final double MIN_EFFICIENCY = 0.6;
+
+    /** The time the threads evaluate the expressions for (in milliseconds), after as much warm-up. */
+    private static final long DURATION = 1000;
+
+    /** The expressions evaluated (reading the shared variables, and assigning the session ones). */
+    private static final String[] EXPRESSIONS = {
+        "( a + b ) * c - d / 2",
+        "total = a * 3 + unit_price",
+        "sqrt( a * a + b * b ) - max( c , d )",
+        "e = - a * pow( b , 2 ) + min( c , 1e3 )"
+    };
+
+    /**
+     * Tests that the throughput of the engine scales with the number of the threads.
+     *
+     * @throws java.lang.InterruptedException if the test is interrupted.
+     */
+    @Test
+    public void testThroughputScales()
+        throws InterruptedException
+    {
+        int threadsCount = Math.min( Runtime.getRuntime().availableProcessors(), MAX_THREADS_COUNT );
+        Assume.assumeTrue( Boolean.getBoolean( ENABLED_PROPERTY ) && threadsCount > 1 );
+
+        CalculatorEngine engine = new CalculatorEngine();
+        for (char variable = 'a'; variable <= 'd'; variable++)
+        {
+            engine.setSharedVariable( variable, variable - 'a' + 1.5 );
+        }
+        engine.setSharedVariable( "unit_price", 9.99 );
+
+        getThroughput( engine, threadsCount );
+        double singleThreadedThroughput = getThroughput( engine, 1 );
+        double throughput = getThroughput( engine, threadsCount );
+        double efficiency = throughput / (threadsCount * singleThreadedThroughput);
+        assertTrue( threadsCount + " threads: " + (long) throughput + " evaluations/s, 1 thread: "
+            + (long) singleThreadedThroughput + " evaluations/s (efficiency " + efficiency + ")", efficiency >= MIN_EFFICIENCY );
+    }
+
+    /**
+     * Measures the throughput of the engine.
+     *
+     * @param engine the engine.
+     * @param threadsCount the number of the threads.
+     *
+     * @return the number of the evaluations per second (by all the threads).
+     *
+     * @throws java.lang.InterruptedException if the test is interrupted.
+     */
+    private static double getThroughput( final CalculatorEngine engine, int threadsCount )
+        throws InterruptedException
+    {
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final long[] evaluationsCounts = new long[ threadsCount ];
+        Thread[] threads = new Thread[ threadsCount ];
+        for (int i = 0; i < threadsCount; i++)
+        {
+            final int thread = i;
+            threads[ i ] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    CalculatorSession session = engine.newSession();
+                    long count = 0;
+                    try
+                    {
+                        start.await();
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        return;
+                    }
+                    while (!stopped.get())
+                    {
+                        for (String expression : EXPRESSIONS)
+                        {
+                            session.evaluate( expression );
+                        }
+                        count += EXPRESSIONS.length;
+                    }
+                    evaluationsCounts[ thread ] = count;
+                }
+            };
+            threads[ i ].start();
+        }
+
+        start.countDown();
+        long startTime = System.nanoTime();
+        Thread.sleep( DURATION );
+        stopped.set( true );
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+
+        long evaluationsCount = 0;
+        for (long count : evaluationsCounts)
+        {
+            evaluationsCount += count;
+        }
+        return evaluationsCount / seconds;
+    }
+}
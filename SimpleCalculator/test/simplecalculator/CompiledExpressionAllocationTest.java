@@ -0,0 +1,146 @@
+package simplecalculator;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * This (public) class represents the tests that evaluating a compiled expression allocates nothing at steady state.
+ *
+ * The bytes allocated by the current thread are read from the HotSpot thread MXBean
+ * before and after many evaluations (once the calculator has been warmed up, so its
+ * buffers have grown and the hot expressions have been translated into bytecode).
+ * The JVM itself may allocate on the thread now and then (e.g. when it deoptimizes a
+ * method), so the evaluations are measured in a few rounds and the best one counts:
+ * an allocation per evaluation would show in every round.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public class CompiledExpressionAllocationTest
+{
+    /** The thread MXBean (measuring the bytes allocated by the threads). */
+    private com.sun.management.ThreadMXBean threadMXBean;
+
+    /** The number of the evaluations warming up the calculator. */
+    private static final int WARMUP_EVALUATIONS_COUNT = 50000;
+
+    /** The number of the evaluations measured (per round). */
+    private static final int EVALUATIONS_COUNT = 100000;
+
+    /** The number of the rounds of the evaluations measured. */
+    private static final int ROUNDS_COUNT = 5;
+
+    /** The expressions evaluated. */
+    private static final String[] EXPRESSIONS = {
+        "( a + b ) * c - d / 2",
+        "total = total + unit_price * 3",
+        "sqrt( a * a + b * b ) - max( c , d )",
+        "- a * pow( b , 2 ) + min( c , 1e3 )"
+    };
+
+    /**
+     * Gets the thread MXBean (skipping the tests unless it measures the allocated bytes) and warms it up.
+     */
+    @Before
+    public void setUp()
+    {
+        Assume.assumeTrue( ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean );
+        threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue( threadMXBean.isThreadAllocatedMemorySupported() );
+        threadMXBean.setThreadAllocatedMemoryEnabled( true );
+
+        // The first reading may allocate (initializing the bean lazily).
+        threadMXBean.getThreadAllocatedBytes( Thread.currentThread().getId() );
+    }
+
+    /**
+     * Tests that the interpreter allocates nothing.
+     */
+    @Test
+    public void testInterpretedEvaluationAllocatesNothing()
+    {
+        SimpleCalculator calculator = new SimpleCalculator();
+        calculator.setCompilationThreshold( 0 );
+        assertEquals( 0, getAllocatedBytes( calculator ) );
+    }
+
+    /**
+     * Tests that the expressions translated into bytecode allocate nothing.
+     */
+    @Test
+    public void testTranslatedEvaluationAllocatesNothing()
+    {
+        SimpleCalculator calculator = new SimpleCalculator();
+        calculator.setCompilationThreshold( 1000 );
+        assertEquals( 0, getAllocatedBytes( calculator ) );
+    }
+
+    /**
+     * Tests that memoized evaluations allocate nothing (the memoized results are allocated once per expression).
+     */
+    @Test
+    public void testMemoizedEvaluationAllocatesNothing()
+    {
+        SimpleCalculator calculator = new SimpleCalculator();
+        calculator.setMemoizing( true );
+        assertEquals( 0, getAllocatedBytes( calculator ) );
+    }
+
+    /**
+     * Evaluates the expressions by the calculator (warming it up first).
+     *
+     * @param calculator the calculator.
+     *
+     * @return the number of the bytes allocated by the evaluations measured (in the best round).
+     */
+    private long getAllocatedBytes( SimpleCalculator calculator )
+    {
+        CompiledExpression[] compiledExpressions = new CompiledExpression[ EXPRESSIONS.length ];
+        for (int i = 0; i < EXPRESSIONS.length; i++)
+        {
+            compiledExpressions[ i ] = calculator.compile( EXPRESSIONS[ i ] );
+        }
+        for (char variable = 'a'; variable <= 'd'; variable++)
+        {
+            calculator.setVariable( variable, variable - 'a' + 1.5 );
+        }
+
+        double sum = evaluate( calculator, compiledExpressions, WARMUP_EVALUATIONS_COUNT );
+
+        long threadId = Thread.currentThread().getId();
+        long minAllocatedBytes = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS_COUNT && minAllocatedBytes > 0; round++)
+        {
+            long allocatedBytes = threadMXBean.getThreadAllocatedBytes( threadId );
+            sum += evaluate( calculator, compiledExpressions, EVALUATIONS_COUNT );
+            allocatedBytes = threadMXBean.getThreadAllocatedBytes( threadId ) - allocatedBytes;
+            minAllocatedBytes = Math.min( minAllocatedBytes, allocatedBytes );
+        }
+
+        assertFalse( Double.isNaN( sum ) );
+        return minAllocatedBytes;
+    }
+
+    /**
+     * Evaluates the compiled expressions in turn.
+     *
+     * @param calculator the calculator.
+     * @param compiledExpressions the compiled expressions.
+     * @param evaluationsCount the number of the evaluations.
+     *
+     * @return the sum of the values of the expressions.
+     */
+    private static double evaluate( SimpleCalculator calculator, CompiledExpression[] compiledExpressions,
+        int evaluationsCount )
+    {
+        double sum = 0;
+        for (int i = 0; i < evaluationsCount; i++)
+        {
+            sum += calculator.evaluate( compiledExpressions[ i % compiledExpressions.length ] );
+        }
+        return sum;
+    }
+}
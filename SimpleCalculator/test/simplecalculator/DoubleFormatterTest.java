@@ -0,0 +1,204 @@
+package simplecalculator;
+
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * This (public) class represents the tests of the formatter of doubles.
+ *
+ * Every double is formatted into a byte buffer and compared with
+ * <code>String.valueOf( double )</code>, the text <code>println( double )</code>
+ * prints.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public class DoubleFormatterTest
+{
+    /** The number of the random doubles formatted. */
+    private static final int RANDOM_DOUBLES_COUNT = 1000000;
+
+    /** The smallest positive normal double (<code>Double.MIN_NORMAL</code> of Java 6). */
+    private static final double MIN_NORMAL = Double.longBitsToDouble( 0x0010000000000000L );
+
+    /**
+     * Tests the special values (NaN, the infinities and the zeros).
+     */
+    @Test
+    public void testSpecialValues()
+    {
+        assertFormatted( Double.NaN );
+        assertFormatted( Double.longBitsToDouble( 0x7FF0000000000001L ) );
+        assertFormatted( Double.longBitsToDouble( 0xFFF8000000000000L ) );
+        assertFormatted( Double.POSITIVE_INFINITY );
+        assertFormatted( Double.NEGATIVE_INFINITY );
+        assertFormatted( 0.0 );
+        assertFormatted( -0.0 );
+    }
+
+    /**
+     * Tests the extremes and the subnormal values.
+     */
+    @Test
+    public void testSubnormalsAndExtremes()
+    {
+        assertFormatted( Double.MIN_VALUE );
+        assertFormatted( -Double.MIN_VALUE );
+        assertFormatted( 2 * Double.MIN_VALUE );
+        assertFormatted( 3 * Double.MIN_VALUE );
+        assertFormatted( 4.9e-322 );
+        assertFormatted( 1.0e-322 );
+        assertFormatted( 1.0e-310 );
+        assertFormatted( 1.23456789e-315 );
+        assertFormatted( Double.longBitsToDouble( 0x000FFFFFFFFFFFFFL ) );
+        assertFormatted( MIN_NORMAL );
+        assertFormatted( nextUp( MIN_NORMAL ) );
+        assertFormatted( Double.MAX_VALUE );
+        assertFormatted( -Double.MAX_VALUE );
+        assertFormatted( nextDown( Double.MAX_VALUE ) );
+        for (long bits = 1; bits < 10000; bits++)
+        {
+            assertFormatted( Double.longBitsToDouble( bits ) );
+        }
+    }
+
+    /**
+     * Tests the powers of two (whose rounding intervals are asymmetric).
+     */
+    @Test
+    public void testPowersOfTwo()
+    {
+        for (int exponent = -1074; exponent <= 1023; exponent++)
+        {
+            double power = getPowerOfTwo( exponent );
+            assertFormatted( power );
+            assertFormatted( -power );
+            assertFormatted( nextUp( power ) );
+            assertFormatted( nextDown( power ) );
+        }
+    }
+
+    /**
+     * Tests the values the shortest decimal of which older JDKs do not give, and the large integers.
+     */
+    @Test
+    public void testLargeValues()
+    {
+        assertFormatted( 1.0e23 );
+        assertFormatted( 9007199254740993.0 );
+        assertFormatted( 9007199254740992.0 );
+        assertFormatted( 9007199254740991.0 );
+        assertFormatted( 2.0e23 );
+        assertFormatted( 8.41e21 );
+        assertFormatted( 5.0e-324 );
+        assertFormatted( 1.0e308 );
+        assertFormatted( 123456789012345678.0 );
+        assertFormatted( Long.MAX_VALUE );
+        assertFormatted( Long.MIN_VALUE );
+        for (long n = 1; n > 0 && n < Long.MAX_VALUE / 10; n *= 10)
+        {
+            assertFormatted( n );
+            assertFormatted( n - 1 );
+            assertFormatted( n + 1 );
+        }
+    }
+
+    /**
+     * Tests the boundaries between the plain and the computerized scientific notations (10^-3 and 10^7).
+     */
+    @Test
+    public void testNotationBoundaries()
+    {
+        double[] boundaries = { 1.0e-3, 1.0e7, 1.0e-4, 1.0e6 };
+        for (double boundary : boundaries)
+        {
+            assertFormatted( boundary );
+            assertFormatted( -boundary );
+            assertFormatted( nextUp( boundary ) );
+            assertFormatted( nextDown( boundary ) );
+        }
+        assertFormatted( 0.001 );
+        assertFormatted( 0.0009999999999999998 );
+        assertFormatted( 9999999.0 );
+        assertFormatted( 9999999.999999998 );
+        assertFormatted( 10000000.000000002 );
+        assertFormatted( 0.1 );
+        assertFormatted( 0.2 + 0.1 );
+        assertFormatted( 1.0 / 3 );
+        assertFormatted( 2.0 / 3 );
+        assertFormatted( 100.0 );
+        assertFormatted( 1.5 );
+    }
+
+    /**
+     * Tests random doubles (of random bits, and the results of typical calculations).
+     */
+    @Test
+    public void testRandomValues()
+    {
+        Random random = new Random( 42 );
+        for (int i = 0; i < RANDOM_DOUBLES_COUNT; i++)
+        {
+            assertFormatted( Double.longBitsToDouble( random.nextLong() ) );
+            assertFormatted( random.nextInt( 1000000 ) / (double) (1 + random.nextInt( 1000 )) );
+            assertFormatted( random.nextDouble() * Math.pow( 10, random.nextInt( 40 ) - 20 ) );
+        }
+    }
+
+    /**
+     * Asserts that the double is formatted exactly as <code>String.valueOf( double )</code> formats it.
+     *
+     * @param v the double.
+     */
+    private static void assertFormatted( double v )
+    {
+        byte[] buffer = new byte[ 1 + DoubleFormatter.MAX_LENGTH + 1 ];
+        buffer[ 0 ] = '<';
+        buffer[ buffer.length - 1 ] = '>';
+        int end = DoubleFormatter.format( v, buffer, 1 );
+        assertTrue( end <= 1 + DoubleFormatter.MAX_LENGTH );
+
+        String expected = String.valueOf( v );
+        String actual = new String( buffer, 1, end - 1 );
+        assertEquals( "bits " + Long.toHexString( Double.doubleToRawLongBits( v ) ), expected, actual );
+        assertEquals( '<', buffer[ 0 ] );
+        assertEquals( '>', buffer[ buffer.length - 1 ] );
+    }
+
+    /**
+     * Gets the power of two (<code>Math.scalb( 1.0, exponent )</code> of Java 6).
+     *
+     * @param exponent the exponent (from -1074 to 1023).
+     *
+     * @return the power of two.
+     */
+    private static double getPowerOfTwo( int exponent )
+    {
+        return Double.longBitsToDouble( (exponent < -1022) ? 1L << (exponent + 1074) : (long) (exponent + 1023) << 52 );
+    }
+
+    /**
+     * Gets the double next above the positive double (<code>Math.nextUp</code> of Java 6).
+     *
+     * @param v the positive (finite) double.
+     *
+     * @return the double next above.
+     */
+    private static double nextUp( double v )
+    {
+        return Double.longBitsToDouble( Double.doubleToRawLongBits( v ) + 1 );
+    }
+
+    /**
+     * Gets the double next below the positive double (<code>Math.nextDown</code> of Java 8).
+     *
+     * @param v the positive (finite) double.
+     *
+     * @return the double next below.
+     */
+    private static double nextDown( double v )
+    {
+        return Double.longBitsToDouble( Double.doubleToRawLongBits( v ) - 1 );
+    }
+}
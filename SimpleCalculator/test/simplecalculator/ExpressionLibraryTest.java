@@ -0,0 +1,244 @@
+package simplecalculator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * This (public) class represents the tests of the libraries of precompiled expressions.
+ *
+ * A library written and loaded back must give the values of the expressions it was
+ * written from. A library with a bad magic, an unsupported version, a flipped byte,
+ * or cut short (down to nothing) must be rejected when it is loaded.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public class ExpressionLibraryTest
+{
+    /** The expressions of the library. */
+    private static final String[] EXPRESSIONS = {
+        "1 + 2 * 3", "x = 2.5", "y = x * x - 1", "sqrt( y ) + min( x , - 0 )", "lib_variable * NaN"
+    };
+
+    /** The file of the library. */
+    private File file;
+
+    /** The bytes of the library. */
+    private byte[] bytes;
+
+    /**
+     * Writes the library.
+     *
+     * @throws java.io.IOException if the library cannot be written.
+     */
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        SimpleCalculator calculator = new SimpleCalculator();
+        CompiledExpression[] compiledExpressions = new CompiledExpression[ EXPRESSIONS.length ];
+        for (int i = 0; i < EXPRESSIONS.length; i++)
+        {
+            compiledExpressions[ i ] = calculator.compile( EXPRESSIONS[ i ] );
+        }
+        file = File.createTempFile( "library", ".bin" );
+        ExpressionLibrary.write( file, compiledExpressions );
+        bytes = read( file );
+    }
+
+    /**
+     * Deletes the library.
+     */
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    /**
+     * Tests that a library loaded back gives the values of its expressions.
+     *
+     * @throws java.io.IOException if the library cannot be loaded.
+     */
+    @Test
+    public void testRoundTrip()
+        throws IOException
+    {
+        ExpressionLibrary library = ExpressionLibrary.load( file );
+        assertEquals( EXPRESSIONS.length, library.getExpressionsCount() );
+
+        SimpleCalculator calculator = new SimpleCalculator();
+        SimpleCalculator libraryCalculator = new SimpleCalculator();
+        libraryCalculator.setLibrary( library );
+        for (String expression : EXPRESSIONS)
+        {
+            assertNotNull( expression, library.find( expression ) );
+            assertEquals( expression, Double.doubleToLongBits( calculator.evaluate( expression ) ),
+                Double.doubleToLongBits( libraryCalculator.evaluate( expression ) ) );
+        }
+    }
+
+    /**
+     * Tests that a library with a bad magic is rejected.
+     *
+     * @throws java.io.IOException if the library cannot be rewritten.
+     */
+    @Test
+    public void testBadMagic()
+        throws IOException
+    {
+        bytes[ 0 ] ^= 1;
+        assertRejected( bytes );
+    }
+
+    /**
+     * Tests that a library of another version is rejected.
+     *
+     * @throws java.io.IOException if the library cannot be rewritten.
+     */
+    @Test
+    public void testWrongVersion()
+        throws IOException
+    {
+        bytes[ 7 ]++;
+        assertRejected( bytes );
+    }
+
+    /**
+     * Tests that a library with any byte flipped (after the header) is rejected by its checksum.
+     *
+     * @throws java.io.IOException if the library cannot be rewritten.
+     */
+    @Test
+    public void testFlippedByte()
+        throws IOException
+    {
+        for (int i = 8; i < bytes.length; i++)
+        {
+            byte[] flippedBytes = bytes.clone();
+            flippedBytes[ i ] ^= 0x10;
+            assertRejected( flippedBytes );
+        }
+    }
+
+    /**
+     * Tests that a truncated library is rejected.
+     *
+     * @throws java.io.IOException if the library cannot be rewritten.
+     */
+    @Test
+    public void testTruncated()
+        throws IOException
+    {
+        for (int length : new int[] { bytes.length - 1, bytes.length - 8, bytes.length / 2, 19, 1 })
+        {
+            byte[] truncatedBytes = new byte[ length ];
+            System.arraycopy( bytes, 0, truncatedBytes, 0, length );
+            assertRejected( truncatedBytes );
+        }
+    }
+
+    /**
+     * Tests that an empty file is rejected.
+     *
+     * @throws java.io.IOException if the library cannot be rewritten.
+     */
+    @Test
+    public void testEmpty()
+        throws IOException
+    {
+        assertRejected( new byte[ 0 ] );
+    }
+
+    /**
+     * Tests that a name too long for its (short) length is not written.
+     *
+     * @throws java.io.IOException if the library cannot be written.
+     */
+    @Test
+    public void testNameTooLong()
+        throws IOException
+    {
+        StringBuilder name = new StringBuilder();
+        while (name.length() <= Short.MAX_VALUE)
+        {
+            name.append( "long_name_" );
+        }
+        CompiledExpression compiledExpression = new SimpleCalculator().compile( name + " + 1" );
+        try
+        {
+            ExpressionLibrary.write( file, new CompiledExpression[] { compiledExpression } );
+            fail();
+        }
+        catch (IllegalArgumentException ex)
+        {
+        }
+    }
+
+    /**
+     * Asserts that the library of the bytes is rejected.
+     *
+     * @param libraryBytes the bytes of the library.
+     *
+     * @throws java.io.IOException if the library cannot be rewritten.
+     */
+    private void assertRejected( byte[] libraryBytes )
+        throws IOException
+    {
+        File corruptFile = File.createTempFile( "library", ".bin" );
+        try
+        {
+            RandomAccessFile randomAccessFile = new RandomAccessFile( corruptFile, "rw" );
+            try
+            {
+                randomAccessFile.write( libraryBytes );
+            }
+            finally
+            {
+                randomAccessFile.close();
+            }
+            try
+            {
+                ExpressionLibrary.load( corruptFile );
+                fail( "Loaded a library of " + libraryBytes.length + " bytes." );
+            }
+            catch (IOException ex)
+            {
+            }
+        }
+        finally
+        {
+            corruptFile.delete();
+        }
+    }
+
+    /**
+     * Reads the bytes of the file.
+     *
+     * @param file the file.
+     *
+     * @return the bytes.
+     *
+     * @throws java.io.IOException if the file cannot be read.
+     */
+    private static byte[] read( File file )
+        throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile( file, "r" );
+        try
+        {
+            byte[] bytes = new byte[ (int) randomAccessFile.length() ];
+            randomAccessFile.readFully( bytes );
+            return bytes;
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+    }
+}
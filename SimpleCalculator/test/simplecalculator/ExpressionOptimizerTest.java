@@ -0,0 +1,174 @@
+package simplecalculator;
+
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * This (public) class represents the tests of the optimizer of the compiled expressions.
+ *
+ * A corpus of expressions is evaluated with and without the optimization for special
+ * values of the variables (NaN, the infinities, the signed zeros and the extremes),
+ * and the results must have the same bits. The optimized forms of the expressions are
+ * checked by their postfix notation.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public class ExpressionOptimizerTest
+{
+    /** The values of the variables. */
+    private static final double[] VALUES = {
+        Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 0.0, -0.0,
+        Double.MIN_VALUE, -Double.MIN_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE,
+        1.0, -1.0, 0.1, 3.0, 1.0e300, 1.0e-300
+    };
+
+    /** The corpus of the expressions (of the variables x and y). */
+    private static final String[] CORPUS = {
+        "x * 0", "0 * x", "x * - 0", "x + 0", "0 + x", "x + - 0", "- 0 + x", "x - 0", "x - - 0", "0 - x",
+        "x * 1", "1 * x", "x / 1", "1 / x", "x / 0", "x / - 0", "0 / x",
+        "x / 4", "x / 0.5", "x / 3", "x / 0.1", "x * 0.25", "x / 1e-320", "x / 8.98846567431158e307",
+        "x - x", "x / x", "x * x - y * y", "- x", "- - x", "- x * 0",
+        "Infinity - Infinity", "Infinity * 0 + x", "NaN + x", "0 / 0 + x", "1 / 0 - 1 / 0", "x + 1 / 0",
+        "( 2 * 3.5 ) * x + 0", "x * 2 * 3", "x + 1e308 + 1e308", "( x + 1e308 ) + 1e308",
+        "sqrt( - 1 ) * x", "sqrt( 16 ) + x", "sqrt( x ) * 1", "exp( 1000 ) - exp( 1000 )", "log( 0 ) + x",
+        "pow( x , 0 )", "pow( 0 , - 1 ) * x", "pow( 2 , 10 ) * x", "pow( x , y ) / 1",
+        "min( x , - 0 )", "min( 0 , - 0 ) + x", "max( - 0 , 0 ) * x", "max( x , NaN )", "min( 1 , 2 ) + max( x , 3 )",
+        "y = x * 1 + 0", "y = ( x - 0 ) / 2"
+    };
+
+    /** The operands of the random expressions. */
+    private static final String[] OPERANDS = {
+        "x", "y", "0", "- 0", "1", "2", "0.5", "3", "0.1", "Infinity", "NaN", "1e308", "4.9e-324"
+    };
+
+    /** The operators of the random expressions. */
+    private static final String[] OPERATORS = { "+", "-", "*", "/" };
+
+    /**
+     * Tests that the optimized corpus gives the same bits as the unoptimized one.
+     */
+    @Test
+    public void testCorpus()
+    {
+        for (String expression : CORPUS)
+        {
+            assertEqualResults( expression );
+        }
+    }
+
+    /**
+     * Tests that random expressions of the special operands give the same bits optimized and unoptimized.
+     */
+    @Test
+    public void testRandomExpressions()
+    {
+        Random random = new Random( 14 );
+        for (int i = 0; i < 2000; i++)
+        {
+            assertEqualResults( generate( random, 3 ) );
+        }
+    }
+
+    /**
+     * Tests the optimized forms (the folded constants, and the identities dropped or kept).
+     */
+    @Test
+    public void testOptimizedForms()
+    {
+        assertOptimized( "( 2 * 3.5 ) * x + 0", "7.0 x * 0.0 +" );
+        assertOptimized( "x * 1", "x" );
+        assertOptimized( "1 * x", "x" );
+        assertOptimized( "x / 1", "x" );
+        assertOptimized( "x + - 0", "x" );
+        assertOptimized( "- 0 + x", "x" );
+        assertOptimized( "x - 0", "x" );
+        assertOptimized( "y = ( x - 0 ) / 2", "x 0.5 *" );
+
+        // The identities which do not hold for every double are kept.
+        assertOptimized( "x + 0", "x 0.0 +" );
+        assertOptimized( "x * 0", "x 0.0 *" );
+        assertOptimized( "x - - 0", "x -0.0 -" );
+        assertOptimized( "x / 3", "x 3.0 /" );
+        assertOptimized( "x * 2 * 3", "x 2.0 * 3.0 *" );
+        assertOptimized( "- - x", "x neg neg" );
+
+        // The constants are folded by the very same operations (NaN and the infinities included).
+        assertOptimized( "x / 4", "x 0.25 *" );
+        assertOptimized( "sqrt( 16 ) + x", "4.0 x +" );
+        assertOptimized( "pow( 2 , 10 ) * x", "1024.0 x *" );
+        assertOptimized( "min( 1 , 2 ) + max( x , 3 )", "1.0 x 3.0 max +" );
+        assertOptimized( "0 / 0 + x", "NaN x +" );
+        assertOptimized( "1 / 0 - 1 / 0", "NaN" );
+        assertOptimized( "Infinity - Infinity", "NaN" );
+        assertOptimized( "min( 0 , - 0 ) + x", "x" );
+        assertOptimized( "max( - 0 , 0 ) * x", "0.0 x *" );
+        assertOptimized( "exp( 1000 ) - exp( 1000 )", "NaN" );
+    }
+
+    /**
+     * Asserts that the expression gives the same bits optimized and unoptimized (for all the values of its variables).
+     *
+     * @param expression the expression.
+     */
+    private static void assertEqualResults( String expression )
+    {
+        SimpleCalculator optimizing = new SimpleCalculator( 0 );
+        SimpleCalculator plain = new SimpleCalculator( 0 );
+        plain.setOptimizing( false );
+        CompiledExpression optimized = optimizing.compile( expression );
+        CompiledExpression unoptimized = plain.compile( expression );
+
+        for (double x : VALUES)
+        {
+            for (double y : VALUES)
+            {
+                optimizing.setVariable( 'x', x );
+                optimizing.setVariable( 'y', y );
+                plain.setVariable( 'x', x );
+                plain.setVariable( 'y', y );
+                double expected = plain.evaluate( unoptimized );
+                double actual = optimizing.evaluate( optimized );
+                if (Double.doubleToLongBits( expected ) != Double.doubleToLongBits( actual ))
+                {
+                    fail( expression + " for x = " + x + ", y = " + y + ": " + actual + " (optimized into "
+                        + optimized.toPostfixString() + "), expected " + expected );
+                }
+            }
+        }
+    }
+
+    /**
+     * Asserts the postfix notation of the optimized expression.
+     *
+     * @param expression the expression.
+     * @param postfix the expected postfix notation.
+     */
+    private static void assertOptimized( String expression, String postfix )
+    {
+        assertEquals( expression, postfix, new SimpleCalculator( 0 ).compile( expression ).toPostfixString() );
+    }
+
+    /**
+     * Generates a random expression of the special operands.
+     *
+     * @param random the random numbers.
+     * @param depth the maximum depth of the expression.
+     *
+     * @return the expression.
+     */
+    private static String generate( Random random, int depth )
+    {
+        if (depth == 0 || random.nextInt( 4 ) == 0)
+        {
+            return OPERANDS[ random.nextInt( OPERANDS.length ) ];
+        }
+        if (random.nextInt( 8 ) == 0)
+        {
+            return "- ( " + generate( random, depth - 1 ) + " )";
+        }
+        return "( " + generate( random, depth - 1 ) + " " + OPERATORS[ random.nextInt( OPERATORS.length ) ] + " "
+            + generate( random, depth - 1 ) + " )";
+    }
+}
@@ -0,0 +1,64 @@
+package simplecalculator;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * This (public) class represents the tests of the white space accepted by the lexer.
+ *
+ * The original calculator split the expressions on spaces and tabs only, trimming the
+ * sides of an assignment and the numbers (as <code>String.trim</code> and
+ * <code>Double.parseDouble</code> do). The control characters are thus legal exactly
+ * where they were trimmed off, whether the expression is lexed from a string or a
+ * reader.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public class LexerTest
+{
+    /** The legal expressions with control characters (and their values). */
+    private static final Object[][] LEGAL = {
+        { "1\t+\t2", 3.0 }, { "\f1 + 2", 3.0 }, { "1 + 2\f", 3.0 }, { "\u0000 \f1 + 2 \f", 3.0 },
+        { "a\f= 3", 3.0 }, { "a =\u000b3", 3.0 }, { "a\u0000 =\t3", 3.0 },
+        { "1\f + 2", 3.0 }, { "1 + \f2", 3.0 }, { "(\f1)", 1.0 }, { "( \f1 )", 1.0 }, { "( 1 + 2\f)", 3.0 }, { "3.5\f\t* 2", 7.0 }
+    };
+
+    /** The illegal expressions with control characters. */
+    private static final String[] ILLEGAL = {
+        "1\f+ 2", "1 +\f2", "1 \f 2 +", "1 \u0000 + 2", "(\f)", "a\f( 1 )", "a\fb = 1", "a = b\f+ 1", "1\t\f\t2 + 3",
+        "a + \f( 1 )"
+    };
+
+    /**
+     * Tests that the control characters trimmed off are legal.
+     *
+     * @throws java.io.IOException never.
+     */
+    @Test
+    public void testTrimmedControlCharacters()
+        throws IOException
+    {
+        for (Object[] legal : LEGAL)
+        {
+            String expression = (String) legal[ 0 ];
+            assertEquals( expression, (Double) legal[ 1 ], new SimpleCalculator().evaluate( expression ), 0.0 );
+            SimpleCalculator calculator = new SimpleCalculator();
+            assertEquals( expression, (Double) legal[ 1 ], calculator.evaluate( calculator.compile( new StringReader( expression ) ) ), 0.0 );
+        }
+    }
+
+    /**
+     * Tests that the control characters not trimmed off are illegal.
+     */
+    @Test
+    public void testEmbeddedControlCharacters()
+    {
+        for (String expression : ILLEGAL)
+        {
+            assertNotNull( expression, new SimpleCalculator().tryEvaluate( expression ) );
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package simplecalculator;
+
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * This (public) class represents the tests that an expression evaluated in parallel gives the value computed sequentially.
+ *
+ * The expressions are long chains (left-deep and right-deep), wide sums and random
+ * balanced trees, all much larger than the (small) cutoff, so they are split into
+ * many subtrees evaluated by several threads. Their operands include NaN, the
+ * infinities and the signed zeros, and the value must have the bits of the value
+ * computed by the interpreter (but for the sign of NaN, on which the hardware and the
+ * JIT compiler do not agree).
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public class ParallelEvaluatorTest
+{
+    /** The parallel evaluator. */
+    private static ParallelEvaluator parallelEvaluator;
+
+    /** The number of the threads of the evaluator. */
+    private static final int THREADS_COUNT = 4;
+
+    /** The cutoff of the evaluator. */
+    private static final int CUTOFF = 8;
+
+    /** The variables (and their values). */
+    private static final Object[][] VARIABLES = {
+        { "x", 1.5 }, { "y", -0.0 }, { "z", Double.POSITIVE_INFINITY }, { "w", 1e308 }, { "v", 3.0 }, { "u", Double.NaN }
+    };
+
+    /** The operands (besides the variables). */
+    private static final String[] OPERANDS = { "0", "- 0", "1", "0.1", "2", "Infinity", "- Infinity", "NaN", "1e-320" };
+
+    /** The operators. */
+    private static final String[] OPERATORS = { "+", "-", "*", "/" };
+
+    /** The number of the random trees. */
+    private static final int TREES_COUNT = 50;
+
+    /**
+     * Creates the parallel evaluator.
+     */
+    @BeforeClass
+    public static void setUpClass()
+    {
+        parallelEvaluator = new ParallelEvaluator( THREADS_COUNT, CUTOFF );
+    }
+
+    /**
+     * Closes the parallel evaluator.
+     */
+    @AfterClass
+    public static void tearDownClass()
+    {
+        parallelEvaluator.close();
+    }
+
+    /**
+     * Tests long left-deep chains (e.g. long sums, split into their terms).
+     */
+    @Test
+    public void testLeftDeepChains()
+    {
+        Random random = new Random( 22 );
+        for (int length : new int[] { 100, 1000, 5000 })
+        {
+            StringBuilder expression = new StringBuilder( randomOperand( random ) );
+            for (int i = 0; i < length; i++)
+            {
+                expression.append( ' ' ).append( OPERATORS[ random.nextInt( OPERATORS.length ) ] ).append( ' ' )
+                    .append( randomOperand( random ) );
+            }
+            assertSameAsSequential( expression.toString() );
+        }
+    }
+
+    /**
+     * Tests long right-deep chains (nested parentheses).
+     */
+    @Test
+    public void testRightDeepChains()
+    {
+        Random random = new Random( 220 );
+        for (int length : new int[] { 100, 1000, 3000 })
+        {
+            StringBuilder expression = new StringBuilder();
+            for (int i = 0; i < length; i++)
+            {
+                expression.append( randomOperand( random ) ).append( ' ' )
+                    .append( OPERATORS[ random.nextInt( OPERATORS.length ) ] ).append( " ( " );
+            }
+            expression.append( randomOperand( random ) );
+            for (int i = 0; i < length; i++)
+            {
+                expression.append( " )" );
+            }
+            assertSameAsSequential( expression.toString() );
+        }
+    }
+
+    /**
+     * Tests wide sums of products (with the signed zeros and the infinities cancelling out).
+     */
+    @Test
+    public void testWideSums()
+    {
+        Random random = new Random( 2200 );
+        StringBuilder expression = new StringBuilder( "0" );
+        for (int i = 0; i < 2000; i++)
+        {
+            expression.append( (random.nextBoolean()) ? " + " : " - " ).append( randomOperand( random ) ).append( " * " )
+                .append( randomOperand( random ) );
+        }
+        assertSameAsSequential( expression.toString() );
+        assertSameAsSequential( "a = " + expression );
+    }
+
+    /**
+     * Tests random balanced trees.
+     */
+    @Test
+    public void testBalancedTrees()
+    {
+        Random random = new Random( 22000 );
+        for (int i = 0; i < TREES_COUNT; i++)
+        {
+            assertSameAsSequential( randomTree( random, 4 + random.nextInt( 8 ) ) );
+        }
+    }
+
+    /**
+     * Asserts that evaluating the expression in parallel gives the bits of its sequential value.
+     *
+     * @param expression the expression.
+     */
+    private static void assertSameAsSequential( String expression )
+    {
+        SimpleCalculator sequentialCalculator = newCalculator();
+        SimpleCalculator parallelCalculator = newCalculator();
+        parallelCalculator.setParallelEvaluator( parallelEvaluator );
+
+        double sequentialValue = sequentialCalculator.evaluate( expression );
+        String shortExpression = (expression.length() > 100) ? expression.substring( 0, 100 ) + "..." : expression;
+        // Twice: the second evaluation reuses the split.
+        for (int i = 0; i < 2; i++)
+        {
+            assertEquals( shortExpression, Double.doubleToLongBits( sequentialValue ),
+                Double.doubleToLongBits( parallelCalculator.evaluate( expression ) ) );
+        }
+    }
+
+    /**
+     * Creates a calculator interpreting the expressions as written (neither optimized nor translated into bytecode).
+     *
+     * @return the calculator.
+     */
+    private static SimpleCalculator newCalculator()
+    {
+        SimpleCalculator calculator = new SimpleCalculator();
+        calculator.setOptimizing( false );
+        calculator.setCompilationThreshold( 0 );
+        for (Object[] variable : VARIABLES)
+        {
+            calculator.setVariable( (String) variable[ 0 ], (Double) variable[ 1 ] );
+        }
+        return calculator;
+    }
+
+    /**
+     * Creates a random balanced tree.
+     *
+     * @param random the random number generator.
+     * @param depth the depth of the tree.
+     *
+     * @return the tree (an expression).
+     */
+    private static String randomTree( Random random, int depth )
+    {
+        if (depth == 0)
+        {
+            return randomOperand( random );
+        }
+        return "( " + randomTree( random, depth - 1 ) + " " + OPERATORS[ random.nextInt( OPERATORS.length ) ] + " "
+            + randomTree( random, depth - 1 ) + " )";
+    }
+
+    /**
+     * Chooses a random operand (a variable half of the time).
+     *
+     * @param random the random number generator.
+     *
+     * @return the operand.
+     */
+    private static String randomOperand( Random random )
+    {
+        return (random.nextBoolean())
+            ? (String) VARIABLES[ random.nextInt( VARIABLES.length ) ][ 0 ]
+            : OPERANDS[ random.nextInt( OPERANDS.length ) ];
+    }
+}
@@ -0,0 +1,112 @@
+package simplecalculator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * This (public) class represents the tests of the writer of the results of the expressions.
+ *
+ * The output of the writer is compared byte for byte with the output of a print
+ * stream receiving the same calls.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public class ResultWriterTest
+{
+    /** The doubles written (besides the random ones). */
+    private static final double[] VALUES = {
+        Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 0.0, -0.0,
+        Double.MIN_VALUE, Double.longBitsToDouble( 0x0010000000000000L ) /* the smallest normal */, Double.MAX_VALUE,
+        1.0e23, 9007199254740993.0,
+        1.0e-3, 1.0e7, 9999999.999999998, 0.1, 1.0 / 3, -42.0, 3.0
+    };
+
+    /**
+     * Tests that the results are written exactly as a print stream prints them.
+     */
+    @Test
+    public void testPrintlnMatchesPrintStream()
+    {
+        // The smallest buffers make the writer write its blocks at many different positions of the lines.
+        int minBufferSize = DoubleFormatter.MAX_LENGTH + System.getProperty( "line.separator" ).length();
+        int[] bufferSizes = { minBufferSize, minBufferSize + 7, 64, 8192 };
+        for (int bufferSize : bufferSizes)
+        {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            PrintStream printStream = new PrintStream( expected );
+            ResultWriter resultWriter = new ResultWriter( actual, bufferSize );
+
+            Random random = new Random( bufferSize );
+            for (int i = 0; i < 20000; i++)
+            {
+                double value = (i < VALUES.length) ? VALUES[ i ] : Double.longBitsToDouble( random.nextLong() );
+                printStream.println( value );
+                resultWriter.println( value );
+                if (i % 1000 == 0)
+                {
+                    printStream.println( "CHYBA" );
+                    resultWriter.println( "CHYBA" );
+                }
+            }
+            printStream.flush();
+            resultWriter.flush();
+
+            assertFalse( resultWriter.checkError() );
+            assertTrue( "buffer size " + bufferSize, Arrays.equals( expected.toByteArray(), actual.toByteArray() ) );
+        }
+    }
+
+    /**
+     * Tests that nothing is written until the buffer is full or flushed.
+     */
+    @Test
+    public void testBuffering()
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ResultWriter resultWriter = new ResultWriter( output, 8192 );
+        resultWriter.println( 1.5 );
+        assertEquals( 0, output.size() );
+        resultWriter.flush();
+        assertEquals( "1.5" + System.getProperty( "line.separator" ), output.toString() );
+    }
+
+    /**
+     * Tests that a buffer too small to hold a result is rejected.
+     */
+    @Test( expected = IllegalArgumentException.class )
+    public void testTooSmallBuffer()
+    {
+        new ResultWriter( new ByteArrayOutputStream(), DoubleFormatter.MAX_LENGTH - 1 );
+    }
+
+    /**
+     * Tests that an I/O exception is remembered rather than thrown.
+     */
+    @Test
+    public void testError()
+    {
+        ResultWriter resultWriter = new ResultWriter( new OutputStream()
+        {
+            @Override
+            public void write( int b )
+                throws IOException
+            {
+                throw new IOException();
+            }
+        }, 64 );
+        for (int i = 0; i < 100; i++)
+        {
+            resultWriter.println( i );
+        }
+        resultWriter.flush();
+        assertTrue( resultWriter.checkError() );
+    }
+}
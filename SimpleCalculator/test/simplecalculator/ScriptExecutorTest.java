@@ -0,0 +1,222 @@
+package simplecalculator;
+
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * This (public) class represents the tests that a script executed in parallel gives the results of its serial execution.
+ *
+ * The scripts assign and read a handful of variables, so their lines depend on one
+ * another in every way (read after write, write after write and write after read);
+ * some of them call a function failing for large arguments. Every script is executed
+ * by the executor and line by line by a calculator, and the values of the lines, the
+ * failure (if any) and the final values of the variables must be the same (bit for
+ * bit, but for the sign of NaN: the hardware and the JIT compiler do not agree on it).
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public class ScriptExecutorTest
+{
+    /** The executor. */
+    private static ScriptExecutor scriptExecutor;
+
+    /** The name of the function failing for large arguments. */
+    private static final String FAILING_FUNCTION = "script_check";
+
+    /** The argument above which the function fails. */
+    private static final double FAILING_ARGUMENT = 1000.0;
+
+    /** The number of the threads of the executor. */
+    private static final int THREADS_COUNT = 4;
+
+    /** The variables of the scripts. */
+    private static final String[] VARIABLES = { "a", "b", "c", "d", "e" };
+
+    /** The operands of the scripts (besides the variables). */
+    private static final String[] OPERANDS = { "0", "- 0", "1", "2", "0.5", "3", "Infinity", "NaN" };
+
+    /** The operators of the scripts. */
+    private static final String[] OPERATORS = { "+", "-", "*", "/" };
+
+    /** The number of the random scripts. */
+    private static final int SCRIPTS_COUNT = 300;
+
+    /** The number of the lines of a random script. */
+    private static final int LINES_COUNT = 60;
+
+    /**
+     * Registers the failing function and creates the executor.
+     */
+    @BeforeClass
+    public static void setUpClass()
+    {
+        if (!FunctionRegistry.isRegistered( FAILING_FUNCTION ))
+        {
+            FunctionRegistry.register( FAILING_FUNCTION, new UnaryFunction()
+            {
+                public double apply( double x )
+                {
+                    if (x > FAILING_ARGUMENT)
+                    {
+                        throw new ArithmeticException( "too large" );
+                    }
+                    return x;
+                }
+            } );
+        }
+        scriptExecutor = new ScriptExecutor( THREADS_COUNT );
+    }
+
+    /**
+     * Closes the executor.
+     */
+    @AfterClass
+    public static void tearDownClass()
+    {
+        scriptExecutor.close();
+    }
+
+    /**
+     * Tests a script with every kind of dependence between its lines.
+     */
+    @Test
+    public void testDependences()
+    {
+        assertSameAsSerial( new String[] {
+            "a = 1", "b = a + 1", "c = b * 2", // read after write
+            "d = 10", "d = c + 1", // write after write
+            "e = a * 3", "a = 7", // write after read
+            "b = b + a", "c = e - d", "a + b + c + d + e"
+        } );
+    }
+
+    /**
+     * Tests a script failing in the middle (the independent lines following the failing one are not executed).
+     */
+    @Test
+    public void testFailingFunction()
+    {
+        assertSameAsSerial( new String[] {
+            "a = 500", "b = a * 2", "e = 5", "c = " + FAILING_FUNCTION + "( b )", "d = 6", "a = a + 1",
+            "c = " + FAILING_FUNCTION + "( b + 1 )", "e = 7", "d = 8"
+        } );
+    }
+
+    /**
+     * Tests random scripts (with special values, and failing now and then).
+     */
+    @Test
+    public void testRandomScripts()
+    {
+        Random random = new Random( 23 );
+        for (int i = 0; i < SCRIPTS_COUNT; i++)
+        {
+            String[] lines = new String[ LINES_COUNT ];
+            for (int j = 0; j < LINES_COUNT; j++)
+            {
+                String expression = randomOperand( random ) + " " + OPERATORS[ random.nextInt( OPERATORS.length ) ]
+                    + " " + randomOperand( random );
+                if (random.nextInt( 20 ) == 0)
+                {
+                    expression = FAILING_FUNCTION + "( " + expression + " )";
+                }
+                lines[ j ] = (random.nextInt( 4 ) > 0)
+                    ? VARIABLES[ random.nextInt( VARIABLES.length ) ] + " = " + expression
+                    : expression;
+            }
+            assertSameAsSerial( lines );
+        }
+    }
+
+    /**
+     * Asserts that executing the script gives the results of its serial execution.
+     *
+     * @param lines the lines of the script.
+     */
+    private static void assertSameAsSerial( String[] lines )
+    {
+        // The serial execution.
+        SimpleCalculator serialCalculator = new SimpleCalculator();
+        double[] serialResults = new double[ lines.length ];
+        RuntimeException serialFailure = null;
+        int serialCount = 0;
+        try
+        {
+            for (; serialCount < lines.length; serialCount++)
+            {
+                serialResults[ serialCount ] = serialCalculator.evaluate( lines[ serialCount ] );
+            }
+        }
+        catch (RuntimeException ex)
+        {
+            serialFailure = ex;
+        }
+
+        // The parallel execution.
+        SimpleCalculator calculator = new SimpleCalculator();
+        double[] results = new double[ lines.length ];
+        RuntimeException failure = null;
+        try
+        {
+            scriptExecutor.execute( calculator, lines, results );
+        }
+        catch (RuntimeException ex)
+        {
+            failure = ex;
+        }
+
+        String script = join( lines );
+        assertEquals( script, (serialFailure != null) ? serialFailure.getClass() : null,
+            (failure != null) ? failure.getClass() : null );
+        for (int i = 0; i < serialCount; i++)
+        {
+            assertEquals( script + " (line " + i + ")", Double.doubleToLongBits( serialResults[ i ] ),
+                Double.doubleToLongBits( results[ i ] ) );
+        }
+
+        double[] serialValues = new double[ SimpleCalculator.VARIABLES_COUNT ];
+        serialCalculator.getVariables( serialValues );
+        double[] values = new double[ SimpleCalculator.VARIABLES_COUNT ];
+        calculator.getVariables( values );
+        for (int i = 0; i < SimpleCalculator.VARIABLES_COUNT; i++)
+        {
+            assertEquals( script + " (variable " + (char) ('a' + i) + ")", Double.doubleToLongBits( serialValues[ i ] ),
+                Double.doubleToLongBits( values[ i ] ) );
+        }
+    }
+
+    /**
+     * Chooses a random operand (a variable more often than not).
+     *
+     * @param random the random number generator.
+     *
+     * @return the operand.
+     */
+    private static String randomOperand( Random random )
+    {
+        return (random.nextBoolean())
+            ? VARIABLES[ random.nextInt( VARIABLES.length ) ]
+            : OPERANDS[ random.nextInt( OPERANDS.length ) ];
+    }
+
+    /**
+     * Joins the lines of a script (for the messages).
+     *
+     * @param lines the lines.
+     *
+     * @return the lines separated by semicolons.
+     */
+    private static String join( String[] lines )
+    {
+        StringBuilder script = new StringBuilder();
+        for (String line : lines)
+        {
+            script.append( line ).append( "; " );
+        }
+        return script.toString();
+    }
+}
@@ -0,0 +1,360 @@
+package simplecalculator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * This (public) class represents the crash-recovery tests of a journal of variables.
+ *
+ * A crash is simulated by abandoning a journal without closing it: its files are
+ * copied while it is still open (the assignments being in the mapped log), then the
+ * tail of the copied log is torn at every position (truncated or zero-filled from
+ * there) and the journal is reopened. Whatever the tear, the journal must recover
+ * exactly the variables as they were after some prefix of the assignments, and the
+ * longer the intact log, the longer the prefix.
+ *
+ * @author Lukas Kudela (lukas[DOT]kudela[AT]gmail[DOT]com)
+ */
+public class VariableJournalTest
+{
+    /** The temporary folder holding the directories of the journals. */
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /** The names of the variables assigned. */
+    private static final String[] NAMES = {
+        "journal_a", "journal_b", "journal_c", "journal_d", "journal_e",
+        "journal_f", "journal_g", "journal_h", "journal_i", "journal_j"
+    };
+
+    /** The number of the assignments (enough to fill the first log and checkpoint the variables once). */
+    private static final int ASSIGNMENTS_COUNT = 300;
+
+    /** The name of the snapshot file. */
+    private static final String SNAPSHOT_FILE_NAME = "snapshot";
+
+    /** The prefix of the name of a log file. */
+    private static final String LOG_FILE_PREFIX = "log-";
+
+    /** The name of the file locking the directory. */
+    private static final String LOCK_FILE_NAME = "lock";
+
+    /**
+     * Tests that a journal recovers a prefix of the assignments from a log truncated at any position.
+     *
+     * @throws java.io.IOException if a file cannot be read or written.
+     */
+    @Test
+    public void testTruncatedLog()
+        throws IOException
+    {
+        assertRecoversPrefixes( false );
+    }
+
+    /**
+     * Tests that a journal recovers a prefix of the assignments from a log zero-filled from any position.
+     *
+     * @throws java.io.IOException if a file cannot be read or written.
+     */
+    @Test
+    public void testZeroFilledLog()
+        throws IOException
+    {
+        assertRecoversPrefixes( true );
+    }
+
+    /**
+     * Tests that a snapshot with a bad checksum (any byte of it flipped) or truncated is rejected.
+     *
+     * @throws java.io.IOException if a file cannot be read or written.
+     */
+    @Test
+    public void testCorruptSnapshot()
+        throws IOException
+    {
+        File directory = temporaryFolder.newFolder( "closed" );
+        VariableJournal journal = VariableJournal.open( directory, VariableJournal.MIN_LOG_CAPACITY );
+        for (int i = 0; i < NAMES.length; i++)
+        {
+            journal.logAssignment( SymbolTable.getSlot( NAMES[ i ] ), getValue( i ) );
+        }
+        journal.close();
+        byte[] snapshot = readFile( new File( directory, SNAPSHOT_FILE_NAME ) );
+
+        // The intact snapshot holds all the variables (the logs having been deleted).
+        File intactDirectory = copyDirectory( directory, "intact" );
+        assertEquals( 1, intactDirectory.list().length );
+        assertEquals( NAMES.length, getPrefix( recover( intactDirectory ) ) );
+
+        for (int position = 0; position < snapshot.length; position++)
+        {
+            File corruptDirectory = copyDirectory( directory, "flipped-" + position );
+            RandomAccessFile file = new RandomAccessFile( new File( corruptDirectory, SNAPSHOT_FILE_NAME ), "rw" );
+            try
+            {
+                file.seek( position );
+                file.write( snapshot[ position ] ^ 0x01 );
+            }
+            finally
+            {
+                file.close();
+            }
+            assertRejected( corruptDirectory );
+        }
+
+        File truncatedDirectory = copyDirectory( directory, "truncated" );
+        RandomAccessFile file = new RandomAccessFile( new File( truncatedDirectory, SNAPSHOT_FILE_NAME ), "rw" );
+        try
+        {
+            file.setLength( snapshot.length / 2 );
+        }
+        finally
+        {
+            file.close();
+        }
+        assertRejected( truncatedDirectory );
+    }
+
+    /**
+     * Asserts that a journal abandoned after the assignments recovers a prefix of them, whatever the tear of its log.
+     *
+     * @param zeroFilled <c>true</c> to zero-fill the tail of the log, <c>false</c> to truncate it.
+     *
+     * @throws java.io.IOException if a file cannot be read or written.
+     */
+    private void assertRecoversPrefixes( boolean zeroFilled )
+        throws IOException
+    {
+        // Make the assignments and abandon the journal (as if the process crashed).
+        File directory = temporaryFolder.newFolder( "abandoned" );
+        VariableJournal journal = VariableJournal.open( directory, VariableJournal.MIN_LOG_CAPACITY );
+        for (int i = 0; i < ASSIGNMENTS_COUNT; i++)
+        {
+            journal.logAssignment( SymbolTable.getSlot( NAMES[ i % NAMES.length ] ), getValue( i ) );
+        }
+        File crashedDirectory = copyDirectory( directory, "crashed" );
+
+        String logFileName = null;
+        for (String fileName : crashedDirectory.list())
+        {
+            if (fileName.startsWith( LOG_FILE_PREFIX ))
+            {
+                assertNull( "one log only", logFileName );
+                logFileName = fileName;
+            }
+        }
+        assertNotNull( logFileName );
+        byte[] log = readFile( new File( crashedDirectory, logFileName ) );
+        int usedLength = log.length;
+        while (usedLength > 0 && log[ usedLength - 1 ] == 0)
+        {
+            usedLength--;
+        }
+
+        // The intact log recovers all the assignments.
+        assertEquals( ASSIGNMENTS_COUNT, getPrefix( recover( copyDirectory( crashedDirectory, "intact" ) ) ) );
+
+        // Tear the log at every position up to its used length (the last check may end with zeros).
+        int lastPrefix = -1;
+        int firstPrefix = -1;
+        for (int length = 0; length <= Math.min( usedLength + 8, log.length ); length++)
+        {
+            File tornDirectory = copyDirectory( crashedDirectory, "torn-" + length );
+            RandomAccessFile file = new RandomAccessFile( new File( tornDirectory, logFileName ), "rw" );
+            try
+            {
+                if (zeroFilled)
+                {
+                    file.seek( length );
+                    file.write( new byte[ log.length - length ] );
+                }
+                else
+                {
+                    file.setLength( length );
+                }
+            }
+            finally
+            {
+                file.close();
+            }
+
+            int prefix = getPrefix( recover( tornDirectory ) );
+            assertTrue( "not a prefix of the assignments (log torn at " + length + ")", prefix >= 0 );
+            assertTrue( "a shorter prefix from a longer log (log torn at " + length + ")", prefix >= lastPrefix );
+            if (firstPrefix < 0)
+            {
+                firstPrefix = prefix;
+            }
+            lastPrefix = prefix;
+        }
+
+        // The first log was checkpointed, so even a torn log leaves the snapshot's assignments.
+        assertTrue( firstPrefix > 0 );
+        assertEquals( ASSIGNMENTS_COUNT, lastPrefix );
+    }
+
+    /**
+     * Asserts that the journal in the directory cannot be opened.
+     *
+     * @param directory the directory of the journal.
+     */
+    private static void assertRejected( File directory )
+    {
+        try
+        {
+            VariableJournal.open( directory, VariableJournal.MIN_LOG_CAPACITY ).close();
+            fail( "corrupt snapshot accepted in " + directory );
+        }
+        catch (IOException ex)
+        {
+            // The snapshot is rejected.
+        }
+    }
+
+    /**
+     * Opens the journal in the directory, gets the variables recovered and closes it.
+     *
+     * @param directory the directory of the journal.
+     *
+     * @return the values of the variables (indexed like the names).
+     *
+     * @throws java.io.IOException if the variables cannot be recovered.
+     */
+    private static double[] recover( File directory )
+        throws IOException
+    {
+        VariableJournal journal = VariableJournal.open( directory, VariableJournal.MIN_LOG_CAPACITY );
+        try
+        {
+            double[] values = new double[ Math.max( journal.getSlotsCount(), SymbolTable.getSymbolsCount() ) ];
+            journal.getValues( values );
+            double[] state = new double[ NAMES.length ];
+            for (int i = 0; i < NAMES.length; i++)
+            {
+                state[ i ] = values[ SymbolTable.getSlot( NAMES[ i ] ) ];
+            }
+            return state;
+        }
+        finally
+        {
+            journal.close();
+        }
+    }
+
+    /**
+     * Gets the number of the first assignments leaving the variables in the state.
+     *
+     * @param state the values of the variables (indexed like the names).
+     *
+     * @return the number of the assignments, or -1 if no prefix of the assignments leaves the variables in the state.
+     */
+    private static int getPrefix( double[] state )
+    {
+        for (int prefix = 0; prefix <= ASSIGNMENTS_COUNT; prefix++)
+        {
+            double[] prefixState = getState( prefix );
+            boolean equal = true;
+            for (int i = 0; i < NAMES.length; i++)
+            {
+                equal &= Double.doubleToRawLongBits( state[ i ] ) == Double.doubleToRawLongBits( prefixState[ i ] );
+            }
+            if (equal)
+            {
+                return prefix;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the values of the variables after the first assignments.
+     *
+     * @param prefix the number of the assignments.
+     *
+     * @return the values of the variables (indexed like the names).
+     */
+    private static double[] getState( int prefix )
+    {
+        double[] state = new double[ NAMES.length ];
+        for (int i = 0; i < prefix; i++)
+        {
+            state[ i % NAMES.length ] = getValue( i );
+        }
+        return state;
+    }
+
+    /**
+     * Gets the value of the assignment (every assignment has a distinct value, never zero).
+     *
+     * @param assignment the index of the assignment.
+     *
+     * @return the value.
+     */
+    private static double getValue( int assignment )
+    {
+        return (assignment % 2 == 0) ? assignment + 0.25 : -1.0 / (assignment + 1);
+    }
+
+    /**
+     * Copies the files of the journal in the directory (but the lock) into a new directory.
+     *
+     * @param directory the directory of the journal.
+     * @param name the name of the new directory (in the temporary folder).
+     *
+     * @return the new directory.
+     *
+     * @throws java.io.IOException if a file cannot be read or written.
+     */
+    private File copyDirectory( File directory, String name )
+        throws IOException
+    {
+        File copy = temporaryFolder.newFolder( name );
+        for (File file : directory.listFiles())
+        {
+            if (!file.getName().equals( LOCK_FILE_NAME ))
+            {
+                RandomAccessFile copyFile = new RandomAccessFile( new File( copy, file.getName() ), "rw" );
+                try
+                {
+                    copyFile.write( readFile( file ) );
+                }
+                finally
+                {
+                    copyFile.close();
+                }
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Reads the file.
+     *
+     * @param file the file.
+     *
+     * @return the bytes of the file.
+     *
+     * @throws java.io.IOException if the file cannot be read.
+     */
+    private static byte[] readFile( File file )
+        throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile( file, "r" );
+        try
+        {
+            byte[] bytes = new byte[ (int) randomAccessFile.length() ];
+            randomAccessFile.readFully( bytes );
+            return bytes;
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+    }
+}